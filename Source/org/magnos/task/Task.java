@@ -103,6 +103,30 @@ public abstract class Task<R> implements TaskEventHandler, TaskListener<R>, Runn
 	// The maximum time the sync method will wait for a result.
 	private long timeout = Long.MAX_VALUE;
 	
+	// The time in nanoseconds this task was last given to its handler.
+	private volatile long waitStart;
+	
+	// The policy which executes this task again on failure, if any.
+	private volatile TaskRetry retry;
+	
+	// The number of times this task has executed since it was last reset.
+	private volatile int attempts;
+	
+	// Whether this task is waiting for the delay before its next attempt.
+	private volatile boolean delayed;
+	
+	// The priority of this task, handlers may favor higher priorities.
+	private volatile int priority;
+	
+	// The scope executing this task, if any.
+	private volatile TaskScope scope;
+	
+	// Whether an execution has begun and not been completed, the recording
+	// of it, and the listener to notify of it. Guarded by the state.
+	private boolean executing;
+	private TaskRecorder.ExecuteEvent recording;
+	private TaskListener<R> notified;
+	
 	
 	/**
 	 * Instantiates a new Task which executes in the invoking thread.
@@ -136,6 +160,8 @@ public abstract class Task<R> implements TaskEventHandler, TaskListener<R>, Runn
 	 * Executes this task, waits for it to finish, and returns the result. If
 	 * the task is already currently running this will wait for it to finish. If
 	 * the task has already finished the result will be returned immediately.
+	 * If this is invoked by a worker of the task's handler and the task is 
+	 * still waiting, the task is executed in the invoking thread instead.
 	 * 
 	 * @return
 	 * 		The result of the Task.
@@ -149,9 +175,14 @@ public abstract class Task<R> implements TaskEventHandler, TaskListener<R>, Runn
 				// State is waiting until execute method is called.
 				state.set(Waiting);
 				listener = this;
-				handler.addEvent(this);
+				submit(handler);
 			}
-			
+		}
+		
+		help();
+		
+		synchronized (state) 
+		{
 			// If the task is currently running, wait for it to finish
 			if (state.has(Waiting | Running)) 
 			{
@@ -160,6 +191,7 @@ public abstract class Task<R> implements TaskEventHandler, TaskListener<R>, Runn
 					// It has timed out, notify listener.
 					setResult(null);
 					state.set(Finished | TimedOut);
+					TaskRecorder.timeout(this);
 					listener.onTaskTimeout(this);
 					listener.onTaskFinish(this);
 				}
@@ -174,6 +206,9 @@ public abstract class Task<R> implements TaskEventHandler, TaskListener<R>, Runn
 	 * The task can only be executed asynchronously if it has not been executed
 	 * yet or it has been reset (i.e. its not waiting, running, or finished).
 	 * 
+	 * If the handler doesn't accept the task it is canceled, and the listener
+	 * is notified, with a TaskRejectedException as its error.
+	 * 
 	 * @param async
 	 * 		The listener to the events of the task.
 	 * @return
@@ -181,18 +216,27 @@ public abstract class Task<R> implements TaskEventHandler, TaskListener<R>, Runn
 	 */
 	public boolean async(TaskListener<R> async) 
 	{
+		boolean accepted = true;
+		
 		synchronized (state) 
 		{
 			// If the task hasn't started, start it.
 			boolean runnable = state.equals(Initialized); 
-			if (runnable) {
-				// State is waiting until execute method is called.
-				state.set(Waiting);
-				listener = async;
-				handler.addEvent(this);
+			if (!runnable) {
+				return false;
 			}
-			return runnable;
+			// State is waiting until execute method is called.
+			state.set(Waiting);
+			listener = async;
+			accepted = submit(handler);
 		}
+		
+		// A handler which rejects a task may have canceled it already.
+		if (!accepted) {
+			cancel(new TaskRejectedException("The handler did not accept the task"));
+		}
+		
+		return true;
 	}
 	
 	/**
@@ -208,68 +252,255 @@ public abstract class Task<R> implements TaskEventHandler, TaskListener<R>, Runn
 		return async(this);
 	}
 
+	/**
+	 * Moves this task to the Waiting state without giving it to its handler,
+	 * whoever prepared it is responsible for running it. The listener is this
+	 * task.
+	 * 
+	 * @return
+	 * 		True if the task was prepared, false if it has already been started.
+	 */
+	boolean prepare()
+	{
+		synchronized (state) 
+		{
+			boolean preparable = state.equals(Initialized);
+			if (preparable) {
+				state.set(Waiting);
+				listener = this;
+				waitStart = System.nanoTime();
+			}
+			return preparable;
+		}
+	}
+
 	/**
 	 * Performs the actual execution of the task. This is called by the handler.
 	 */
 	@Override
 	public void run() 
 	{
-		// Acquire the state, if it has been timed out or has been cancelled
-		// then exit this method. Else set the state to Running.
+		// Acquire the state, if it has already run, been timed out, or been 
+		// cancelled then exit this method. Else set the state to Running.
+		if (!begin()) {
+			return;
+		}
+		
+		R value = null;
+		Throwable failure = null;
+		
+		// Try execution
+		try {
+			value = execute();
+		}
+		catch (Throwable e) {
+			failure = e;
+		}
+		
+		complete(value, failure);
+	}
+	
+	/**
+	 * Cancels this Task if it is currently in the waiting state. This will also
+	 * immediately notify the listener if the task can be canceled.
+	 * 
+	 * @return
+	 * 		True if the task has been canceled, otherwise false.
+	 */
+	public boolean cancel() 
+	{
+		return cancel(null);
+	}
+	
+	/**
+	 * Cancels this Task if it is currently in the waiting state, giving the 
+	 * reason it was canceled. The cause is returned by getError once the task
+	 * has been canceled, including while the listener is notified.
+	 * 
+	 * @param cause
+	 * 		Why the task was canceled, or null.
+	 * @return
+	 * 		True if the task has been canceled, otherwise false.
+	 */
+	public boolean cancel(Throwable cause) 
+	{
+		boolean cancellable = false;
 		synchronized (state) {
-			if (state.has(TimedOut | Canceled)) {
-				return;
+			if (state.has(Waiting)) {
+				setError(cause);
+				state.set(Finished | Canceled);
+				cancellable = true;
 			}
-			state.set(Running);
 		}
+		if (cancellable) {
+			// Let the handler stop any work it started for this task.
+			if (handler instanceof TaskCancelHandler) {
+				((TaskCancelHandler)handler).cancelEvent(this);
+			}
+			TaskRecorder.cancel(this);
+			listener.onTaskCancel(this);
+			listener.onTaskFinish(this);
+		}
+		return cancellable;
+	}
+	
+	/**
+	 * Times out this Task if it is currently in the waiting state, so it 
+	 * finishes as TimedOut without being executed. This is used by handlers
+	 * which know the task can no longer finish in time. This will also 
+	 * immediately notify the listener if the task can be expired.
+	 * 
+	 * @return
+	 * 		True if the task has been timed out, otherwise false.
+	 */
+	public boolean expire() 
+	{
+		boolean expirable = false;
+		synchronized (state) {
+			if (state.has(Waiting)) {
+				setResult(null);
+				state.set(Finished | TimedOut);
+				expirable = true;
+			}
+		}
+		if (expirable) {
+			TaskRecorder.timeout(this);
+			listener.onTaskTimeout(this);
+			listener.onTaskFinish(this);
+		}
+		return expirable;
+	}
+	
+	/**
+	 * Finishes the execution of this Task with the given outcome. This is how
+	 * run finishes an execution and how an outcome determined elsewhere (for
+	 * example by another JVM or an I/O completion) finishes one, so either way
+	 * the outcome goes through the retry policy, the recorder, and the 
+	 * listener (on the callback service of the worker which began it). A task
+	 * still waiting begins its execution here. Only the first outcome of an
+	 * execution is used.
+	 * 
+	 * @param result
+	 * 		The result of the task, ignored if there is an error.
+	 * @param error
+	 * 		The error of the task, or null if it was successful.
+	 * @return
+	 * 		True if the task has been completed (or will be attempted again), 
+	 * 		false if the execution was already completed, timed out, or never
+	 * 		began.
+	 */
+	@SuppressWarnings("unchecked")
+	boolean complete(Object result, Throwable error) 
+	{
+		TaskListener<R> notified;
+		TaskRecorder.ExecuteEvent recording;
+		
+		synchronized (state) {
+			if (state.has(Waiting) && !begin()) {
+				return false;
+			}
+			if (!executing) {
+				return false;
+			}
+			notified = this.notified;
+			recording = this.recording;
+			this.executing = false;
+			this.notified = null;
+			this.recording = null;
+		}
+		
+		TaskRetry r = retry;
+		
+		// Whether this execution failed and will be attempted again.
+		boolean retried = false;
 		
-		// Try execution
 		try 
 		{
-			setResult(execute());
-
-			// If this task has not timed out...
-			if (!state.has(TimedOut)) {
-				// If executing was error free update the state and notify the listener.
-				state.set(Finished | Success);
-				listener.onTaskSuccess(this, result);
+			if (error == null) {
+				try {
+					setResult((R)result);
+					
+					// If this task has not timed out...
+					if (!state.has(TimedOut)) {
+						// If executing was error free update the state and notify the listener.
+						if (r != null) {
+							r.onOutcome(true, attempts);
+						}
+						state.set(Finished | Success);
+						notified.onTaskSuccess(this, this.result);
+					}
+				}
+				catch (Throwable e) {
+					// A listener which throws fails the task like execute would.
+					error = e;
+				}
 			}
-		} 
-		catch (Throwable error) 
-		{
-			// If this task has not timed out...
-			if (!state.has(TimedOut)) {
-				// An error has occurred, update the state and notify the listener.
-				setError(error);
-				state.set(Finished | Error);
-				listener.onTaskError(this, error);
+			
+			if (error != null) {
+				// If the error can be retried and this task has not timed out, it
+				// waits for its next attempt without notifying the listener. A task
+				// without a handler would be executed again by the retry's timer.
+				if (r != null && handler != this && r.isRetryable(error, attempts) && state.cas(Running, Waiting)) {
+					retried = true;
+					delayed = true;
+					r.retry(this, attempts);
+				}
+				// If this task has not timed out...
+				else if (!state.has(TimedOut)) {
+					// An error has occurred, update the state and notify the listener.
+					setError(error);
+					if (r != null) {
+						r.onOutcome(false, attempts);
+					}
+					state.set(Finished | Error);
+					notified.onTaskError(this, error);
+				}
 			}
 		}
 		finally 
 		{
-			// If this task has not timed out...
-			if (!state.has(TimedOut)) {
+			TaskRecorder.finish(recording, this);
+			
+			// If this task has not timed out or been retried...
+			if (!retried && !state.has(TimedOut)) {
 				// Finally invoke the finished event.
-				listener.onTaskFinish(this);
+				notified.onTaskFinish(this);
 			}
 		}
+		
+		return (retried || !state.has(TimedOut));
 	}
 	
 	/**
-	 * Cancels this Task if it is currently in the waiting state. This will also
-	 * immediately notify the listener if the task can be canceled.
+	 * Moves this Task to the Running state without executing it, whoever began
+	 * it is responsible for completing it. The execution is recorded and the 
+	 * listener to notify is chosen here, in the thread which began it.
 	 * 
 	 * @return
-	 * 		True if the task has been canceled, otherwise false.
+	 * 		True if the task began, false if it has already run, been timed out,
+	 * 		or been canceled.
 	 */
-	public boolean cancel() 
+	boolean begin() 
 	{
-		boolean cancellable = state.cas(Waiting, Finished | Canceled);
-		if (cancellable) {
-			listener.onTaskCancel(this);
-			listener.onTaskFinish(this);
+		synchronized (state) {
+			if (!state.has(Initialized | Waiting)) {
+				return false;
+			}
+			state.set(Running);
+			attempts++;
+			
+			TaskRetry r = retry;
+			if (r != null) {
+				r.onAttempt();
+			}
+			
+			recording = TaskRecorder.start(this);
+			
+			// The listener to notify, which may defer to a callback service.
+			notified = getNotified();
+			executing = true;
 		}
-		return cancellable;
+		return true;
 	}
 	
 	/**
@@ -283,8 +514,15 @@ public abstract class Task<R> implements TaskEventHandler, TaskListener<R>, Runn
 	{
 		boolean resetable = state.cas(Finished, Initialized);
 		if (resetable) {
+			synchronized (state) {
+				// An execution which timed out is never completed.
+				executing = false;
+				notified = null;
+				recording = null;
+			}
 			setError(null);
 			setResult(null);
+			attempts = 0;
 		}
 		return resetable;
 	}
@@ -292,20 +530,26 @@ public abstract class Task<R> implements TaskEventHandler, TaskListener<R>, Runn
 	/**
 	 * Waits for this task to finish. If this task has already finished this 
 	 * will return immediately. This may fail and return false if the current
-	 * thread is interrupted while its waiting.
+	 * thread is interrupted while its waiting. If this is invoked by a worker
+	 * of the task's handler and the task is still waiting, the task is 
+	 * executed in the invoking thread instead.
 	 * 
 	 * @return
 	 * 		True if the task has finished, otherwise false. 
 	 */
 	public boolean join() 
 	{
+		help();
+		
 		return state.waitFor(Finished);
 	}
 	
 	/**
 	 * Waits for this task to finish. If this task has already finished this
 	 * will return immediately. This may fail if the current thread is 
-	 * interrupted or the wait times out, which will return false.
+	 * interrupted or the wait times out, which will return false. If this is
+	 * invoked by a worker of the task's handler and the task is still waiting,
+	 * the task is executed in the invoking thread instead.
 	 * 
 	 * @param timeout
 	 * 		The maximum amount of time in milliseconds to wait to finish.
@@ -314,6 +558,8 @@ public abstract class Task<R> implements TaskEventHandler, TaskListener<R>, Runn
 	 */
 	public boolean join(long timeout)
 	{
+		help();
+		
 		return state.waitFor(Finished, timeout);
 	}
 	
@@ -394,6 +640,50 @@ public abstract class Task<R> implements TaskEventHandler, TaskListener<R>, Runn
 		return true;
 	}
 	
+	/**
+	 * Gives this task to the given handler marking the time it started waiting.
+	 * 
+	 * @param handler
+	 * 		The handler to execute this task.
+	 * @return
+	 * 		True if the handler accepted this task, otherwise false.
+	 */
+	boolean submit(TaskEventHandler handler)
+	{
+		waitStart = System.nanoTime();
+		delayed = false;
+		TaskRecorder.enqueue(this, handler);
+		return handler.addEvent(this);
+	}
+	
+	/**
+	 * If the current thread is a worker of this task's handler and this task
+	 * is still waiting to be executed, this task is executed by the current 
+	 * thread. Waiting for the handler to execute it would block the worker 
+	 * the task is queued behind, and on a single worker it would never run.
+	 */
+	private void help()
+	{
+		TaskService worker = TaskService.getCurrent();
+		
+		if (worker != null && !delayed && state.equals(Waiting) && worker.isWorkerOf(handler)) {
+			worker.onEvent(this);
+		}
+	}
+	
+	/**
+	 * Returns the listener to notify once this task executes. If this task is
+	 * executing in a TaskService with a callback service, the listener is 
+	 * notified on the callback service unless it is an inline listener.
+	 */
+	private TaskListener<R> getNotified()
+	{
+		TaskService worker = TaskService.getCurrent();
+		TaskCallbackService callbacks = (worker == null ? null : worker.getCallbacks());
+		
+		return (callbacks == null ? listener : callbacks.defer(listener));
+	}
+	
 	/**
 	 * Sets the result of this Task.
 	 * 
@@ -438,6 +728,134 @@ public abstract class Task<R> implements TaskEventHandler, TaskListener<R>, Runn
 		return error;
 	}
 
+	/**
+	 * Returns the time in nanoseconds (as returned by System.nanoTime()) when
+	 * this task was last given to its handler and entered the Waiting state.
+	 * This can be used by handlers to measure how long a task has waited in
+	 * their queue before being executed.
+	 * 
+	 * @return
+	 * 		The time in nanoseconds this task started waiting.
+	 */
+	public long getWaitStart() 
+	{
+		return waitStart;
+	}
+
+	/**
+	 * Returns the time in nanoseconds (as returned by System.nanoTime()) this 
+	 * task must finish by, which is the time it was last given to its handler
+	 * plus its timeout.
+	 * 
+	 * @return
+	 * 		The deadline in nanoseconds, or Long.MAX_VALUE if this task has no
+	 * 		timeout.
+	 */
+	public long getDeadline() 
+	{
+		long t = timeout;
+		if (t >= Long.MAX_VALUE / 1000000L) {
+			return Long.MAX_VALUE;
+		}
+		return waitStart + t * 1000000L;
+	}
+	
+	/**
+	 * Sets the priority of this task. Handlers may use the priority to decide
+	 * which tasks to shed under load, by default the priority is 0.
+	 * 
+	 * @param priority
+	 * 		The priority, greater values are more important.
+	 */
+	public void setPriority(int priority) 
+	{
+		this.priority = priority;
+	}
+	
+	/**
+	 * Returns the priority of this task.
+	 * 
+	 * @return
+	 * 		The priority, greater values are more important.
+	 */
+	public int getPriority() 
+	{
+		return priority;
+	}
+	
+	/**
+	 * Returns whether the scope executing this task has requested that its
+	 * tasks stop, because another task of the scope failed or the scope was 
+	 * canceled. A long running task should check this periodically and 
+	 * return early when it is true.
+	 * 
+	 * @return
+	 * 		True if this task should stop, otherwise false.
+	 */
+	public boolean isCancelRequested() 
+	{
+		TaskScope s = scope;
+		
+		return (s != null && s.isCancelRequested());
+	}
+	
+	/**
+	 * Returns the scope executing this task.
+	 * 
+	 * @return
+	 * 		The scope, or null if this task is not executing in a scope.
+	 */
+	public TaskScope getScope() 
+	{
+		return scope;
+	}
+	
+	/**
+	 * Sets the scope executing this task.
+	 */
+	void setScope(TaskScope scope) 
+	{
+		this.scope = scope;
+	}
+	
+	/**
+	 * Sets the policy which executes this task again when it fails with a 
+	 * retryable error. This should be set before the task is executed. Only
+	 * a task with a handler is retried, a task without one fails on its 
+	 * first error.
+	 * 
+	 * @param retry
+	 * 		The retry policy, or null if this task should not be retried.
+	 */
+	public void setRetry(TaskRetry retry) 
+	{
+		this.retry = retry;
+	}
+	
+	/**
+	 * Returns the policy which executes this task again on failure.
+	 * 
+	 * @return
+	 * 		The retry policy, or null if this task is not retried.
+	 */
+	public TaskRetry getRetry() 
+	{
+		return retry;
+	}
+	
+	/**
+	 * Returns the number of times this task has executed since it was created
+	 * or last reset. This is more than one when a retry policy has executed 
+	 * this task again after it failed.
+	 * 
+	 * @return
+	 * 		The number of attempts.
+	 */
+	public int getAttempts() 
+	{
+		return attempts;
+	}
+
 	/**
 	 * Returns the state machine of this Task. Use of this should be avoided,
 	 * especially acquiring the lock of the state. This may be used to wait
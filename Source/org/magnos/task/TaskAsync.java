@@ -0,0 +1,166 @@
+/* 
+ * NOTICE OF LICENSE
+ * 
+ * This source file is subject to the Open Software License (OSL 3.0) that is 
+ * bundled with this package in the file LICENSE.txt. It is also available 
+ * through the world-wide-web at http://opensource.org/licenses/osl-3.0.php
+ * If you did not receive a copy of the license and are unable to obtain it 
+ * through the world-wide-web, please send an email to pdiffenderfer@gmail.com 
+ * so we can send you a copy immediately. If you use any of this software please
+ * notify me via my website or email, your feedback is much appreciated. 
+ * 
+ * @copyright   Copyright (c) 2011 Magnos Software (http://www.magnos.org)
+ * @license     http://opensource.org/licenses/osl-3.0.php
+ * 				Open Software License (OSL 3.0)
+ */
+
+package org.magnos.task;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * A task which is completed by a callback instead of by returning from
+ * execute. When the task is executed start is invoked, which begins an
+ * operation (typically asynchronous I/O) and returns right away, the task 
+ * stays Running until the operation calls succeed or fail. The thread which
+ * executed the task is free as soon as start returns, so a few workers can 
+ * have any number of these tasks in flight. The outcome finishes the task the
+ * same way execute returning or throwing would, so retries, callbacks, and 
+ * recording apply.
+ * 
+ * Executing the task by calling execute (like a TaskFork does) starts the 
+ * operation and waits for it instead. A task shouldn't be run by its handler
+ * and forked at the same time.
+ * 
+ * <pre>
+ * public class TaskDnsLookup extends TaskAsync&lt;InetAddress&gt; {
+ * 	protected void start() {
+ * 		resolver.lookup(name, new Callback() {
+ * 			public void resolved(InetAddress address) {
+ * 				succeed(address);
+ * 			}
+ * 			public void failed(Exception e) {
+ * 				fail(e);
+ * 			}
+ * 		});
+ * 	}
+ * }
+ * </pre>
+ * 
+ * @author Philip Diffenderfer
+ *
+ * @param <R>
+ * 		The result type.
+ */
+public abstract class TaskAsync<R> extends Task<R> 
+{
+	
+	// The outcome execute is waiting for, null when the operation was started
+	// by run.
+	private volatile CompletableFuture<R> waiting;
+	
+	/**
+	 * Begins the operation of this task. The operation must eventually call 
+	 * succeed or fail, an exception thrown from here fails the task.
+	 * 
+	 * @throws Exception
+	 * 		The operation could not be started.
+	 */
+	protected abstract void start() throws Exception;
+	
+	/**
+	 * Starts the operation of this task and waits for it to succeed or fail.
+	 * This is only invoked when the task is executed by something other than
+	 * its handler, run doesn't wait.
+	 * 
+	 * @return
+	 * 		The result of the operation.
+	 */
+	protected final R execute() 
+	{
+		CompletableFuture<R> outcome = new CompletableFuture<R>();
+		waiting = outcome;
+		
+		try {
+			start();
+		}
+		catch (Throwable e) {
+			outcome.completeExceptionally(e);
+		}
+		
+		try {
+			return outcome.join();
+		}
+		catch (CompletionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException)cause;
+			}
+			if (cause instanceof Error) {
+				throw (Error)cause;
+			}
+			throw new RuntimeException(cause);
+		}
+		finally {
+			waiting = null;
+		}
+	}
+	
+	/**
+	 * Moves this task to Running and starts its operation.
+	 */
+	@Override
+	public void run() 
+	{
+		if (!begin()) {
+			return;
+		}
+		
+		try {
+			start();
+		}
+		catch (Throwable e) {
+			fail(e);
+		}
+	}
+	
+	/**
+	 * Finishes this task successfully with the given result and notifies the
+	 * listener. This is ignored if the task has already finished, for example
+	 * when it timed out.
+	 * 
+	 * @param result
+	 * 		The result of the operation.
+	 * @return
+	 * 		True if the task finished, false if it had already finished.
+	 */
+	protected boolean succeed(R result) 
+	{
+		CompletableFuture<R> outcome = waiting;
+		if (outcome != null) {
+			return outcome.complete(result);
+		}
+		return complete(result, null);
+	}
+	
+	/**
+	 * Finishes this task with the given error and notifies the listener. This
+	 * is ignored if the task has already finished, for example when it timed 
+	 * out.
+	 * 
+	 * @param error
+	 * 		Why the operation failed.
+	 * @return
+	 * 		True if the task finished, false if it had already finished.
+	 */
+	protected boolean fail(Throwable error) 
+	{
+		CompletableFuture<R> outcome = waiting;
+		if (outcome != null) {
+			return outcome.completeExceptionally(error);
+		}
+		return complete(null, error);
+	}
+	
+}
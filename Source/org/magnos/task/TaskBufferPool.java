@@ -0,0 +1,166 @@
+/* 
+ * NOTICE OF LICENSE
+ * 
+ * This source file is subject to the Open Software License (OSL 3.0) that is 
+ * bundled with this package in the file LICENSE.txt. It is also available 
+ * through the world-wide-web at http://opensource.org/licenses/osl-3.0.php
+ * If you did not receive a copy of the license and are unable to obtain it 
+ * through the world-wide-web, please send an email to pdiffenderfer@gmail.com 
+ * so we can send you a copy immediately. If you use any of this software please
+ * notify me via my website or email, your feedback is much appreciated. 
+ * 
+ * @copyright   Copyright (c) 2011 Magnos Software (http://www.magnos.org)
+ * @license     http://opensource.org/licenses/osl-3.0.php
+ * 				Open Software License (OSL 3.0)
+ */
+
+package org.magnos.task;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A pool of direct buffers of the same size. Allocating a direct buffer is
+ * expensive and its memory is only reclaimed when it's garbage collected, so
+ * I/O tasks acquire a buffer for their operation and release it when the 
+ * operation completes. Up to the maximum number of released buffers are 
+ * kept, the rest are left for the garbage collector.
+ * 
+ * @author Philip Diffenderfer
+ *
+ */
+public class TaskBufferPool 
+{
+	
+	/**
+	 * The size of the buffers in the default pool.
+	 */
+	public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+	
+	/**
+	 * The maximum number of buffers kept by the default pool.
+	 */
+	public static final int DEFAULT_MAX_POOLED = 256;
+	
+	// The pool shared by everything that doesn't specify their own.
+	private static TaskBufferPool instance;
+	
+	// The released buffers.
+	private final ConcurrentLinkedQueue<ByteBuffer> buffers = new ConcurrentLinkedQueue<ByteBuffer>();
+	
+	// The number of released buffers.
+	private final AtomicInteger pooled = new AtomicInteger();
+	
+	// The number of buffers allocated.
+	private final AtomicInteger allocated = new AtomicInteger();
+	
+	// The capacity of each buffer.
+	private final int bufferSize;
+	
+	// The maximum number of released buffers kept.
+	private final int maxPooled;
+	
+	
+	/**
+	 * Instantiates a new TaskBufferPool.
+	 * 
+	 * @param bufferSize
+	 * 		The capacity of each buffer in bytes.
+	 * @param maxPooled
+	 * 		The maximum number of released buffers kept.
+	 */
+	public TaskBufferPool(int bufferSize, int maxPooled) 
+	{
+		this.bufferSize = bufferSize;
+		this.maxPooled = maxPooled;
+	}
+	
+	/**
+	 * Returns the pool shared by everything that doesn't specify their own.
+	 * 
+	 * @return
+	 * 		The reference to the shared TaskBufferPool.
+	 */
+	public static synchronized TaskBufferPool getDefault() 
+	{
+		if (instance == null) {
+			instance = new TaskBufferPool(DEFAULT_BUFFER_SIZE, DEFAULT_MAX_POOLED);
+		}
+		return instance;
+	}
+	
+	/**
+	 * Takes a released buffer or allocates a new one.
+	 * 
+	 * @return
+	 * 		The cleared buffer.
+	 */
+	public ByteBuffer acquire() 
+	{
+		ByteBuffer buffer = buffers.poll();
+		
+		if (buffer == null) {
+			allocated.incrementAndGet();
+			return ByteBuffer.allocateDirect(bufferSize);
+		}
+		
+		pooled.decrementAndGet();
+		buffer.clear();
+		
+		return buffer;
+	}
+	
+	/**
+	 * Gives a buffer back to the pool. The buffer must not be used after it
+	 * has been released.
+	 * 
+	 * @param buffer
+	 * 		The buffer acquired from this pool.
+	 */
+	public void release(ByteBuffer buffer) 
+	{
+		if (buffer == null || buffer.capacity() != bufferSize || !buffer.isDirect()) {
+			return;
+		}
+		if (pooled.incrementAndGet() > maxPooled) {
+			pooled.decrementAndGet();
+			return;
+		}
+		buffers.offer(buffer);
+	}
+	
+	/**
+	 * Returns the capacity of each buffer.
+	 * 
+	 * @return
+	 * 		The buffer size in bytes.
+	 */
+	public int getBufferSize() 
+	{
+		return bufferSize;
+	}
+	
+	/**
+	 * Returns the number of released buffers in the pool.
+	 * 
+	 * @return
+	 * 		The number of buffers ready to be acquired.
+	 */
+	public int getPooled() 
+	{
+		return pooled.get();
+	}
+	
+	/**
+	 * Returns the number of buffers this pool has allocated.
+	 * 
+	 * @return
+	 * 		The number of allocations.
+	 */
+	public int getAllocated() 
+	{
+		return allocated.get();
+	}
+	
+}
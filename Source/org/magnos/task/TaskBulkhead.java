@@ -0,0 +1,354 @@
+/* 
+ * NOTICE OF LICENSE
+ * 
+ * This source file is subject to the Open Software License (OSL 3.0) that is 
+ * bundled with this package in the file LICENSE.txt. It is also available 
+ * through the world-wide-web at http://opensource.org/licenses/osl-3.0.php
+ * If you did not receive a copy of the license and are unable to obtain it 
+ * through the world-wide-web, please send an email to pdiffenderfer@gmail.com 
+ * so we can send you a copy immediately. If you use any of this software please
+ * notify me via my website or email, your feedback is much appreciated. 
+ * 
+ * @copyright   Copyright (c) 2011 Magnos Software (http://www.magnos.org)
+ * @license     http://opensource.org/licenses/osl-3.0.php
+ * 				Open Software License (OSL 3.0)
+ */
+
+package org.magnos.task;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Divides a shared handler into named partitions which each have their own
+ * maximum number of running tasks and their own queue limit. A partition is
+ * itself a handler, tasks given to it wait in its queue until one of its 
+ * slots is free, so a category of tasks which is slow or failing can only
+ * occupy as many workers as its partition allows. Tasks given to a partition
+ * with a full queue are canceled with a TaskRejectedException as the cause.
+ * A task canceled while it waits is removed from its partition's queue, so
+ * it no longer counts towards the queue limit.
+ * 
+ * Each partition has one unit per slot, a unit is given to the shared handler
+ * and runs one task of its partition each time it's executed, so the tasks of
+ * different partitions interleave on the workers of the shared handler.
+ * 
+ * A worker of the shared handler which waits on a queued task of a partition
+ * executes the task itself instead of waiting for a slot, the same as it does
+ * for tasks given to the shared handler directly. A task can therefore wait
+ * on another task of its own partition without a deadlock, even when the 
+ * partition has a single slot.
+ * 
+ * <pre>
+ * TaskServicePool pool = new TaskServicePool();
+ * pool.setMinCapacity(8);
+ * pool.start();
+ * 
+ * TaskBulkhead bulkhead = new TaskBulkhead(pool);
+ * bulkhead.addPartition("database", 4, 100);
+ * bulkhead.addPartition("reports", 1, 10);
+ * 
+ * task.setHandler(bulkhead.getPartition("database"));
+ * task.async();
+ * </pre>
+ * 
+ * @author Philip Diffenderfer
+ *
+ */
+public class TaskBulkhead 
+{
+
+	/**
+	 * A named partition of a bulkhead with a limited number of running tasks
+	 * and a limited queue.
+	 * 
+	 * @author Philip Diffenderfer
+	 *
+	 */
+	public class Partition implements TaskCancelHandler 
+	{
+		
+		// The name of the partition.
+		private final String name;
+		
+		// The maximum number of tasks waiting for a slot.
+		private final int queueLimit;
+		
+		// The tasks waiting for a slot.
+		private final ConcurrentLinkedQueue<Task<?>> queue = new ConcurrentLinkedQueue<Task<?>>();
+		
+		// The number of tasks waiting for a slot.
+		private final AtomicInteger queued = new AtomicInteger();
+		
+		// The slots which are not given to the handler.
+		private final ConcurrentLinkedQueue<Slot> idle = new ConcurrentLinkedQueue<Slot>();
+		
+		// The total number of slots.
+		private final int maxConcurrency;
+		
+		// The number of tasks rejected because the queue was full.
+		private final AtomicLong rejected = new AtomicLong();
+		
+		/**
+		 * Instantiates a new Partition.
+		 */
+		private Partition(String name, int maxConcurrency, int queueLimit) 
+		{
+			this.name = name;
+			this.maxConcurrency = maxConcurrency;
+			this.queueLimit = queueLimit;
+			
+			for (int i = 0; i < maxConcurrency; i++) {
+				idle.add(new Slot(this));
+			}
+		}
+		
+		/**
+		 * {@inheritDoc}
+		 */
+		public boolean addEvent(Task<?> event) 
+		{
+			if (queued.incrementAndGet() > queueLimit) {
+				queued.decrementAndGet();
+				rejected.incrementAndGet();
+				event.cancel(new TaskRejectedException("The queue of partition " + name + " is full"));
+				return false;
+			}
+			
+			queue.offer(event);
+			dispatch();
+			
+			return true;
+		}
+		
+		/**
+		 * Removes a task canceled while it waits from the queue.
+		 */
+		public void cancelEvent(Task<?> task) 
+		{
+			if (queue.remove(task)) {
+				queued.decrementAndGet();
+			}
+		}
+		
+		/**
+		 * Gives an idle slot to the handler if there are queued tasks.
+		 */
+		private void dispatch() 
+		{
+			if (!queue.isEmpty()) {
+				Slot slot = idle.poll();
+				if (slot != null) {
+					slot.submit(handler);
+				}
+			}
+		}
+		
+		/**
+		 * Returns the next queued task, or null if none exist.
+		 */
+		private Task<?> next() 
+		{
+			Task<?> task = queue.poll();
+			if (task != null) {
+				queued.decrementAndGet();
+			}
+			return task;
+		}
+		
+		/**
+		 * Returns the handler which executes the tasks of this partition.
+		 */
+		TaskEventHandler getHandler() 
+		{
+			return handler;
+		}
+		
+		/**
+		 * Returns the name of this partition.
+		 * 
+		 * @return
+		 * 		The name given to the partition.
+		 */
+		public String getName() 
+		{
+			return name;
+		}
+		
+		/**
+		 * Returns the maximum number of tasks of this partition which can run 
+		 * at the same time.
+		 * 
+		 * @return
+		 * 		The number of slots in this partition.
+		 */
+		public int getMaxConcurrency() 
+		{
+			return maxConcurrency;
+		}
+		
+		/**
+		 * Returns the maximum number of tasks which can wait for a slot.
+		 * 
+		 * @return
+		 * 		The queue limit of this partition.
+		 */
+		public int getQueueLimit() 
+		{
+			return queueLimit;
+		}
+		
+		/**
+		 * Returns the number of slots currently given to the handler.
+		 * 
+		 * @return
+		 * 		The number of slots which are running or about to run a task.
+		 */
+		public int getActive() 
+		{
+			return maxConcurrency - idle.size();
+		}
+		
+		/**
+		 * Returns the number of tasks waiting for a slot.
+		 * 
+		 * @return
+		 * 		The number of queued tasks.
+		 */
+		public int getQueued() 
+		{
+			return queued.get();
+		}
+		
+		/**
+		 * Returns the number of tasks rejected because the queue was full.
+		 * 
+		 * @return
+		 * 		The number of rejected tasks.
+		 */
+		public long getRejected() 
+		{
+			return rejected.get();
+		}
+	}
+	
+	/**
+	 * A slot of a partition which runs one queued task each time the handler
+	 * executes it.
+	 * 
+	 * @author Philip Diffenderfer
+	 *
+	 */
+	private class Slot extends TaskUnit 
+	{
+		
+		// The partition of the slot.
+		private final Partition partition;
+		
+		/**
+		 * Instantiates a new Slot.
+		 */
+		public Slot(Partition partition) 
+		{
+			this.partition = partition;
+		}
+		
+		/**
+		 * {@inheritDoc}
+		 */
+		public void run() 
+		{
+			Task<?> task = partition.next();
+			
+			try {
+				if (task != null) {
+					task.run();
+				}
+			}
+			finally {
+				// If more tasks are queued keep the slot, otherwise return it
+				// and check again since a task may have been queued since.
+				if (!partition.queue.isEmpty()) {
+					submit(handler);
+				}
+				else {
+					partition.idle.offer(this);
+					partition.dispatch();
+				}
+			}
+		}
+	}
+	
+	
+	// The handler which executes the tasks of every partition.
+	private final TaskEventHandler handler;
+	
+	// The partitions by name.
+	private final ConcurrentHashMap<String, Partition> partitions = new ConcurrentHashMap<String, Partition>();
+	
+	
+	/**
+	 * Instantiates a new TaskBulkhead.
+	 * 
+	 * @param handler
+	 * 		The handler which executes the tasks of every partition, typically
+	 * 		a TaskServicePool or another handler with several workers.
+	 */
+	public TaskBulkhead(TaskEventHandler handler) 
+	{
+		this.handler = handler;
+	}
+	
+	/**
+	 * Adds a partition to this bulkhead.
+	 * 
+	 * @param name
+	 * 		The unique name of the partition.
+	 * @param maxConcurrency
+	 * 		The maximum number of tasks of the partition which run at once.
+	 * @param queueLimit
+	 * 		The maximum number of tasks which wait for a slot, any more are 
+	 * 		rejected.
+	 * @return
+	 * 		The partition added.
+	 * @throws IllegalArgumentException
+	 * 		A partition with the given name already exists.
+	 */
+	public Partition addPartition(String name, int maxConcurrency, int queueLimit) 
+	{
+		Partition partition = new Partition(name, maxConcurrency, queueLimit);
+		
+		if (partitions.putIfAbsent(name, partition) != null) {
+			throw new IllegalArgumentException("Partition " + name + " already exists");
+		}
+		
+		return partition;
+	}
+	
+	/**
+	 * Returns the partition with the given name.
+	 * 
+	 * @param name
+	 * 		The name of the partition.
+	 * @return
+	 * 		The partition, or null if none exists with the given name.
+	 */
+	public Partition getPartition(String name) 
+	{
+		return partitions.get(name);
+	}
+	
+	/**
+	 * Returns the handler which executes the tasks of every partition.
+	 * 
+	 * @return
+	 * 		The shared handler.
+	 */
+	public TaskEventHandler getHandler() 
+	{
+		return handler;
+	}
+	
+}
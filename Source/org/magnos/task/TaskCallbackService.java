@@ -0,0 +1,265 @@
+/* 
+ * NOTICE OF LICENSE
+ * 
+ * This source file is subject to the Open Software License (OSL 3.0) that is 
+ * bundled with this package in the file LICENSE.txt. It is also available 
+ * through the world-wide-web at http://opensource.org/licenses/osl-3.0.php
+ * If you did not receive a copy of the license and are unable to obtain it 
+ * through the world-wide-web, please send an email to pdiffenderfer@gmail.com 
+ * so we can send you a copy immediately. If you use any of this software please
+ * notify me via my website or email, your feedback is much appreciated. 
+ * 
+ * @copyright   Copyright (c) 2011 Magnos Software (http://www.magnos.org)
+ * @license     http://opensource.org/licenses/osl-3.0.php
+ * 				Open Software License (OSL 3.0)
+ */
+
+package org.magnos.task;
+
+import org.magnos.service.AbstractService;
+
+/**
+ * A service which notifies the listeners of tasks executed by TaskServices, 
+ * so a slow listener does not hold up the tasks queued behind the one that 
+ * just finished. A TaskService given a callback service records the outcome 
+ * of each task it executes and adds it to the callback service, which drains 
+ * every queued notification each time it wakes up. Listeners which implement
+ * TaskInlineListener are still notified in the executing thread.
+ * 
+ * The listener of a task is notified of its outcome and then of its finish in
+ * the callback service, after the task is in the Finished state. Listeners of
+ * tasks executed by the same TaskService are notified in the order the tasks
+ * finished. Cancel and timeout notifications are not dispatched, they happen 
+ * in the thread that canceled the task or timed out waiting for it.
+ * 
+ * <pre>
+ * TaskCallbackService callbacks = new TaskCallbackService();
+ * callbacks.start();
+ * 
+ * TaskService service = new TaskService();
+ * service.setCallbacks(callbacks);
+ * service.start();
+ * </pre>
+ * 
+ * @author Philip Diffenderfer
+ *
+ */
+public class TaskCallbackService extends AbstractService<Runnable> 
+{
+
+	/**
+	 * A listener which records the notifications of a single execution and 
+	 * replays them to the actual listener in the callback service.
+	 * 
+	 * @author Philip Diffenderfer
+	 *
+	 * @param <R>
+	 * 		The result type.
+	 */
+	private class Deferred<R> implements TaskListener<R>, Runnable 
+	{
+		
+		// The listener to notify.
+		private final TaskListener<R> listener;
+		
+		// The task which executed.
+		private Task<R> source;
+		
+		// The outcome of the execution.
+		private boolean success;
+		private R result;
+		private Throwable error;
+		
+		/**
+		 * Instantiates a new Deferred.
+		 * 
+		 * @param listener
+		 * 		The listener to notify.
+		 */
+		public Deferred(TaskListener<R> listener) 
+		{
+			this.listener = listener;
+		}
+		
+		/**
+		 * {@inheritDoc}
+		 */
+		public void onTaskSuccess(Task<R> source, R result) 
+		{
+			this.success = true;
+			this.result = result;
+		}
+		
+		/**
+		 * {@inheritDoc}
+		 */
+		public void onTaskError(Task<R> source, Throwable error) 
+		{
+			this.success = false;
+			this.error = error;
+		}
+		
+		/**
+		 * {@inheritDoc}
+		 */
+		public void onTaskFinish(Task<R> source) 
+		{
+			this.source = source;
+			
+			// If the service is no longer accepting notifications, notify now.
+			if (!addEvent(this)) {
+				run();
+			}
+		}
+		
+		/**
+		 * {@inheritDoc}
+		 */
+		public void onTaskCancel(Task<R> source) 
+		{
+			listener.onTaskCancel(source);
+		}
+		
+		/**
+		 * {@inheritDoc}
+		 */
+		public void onTaskTimeout(Task<R> source) 
+		{
+			listener.onTaskTimeout(source);
+		}
+		
+		/**
+		 * Notifies the listener of the recorded outcome.
+		 */
+		public void run() 
+		{
+			if (success) {
+				listener.onTaskSuccess(source, result);
+			}
+			else {
+				listener.onTaskError(source, error);
+			}
+			listener.onTaskFinish(source);
+		}
+	}
+	
+	
+	// The listener to errors thrown by the listeners of tasks, if any.
+	private volatile TaskErrorListener errorListener;
+	
+	
+	/**
+	 * Instantiates a new TaskCallbackService.
+	 */
+	public TaskCallbackService() 
+	{
+		super(true);
+	}
+	
+	/**
+	 * Returns the listener a task executing in a TaskService using this 
+	 * callback service should notify. Inline listeners are returned as is.
+	 * 
+	 * @param listener
+	 * 		The listener of the task.
+	 * @return
+	 * 		The listener to notify.
+	 */
+	<R> TaskListener<R> defer(TaskListener<R> listener) 
+	{
+		if (listener instanceof TaskInlineListener) {
+			return listener;
+		}
+		return new Deferred<R>(listener);
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	protected void onEvent(Runnable event) 
+	{
+		try {
+			event.run();
+		}
+		catch (RuntimeException e) {
+			TaskErrorListener l = errorListener;
+			
+			if (l == null) {
+				l = TaskErrorListener.UNCAUGHT;
+			}
+			
+			Task<?> task = (event instanceof Deferred ? ((Deferred<?>)event).source : null);
+			
+			l.onError(this, task, e);
+		}
+	}
+	
+	/**
+	 * Sets the listener to errors thrown by the listeners this service 
+	 * notifies. A failing listener never stops the notifications of other 
+	 * tasks, without a listener the error is given to the uncaught exception
+	 * handler of the service's thread.
+	 * 
+	 * @param errorListener
+	 * 		The listener, or null if errors should be given to the uncaught 
+	 * 		exception handler.
+	 */
+	public void setErrorListener(TaskErrorListener errorListener)
+	{
+		this.errorListener = errorListener;
+	}
+	
+	/**
+	 * Returns the listener to errors thrown by the listeners this service 
+	 * notifies.
+	 * 
+	 * @return
+	 * 		The listener, or null if errors are given to the uncaught exception
+	 * 		handler.
+	 */
+	public TaskErrorListener getErrorListener()
+	{
+		return errorListener;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	protected void onExecute() 
+	{
+		
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	protected void onPause() 
+	{
+		
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	protected void onResume() 
+	{
+		
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	protected void onStart() 
+	{
+		
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	protected void onStop() 
+	{
+		
+	}
+
+}
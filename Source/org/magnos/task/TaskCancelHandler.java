@@ -0,0 +1,38 @@
+/* 
+ * NOTICE OF LICENSE
+ * 
+ * This source file is subject to the Open Software License (OSL 3.0) that is 
+ * bundled with this package in the file LICENSE.txt. It is also available 
+ * through the world-wide-web at http://opensource.org/licenses/osl-3.0.php
+ * If you did not receive a copy of the license and are unable to obtain it 
+ * through the world-wide-web, please send an email to pdiffenderfer@gmail.com 
+ * so we can send you a copy immediately. If you use any of this software please
+ * notify me via my website or email, your feedback is much appreciated. 
+ * 
+ * @copyright   Copyright (c) 2011 Magnos Software (http://www.magnos.org)
+ * @license     http://opensource.org/licenses/osl-3.0.php
+ * 				Open Software License (OSL 3.0)
+ */
+
+package org.magnos.task;
+
+/**
+ * A handler which is told when a task it was given is canceled, so it can
+ * stop any work it started for the task elsewhere.
+ * 
+ * @author Philip Diffenderfer
+ *
+ */
+public interface TaskCancelHandler extends TaskEventHandler 
+{
+
+	/**
+	 * Invoked when a task given to this handler is canceled while it waits.
+	 * The task is already in the Canceled state.
+	 * 
+	 * @param task
+	 * 		The canceled task.
+	 */
+	public void cancelEvent(Task<?> task);
+	
+}
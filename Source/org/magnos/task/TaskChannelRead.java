@@ -0,0 +1,128 @@
+/* 
+ * NOTICE OF LICENSE
+ * 
+ * This source file is subject to the Open Software License (OSL 3.0) that is 
+ * bundled with this package in the file LICENSE.txt. It is also available 
+ * through the world-wide-web at http://opensource.org/licenses/osl-3.0.php
+ * If you did not receive a copy of the license and are unable to obtain it 
+ * through the world-wide-web, please send an email to pdiffenderfer@gmail.com 
+ * so we can send you a copy immediately. If you use any of this software please
+ * notify me via my website or email, your feedback is much appreciated. 
+ * 
+ * @copyright   Copyright (c) 2011 Magnos Software (http://www.magnos.org)
+ * @license     http://opensource.org/licenses/osl-3.0.php
+ * 				Open Software License (OSL 3.0)
+ */
+
+package org.magnos.task;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousByteChannel;
+import java.nio.channels.CompletionHandler;
+
+/**
+ * A task which reads from an asynchronous channel (such as a socket) into a
+ * buffer. The task finishes from the completion of the read, so no thread 
+ * waits on the channel while the task runs. The result is the number of 
+ * bytes read, or -1 if the channel reached its end before anything was read.
+ * 
+ * The buffer may be acquired from a TaskBufferPool and released once its 
+ * contents have been consumed.
+ * 
+ * <pre>
+ * ByteBuffer header = ByteBuffer.allocateDirect(16);
+ * TaskChannelRead read = new TaskChannelRead(socket, header, true);
+ * read.setHandler(service);
+ * read.async(headerListener);
+ * </pre>
+ * 
+ * @author Philip Diffenderfer
+ *
+ */
+public class TaskChannelRead extends TaskAsync<Integer> 
+{
+	
+	/**
+	 * Handles the completion of each read, the attachment is the number of 
+	 * bytes read before the read.
+	 */
+	private class Reader implements CompletionHandler<Integer, Integer> 
+	{
+		
+		/**
+		 * {@inheritDoc}
+		 */
+		public void completed(Integer read, Integer total) 
+		{
+			if (read < 0) {
+				succeed(total == 0 ? -1 : total);
+			}
+			else if (fully && buffer.hasRemaining() && !isFinished()) {
+				channel.read(buffer, total + read, this);
+			}
+			else {
+				succeed(total + read);
+			}
+		}
+		
+		/**
+		 * {@inheritDoc}
+		 */
+		public void failed(Throwable error, Integer total) 
+		{
+			fail(error);
+		}
+	}
+	
+	
+	// The channel to read from.
+	private final AsynchronousByteChannel channel;
+	
+	// The buffer to read into.
+	private final ByteBuffer buffer;
+	
+	// Whether to keep reading until the buffer is full.
+	private final boolean fully;
+	
+	// Handles the completion of each read.
+	private final Reader reader = new Reader();
+	
+	
+	/**
+	 * Instantiates a new TaskChannelRead.
+	 * 
+	 * @param channel
+	 * 		The channel to read from.
+	 * @param buffer
+	 * 		The buffer to read into, starting at its position.
+	 * @param fully
+	 * 		True to keep reading until the buffer is full or the channel ends,
+	 * 		false to finish after the first read.
+	 */
+	public TaskChannelRead(AsynchronousByteChannel channel, ByteBuffer buffer, boolean fully) 
+	{
+		this.channel = channel;
+		this.buffer = buffer;
+		this.fully = fully;
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	protected void start() 
+	{
+		channel.read(buffer, 0, reader);
+	}
+	
+	/**
+	 * Returns the buffer read into.
+	 * 
+	 * @return
+	 * 		The reference to the buffer.
+	 */
+	public ByteBuffer getBuffer() 
+	{
+		return buffer;
+	}
+	
+}
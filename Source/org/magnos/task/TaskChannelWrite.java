@@ -0,0 +1,108 @@
+/* 
+ * NOTICE OF LICENSE
+ * 
+ * This source file is subject to the Open Software License (OSL 3.0) that is 
+ * bundled with this package in the file LICENSE.txt. It is also available 
+ * through the world-wide-web at http://opensource.org/licenses/osl-3.0.php
+ * If you did not receive a copy of the license and are unable to obtain it 
+ * through the world-wide-web, please send an email to pdiffenderfer@gmail.com 
+ * so we can send you a copy immediately. If you use any of this software please
+ * notify me via my website or email, your feedback is much appreciated. 
+ * 
+ * @copyright   Copyright (c) 2011 Magnos Software (http://www.magnos.org)
+ * @license     http://opensource.org/licenses/osl-3.0.php
+ * 				Open Software License (OSL 3.0)
+ */
+
+package org.magnos.task;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousByteChannel;
+import java.nio.channels.CompletionHandler;
+
+/**
+ * A task which writes the remaining bytes of a buffer to an asynchronous 
+ * channel (such as a socket). The task finishes from the completion of the 
+ * last write, so no thread waits on the channel while the task runs. The 
+ * result is the number of bytes written.
+ * 
+ * @author Philip Diffenderfer
+ *
+ */
+public class TaskChannelWrite extends TaskAsync<Integer> 
+{
+	
+	/**
+	 * Handles the completion of each write, the attachment is the number of
+	 * bytes written before the write.
+	 */
+	private class Writer implements CompletionHandler<Integer, Integer> 
+	{
+		
+		/**
+		 * {@inheritDoc}
+		 */
+		public void completed(Integer written, Integer total) 
+		{
+			if (buffer.hasRemaining() && !isFinished()) {
+				channel.write(buffer, total + written, this);
+			}
+			else {
+				succeed(total + written);
+			}
+		}
+		
+		/**
+		 * {@inheritDoc}
+		 */
+		public void failed(Throwable error, Integer total) 
+		{
+			fail(error);
+		}
+	}
+	
+	
+	// The channel to write to.
+	private final AsynchronousByteChannel channel;
+	
+	// The buffer to write.
+	private final ByteBuffer buffer;
+	
+	// Handles the completion of each write.
+	private final Writer writer = new Writer();
+	
+	
+	/**
+	 * Instantiates a new TaskChannelWrite.
+	 * 
+	 * @param channel
+	 * 		The channel to write to.
+	 * @param buffer
+	 * 		The buffer to write, from its position to its limit.
+	 */
+	public TaskChannelWrite(AsynchronousByteChannel channel, ByteBuffer buffer) 
+	{
+		this.channel = channel;
+		this.buffer = buffer;
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	protected void start() 
+	{
+		channel.write(buffer, 0, writer);
+	}
+	
+	/**
+	 * Returns the buffer written.
+	 * 
+	 * @return
+	 * 		The reference to the buffer.
+	 */
+	public ByteBuffer getBuffer() 
+	{
+		return buffer;
+	}
+	
+}
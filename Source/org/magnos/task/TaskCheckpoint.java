@@ -0,0 +1,192 @@
+/* 
+ * NOTICE OF LICENSE
+ * 
+ * This source file is subject to the Open Software License (OSL 3.0) that is 
+ * bundled with this package in the file LICENSE.txt. It is also available 
+ * through the world-wide-web at http://opensource.org/licenses/osl-3.0.php
+ * If you did not receive a copy of the license and are unable to obtain it 
+ * through the world-wide-web, please send an email to pdiffenderfer@gmail.com 
+ * so we can send you a copy immediately. If you use any of this software please
+ * notify me via my website or email, your feedback is much appreciated. 
+ * 
+ * @copyright   Copyright (c) 2011 Magnos Software (http://www.magnos.org)
+ * @license     http://opensource.org/licenses/osl-3.0.php
+ * 				Open Software License (OSL 3.0)
+ */
+
+package org.magnos.task;
+
+import java.io.IOException;
+import java.io.Serializable;
+
+/**
+ * A long running task which saves its progress to a TaskCheckpointStore so
+ * it can resume where it left off. When the task executes it loads the last
+ * checkpoint saved under its key and passes it to resume, which periodically
+ * calls checkpoint with its progress. If the process restarts or the task 
+ * fails and is reset, the next execution resumes from the last checkpoint
+ * instead of starting over. Once the task succeeds its checkpoint is removed.
+ * 
+ * Checkpoints are throttled by the interval, calling checkpoint more often
+ * only saves once per interval, so a task can call it on every iteration.
+ * 
+ * <pre>
+ * public class ImportTask extends TaskCheckpoint&lt;Long, Long&gt; {
+ * 	public ImportTask(TaskCheckpointStore store) {
+ * 		super(store, "import-2011-06");
+ * 	}
+ * 	protected Long resume(Long line) {
+ * 		long start = (line == null ? 0 : line);
+ * 		for (long i = start; i &lt; lines; i++) {
+ * 			importLine(i);
+ * 			checkpoint(i + 1);
+ * 		}
+ * 		return lines;
+ * 	}
+ * }
+ * </pre>
+ * 
+ * @author Philip Diffenderfer
+ *
+ * @param <R>
+ * 		The result type.
+ * @param <S>
+ * 		The type of the checkpoint.
+ */
+public abstract class TaskCheckpoint<R, S extends Serializable> extends Task<R> 
+{
+	
+	// The store of the checkpoints.
+	private final TaskCheckpointStore store;
+	
+	// The key of this task's checkpoint.
+	private final String key;
+	
+	// The minimum time in nanoseconds between checkpoints.
+	private volatile long interval = 1000000000L;
+	
+	// When the last checkpoint was saved.
+	private long lastCheckpoint;
+	
+	
+	/**
+	 * Instantiates a new TaskCheckpoint.
+	 * 
+	 * @param store
+	 * 		The store of the checkpoints.
+	 * @param key
+	 * 		The key of this task's checkpoint, unique among the tasks using 
+	 * 		the store and the same across restarts.
+	 */
+	public TaskCheckpoint(TaskCheckpointStore store, String key) 
+	{
+		this.store = store;
+		this.key = key;
+	}
+	
+	/**
+	 * Executes the task from the given checkpoint.
+	 * 
+	 * @param checkpoint
+	 * 		The last checkpoint saved, or null if the task is starting from the
+	 * 		beginning.
+	 * @return
+	 * 		The result of the task.
+	 */
+	protected abstract R resume(S checkpoint);
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	@SuppressWarnings("unchecked")
+	protected R execute() 
+	{
+		lastCheckpoint = System.nanoTime();
+		
+		R result = resume((S)store.load(key));
+		
+		try {
+			store.remove(key);
+		}
+		catch (IOException e) {
+			throw new RuntimeException("Unable to remove the checkpoint " + key, e);
+		}
+		
+		return result;
+	}
+	
+	/**
+	 * Saves the progress of this task if the interval has passed since the 
+	 * last checkpoint. This should only be called from resume.
+	 * 
+	 * @param progress
+	 * 		The checkpoint to resume from.
+	 * @return
+	 * 		True if the checkpoint was saved, false if it was too soon.
+	 */
+	protected boolean checkpoint(S progress) 
+	{
+		long now = System.nanoTime();
+		
+		if (now - lastCheckpoint < interval) {
+			return false;
+		}
+		
+		lastCheckpoint = now;
+		
+		try {
+			store.save(key, progress);
+		}
+		catch (IOException e) {
+			throw new RuntimeException("Unable to save the checkpoint " + key, e);
+		}
+		
+		return true;
+	}
+	
+	/**
+	 * Sets the minimum time between checkpoints.
+	 * 
+	 * @param interval
+	 * 		The interval in milliseconds, 0 to save every checkpoint.
+	 */
+	public void setInterval(long interval) 
+	{
+		this.interval = interval * 1000000L;
+	}
+	
+	/**
+	 * Returns the minimum time between checkpoints.
+	 * 
+	 * @return
+	 * 		The interval in milliseconds.
+	 */
+	public long getInterval() 
+	{
+		return interval / 1000000L;
+	}
+	
+	/**
+	 * Returns the key of this task's checkpoint.
+	 * 
+	 * @return
+	 * 		The key.
+	 */
+	public String getKey() 
+	{
+		return key;
+	}
+	
+	/**
+	 * Returns the store of the checkpoints.
+	 * 
+	 * @return
+	 * 		The store.
+	 */
+	public TaskCheckpointStore getStore() 
+	{
+		return store;
+	}
+	
+}
@@ -0,0 +1,548 @@
+/* 
+ * NOTICE OF LICENSE
+ * 
+ * This source file is subject to the Open Software License (OSL 3.0) that is 
+ * bundled with this package in the file LICENSE.txt. It is also available 
+ * through the world-wide-web at http://opensource.org/licenses/osl-3.0.php
+ * If you did not receive a copy of the license and are unable to obtain it 
+ * through the world-wide-web, please send an email to pdiffenderfer@gmail.com 
+ * so we can send you a copy immediately. If you use any of this software please
+ * notify me via my website or email, your feedback is much appreciated. 
+ * 
+ * @copyright   Copyright (c) 2011 Magnos Software (http://www.magnos.org)
+ * @license     http://opensource.org/licenses/osl-3.0.php
+ * 				Open Software License (OSL 3.0)
+ */
+
+package org.magnos.task;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+import org.magnos.service.AbstractService;
+
+/**
+ * A store of checkpoints in a directory, one file per key. Saving a 
+ * checkpoint serializes it in the caller's thread and returns, the file is 
+ * written by this service's thread. Saves of the same key are coalesced: if
+ * a key is saved several times before its file is written only the latest 
+ * checkpoint is written. Each file is written to a temporary file and then
+ * renamed over the last checkpoint, so a crash leaves either the old or the
+ * new checkpoint and never part of one.
+ * 
+ * If this service isn't running saves are written in the caller's thread.
+ * 
+ * Checkpoints are not written incrementally. A checkpoint is an opaque 
+ * serialized object, so every write replaces the whole file; coalescing is 
+ * what keeps frequent saves cheap. A task keeps its writes small by saving 
+ * its position (such as the index of the next item) rather than everything
+ * it has accumulated.
+ * 
+ * A checkpoint which fails to be written stays waiting, so it's written by
+ * the next save of its key or by flush. A failure in this service's thread is
+ * thrown from the next save or remove of the same key, unless a later write 
+ * of the key succeeded first, and from flush if the checkpoint still can't be
+ * written. A failing key never fails the saves of other keys.
+ * 
+ * <pre>
+ * TaskCheckpointStore store = new TaskCheckpointStore(new File("checkpoints"));
+ * store.start();
+ * ...
+ * store.flush();
+ * store.stop();
+ * </pre>
+ * 
+ * @author Philip Diffenderfer
+ *
+ */
+public class TaskCheckpointStore extends AbstractService<String> 
+{
+	
+	// The extension of checkpoint files.
+	private static final String EXTENSION = ".ckpt";
+	
+	// The checkpoint waiting to be written which removes the key.
+	private static final byte[] REMOVED = new byte[0];
+	
+	// The directory of the checkpoint files.
+	private final File directory;
+	
+	// The serialized checkpoints waiting to be written.
+	private final ConcurrentMap<String, byte[]> pending = new ConcurrentHashMap<String, byte[]>();
+	
+	// The keys given to the service and not yet taken by it.
+	private final Set<String> queued = ConcurrentHashMap.newKeySet();
+	
+	// The failures of this service's thread not yet thrown, by key.
+	private final ConcurrentMap<String, IOException> failed = new ConcurrentHashMap<String, IOException>();
+	
+	// Guards writing the files.
+	private final Object writeLock = new Object();
+	
+	// Whether each file is forced to disk before it's renamed.
+	private volatile boolean sync = true;
+	
+	// The number of checkpoints saved, the number written, and the number of 
+	// writes by this service's thread which failed.
+	private final AtomicLong saves = new AtomicLong();
+	private final AtomicLong writes = new AtomicLong();
+	private final AtomicLong failures = new AtomicLong();
+	
+	
+	/**
+	 * Instantiates a new TaskCheckpointStore.
+	 * 
+	 * @param directory
+	 * 		The directory of the checkpoint files, created if it doesn't exist.
+	 */
+	public TaskCheckpointStore(File directory) 
+	{
+		super(true);
+		this.directory = directory;
+		this.directory.mkdirs();
+	}
+	
+	/**
+	 * Saves the checkpoint of the given key, replacing its last checkpoint. 
+	 * The checkpoint is serialized before this returns so it may be changed
+	 * afterwards.
+	 * 
+	 * @param key
+	 * 		The key of the checkpoint.
+	 * @param checkpoint
+	 * 		The checkpoint to save.
+	 * @throws IOException
+	 * 		The checkpoint could not be serialized, it could not be written 
+	 * 		while the service isn't running, or the service failed to write an
+	 * 		earlier checkpoint of the key (this checkpoint is still saved).
+	 */
+	public void save(String key, Serializable checkpoint) throws IOException 
+	{
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ObjectOutputStream out = new ObjectOutputStream(bytes);
+		out.writeObject(checkpoint);
+		out.close();
+		
+		saves.incrementAndGet();
+		
+		IOException failure = failed.remove(key);
+		enqueue(key, bytes.toByteArray());
+		rethrow(key, failure);
+	}
+	
+	/**
+	 * Loads the last checkpoint saved for the given key, including one saved
+	 * but not yet written.
+	 * 
+	 * @param key
+	 * 		The key of the checkpoint.
+	 * @return
+	 * 		The checkpoint, or null if there is none or it's unreadable.
+	 */
+	public Object load(String key) 
+	{
+		byte[] payload = pending.get(key);
+		
+		if (payload == null) {
+			synchronized (writeLock) {
+				payload = read(file(key));
+			}
+		}
+		if (payload == null || payload == REMOVED) {
+			return null;
+		}
+		
+		try {
+			ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(payload));
+			try {
+				return in.readObject();
+			}
+			finally {
+				in.close();
+			}
+		}
+		catch (Exception e) {
+			return null;
+		}
+	}
+	
+	/**
+	 * Removes the checkpoint of the given key.
+	 * 
+	 * @param key
+	 * 		The key of the checkpoint.
+	 * @throws IOException
+	 * 		The checkpoint could not be removed while the service isn't running,
+	 * 		or the service failed to write an earlier checkpoint of the key 
+	 * 		(this removal is still saved).
+	 */
+	public void remove(String key) throws IOException 
+	{
+		IOException failure = failed.remove(key);
+		enqueue(key, REMOVED);
+		rethrow(key, failure);
+	}
+	
+	/**
+	 * Writes every saved checkpoint which hasn't been written yet in the
+	 * current thread, and waits for a write in progress by the service. This
+	 * includes checkpoints the service failed to write, the failure of a 
+	 * checkpoint is forgotten once it's written.
+	 * 
+	 * @throws IOException
+	 * 		A checkpoint could not be written, it's still waiting.
+	 */
+	public void flush() throws IOException 
+	{
+		synchronized (writeLock) {
+			for (String key : new ArrayList<String>(pending.keySet())) {
+				write(key);
+			}
+		}
+	}
+	
+	/**
+	 * Returns the keys which have a checkpoint, such as the keys of tasks that
+	 * had not finished when the process last stopped.
+	 * 
+	 * @return
+	 * 		The list of keys.
+	 */
+	public List<String> keys() 
+	{
+		Set<String> keys = new LinkedHashSet<String>();
+		
+		synchronized (writeLock) {
+			String[] names = directory.list();
+			if (names != null) {
+				for (String name : names) {
+					if (name.endsWith(EXTENSION)) {
+						keys.add(decode(name.substring(0, name.length() - EXTENSION.length())));
+					}
+				}
+			}
+		}
+		for (Map.Entry<String, byte[]> entry : pending.entrySet()) {
+			if (entry.getValue() == REMOVED) {
+				keys.remove(entry.getKey());
+			}
+			else {
+				keys.add(entry.getKey());
+			}
+		}
+		
+		return new ArrayList<String>(keys);
+	}
+	
+	/**
+	 * Adds a checkpoint to be written, it's only given to the service if the
+	 * key isn't already waiting for the service.
+	 */
+	private void enqueue(String key, byte[] payload) throws IOException 
+	{
+		pending.put(key, payload);
+		
+		if (queued.add(key)) {
+			if (!isRunning() || !addEvent(key)) {
+				queued.remove(key);
+				write(key);
+			}
+		}
+	}
+	
+	/**
+	 * Throws the failure of the service's thread to write an earlier 
+	 * checkpoint of the given key, if any. The failure is taken before the 
+	 * save so a save never throws the failure of its own checkpoint.
+	 */
+	private static void rethrow(String key, IOException failure) throws IOException 
+	{
+		if (failure != null) {
+			throw new IOException("Unable to write the checkpoint " + key, failure);
+		}
+	}
+	
+	/**
+	 * Writes the latest checkpoint of the given key. If it can't be written 
+	 * it's waiting again, unless a newer checkpoint was saved meanwhile.
+	 */
+	private void write(String key) throws IOException 
+	{
+		synchronized (writeLock) 
+		{
+			byte[] payload = pending.remove(key);
+			if (payload == null) {
+				return;
+			}
+			
+			try {
+				write(key, payload);
+				failed.remove(key);
+			}
+			catch (IOException e) {
+				pending.putIfAbsent(key, payload);
+				throw e;
+			}
+		}
+	}
+	
+	/**
+	 * Writes or removes the file of the given key.
+	 */
+	private void write(String key, byte[] payload) throws IOException 
+	{
+		File target = file(key);
+		
+		if (payload == REMOVED) {
+			if (!target.delete() && target.exists()) {
+				throw new IOException("Unable to delete " + target);
+			}
+			return;
+		}
+		
+		CRC32 crc = new CRC32();
+		crc.update(payload);
+		
+		ByteBuffer buffer = ByteBuffer.allocate(12 + payload.length);
+		buffer.putInt(payload.length);
+		buffer.putLong(crc.getValue());
+		buffer.put(payload);
+		buffer.flip();
+		
+		File temp = new File(directory, target.getName() + ".tmp");
+		try {
+			FileChannel channel = FileChannel.open(temp.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+			try {
+				while (buffer.hasRemaining()) {
+					channel.write(buffer);
+				}
+				if (sync) {
+					channel.force(true);
+				}
+			}
+			finally {
+				channel.close();
+			}
+			
+			Files.move(temp.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		}
+		catch (IOException e) {
+			temp.delete();
+			throw e;
+		}
+		writes.incrementAndGet();
+	}
+	
+	/**
+	 * Reads the payload of a checkpoint file, null if missing or corrupt.
+	 */
+	private static byte[] read(File file) 
+	{
+		if (!file.exists()) {
+			return null;
+		}
+		try {
+			ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file.toPath()));
+			int length = buffer.getInt();
+			long checksum = buffer.getLong();
+			if (length != buffer.remaining()) {
+				return null;
+			}
+			byte[] payload = new byte[length];
+			buffer.get(payload);
+			
+			CRC32 crc = new CRC32();
+			crc.update(payload);
+			return (crc.getValue() == checksum ? payload : null);
+		}
+		catch (Exception e) {
+			return null;
+		}
+	}
+	
+	/**
+	 * Returns the file of the given key.
+	 */
+	private File file(String key) 
+	{
+		try {
+			return new File(directory, URLEncoder.encode(key, "UTF-8") + EXTENSION);
+		}
+		catch (UnsupportedEncodingException e) {
+			throw new RuntimeException(e);
+		}
+	}
+	
+	/**
+	 * Returns the key of the given encoded file name.
+	 */
+	private static String decode(String name) 
+	{
+		try {
+			return URLDecoder.decode(name, "UTF-8");
+		}
+		catch (UnsupportedEncodingException e) {
+			throw new RuntimeException(e);
+		}
+	}
+	
+	/**
+	 * Sets whether each checkpoint is forced to disk before it replaces the
+	 * last one. Without forcing a power failure may lose recent checkpoints.
+	 * 
+	 * @param sync
+	 * 		True to force each checkpoint, true by default.
+	 */
+	public void setSync(boolean sync) 
+	{
+		this.sync = sync;
+	}
+	
+	/**
+	 * Returns whether each checkpoint is forced to disk.
+	 * 
+	 * @return
+	 * 		True if checkpoints are forced.
+	 */
+	public boolean isSync() 
+	{
+		return sync;
+	}
+	
+	/**
+	 * Returns the directory of the checkpoint files.
+	 * 
+	 * @return
+	 * 		The directory.
+	 */
+	public File getDirectory() 
+	{
+		return directory;
+	}
+	
+	/**
+	 * Returns the number of checkpoints saved.
+	 * 
+	 * @return
+	 * 		The number of saves.
+	 */
+	public long getSaves() 
+	{
+		return saves.get();
+	}
+	
+	/**
+	 * Returns the number of checkpoint files written, which is less than the
+	 * number of saves when saves are coalesced.
+	 * 
+	 * @return
+	 * 		The number of writes.
+	 */
+	public long getWrites() 
+	{
+		return writes.get();
+	}
+	
+	/**
+	 * Returns the number of checkpoint writes by this service's thread which
+	 * failed, the checkpoints were kept to be written again. Writes which fail
+	 * in the caller's thread are thrown instead.
+	 * 
+	 * @return
+	 * 		The number of failed writes.
+	 */
+	public long getFailures() 
+	{
+		return failures.get();
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	protected void onEvent(String key) 
+	{
+		// A save from now on gives the key to the service again.
+		queued.remove(key);
+		
+		// The failure is recorded under the lock so a flush can't miss it.
+		synchronized (writeLock) {
+			try {
+				write(key);
+			}
+			catch (IOException e) {
+				// The checkpoint is waiting again, the next save of its key 
+				// gives it back to the service.
+				failed.put(key, e);
+				failures.incrementAndGet();
+			}
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	protected void onExecute() 
+	{
+		
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	protected void onPause() 
+	{
+		
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	protected void onResume() 
+	{
+		
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	protected void onStart() 
+	{
+		
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	protected void onStop() 
+	{
+		// Write whatever was saved after the last event, what can't be written
+		// is written by the next save or flush in the caller's thread.
+		queued.clear();
+		for (String key : new ArrayList<String>(pending.keySet())) {
+			onEvent(key);
+		}
+	}
+	
+}
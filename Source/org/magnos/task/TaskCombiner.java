@@ -0,0 +1,45 @@
+/* 
+ * NOTICE OF LICENSE
+ * 
+ * This source file is subject to the Open Software License (OSL 3.0) that is 
+ * bundled with this package in the file LICENSE.txt. It is also available 
+ * through the world-wide-web at http://opensource.org/licenses/osl-3.0.php
+ * If you did not receive a copy of the license and are unable to obtain it 
+ * through the world-wide-web, please send an email to pdiffenderfer@gmail.com 
+ * so we can send you a copy immediately. If you use any of this software please
+ * notify me via my website or email, your feedback is much appreciated. 
+ * 
+ * @copyright   Copyright (c) 2011 Magnos Software (http://www.magnos.org)
+ * @license     http://opensource.org/licenses/osl-3.0.php
+ * 				Open Software License (OSL 3.0)
+ */
+
+package org.magnos.task;
+
+/**
+ * Combines two results into one. A combiner must be associative and 
+ * commutative, results are combined in the order their tasks finish and not
+ * in the order the tasks were added. The identity it's used with must not 
+ * change a result it's combined with.
+ * 
+ * @author Philip Diffenderfer
+ *
+ * @param <R>
+ * 		The result type.
+ */
+public interface TaskCombiner<R> 
+{
+	
+	/**
+	 * Combines the two given results.
+	 * 
+	 * @param a
+	 * 		The first result.
+	 * @param b
+	 * 		The second result.
+	 * @return
+	 * 		The combined result.
+	 */
+	public R combine(R a, R b);
+	
+}
@@ -0,0 +1,182 @@
+/* 
+ * NOTICE OF LICENSE
+ * 
+ * This source file is subject to the Open Software License (OSL 3.0) that is 
+ * bundled with this package in the file LICENSE.txt. It is also available 
+ * through the world-wide-web at http://opensource.org/licenses/osl-3.0.php
+ * If you did not receive a copy of the license and are unable to obtain it 
+ * through the world-wide-web, please send an email to pdiffenderfer@gmail.com 
+ * so we can send you a copy immediately. If you use any of this software please
+ * notify me via my website or email, your feedback is much appreciated. 
+ * 
+ * @copyright   Copyright (c) 2011 Magnos Software (http://www.magnos.org)
+ * @license     http://opensource.org/licenses/osl-3.0.php
+ * 				Open Software License (OSL 3.0)
+ */
+
+package org.magnos.task;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A task which executes a collection of tasks and returns a result made from
+ * theirs. This keeps the collection's tasks, prevents changing them while 
+ * the collection executes, and records the execution of the collection.
+ * 
+ * @author Philip Diffenderfer
+ *
+ * @param <T>
+ * 		The type of task in the collection.
+ * @param <R>
+ * 		The result type.
+ */
+public abstract class TaskComposite<T extends Task<?>, R> extends Task<R> 
+{
+
+	// The internal list of tasks.
+	protected List<T> list;
+	
+	// Whether tasks should be removed from the list once they finish.
+	protected volatile boolean cleanList = true;
+	
+	// Whether this task is currently running.
+	private volatile boolean running = false;
+	
+	
+	/**
+	 * Instantiates a new TaskComposite.
+	 */
+	public TaskComposite() 
+	{
+		list = new ArrayList<T>();
+	} 
+	
+	/**
+	 * Executes this collections tasks.
+	 * 
+	 * @return
+	 * 		The result made from the results of the tasks.
+	 */
+	protected abstract R onExecute();
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	protected final R execute()
+	{
+		running = true;
+		TaskRecorder.CollectionEvent recording = TaskRecorder.start(this);
+		Throwable error = null;
+		try {
+			return onExecute();	
+		}
+		catch (RuntimeException e) {
+			error = e;
+			throw e;
+		}
+		catch (Error e) {
+			error = e;
+			throw e;
+		}
+		finally {
+			TaskRecorder.finish(recording, this, error);
+			running = false;	
+		}
+	}
+	
+	/**
+	 * Sets this collection to cleaning mode. In cleaning mode once a task has
+	 * completed it will be removed from the collection.
+	 * 
+	 * @param cleanList
+	 * 		Whether this collection should be in cleaning mode.
+	 */
+	public void setClean(boolean cleanList)
+	{
+		this.cleanList = cleanList;
+	}
+	
+	/**
+	 * Returns whether this collection is in cleaning mode. In cleaning mode
+	 * once a task has completed it will be removed from the collection.
+	 * 
+	 * @return
+	 * 		True if this collection is in cleaning mode.
+	 */
+	public boolean isClean()
+	{
+		return cleanList;
+	}
+	
+	/**
+	 * Adds the given task to this collection. If this collection is currently
+	 * executing, the given task will not be added. 
+	 * 
+	 * @param task
+	 * 		The task to add.
+	 * @return
+	 * 		True if the task was added, false if the task is currently running.
+	 */
+	public boolean add(T task) 
+	{
+		return (!running && list.add(task));
+	}
+	
+	/**
+	 * Removes the given task from this collection. If this collection is 
+	 * currently executing, the given task will not be removed.
+	 * 
+	 * @param task
+	 * 		The task to remove.
+	 * @return
+	 * 		True if the task was removed, false if the task is currently running.
+	 */
+	public boolean remove(T task) 
+	{
+		return (!running && list.remove(task));
+	}
+	
+	/**
+	 * Removes the task at the given index from this collection. If this
+	 * collection is currently executing, the given task will not be removed.
+	 * 
+	 * @param index
+	 * 		The index of the task to remove.
+	 * @return
+	 * 		True if the task was removed, false if the task is currently running.
+	 */
+	public T remove(int index) 
+	{
+		return (running ? null : list.remove(index));
+	}
+	
+	/**
+	 * Returns the task at the given index from this collection. If this
+	 * collection is currently executing, null will be returned.
+	 * 
+	 * @param index
+	 * 		The index of the task to get.
+	 * @return
+	 * 		The task at the given index, or null if this collection is running.
+	 */
+	public T getTask(int index) 
+	{
+		return (running ? null : list.get(index));
+	}
+	
+	/**
+	 * Returns the size of the task collection. If this collection is currently
+	 * executing then -1 will be returned.
+	 * 
+	 * @return
+	 * 		The number of tasks in this collection, or -1 if this collection is
+	 * 		running.
+	 */
+	public int size() 
+	{
+		return (running ? - 1 : list.size());
+	}
+	
+}
@@ -0,0 +1,227 @@
+/* 
+ * NOTICE OF LICENSE
+ * 
+ * This source file is subject to the Open Software License (OSL 3.0) that is 
+ * bundled with this package in the file LICENSE.txt. It is also available 
+ * through the world-wide-web at http://opensource.org/licenses/osl-3.0.php
+ * If you did not receive a copy of the license and are unable to obtain it 
+ * through the world-wide-web, please send an email to pdiffenderfer@gmail.com 
+ * so we can send you a copy immediately. If you use any of this software please
+ * notify me via my website or email, your feedback is much appreciated. 
+ * 
+ * @copyright   Copyright (c) 2011 Magnos Software (http://www.magnos.org)
+ * @license     http://opensource.org/licenses/osl-3.0.php
+ * 				Open Software License (OSL 3.0)
+ */
+
+package org.magnos.task;
+
+import java.util.AbstractQueue;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A queue which gives a TaskService the task with the earliest deadline 
+ * first. The deadline of a task is the time it was given to its handler plus
+ * its timeout, tasks without a timeout have no deadline and are taken after
+ * every task with one. Tasks with the same deadline are taken in the order 
+ * they were added.
+ * 
+ * A task whose deadline passed while it was waiting is expired when it's 
+ * taken (it finishes as TimedOut and its listener is notified) without ever 
+ * executing, so an overloaded service only spends its time on tasks which can
+ * still finish in time. The expired task is still returned, the service skips
+ * it like the entry of a canceled task and removes it from its journal. This 
+ * applies the timeout to tasks executed asynchronously as well, normally the 
+ * timeout is only used by sync.
+ * 
+ * <pre>
+ * TaskService service = new TaskService(new TaskDeadlineQueue());
+ * service.getEventQueue().setBlocking(true);
+ * service.start();
+ * 
+ * task.setTimeout(50);
+ * task.setHandler(service);
+ * task.async();
+ * </pre>
+ * 
+ * @author Philip Diffenderfer
+ *
+ */
+public class TaskDeadlineQueue extends AbstractQueue<Task<?>> 
+{
+
+	/**
+	 * A queued task and its deadline.
+	 * 
+	 * @author Philip Diffenderfer
+	 *
+	 */
+	private static class Entry implements Comparable<Entry> 
+	{
+		// The queued task.
+		private final Task<?> task;
+		
+		// The deadline of the task in nanoseconds.
+		private final long deadline;
+		
+		// The order the task was added in.
+		private final long sequence;
+		
+		/**
+		 * Instantiates a new Entry.
+		 */
+		public Entry(Task<?> task, long deadline, long sequence) 
+		{
+			this.task = task;
+			this.deadline = deadline;
+			this.sequence = sequence;
+		}
+		
+		/**
+		 * {@inheritDoc}
+		 */
+		public int compareTo(Entry o) 
+		{
+			// Deadlines are nanoTimes and must be compared by difference, 
+			// except for tasks without a deadline.
+			if (deadline != o.deadline) {
+				if (deadline == Long.MAX_VALUE) {
+					return 1;
+				}
+				if (o.deadline == Long.MAX_VALUE) {
+					return -1;
+				}
+				return (deadline - o.deadline < 0 ? -1 : 1);
+			}
+			return (sequence < o.sequence ? -1 : (sequence == o.sequence ? 0 : 1));
+		}
+	}
+	
+	
+	// The queued tasks ordered by deadline.
+	private final PriorityQueue<Entry> queue = new PriorityQueue<Entry>();
+	
+	// The number of tasks added.
+	private long sequence;
+	
+	// The number of tasks expired by this queue.
+	private final AtomicLong expired = new AtomicLong();
+	
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public synchronized boolean offer(Task<?> e) 
+	{
+		return queue.offer(new Entry(e, e.getDeadline(), sequence++));
+	}
+
+	/**
+	 * Retrieves and removes the task with the earliest deadline. A task whose
+	 * deadline has passed is expired before it's returned, so it's returned
+	 * finished and is not executed.
+	 * 
+	 * @return
+	 * 		The task with the earliest deadline, or null if none exist.
+	 */
+	@Override
+	public Task<?> poll() 
+	{
+		Entry entry;
+		synchronized (this) {
+			entry = queue.poll();
+		}
+		
+		if (entry == null) {
+			return null;
+		}
+		
+		// Expire the task outside of the lock, its listener is notified.
+		if (entry.deadline != Long.MAX_VALUE && System.nanoTime() - entry.deadline >= 0) {
+			if (entry.task.expire()) {
+				expired.incrementAndGet();
+			}
+		}
+		
+		return entry.task;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public synchronized Task<?> peek() 
+	{
+		Entry entry = queue.peek();
+		
+		return (entry == null ? null : entry.task);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public synchronized int size() 
+	{
+		return queue.size();
+	}
+
+	/**
+	 * Removes the given task from this queue.
+	 * 
+	 * @param o
+	 * 		The task to remove.
+	 * @return
+	 * 		True if the task was queued and has been removed.
+	 */
+	@Override
+	public synchronized boolean remove(Object o) 
+	{
+		Iterator<Entry> entries = queue.iterator();
+		
+		while (entries.hasNext()) {
+			if (entries.next().task.equals(o)) {
+				entries.remove();
+				return true;
+			}
+		}
+		
+		return false;
+	}
+
+	/**
+	 * Returns an iterator over a snapshot of the queued tasks in no particular
+	 * order. The iterator does not support remove, tasks are removed with 
+	 * remove(Object).
+	 */
+	@Override
+	public synchronized Iterator<Task<?>> iterator() 
+	{
+		List<Task<?>> snapshot = new ArrayList<Task<?>>(queue.size());
+		
+		for (Entry entry : queue) {
+			snapshot.add(entry.task);
+		}
+		
+		return Collections.unmodifiableList(snapshot).iterator();
+	}
+	
+	/**
+	 * Returns the number of tasks this queue expired instead of returning 
+	 * them because their deadline had passed.
+	 * 
+	 * @return
+	 * 		The number of expired tasks.
+	 */
+	public long getExpired() 
+	{
+		return expired.get();
+	}
+	
+}
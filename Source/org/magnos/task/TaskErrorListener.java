@@ -0,0 +1,58 @@
+/* 
+ * NOTICE OF LICENSE
+ * 
+ * This source file is subject to the Open Software License (OSL 3.0) that is 
+ * bundled with this package in the file LICENSE.txt. It is also available 
+ * through the world-wide-web at http://opensource.org/licenses/osl-3.0.php
+ * If you did not receive a copy of the license and are unable to obtain it 
+ * through the world-wide-web, please send an email to pdiffenderfer@gmail.com 
+ * so we can send you a copy immediately. If you use any of this software please
+ * notify me via my website or email, your feedback is much appreciated. 
+ * 
+ * @copyright   Copyright (c) 2011 Magnos Software (http://www.magnos.org)
+ * @license     http://opensource.org/licenses/osl-3.0.php
+ * 				Open Software License (OSL 3.0)
+ */
+
+package org.magnos.task;
+
+/**
+ * A listener to the errors a service runs into while doing its own work for
+ * a task, such as removing the task from a journal or notifying the task's
+ * listener. These errors are not errors of the task, the task's outcome has
+ * already been decided when they happen.
+ * 
+ * @author Philip Diffenderfer
+ *
+ */
+public interface TaskErrorListener 
+{
+	
+	/**
+	 * The listener used by a service without one. It passes the error to the 
+	 * uncaught exception handler of the current thread without throwing it, 
+	 * so the service's thread keeps running.
+	 */
+	public static final TaskErrorListener UNCAUGHT = new TaskErrorListener() 
+	{
+		public void onError(Object source, Task<?> task, Throwable error) 
+		{
+			Thread thread = Thread.currentThread();
+			
+			thread.getUncaughtExceptionHandler().uncaughtException(thread, error);
+		}
+	};
+	
+	/**
+	 * Invoked in the thread of the service which ran into the error.
+	 * 
+	 * @param source
+	 * 		The service which ran into the error.
+	 * @param task
+	 * 		The task the service was working for, or null if it's not known.
+	 * @param error
+	 * 		The error thrown.
+	 */
+	public void onError(Object source, Task<?> task, Throwable error);
+	
+}
@@ -0,0 +1,328 @@
+/* 
+ * NOTICE OF LICENSE
+ * 
+ * This source file is subject to the Open Software License (OSL 3.0) that is 
+ * bundled with this package in the file LICENSE.txt. It is also available 
+ * through the world-wide-web at http://opensource.org/licenses/osl-3.0.php
+ * If you did not receive a copy of the license and are unable to obtain it 
+ * through the world-wide-web, please send an email to pdiffenderfer@gmail.com 
+ * so we can send you a copy immediately. If you use any of this software please
+ * notify me via my website or email, your feedback is much appreciated. 
+ * 
+ * @copyright   Copyright (c) 2011 Magnos Software (http://www.magnos.org)
+ * @license     http://opensource.org/licenses/osl-3.0.php
+ * 				Open Software License (OSL 3.0)
+ */
+
+package org.magnos.task;
+
+import java.util.AbstractQueue;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A queue which shares a TaskService fairly between tenants using deficit
+ * round-robin. Each tenant (as determined by a TaskKeyer) has its own queue,
+ * and tenants with queued tasks take turns in a round. On its turn a tenant 
+ * has as many tasks taken as its weight, so a tenant with a weight of 3 gets 
+ * three times the share of a tenant with a weight of 1 when both are busy. A 
+ * burst from one tenant only lengthens that tenant's queue, the other tenants
+ * still get their turn each round.
+ * 
+ * Offering and polling are constant time. A tenant's queue is discarded once
+ * it's empty, so only tenants with queued tasks take up memory.
+ * 
+ * <pre>
+ * TaskService service = new TaskService(new TaskFairQueue(new TaskKeyer() {
+ * 	public Object getKey(Task&lt;?&gt; task) {
+ * 		return ((TenantTask)task).getTenant();
+ * 	}
+ * }));
+ * service.getEventQueue().setBlocking(true);
+ * service.start();
+ * </pre>
+ * 
+ * @author Philip Diffenderfer
+ *
+ */
+public class TaskFairQueue extends AbstractQueue<Task<?>> 
+{
+
+	/**
+	 * The queued tasks of a single tenant.
+	 * 
+	 * @author Philip Diffenderfer
+	 *
+	 */
+	private class Tenant 
+	{
+		// The key of the tenant.
+		private final Object key;
+		
+		// The queued tasks of the tenant.
+		private final ArrayDeque<Task<?>> tasks = new ArrayDeque<Task<?>>();
+		
+		// The number of tasks left on this tenant's current turn.
+		private int deficit;
+		
+		/**
+		 * Instantiates a new Tenant.
+		 */
+		public Tenant(Object key) 
+		{
+			this.key = key;
+		}
+	}
+	
+	
+	// Determines the tenant of each task.
+	private final TaskKeyer keyer;
+	
+	// The tenants with queued tasks by key.
+	private final Map<Object, Tenant> tenants = new HashMap<Object, Tenant>();
+	
+	// The tenants with queued tasks in the order of their turns, the first is
+	// the tenant currently taking its turn.
+	private final ArrayDeque<Tenant> active = new ArrayDeque<Tenant>();
+	
+	// The weights of the tenants which don't use the default weight.
+	private final Map<Object, Integer> weights = new HashMap<Object, Integer>();
+	
+	// The weight of tenants not given a weight.
+	private int defaultWeight = 1;
+	
+	// The total number of queued tasks.
+	private int size;
+	
+	
+	/**
+	 * Instantiates a new TaskFairQueue.
+	 * 
+	 * @param keyer
+	 * 		Determines the tenant of each task.
+	 */
+	public TaskFairQueue(TaskKeyer keyer) 
+	{
+		this.keyer = keyer;
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public synchronized boolean offer(Task<?> e) 
+	{
+		Object key = keyer.getKey(e);
+		Tenant tenant = tenants.get(key);
+		
+		if (tenant == null) {
+			tenant = new Tenant(key);
+			tenants.put(key, tenant);
+			active.addLast(tenant);
+		}
+		
+		tenant.tasks.addLast(e);
+		size++;
+		
+		return true;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public synchronized Task<?> poll() 
+	{
+		Tenant tenant = active.peekFirst();
+		
+		if (tenant == null) {
+			return null;
+		}
+		
+		// The tenant is starting its turn.
+		if (tenant.deficit == 0) {
+			tenant.deficit = getWeight(tenant.key);
+		}
+		
+		Task<?> task = tenant.tasks.pollFirst();
+		tenant.deficit--;
+		size--;
+		
+		// An empty tenant leaves the round, a tenant which used its turn goes
+		// to the end of the round.
+		if (tenant.tasks.isEmpty()) {
+			active.pollFirst();
+			tenants.remove(tenant.key);
+		}
+		else if (tenant.deficit == 0) {
+			active.addLast(active.pollFirst());
+		}
+		
+		return task;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public synchronized Task<?> peek() 
+	{
+		Tenant tenant = active.peekFirst();
+		
+		return (tenant == null ? null : tenant.tasks.peekFirst());
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public synchronized int size() 
+	{
+		return size;
+	}
+
+	/**
+	 * Removes the given task from the queue of its tenant, a tenant left 
+	 * without tasks leaves the round.
+	 * 
+	 * @param o
+	 * 		The task to remove.
+	 * @return
+	 * 		True if the task was queued and has been removed.
+	 */
+	@Override
+	public synchronized boolean remove(Object o) 
+	{
+		if (!(o instanceof Task)) {
+			return false;
+		}
+		
+		Tenant tenant = tenants.get(keyer.getKey((Task<?>)o));
+		
+		if (tenant == null || !tenant.tasks.remove(o)) {
+			return false;
+		}
+		
+		size--;
+		
+		if (tenant.tasks.isEmpty()) {
+			active.remove(tenant);
+			tenants.remove(tenant.key);
+		}
+		
+		return true;
+	}
+
+	/**
+	 * Returns an iterator over a snapshot of the queued tasks, grouped by 
+	 * tenant in the order of their turns. Removing a task through the 
+	 * iterator removes it from this queue.
+	 */
+	@Override
+	public synchronized Iterator<Task<?>> iterator() 
+	{
+		List<Task<?>> snapshot = new ArrayList<Task<?>>(size);
+		
+		for (Tenant tenant : active) {
+			snapshot.addAll(tenant.tasks);
+		}
+		
+		final Iterator<Task<?>> tasks = snapshot.iterator();
+		
+		return new Iterator<Task<?>>() 
+		{
+			// The task last returned by next, null once removed.
+			private Task<?> last;
+			
+			public boolean hasNext() 
+			{
+				return tasks.hasNext();
+			}
+			
+			public Task<?> next() 
+			{
+				return (last = tasks.next());
+			}
+			
+			public void remove() 
+			{
+				if (last == null) {
+					throw new IllegalStateException();
+				}
+				TaskFairQueue.this.remove(last);
+				last = null;
+			}
+		};
+	}
+	
+	/**
+	 * Sets the weight of the given tenant, the number of tasks it has taken 
+	 * on each of its turns.
+	 * 
+	 * @param key
+	 * 		The tenant as returned by the keyer.
+	 * @param weight
+	 * 		The weight of the tenant, at least 1.
+	 */
+	public synchronized void setWeight(Object key, int weight) 
+	{
+		weights.put(key, Math.max(1, weight));
+	}
+	
+	/**
+	 * Returns the weight of the given tenant.
+	 * 
+	 * @param key
+	 * 		The tenant as returned by the keyer.
+	 * @return
+	 * 		The number of tasks it has taken on each of its turns.
+	 */
+	public synchronized int getWeight(Object key) 
+	{
+		Integer weight = weights.get(key);
+		
+		return (weight == null ? defaultWeight : weight);
+	}
+	
+	/**
+	 * Sets the weight of tenants which have not been given a weight.
+	 * 
+	 * @param weight
+	 * 		The default weight, at least 1. By default this is 1.
+	 */
+	public synchronized void setDefaultWeight(int weight) 
+	{
+		this.defaultWeight = Math.max(1, weight);
+	}
+	
+	/**
+	 * Returns the number of tasks queued for the given tenant.
+	 * 
+	 * @param key
+	 * 		The tenant as returned by the keyer.
+	 * @return
+	 * 		The number of queued tasks of the tenant.
+	 */
+	public synchronized int size(Object key) 
+	{
+		Tenant tenant = tenants.get(key);
+		
+		return (tenant == null ? 0 : tenant.tasks.size());
+	}
+	
+	/**
+	 * Returns the number of tenants with queued tasks.
+	 * 
+	 * @return
+	 * 		The number of tenants in the current round.
+	 */
+	public synchronized int getTenantCount() 
+	{
+		return active.size();
+	}
+	
+}
@@ -0,0 +1,232 @@
+/* 
+ * NOTICE OF LICENSE
+ * 
+ * This source file is subject to the Open Software License (OSL 3.0) that is 
+ * bundled with this package in the file LICENSE.txt. It is also available 
+ * through the world-wide-web at http://opensource.org/licenses/osl-3.0.php
+ * If you did not receive a copy of the license and are unable to obtain it 
+ * through the world-wide-web, please send an email to pdiffenderfer@gmail.com 
+ * so we can send you a copy immediately. If you use any of this software please
+ * notify me via my website or email, your feedback is much appreciated. 
+ * 
+ * @copyright   Copyright (c) 2011 Magnos Software (http://www.magnos.org)
+ * @license     http://opensource.org/licenses/osl-3.0.php
+ * 				Open Software License (OSL 3.0)
+ */
+
+package org.magnos.task;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.CompletionHandler;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * A task which reads a file (or a range of it) with an asynchronous file
+ * channel. The file is read a pooled direct buffer at a time, each read 
+ * being issued from the completion of the previous one, so no thread waits
+ * on the disk while the task runs.
+ * 
+ * <pre>
+ * TaskFileRead read = new TaskFileRead(Paths.get("data.bin"));
+ * read.setHandler(service);
+ * byte[] data = read.sync();
+ * </pre>
+ * 
+ * @author Philip Diffenderfer
+ *
+ */
+public class TaskFileRead extends TaskAsync<byte[]> 
+{
+	
+	/**
+	 * Handles the completion of each read, the attachment is the offset in
+	 * the data the read was for.
+	 */
+	private class Reader implements CompletionHandler<Integer, Integer> 
+	{
+		
+		/**
+		 * {@inheritDoc}
+		 */
+		public void completed(Integer read, Integer offset) 
+		{
+			// The file ended before the range did.
+			if (read < 0) {
+				data = Arrays.copyOf(data, offset);
+				finish(null);
+				return;
+			}
+			// The task timed out, stop reading.
+			if (isFinished()) {
+				finish(null);
+				return;
+			}
+			
+			buffer.flip();
+			buffer.get(data, offset, read);
+			read(offset + read);
+		}
+		
+		/**
+		 * {@inheritDoc}
+		 */
+		public void failed(Throwable error, Integer offset) 
+		{
+			finish(error);
+		}
+	}
+	
+	
+	// The file to read.
+	private final Path path;
+	
+	// The position in the file to start reading from.
+	private final long position;
+	
+	// The number of bytes to read, or -1 to read to the end of the file.
+	private final long length;
+	
+	// Handles the completion of each read.
+	private final Reader reader = new Reader();
+	
+	// The pool of the buffers read into.
+	private volatile TaskBufferPool pool = TaskBufferPool.getDefault();
+	
+	// The channel, buffer, and data of the read in progress.
+	private AsynchronousFileChannel channel;
+	private ByteBuffer buffer;
+	private byte[] data;
+	
+	
+	/**
+	 * Instantiates a new TaskFileRead which reads the entire file.
+	 * 
+	 * @param path
+	 * 		The file to read.
+	 */
+	public TaskFileRead(Path path) 
+	{
+		this(path, 0, -1);
+	}
+	
+	/**
+	 * Instantiates a new TaskFileRead which reads a range of the file.
+	 * 
+	 * @param path
+	 * 		The file to read.
+	 * @param position
+	 * 		The position in the file to start reading from.
+	 * @param length
+	 * 		The number of bytes to read, or -1 to read to the end of the file.
+	 * 		Fewer bytes are returned if the file ends first.
+	 */
+	public TaskFileRead(Path path, long position, long length) 
+	{
+		this.path = path;
+		this.position = position;
+		this.length = length;
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	protected void start() 
+	{
+		try {
+			channel = AsynchronousFileChannel.open(path, StandardOpenOption.READ);
+			
+			long total = (length < 0 ? Math.max(0, channel.size() - position) : length);
+			if (total > Integer.MAX_VALUE) {
+				finish(new IOException("Unable to read more than " + Integer.MAX_VALUE + " bytes into an array"));
+				return;
+			}
+			
+			data = new byte[(int)total];
+			buffer = pool.acquire();
+		}
+		catch (Throwable e) {
+			// Close the channel if it was opened and release the buffer.
+			finish(e);
+			return;
+		}
+		
+		read(0);
+	}
+	
+	/**
+	 * Reads the next part of the file into the buffer.
+	 */
+	private void read(int offset) 
+	{
+		if (offset == data.length) {
+			finish(null);
+			return;
+		}
+		
+		buffer.clear();
+		buffer.limit(Math.min(buffer.capacity(), data.length - offset));
+		
+		try {
+			channel.read(buffer, position + offset, offset, reader);
+		}
+		catch (RuntimeException e) {
+			finish(e);
+		}
+	}
+	
+	/**
+	 * Releases the buffer, closes the channel, and completes the task.
+	 */
+	private void finish(Throwable error) 
+	{
+		byte[] result = data;
+		
+		pool.release(buffer);
+		buffer = null;
+		data = null;
+		
+		if (channel != null) {
+			try {
+				channel.close();
+			}
+			catch (IOException e) {
+				// ignore, the read already completed.
+			}
+			channel = null;
+		}
+		
+		if (error == null) {
+			succeed(result);
+		}
+		else {
+			fail(error);
+		}
+	}
+	
+	/**
+	 * Sets the pool of the buffers the file is read into.
+	 * 
+	 * @param pool
+	 * 		The pool of direct buffers.
+	 */
+	public void setPool(TaskBufferPool pool) 
+	{
+		this.pool = pool;
+	}
+	
+	/**
+	 * Returns the file this task reads.
+	 * 
+	 * @return
+	 * 		The path of the file.
+	 */
+	public Path getPath() 
+	{
+		return path;
+	}
+	
+}
@@ -0,0 +1,284 @@
+/* 
+ * NOTICE OF LICENSE
+ * 
+ * This source file is subject to the Open Software License (OSL 3.0) that is 
+ * bundled with this package in the file LICENSE.txt. It is also available 
+ * through the world-wide-web at http://opensource.org/licenses/osl-3.0.php
+ * If you did not receive a copy of the license and are unable to obtain it 
+ * through the world-wide-web, please send an email to pdiffenderfer@gmail.com 
+ * so we can send you a copy immediately. If you use any of this software please
+ * notify me via my website or email, your feedback is much appreciated. 
+ * 
+ * @copyright   Copyright (c) 2011 Magnos Software (http://www.magnos.org)
+ * @license     http://opensource.org/licenses/osl-3.0.php
+ * 				Open Software License (OSL 3.0)
+ */
+
+package org.magnos.task;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A task which scans a file in parallel. The file is split into page aligned 
+ * ranges, each range is memory mapped and scanned by its own task given to 
+ * the range handler, and the results of the ranges are combined with a 
+ * TaskReduction. The contents of the file are read straight from the page 
+ * cache, nothing is copied onto the heap.
+ * 
+ * Each range's buffer extends past the bytes it owns by the overlap, so a 
+ * match which starts in a range but crosses into the next one can be seen 
+ * whole. To count each match once a scan should only count matches that 
+ * start within the owned bytes, an overlap of the longest match minus one
+ * is then enough.
+ * 
+ * <pre>
+ * TaskFileScan&lt;Long&gt; lines = new TaskFileScan&lt;Long&gt;(path, 0, 0L, sum) {
+ * 	protected Long scan(ByteBuffer range, long offset, int owned) {
+ * 		long count = 0;
+ * 		for (int i = 0; i &lt; owned; i++) {
+ * 			if (range.get(i) == '\n') count++;
+ * 		}
+ * 		return count;
+ * 	}
+ * };
+ * lines.setRangeHandler(pool);
+ * Long total = lines.sync();
+ * </pre>
+ * 
+ * @author Philip Diffenderfer
+ *
+ * @param <R>
+ * 		The result type.
+ */
+public abstract class TaskFileScan<R> extends Task<R> 
+{
+	
+	/**
+	 * The alignment of the start of each range.
+	 */
+	public static final int PAGE_SIZE = 4096;
+	
+	/**
+	 * The smallest range chosen when no range size is set.
+	 */
+	public static final long MIN_RANGE_SIZE = 1024 * 1024;
+	
+	/**
+	 * The largest range, a mapped buffer is limited to 2GB.
+	 */
+	public static final long MAX_RANGE_SIZE = 1024 * 1024 * 1024;
+	
+	/**
+	 * Scans a single range of the file.
+	 */
+	private class Range extends Task<R> 
+	{
+		// The channel of the file.
+		private final FileChannel channel;
+		// The position of the range in the file.
+		private final long offset;
+		// The number of bytes the range owns.
+		private final int owned;
+		// The number of bytes mapped, the owned bytes and the overlap.
+		private final int mapped;
+		
+		private Range(FileChannel channel, long offset, int owned, int mapped) {
+			this.channel = channel;
+			this.offset = offset;
+			this.owned = owned;
+			this.mapped = mapped;
+		}
+		
+		protected R execute() {
+			try {
+				return scan(channel.map(FileChannel.MapMode.READ_ONLY, offset, mapped), offset, owned);
+			}
+			catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+		}
+	}
+	
+	
+	// The file to scan.
+	private final Path path;
+	
+	// The number of bytes past its owned bytes each range can see.
+	private final int overlap;
+	
+	// The result of a file with no ranges, and combines range results.
+	private final R identity;
+	private final TaskCombiner<R> combiner;
+	
+	// The handler of the range tasks, or null to scan them in this thread.
+	private volatile TaskEventHandler rangeHandler;
+	
+	// The number of bytes each range owns, or 0 to choose from the file size.
+	private volatile long rangeSize;
+	
+	
+	/**
+	 * Instantiates a new TaskFileScan.
+	 * 
+	 * @param path
+	 * 		The file to scan.
+	 * @param overlap
+	 * 		The number of bytes past its owned bytes each range can see.
+	 * @param identity
+	 * 		The result of scanning an empty file, combining it with a result
+	 * 		does not change the result.
+	 * @param combiner
+	 * 		Combines the results of two ranges, this must be associative and
+	 * 		commutative since ranges are combined in the order they finish.
+	 */
+	public TaskFileScan(Path path, int overlap, R identity, TaskCombiner<R> combiner) 
+	{
+		this.path = path;
+		this.overlap = overlap;
+		this.identity = identity;
+		this.combiner = combiner;
+	}
+	
+	/**
+	 * Scans a range of the file. This is invoked by the range handler, once 
+	 * for each range and concurrently with the other ranges.
+	 * 
+	 * @param range
+	 * 		The mapped bytes of the range from index zero, the owned bytes 
+	 * 		followed by the overlap (which is shorter at the end of the file).
+	 * @param offset
+	 * 		The position of the range in the file.
+	 * @param owned
+	 * 		The number of bytes the range owns, matches starting at or past 
+	 * 		this index belong to the next range.
+	 * @return
+	 * 		The result of the range.
+	 */
+	protected abstract R scan(ByteBuffer range, long offset, int owned);
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	protected R execute() 
+	{
+		FileChannel channel = null;
+		try 
+		{
+			channel = FileChannel.open(path, StandardOpenOption.READ);
+			
+			long size = channel.size();
+			long step = getRangeSize(size);
+			
+			TaskReduction<R> reduction = new TaskReduction<R>(identity, combiner);
+			
+			for (long offset = 0; offset < size; offset += step) {
+				int owned = (int)Math.min(step, size - offset);
+				int mapped = (int)Math.min(owned + (long)overlap, size - offset);
+				
+				Range range = new Range(channel, offset, owned, mapped);
+				if (rangeHandler != null) {
+					range.setHandler(rangeHandler);
+				}
+				reduction.add(range);
+			}
+			
+			R result = reduction.sync();
+			
+			Throwable error = reduction.getError();
+			if (error instanceof RuntimeException) {
+				throw (RuntimeException)error;
+			}
+			if (error instanceof Error) {
+				throw (Error)error;
+			}
+			
+			return result;
+		}
+		catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+		finally {
+			if (channel != null) {
+				try {
+					channel.close();
+				}
+				catch (IOException e) {
+					// ignore, the scan already completed.
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Returns the number of bytes each range of a file of the given size owns,
+	 * a multiple of the page size.
+	 */
+	private long getRangeSize(long size) 
+	{
+		long step = rangeSize;
+		
+		// Enough ranges for each processor to have a few.
+		if (step <= 0) {
+			step = size / (Runtime.getRuntime().availableProcessors() * 4);
+			step = Math.max(MIN_RANGE_SIZE, step);
+		}
+		
+		step = Math.min(MAX_RANGE_SIZE, step);
+		step = (step + PAGE_SIZE - 1) / PAGE_SIZE * PAGE_SIZE;
+		
+		return step;
+	}
+	
+	/**
+	 * Sets the handler of the tasks which scan each range, typically a pool.
+	 * 
+	 * @param rangeHandler
+	 * 		The handler, or null if the ranges are scanned one after another 
+	 * 		in the thread executing this task.
+	 */
+	public void setRangeHandler(TaskEventHandler rangeHandler) 
+	{
+		this.rangeHandler = rangeHandler;
+	}
+	
+	/**
+	 * Returns the handler of the tasks which scan each range.
+	 * 
+	 * @return
+	 * 		The handler, or null if the ranges are scanned in this thread.
+	 */
+	public TaskEventHandler getRangeHandler() 
+	{
+		return rangeHandler;
+	}
+	
+	/**
+	 * Sets the number of bytes each range owns, this is rounded up to a 
+	 * multiple of the page size.
+	 * 
+	 * @param rangeSize
+	 * 		The size in bytes, or 0 to choose a size from the file size and the
+	 * 		number of processors.
+	 */
+	public void setRangeSize(long rangeSize) 
+	{
+		this.rangeSize = rangeSize;
+	}
+	
+	/**
+	 * Returns the file this task scans.
+	 * 
+	 * @return
+	 * 		The path of the file.
+	 */
+	public Path getPath() 
+	{
+		return path;
+	}
+	
+}
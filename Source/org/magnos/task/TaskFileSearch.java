@@ -0,0 +1,152 @@
+/* 
+ * NOTICE OF LICENSE
+ * 
+ * This source file is subject to the Open Software License (OSL 3.0) that is 
+ * bundled with this package in the file LICENSE.txt. It is also available 
+ * through the world-wide-web at http://opensource.org/licenses/osl-3.0.php
+ * If you did not receive a copy of the license and are unable to obtain it 
+ * through the world-wide-web, please send an email to pdiffenderfer@gmail.com 
+ * so we can send you a copy immediately. If you use any of this software please
+ * notify me via my website or email, your feedback is much appreciated. 
+ * 
+ * @copyright   Copyright (c) 2011 Magnos Software (http://www.magnos.org)
+ * @license     http://opensource.org/licenses/osl-3.0.php
+ * 				Open Software License (OSL 3.0)
+ */
+
+package org.magnos.task;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+
+/**
+ * A task which searches a file for a sequence of bytes in parallel, the 
+ * result is the position of the first occurrence or the number of 
+ * occurrences. This is the file equivalent of String.indexOf, the file is 
+ * memory mapped a range at a time by TaskFileScan so it never needs to fit
+ * on the heap.
+ * 
+ * <pre>
+ * TaskFileSearch search = new TaskFileSearch(path, "needle", false);
+ * search.setRangeHandler(pool);
+ * long position = search.sync();
+ * </pre>
+ * 
+ * @author Philip Diffenderfer
+ *
+ */
+public class TaskFileSearch extends TaskFileScan<Long> 
+{
+	
+	/**
+	 * Keeps the earliest position, ignoring -1.
+	 */
+	private static final TaskCombiner<Long> FIRST = new TaskCombiner<Long>() {
+		public Long combine(Long a, Long b) {
+			if (a < 0) {
+				return b;
+			}
+			if (b < 0) {
+				return a;
+			}
+			return Math.min(a, b);
+		}
+	};
+	
+	/**
+	 * Adds the counts.
+	 */
+	private static final TaskCombiner<Long> SUM = new TaskCombiner<Long>() {
+		public Long combine(Long a, Long b) {
+			return a + b;
+		}
+	};
+	
+	// The bytes searched for.
+	private final byte[] needle;
+	
+	// Whether occurrences are counted instead of the first being found.
+	private final boolean counting;
+	
+	
+	/**
+	 * Instantiates a new TaskFileSearch for a string encoded in UTF-8.
+	 * 
+	 * @param path
+	 * 		The file to search.
+	 * @param needle
+	 * 		The string to search for.
+	 * @param counting
+	 * 		True for the number of occurrences, false for the position of the
+	 * 		first occurrence.
+	 */
+	public TaskFileSearch(Path path, String needle, boolean counting) 
+	{
+		this(path, needle.getBytes(Charset.forName("UTF-8")), counting);
+	}
+	
+	/**
+	 * Instantiates a new TaskFileSearch.
+	 * 
+	 * @param path
+	 * 		The file to search.
+	 * @param needle
+	 * 		The bytes to search for, at least one.
+	 * @param counting
+	 * 		True for the number of occurrences (overlapping occurrences are 
+	 * 		each counted), false for the position of the first occurrence.
+	 */
+	public TaskFileSearch(Path path, byte[] needle, boolean counting) 
+	{
+		super(path, needle.length - 1, counting ? 0L : -1L, counting ? SUM : FIRST);
+		
+		if (needle.length == 0) {
+			throw new IllegalArgumentException("needle must not be empty");
+		}
+		
+		this.needle = needle;
+		this.counting = counting;
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	protected Long scan(ByteBuffer range, long offset, int owned) 
+	{
+		final int last = Math.min(owned, range.limit() - needle.length + 1);
+		final byte first = needle[0];
+		
+		long count = 0;
+		
+		for (int i = 0; i < last; i++) {
+			if (range.get(i) != first) {
+				continue;
+			}
+			int k = 1;
+			while (k < needle.length && range.get(i + k) == needle[k]) {
+				k++;
+			}
+			if (k == needle.length) {
+				if (!counting) {
+					return offset + i;
+				}
+				count++;
+			}
+		}
+		
+		return (counting ? count : -1L);
+	}
+	
+	/**
+	 * Returns whether occurrences are counted instead of the first found.
+	 * 
+	 * @return
+	 * 		True if the result is a count, false if it's a position.
+	 */
+	public boolean isCounting() 
+	{
+		return counting;
+	}
+	
+}
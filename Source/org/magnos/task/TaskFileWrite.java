@@ -0,0 +1,208 @@
+/* 
+ * NOTICE OF LICENSE
+ * 
+ * This source file is subject to the Open Software License (OSL 3.0) that is 
+ * bundled with this package in the file LICENSE.txt. It is also available 
+ * through the world-wide-web at http://opensource.org/licenses/osl-3.0.php
+ * If you did not receive a copy of the license and are unable to obtain it 
+ * through the world-wide-web, please send an email to pdiffenderfer@gmail.com 
+ * so we can send you a copy immediately. If you use any of this software please
+ * notify me via my website or email, your feedback is much appreciated. 
+ * 
+ * @copyright   Copyright (c) 2011 Magnos Software (http://www.magnos.org)
+ * @license     http://opensource.org/licenses/osl-3.0.php
+ * 				Open Software License (OSL 3.0)
+ */
+
+package org.magnos.task;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.CompletionHandler;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A task which writes data to a file with an asynchronous file channel. The
+ * data is copied into a pooled direct buffer a part at a time and each write
+ * is issued from the completion of the previous one, so no thread waits on 
+ * the disk while the task runs. The result is the number of bytes written.
+ * 
+ * <pre>
+ * TaskFileWrite write = new TaskFileWrite(Paths.get("data.bin"), 0, data);
+ * write.setHandler(service);
+ * write.async();
+ * </pre>
+ * 
+ * @author Philip Diffenderfer
+ *
+ */
+public class TaskFileWrite extends TaskAsync<Integer> 
+{
+	
+	/**
+	 * Handles the completion of each write, the attachment is the offset in
+	 * the data the write started at.
+	 */
+	private class Writer implements CompletionHandler<Integer, Integer> 
+	{
+		
+		/**
+		 * {@inheritDoc}
+		 */
+		public void completed(Integer written, Integer offset) 
+		{
+			// The buffer may be partially written, write the rest of it.
+			if (buffer.hasRemaining()) {
+				try {
+					channel.write(buffer, position + offset + buffer.position(), offset, this);
+				}
+				catch (RuntimeException e) {
+					finish(e);
+				}
+			}
+			else {
+				write(offset + buffer.limit());
+			}
+		}
+		
+		/**
+		 * {@inheritDoc}
+		 */
+		public void failed(Throwable error, Integer offset) 
+		{
+			finish(error);
+		}
+	}
+	
+	
+	// The file to write.
+	private final Path path;
+	
+	// The position in the file to start writing at.
+	private final long position;
+	
+	// The data to write.
+	private final byte[] data;
+	
+	// Handles the completion of each write.
+	private final Writer writer = new Writer();
+	
+	// The pool of the buffers written from.
+	private volatile TaskBufferPool pool = TaskBufferPool.getDefault();
+	
+	// The channel and buffer of the write in progress.
+	private AsynchronousFileChannel channel;
+	private ByteBuffer buffer;
+	
+	
+	/**
+	 * Instantiates a new TaskFileWrite. The file is created if it doesn't 
+	 * exist.
+	 * 
+	 * @param path
+	 * 		The file to write.
+	 * @param position
+	 * 		The position in the file to start writing at.
+	 * @param data
+	 * 		The data to write.
+	 */
+	public TaskFileWrite(Path path, long position, byte[] data) 
+	{
+		this.path = path;
+		this.position = position;
+		this.data = data;
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	protected void start() 
+	{
+		try {
+			channel = AsynchronousFileChannel.open(path, StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+			buffer = pool.acquire();
+		}
+		catch (Throwable e) {
+			// Close the channel if it was opened and release the buffer.
+			finish(e);
+			return;
+		}
+		
+		write(0);
+	}
+	
+	/**
+	 * Copies the next part of the data into the buffer and writes it.
+	 */
+	private void write(int offset) 
+	{
+		if (offset == data.length) {
+			finish(null);
+			return;
+		}
+		
+		buffer.clear();
+		buffer.put(data, offset, Math.min(buffer.capacity(), data.length - offset));
+		buffer.flip();
+		
+		try {
+			channel.write(buffer, position + offset, offset, writer);
+		}
+		catch (RuntimeException e) {
+			finish(e);
+		}
+	}
+	
+	/**
+	 * Releases the buffer, closes the channel, and completes the task.
+	 */
+	private void finish(Throwable error) 
+	{
+		pool.release(buffer);
+		buffer = null;
+		
+		if (channel != null) {
+			try {
+				channel.close();
+			}
+			catch (IOException e) {
+				if (error == null) {
+					error = e;
+				}
+			}
+			channel = null;
+		}
+		
+		if (error == null) {
+			succeed(data.length);
+		}
+		else {
+			fail(error);
+		}
+	}
+	
+	/**
+	 * Sets the pool of the buffers the data is written from.
+	 * 
+	 * @param pool
+	 * 		The pool of direct buffers.
+	 */
+	public void setPool(TaskBufferPool pool) 
+	{
+		this.pool = pool;
+	}
+	
+	/**
+	 * Returns the file this task writes.
+	 * 
+	 * @return
+	 * 		The path of the file.
+	 */
+	public Path getPath() 
+	{
+		return path;
+	}
+	
+}
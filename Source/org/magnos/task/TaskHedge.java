@@ -0,0 +1,369 @@
+/* 
+ * NOTICE OF LICENSE
+ * 
+ * This source file is subject to the Open Software License (OSL 3.0) that is 
+ * bundled with this package in the file LICENSE.txt. It is also available 
+ * through the world-wide-web at http://opensource.org/licenses/osl-3.0.php
+ * If you did not receive a copy of the license and are unable to obtain it 
+ * through the world-wide-web, please send an email to pdiffenderfer@gmail.com 
+ * so we can send you a copy immediately. If you use any of this software please
+ * notify me via my website or email, your feedback is much appreciated. 
+ * 
+ * @copyright   Copyright (c) 2011 Magnos Software (http://www.magnos.org)
+ * @license     http://opensource.org/licenses/osl-3.0.php
+ * 				Open Software License (OSL 3.0)
+ */
+
+package org.magnos.task;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A task which executes an attempt and, if the attempt hasn't finished after
+ * the delay chosen by its policy, executes a duplicate attempt on another 
+ * handler. The first attempt to succeed is the result of the hedge and the 
+ * other attempt is canceled if it hasn't started running (an attempt which
+ * is already running finishes and its result is ignored). The policy's 
+ * budget caps how many duplicates are launched.
+ * 
+ * The hedge fails only when every attempt launched has failed, an attempt 
+ * which fails before the delay is not hedged.
+ * 
+ * <pre>
+ * TaskHedgePolicy policy = new TaskHedgePolicy(50, TimeUnit.MILLISECONDS);
+ * 
+ * TaskHedge&lt;Row&gt; lookup = new TaskHedge&lt;Row&gt;(policy, replicaA, replicaB) {
+ * 	protected Task&lt;Row&gt; createAttempt() {
+ * 		return new LookupTask(key);
+ * 	}
+ * };
+ * Row row = lookup.sync();
+ * </pre>
+ * 
+ * @author Philip Diffenderfer
+ *
+ * @param <R>
+ * 		The result type.
+ */
+public abstract class TaskHedge<R> extends TaskAsync<R> 
+{
+	
+	/**
+	 * An attempt of the hedge and the listener to it.
+	 */
+	private class Attempt implements TaskInlineListener<R> 
+	{
+		// The task of the attempt.
+		private final Task<R> task;
+		// Whether this attempt is the duplicate.
+		private final boolean duplicate;
+		// When the attempt was launched in nanoseconds.
+		private final long launched = System.nanoTime();
+		// Whether the attempt failed.
+		private volatile boolean failed;
+		// Whether the latency of the attempt was recorded, guarded by the lock.
+		private boolean recorded;
+		
+		private Attempt(Task<R> task, boolean duplicate) {
+			this.task = task;
+			this.duplicate = duplicate;
+		}
+		
+		/**
+		 * {@inheritDoc}
+		 */
+		public void onTaskSuccess(Task<R> source, R result) 
+		{
+			onSuccess(this, result);
+		}
+		
+		/**
+		 * {@inheritDoc}
+		 */
+		public void onTaskError(Task<R> source, Throwable error) 
+		{
+			onFailure(this, error);
+		}
+		
+		/**
+		 * {@inheritDoc}
+		 */
+		public void onTaskCancel(Task<R> source) 
+		{
+			onFailure(this, new CancellationException("The attempt was canceled"));
+		}
+		
+		/**
+		 * {@inheritDoc}
+		 */
+		public void onTaskTimeout(Task<R> source) 
+		{
+			onFailure(this, new CancellationException("The attempt timed out"));
+		}
+		
+		/**
+		 * {@inheritDoc}
+		 */
+		public void onTaskFinish(Task<R> source) 
+		{
+		}
+	}
+	
+	
+	// Decides the delay and budget of hedging.
+	private final TaskHedgePolicy policy;
+	
+	// The handler of the first attempt and of the duplicate.
+	private final TaskEventHandler handler;
+	private final TaskEventHandler hedgeHandler;
+	
+	// Launches the duplicate once the delay elapses.
+	private final Runnable launcher = new Runnable() {
+		public void run() {
+			hedge();
+		}
+	};
+	
+	// Guards the attempts.
+	private final Object lock = new Object();
+	
+	// The attempts of the current execution.
+	private Attempt primary;
+	private Attempt duplicate;
+	
+	// The first attempt to succeed.
+	private Attempt winner;
+	
+	// The pending launch of the duplicate, if any.
+	private ScheduledFuture<?> pending;
+	
+	
+	/**
+	 * Instantiates a new TaskHedge.
+	 * 
+	 * @param policy
+	 * 		Decides the delay and budget of hedging.
+	 * @param handler
+	 * 		The handler of the first attempt, or null to keep the handler the 
+	 * 		attempt was created with.
+	 * @param hedgeHandler
+	 * 		The handler of the duplicate attempt, or null to keep the handler
+	 * 		the attempt was created with.
+	 */
+	public TaskHedge(TaskHedgePolicy policy, TaskEventHandler handler, TaskEventHandler hedgeHandler) 
+	{
+		this.policy = policy;
+		this.handler = handler;
+		this.hedgeHandler = hedgeHandler;
+	}
+	
+	/**
+	 * Creates an attempt, this is invoked for the first attempt and again if
+	 * a duplicate is launched. Each attempt must be a new task.
+	 * 
+	 * @return
+	 * 		The task of the attempt.
+	 */
+	protected abstract Task<R> createAttempt();
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	protected void start() 
+	{
+		policy.onTask();
+		
+		Task<R> task = createAttempt();
+		long delay = policy.getDelay(task.getClass());
+		
+		Attempt first = attempt(task, false, handler);
+		synchronized (lock) {
+			primary = first;
+			duplicate = null;
+			winner = null;
+		}
+		
+		launch(first);
+		
+		synchronized (lock) {
+			if (!isFinished() && !primary.failed) {
+				pending = policy.getTimer().schedule(launcher, delay, TimeUnit.NANOSECONDS);
+			}
+		}
+	}
+	
+	/**
+	 * Launches the duplicate attempt if the hedge hasn't finished and the 
+	 * budget allows it.
+	 */
+	private void hedge() 
+	{
+		synchronized (lock) {
+			if (isDecided() || duplicate != null) {
+				return;
+			}
+		}
+		
+		Attempt attempt = attempt(createAttempt(), true, hedgeHandler);
+		
+		// The hedge may have been decided while the attempt was created, the
+		// budget is only spent on a duplicate which is launched.
+		synchronized (lock) {
+			if (isDecided() || duplicate != null || !policy.tryHedge()) {
+				return;
+			}
+			duplicate = attempt;
+		}
+		
+		launch(attempt);
+		
+		// The first attempt may have won before the duplicate was given to its
+		// handler, when it was too early to cancel.
+		boolean lost;
+		synchronized (lock) {
+			lost = (winner != null && winner != attempt);
+		}
+		if (lost) {
+			attempt.task.cancel();
+		}
+	}
+	
+	/**
+	 * Returns whether the outcome of the hedge is known, the lock must be held.
+	 */
+	private boolean isDecided() 
+	{
+		return (isFinished() || winner != null || primary.failed);
+	}
+	
+	/**
+	 * Creates the attempt of a task.
+	 */
+	private Attempt attempt(Task<R> task, boolean isDuplicate, TaskEventHandler target) 
+	{
+		if (target != null) {
+			task.setHandler(target);
+		}
+		
+		return new Attempt(task, isDuplicate);
+	}
+	
+	/**
+	 * Gives an attempt to its handler.
+	 */
+	private void launch(Attempt attempt) 
+	{
+		if (!attempt.task.async(attempt)) {
+			onFailure(attempt, new IllegalStateException("The attempt was already started"));
+		}
+	}
+	
+	/**
+	 * Finishes the hedge with the first successful attempt.
+	 */
+	private void onSuccess(Attempt attempt, R result) 
+	{
+		record(attempt);
+		
+		Attempt other;
+		synchronized (lock) {
+			if (winner != null) {
+				return;
+			}
+			winner = attempt;
+			cancelPending();
+			other = (attempt.duplicate ? primary : duplicate);
+		}
+		
+		if (attempt.duplicate) {
+			policy.onHedgeWin();
+			record(other);
+		}
+		
+		succeed(result);
+		
+		if (other != null) {
+			other.task.cancel();
+		}
+	}
+	
+	/**
+	 * Fails the hedge once every launched attempt has failed.
+	 */
+	private void onFailure(Attempt attempt, Throwable error) 
+	{
+		record(attempt);
+		
+		synchronized (lock) {
+			attempt.failed = true;
+			
+			Attempt other = (attempt.duplicate ? primary : duplicate);
+			if (other != null && !other.failed) {
+				return;
+			}
+			cancelPending();
+		}
+		
+		fail(error);
+	}
+	
+	/**
+	 * Records the latency of the first attempt once its outcome is known. An
+	 * attempt which failed, or lost to the duplicate, records the time it had
+	 * taken so far: it would have taken at least that long, and leaving it out
+	 * would make the policy believe only the fast attempts.
+	 */
+	private void record(Attempt attempt) 
+	{
+		if (attempt == null || attempt.duplicate) {
+			return;
+		}
+		
+		synchronized (lock) {
+			if (attempt.recorded) {
+				return;
+			}
+			attempt.recorded = true;
+		}
+		
+		policy.record(attempt.task.getClass(), System.nanoTime() - attempt.launched);
+	}
+	
+	/**
+	 * Cancels the launch of the duplicate.
+	 */
+	private void cancelPending() 
+	{
+		if (pending != null) {
+			pending.cancel(false);
+			pending = null;
+		}
+	}
+	
+	/**
+	 * Returns the policy which decides the delay and budget of hedging.
+	 * 
+	 * @return
+	 * 		The policy.
+	 */
+	public TaskHedgePolicy getPolicy() 
+	{
+		return policy;
+	}
+	
+	/**
+	 * Returns whether a duplicate attempt was launched by the last execution.
+	 * 
+	 * @return
+	 * 		True if the task was hedged, otherwise false.
+	 */
+	public boolean isHedged() 
+	{
+		synchronized (lock) {
+			return (duplicate != null);
+		}
+	}
+	
+}
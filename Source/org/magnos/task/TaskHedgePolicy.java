@@ -0,0 +1,350 @@
+/* 
+ * NOTICE OF LICENSE
+ * 
+ * This source file is subject to the Open Software License (OSL 3.0) that is 
+ * bundled with this package in the file LICENSE.txt. It is also available 
+ * through the world-wide-web at http://opensource.org/licenses/osl-3.0.php
+ * If you did not receive a copy of the license and are unable to obtain it 
+ * through the world-wide-web, please send an email to pdiffenderfer@gmail.com 
+ * so we can send you a copy immediately. If you use any of this software please
+ * notify me via my website or email, your feedback is much appreciated. 
+ * 
+ * @copyright   Copyright (c) 2011 Magnos Software (http://www.magnos.org)
+ * @license     http://opensource.org/licenses/osl-3.0.php
+ * 				Open Software License (OSL 3.0)
+ */
+
+package org.magnos.task;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decides when a TaskHedge launches a duplicate of a slow task, and how many
+ * duplicates it may launch. The delay before hedging is a percentile (the 
+ * 95th by default) of the recent latencies of tasks of the same class, so 
+ * only the slowest few percent of tasks are ever hedged. A budget caps the
+ * extra work: each task earns a fraction of a hedge and each hedge spends a
+ * whole one, so with the default ratio at most one task in ten is hedged no 
+ * matter how slow the handlers get.
+ * 
+ * A policy is meant to be shared by every hedge of a kind of task.
+ * 
+ * @author Philip Diffenderfer
+ *
+ */
+public class TaskHedgePolicy 
+{
+	
+	/**
+	 * The default number of recent latencies kept per class.
+	 */
+	public static final int DEFAULT_WINDOW = 256;
+	
+	/**
+	 * Recent latencies of a class of task.
+	 */
+	private static class Latencies 
+	{
+		// The ring of latencies in nanoseconds.
+		private final long[] samples;
+		// The number of latencies recorded.
+		private long count;
+		// The cached percentile and the count it was computed at.
+		private long delay;
+		private long delayCount = -1;
+		
+		private Latencies(int window) {
+			samples = new long[window];
+		}
+	}
+	
+	
+	// The recent latencies of each class of task.
+	private final ConcurrentMap<Class<?>, Latencies> latencies = new ConcurrentHashMap<Class<?>, Latencies>();
+	
+	// The number of latencies kept per class.
+	private final int window;
+	
+	// The percentile of latencies used as the delay, between 0 and 1.
+	private volatile double percentile = 0.95;
+	
+	// The delay in nanoseconds used until enough latencies are recorded.
+	private volatile long defaultDelay;
+	
+	// The smallest delay in nanoseconds.
+	private volatile long minDelay = TimeUnit.MILLISECONDS.toNanos(1);
+	
+	// The number of latencies needed before the percentile is used.
+	private volatile int minSamples = 20;
+	
+	// The hedges earned per task, and the most that can be saved up.
+	private volatile double ratio = 0.1;
+	private volatile double burst = 10.0;
+	
+	// The hedges that can currently be launched.
+	private double tokens = 1.0;
+	
+	// The timer which launches the hedges.
+	private volatile TaskTimer timer = TaskTimer.getDefault();
+	
+	// Metrics.
+	private final AtomicLong tasks = new AtomicLong();
+	private final AtomicLong hedges = new AtomicLong();
+	private final AtomicLong hedgeWins = new AtomicLong();
+	private final AtomicLong denied = new AtomicLong();
+	
+	
+	/**
+	 * Instantiates a new TaskHedgePolicy.
+	 * 
+	 * @param defaultDelay
+	 * 		The delay before hedging until enough latencies are recorded.
+	 * @param unit
+	 * 		The unit of time.
+	 */
+	public TaskHedgePolicy(long defaultDelay, TimeUnit unit) 
+	{
+		this(defaultDelay, unit, DEFAULT_WINDOW);
+	}
+	
+	/**
+	 * Instantiates a new TaskHedgePolicy.
+	 * 
+	 * @param defaultDelay
+	 * 		The delay before hedging until enough latencies are recorded.
+	 * @param unit
+	 * 		The unit of time.
+	 * @param window
+	 * 		The number of recent latencies kept per class.
+	 */
+	public TaskHedgePolicy(long defaultDelay, TimeUnit unit, int window) 
+	{
+		this.defaultDelay = unit.toNanos(defaultDelay);
+		this.window = window;
+	}
+	
+	/**
+	 * Returns how long to wait in nanoseconds for a task of the given class 
+	 * before hedging it.
+	 * 
+	 * @param type
+	 * 		The class of the task.
+	 * @return
+	 * 		The delay in nanoseconds.
+	 */
+	public long getDelay(Class<?> type) 
+	{
+		Latencies l = latencies.get(type);
+		
+		if (l == null) {
+			return defaultDelay;
+		}
+		
+		synchronized (l) 
+		{
+			if (l.count < minSamples) {
+				return defaultDelay;
+			}
+			if (l.delayCount != l.count) {
+				int size = (int)Math.min(l.count, l.samples.length);
+				long[] sorted = Arrays.copyOf(l.samples, size);
+				Arrays.sort(sorted);
+				
+				l.delay = sorted[(int)Math.min(size - 1, Math.ceil(percentile * size) - 1)];
+				l.delayCount = l.count;
+			}
+			return Math.max(minDelay, l.delay);
+		}
+	}
+	
+	/**
+	 * Records the latency of a task of the given class. A hedge records its 
+	 * first attempt when it succeeds, and when it fails or loses to the 
+	 * duplicate it records the time the attempt had taken so far.
+	 * 
+	 * @param type
+	 * 		The class of the task.
+	 * @param latency
+	 * 		The time from the task's submission to its completion, or to when 
+	 * 		it was given up on, in nanoseconds.
+	 */
+	public void record(Class<?> type, long latency) 
+	{
+		Latencies l = latencies.get(type);
+		
+		if (l == null) {
+			Latencies created = new Latencies(window);
+			l = latencies.putIfAbsent(type, created);
+			if (l == null) {
+				l = created;
+			}
+		}
+		
+		synchronized (l) {
+			l.samples[(int)(l.count % l.samples.length)] = latency;
+			l.count++;
+		}
+	}
+	
+	/**
+	 * Earns the fraction of a hedge for a task being started.
+	 */
+	void onTask() 
+	{
+		tasks.incrementAndGet();
+		
+		synchronized (this) {
+			tokens = Math.min(burst, tokens + ratio);
+		}
+	}
+	
+	/**
+	 * Spends a hedge if the budget has one.
+	 * 
+	 * @return
+	 * 		True if a hedge can be launched, false if the budget is spent.
+	 */
+	boolean tryHedge() 
+	{
+		synchronized (this) {
+			if (tokens >= 1.0) {
+				tokens -= 1.0;
+				hedges.incrementAndGet();
+				return true;
+			}
+		}
+		denied.incrementAndGet();
+		return false;
+	}
+	
+	/**
+	 * Records a hedge finishing before the task it duplicated.
+	 */
+	void onHedgeWin() 
+	{
+		hedgeWins.incrementAndGet();
+	}
+	
+	/**
+	 * Sets the percentile of recent latencies used as the delay.
+	 * 
+	 * @param percentile
+	 * 		The percentile between 0 and 1, 0.95 by default.
+	 */
+	public void setPercentile(double percentile) 
+	{
+		this.percentile = percentile;
+	}
+	
+	/**
+	 * Sets the smallest delay before hedging.
+	 * 
+	 * @param minDelay
+	 * 		The smallest delay.
+	 * @param unit
+	 * 		The unit of time.
+	 */
+	public void setMinDelay(long minDelay, TimeUnit unit) 
+	{
+		this.minDelay = unit.toNanos(minDelay);
+	}
+	
+	/**
+	 * Sets the number of latencies of a class needed before the percentile
+	 * is used instead of the default delay.
+	 * 
+	 * @param minSamples
+	 * 		The number of latencies, 20 by default.
+	 */
+	public void setMinSamples(int minSamples) 
+	{
+		this.minSamples = minSamples;
+	}
+	
+	/**
+	 * Sets the budget of hedges.
+	 * 
+	 * @param ratio
+	 * 		The hedges earned per task, 0.1 by default (at most 10% extra
+	 * 		tasks).
+	 * @param burst
+	 * 		The most hedges that can be saved up, 10 by default.
+	 */
+	public void setBudget(double ratio, double burst) 
+	{
+		this.ratio = ratio;
+		this.burst = burst;
+	}
+	
+	/**
+	 * Sets the timer which launches the hedges.
+	 * 
+	 * @param timer
+	 * 		The timer.
+	 */
+	public void setTimer(TaskTimer timer) 
+	{
+		this.timer = timer;
+	}
+	
+	/**
+	 * Returns the timer which launches the hedges.
+	 * 
+	 * @return
+	 * 		The timer.
+	 */
+	public TaskTimer getTimer() 
+	{
+		return timer;
+	}
+	
+	/**
+	 * Returns the number of tasks started with this policy.
+	 * 
+	 * @return
+	 * 		The number of tasks.
+	 */
+	public long getTasks() 
+	{
+		return tasks.get();
+	}
+	
+	/**
+	 * Returns the number of hedges launched.
+	 * 
+	 * @return
+	 * 		The number of hedges.
+	 */
+	public long getHedges() 
+	{
+		return hedges.get();
+	}
+	
+	/**
+	 * Returns the number of hedges which finished before the task they 
+	 * duplicated.
+	 * 
+	 * @return
+	 * 		The number of winning hedges.
+	 */
+	public long getHedgeWins() 
+	{
+		return hedgeWins.get();
+	}
+	
+	/**
+	 * Returns the number of hedges not launched because the budget was spent.
+	 * 
+	 * @return
+	 * 		The number of denied hedges.
+	 */
+	public long getDenied() 
+	{
+		return denied.get();
+	}
+	
+}
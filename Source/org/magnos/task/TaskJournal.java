@@ -0,0 +1,730 @@
+/* 
+ * NOTICE OF LICENSE
+ * 
+ * This source file is subject to the Open Software License (OSL 3.0) that is 
+ * bundled with this package in the file LICENSE.txt. It is also available 
+ * through the world-wide-web at http://opensource.org/licenses/osl-3.0.php
+ * If you did not receive a copy of the license and are unable to obtain it 
+ * through the world-wide-web, please send an email to pdiffenderfer@gmail.com 
+ * so we can send you a copy immediately. If you use any of this software please
+ * notify me via my website or email, your feedback is much appreciated. 
+ * 
+ * @copyright   Copyright (c) 2011 Magnos Software (http://www.magnos.org)
+ * @license     http://opensource.org/licenses/osl-3.0.php
+ * 				Open Software License (OSL 3.0)
+ */
+
+package org.magnos.task;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+/**
+ * A write-ahead journal of serializable tasks. A TaskService with a journal
+ * appends every serializable task to the journal when it's added to the
+ * service and marks the task complete once it has finished. If the process
+ * dies the tasks which never completed are read from the journal when it's
+ * opened again and the service handles them once its started.
+ *
+ * The journal is a sequence of memory-mapped segment files. Records are only
+ * ever appended to the last segment, and a segment is deleted once every task
+ * in it and every segment before it has completed. When the oldest segment
+ * has only a few incomplete tasks left they are copied to the last segment
+ * so the old segment can be deleted.
+ *
+ * Writes are made durable with group commit: when many threads append at the
+ * same time one of them forces the segment to disk for all of them.
+ *
+ * <pre>
+ * TaskJournal journal = new TaskJournal(new File("tasks"));
+ * journal.open();
+ *
+ * TaskService service = new TaskService();
+ * service.setJournal(journal);
+ * // Any incomplete tasks from the last run are handled first.
+ * service.start();
+ * </pre>
+ *
+ * @author Philip Diffenderfer
+ *
+ */
+public class TaskJournal
+{
+
+	/**
+	 * The default size of a segment in bytes.
+	 */
+	public static final int DEFAULT_SEGMENT_SIZE = 16 * 1024 * 1024;
+
+	// The record which stores a serialized task.
+	private static final byte APPEND = 1;
+
+	// The record which marks a task as completed.
+	private static final byte COMPLETE = 2;
+
+	// The size of the header of a record (length, type, and id).
+	private static final int HEADER = 4 + 1 + 8;
+
+	// The size of the footer of a record (checksum).
+	private static final int FOOTER = 4;
+
+	// The prefix and suffix of segment file names.
+	private static final String PREFIX = "journal-";
+	private static final String SUFFIX = ".log";
+
+
+	// The directory containing the segment files.
+	private final File directory;
+
+	// The segments in the order they were created, the last is being appended.
+	private final LinkedList<Segment> segments = new LinkedList<Segment>();
+
+	// The incomplete tasks by their id.
+	private final Map<Long, Entry> entries = new HashMap<Long, Entry>();
+
+	// The ids of tasks appended or recovered by this journal.
+	private final Map<Task<?>, Long> ids = new IdentityHashMap<Task<?>, Long>();
+
+	// The incomplete tasks read when the journal was opened.
+	private List<Task<?>> recovered = new ArrayList<Task<?>>();
+
+	// The lock which orders forcing segments to disk.
+	private final Object syncLock = new Object();
+
+	// The size of a segment in bytes.
+	private int segmentSize = DEFAULT_SEGMENT_SIZE;
+
+	// The fraction of the tasks in the oldest segment which can be incomplete
+	// before they're copied to the last segment.
+	private double compactRatio = 0.25;
+
+	// Whether appends wait until the task is on disk.
+	private volatile boolean sync = true;
+
+	// The id of the next task appended.
+	private long nextId = 1;
+
+	// The total number of bytes written, and the total number forced to disk.
+	private volatile long written = 0;
+	private volatile long flushed = 0;
+
+	// Whether a thread is currently forcing a segment to disk.
+	private boolean flushing = false;
+
+
+	/**
+	 * Instantiates a new TaskJournal.
+	 *
+	 * @param directory
+	 * 		The directory to place the segment files.
+	 */
+	public TaskJournal(File directory)
+	{
+		this.directory = directory;
+	}
+
+	/**
+	 * Opens this journal by reading all existing segments. The tasks which
+	 * never completed can be retrieved with recover.
+	 *
+	 * @throws IOException
+	 * 		An error occurred reading the segments or deserializing a task.
+	 */
+	public synchronized void open() throws IOException
+	{
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IOException("Unable to create journal directory " + directory);
+		}
+
+		File[] files = directory.listFiles();
+		Arrays.sort(files);
+
+		// The payload of every appended task which hasn't completed.
+		TreeMap<Long, byte[]> payloads = new TreeMap<Long, byte[]>();
+
+		for (File file : files)
+		{
+			String name = file.getName();
+			if (name.startsWith(PREFIX) && name.endsWith(SUFFIX)) {
+				long index = Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length()), 16);
+				Segment segment = new Segment(file, index, (int)file.length());
+				segments.add(segment);
+				segment.scan(payloads);
+			}
+		}
+
+		if (segments.isEmpty()) {
+			segments.add(new Segment(segmentFile(0), 0, segmentSize));
+		}
+
+		// Tasks are recovered in the order they were appended.
+		for (Map.Entry<Long, byte[]> e : payloads.entrySet())
+		{
+			Task<?> task = deserialize(e.getValue());
+			ids.put(task, e.getKey());
+			recovered.add(task);
+		}
+
+		// Every segment before the last is done once its tasks complete.
+		compact();
+	}
+
+	/**
+	 * Returns the tasks which never completed the last time this journal was
+	 * used. The tasks are returned only once, and are returned in the order
+	 * they were originally appended.
+	 *
+	 * @return
+	 * 		The list of tasks to execute again.
+	 */
+	public synchronized List<Task<?>> recover()
+	{
+		List<Task<?>> tasks = recovered;
+		recovered = new ArrayList<Task<?>>();
+		return tasks;
+	}
+
+	/**
+	 * Appends the given task to this journal. If this journal is in sync mode
+	 * this will not return until the task is on disk.
+	 *
+	 * @param task
+	 * 		The task to append, this must be serializable.
+	 * @throws IOException
+	 * 		An error occurred serializing or writing the task.
+	 */
+	public void append(Task<?> task) throws IOException
+	{
+		byte[] payload = serialize(task);
+		long position;
+
+		synchronized (this)
+		{
+			long id = nextId++;
+			Entry entry = write(APPEND, id, payload);
+			entries.put(id, entry);
+			ids.put(task, id);
+			position = written;
+		}
+
+		if (sync) {
+			sync(position);
+		}
+	}
+
+	/**
+	 * Marks the given task as completed so it won't be recovered. Completes
+	 * are never waited on, a lost complete only means the task may be ran
+	 * again after a crash.
+	 *
+	 * @param task
+	 * 		The task which has completed.
+	 * @return
+	 * 		True if the task was in this journal, otherwise false.
+	 * @throws IOException
+	 * 		An error occurred writing to the journal.
+	 */
+	public synchronized boolean complete(Task<?> task) throws IOException
+	{
+		Long id = ids.remove(task);
+		if (id == null) {
+			return false;
+		}
+
+		Entry entry = entries.remove(id);
+		if (entry != null) {
+			entry.segment.live--;
+		}
+
+		write(COMPLETE, id, new byte[0]);
+		compact();
+
+		return true;
+	}
+
+	/**
+	 * Returns whether the given task has been appended to or recovered from
+	 * this journal and has not completed.
+	 *
+	 * @param task
+	 * 		The task to check for.
+	 * @return
+	 * 		True if the task is in this journal, otherwise false.
+	 */
+	public synchronized boolean contains(Task<?> task)
+	{
+		return ids.containsKey(task);
+	}
+
+	/**
+	 * Forces all records written to disk.
+	 *
+	 * @throws IOException
+	 * 		An error occurred forcing the last segment to disk.
+	 */
+	public void flush() throws IOException
+	{
+		sync(written);
+	}
+
+	/**
+	 * Flushes and closes this journal.
+	 *
+	 * @throws IOException
+	 * 		An error occurred forcing the last segment to disk.
+	 */
+	public synchronized void close() throws IOException
+	{
+		flush();
+		for (Segment segment : segments) {
+			segment.close();
+		}
+		segments.clear();
+		entries.clear();
+		ids.clear();
+	}
+
+	/**
+	 * Returns the number of tasks in this journal which have not completed.
+	 *
+	 * @return
+	 * 		The number of incomplete tasks.
+	 */
+	public synchronized int size()
+	{
+		return entries.size();
+	}
+
+	/**
+	 * Returns the number of segment files in this journal.
+	 *
+	 * @return
+	 * 		The number of segments.
+	 */
+	public synchronized int getSegmentCount()
+	{
+		return segments.size();
+	}
+
+	/**
+	 * Sets the size of new segments in bytes. This should be set before the
+	 * journal is opened.
+	 *
+	 * @param segmentSize
+	 * 		The size of a segment in bytes.
+	 */
+	public void setSegmentSize(int segmentSize)
+	{
+		this.segmentSize = segmentSize;
+	}
+
+	/**
+	 * Returns the size of new segments in bytes.
+	 *
+	 * @return
+	 * 		The size of a segment in bytes.
+	 */
+	public int getSegmentSize()
+	{
+		return segmentSize;
+	}
+
+	/**
+	 * Sets the fraction of the tasks in the oldest segment which can be
+	 * incomplete before they're copied to the last segment so the oldest can
+	 * be deleted.
+	 *
+	 * @param compactRatio
+	 * 		The fraction between 0 and 1.
+	 */
+	public void setCompactRatio(double compactRatio)
+	{
+		this.compactRatio = compactRatio;
+	}
+
+	/**
+	 * Returns the fraction of the tasks in the oldest segment which can be
+	 * incomplete before they're copied to the last segment.
+	 *
+	 * @return
+	 * 		The fraction between 0 and 1.
+	 */
+	public double getCompactRatio()
+	{
+		return compactRatio;
+	}
+
+	/**
+	 * Sets whether appends wait until the task is on disk. If not in sync mode
+	 * tasks are written to the operating system but a machine failure may
+	 * lose the most recent tasks.
+	 *
+	 * @param sync
+	 * 		Whether appends wait until the task is on disk.
+	 */
+	public void setSync(boolean sync)
+	{
+		this.sync = sync;
+	}
+
+	/**
+	 * Returns whether appends wait until the task is on disk.
+	 *
+	 * @return
+	 * 		True if appends wait until the task is on disk.
+	 */
+	public boolean isSync()
+	{
+		return sync;
+	}
+
+	/**
+	 * Returns the directory containing the segment files.
+	 *
+	 * @return
+	 * 		The directory of this journal.
+	 */
+	public File getDirectory()
+	{
+		return directory;
+	}
+
+	/**
+	 * Waits until every byte up to the given position is on disk. If no other
+	 * thread is forcing the last segment this thread does it for every thread
+	 * waiting, otherwise it waits for that thread and checks again.
+	 */
+	private void sync(long position) throws IOException
+	{
+		for (;;)
+		{
+			synchronized (syncLock)
+			{
+				while (flushing && flushed < position) {
+					try {
+						syncLock.wait();
+					}
+					catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						return;
+					}
+				}
+				if (flushed >= position) {
+					return;
+				}
+				flushing = true;
+			}
+
+			long target;
+			Segment last;
+			synchronized (this) {
+				target = written;
+				last = segments.getLast();
+			}
+
+			// Everything written up to now goes to disk at once.
+			try {
+				last.force();
+			}
+			finally {
+				synchronized (syncLock) {
+					flushed = Math.max(flushed, target);
+					flushing = false;
+					syncLock.notifyAll();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Writes a record to the last segment, starting a new segment if it
+	 * doesn't fit. This should be invoked while holding the lock on this.
+	 */
+	private Entry write(byte type, long id, byte[] payload) throws IOException
+	{
+		int size = HEADER + payload.length + FOOTER;
+		Segment last = segments.getLast();
+
+		if (!last.fits(size))
+		{
+			// Rolled segments are forced before they're left behind.
+			last.force();
+			last = new Segment(segmentFile(last.index + 1), last.index + 1, Math.max(segmentSize, size + 1));
+			segments.add(last);
+		}
+
+		Entry entry = last.write(type, id, payload);
+		written += size;
+		return entry;
+	}
+
+	/**
+	 * Deletes the oldest segments whose tasks have all completed, and copies
+	 * the incomplete tasks of the oldest segment to the last segment if there
+	 * are only a few left. This should be invoked while holding the lock on
+	 * this.
+	 */
+	private void compact() throws IOException
+	{
+		while (segments.size() > 1)
+		{
+			Segment oldest = segments.getFirst();
+
+			if (oldest.live > oldest.appends * compactRatio) {
+				break;
+			}
+
+			if (oldest.live > 0)
+			{
+				for (Map.Entry<Long, Entry> e : entries.entrySet())
+				{
+					Entry entry = e.getValue();
+					if (entry.segment == oldest) {
+						oldest.live--;
+						e.setValue(write(APPEND, e.getKey(), entry.read()));
+					}
+				}
+				// The copies must be on disk before the originals are gone.
+				segments.getLast().force();
+			}
+
+			segments.removeFirst();
+			oldest.delete();
+		}
+	}
+
+	/**
+	 * Returns the file of the segment with the given index.
+	 */
+	private File segmentFile(long index)
+	{
+		return new File(directory, String.format("%s%016x%s", PREFIX, index, SUFFIX));
+	}
+
+	/**
+	 * Serializes the given task.
+	 */
+	private static byte[] serialize(Task<?> task) throws IOException
+	{
+		if (!(task instanceof Serializable)) {
+			throw new IOException(task.getClass().getName() + " is not serializable");
+		}
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ObjectOutputStream out = new ObjectOutputStream(bytes);
+		out.writeObject(task);
+		out.close();
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Deserializes a task.
+	 */
+	private static Task<?> deserialize(byte[] payload) throws IOException
+	{
+		ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(payload));
+		try {
+			return (Task<?>)in.readObject();
+		}
+		catch (ClassNotFoundException e) {
+			throw new IOException("Unable to recover task", e);
+		}
+		finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * The location of an incomplete task's record.
+	 *
+	 * @author Philip Diffenderfer
+	 *
+	 */
+	private static class Entry
+	{
+		// The segment which contains the record.
+		private final Segment segment;
+
+		// The position of the payload in the segment, and its length.
+		private final int position;
+		private final int length;
+
+		public Entry(Segment segment, int position, int length)
+		{
+			this.segment = segment;
+			this.position = position;
+			this.length = length;
+		}
+
+		public byte[] read()
+		{
+			byte[] payload = new byte[length];
+			ByteBuffer buffer = segment.buffer.duplicate();
+			buffer.position(position);
+			buffer.get(payload);
+			return payload;
+		}
+	}
+
+	/**
+	 * A memory-mapped segment file of records.
+	 *
+	 * @author Philip Diffenderfer
+	 *
+	 */
+	private class Segment
+	{
+		// The file of this segment.
+		private final File file;
+
+		// The index of this segment, the order it was created.
+		private final long index;
+
+		// The memory-mapped file.
+		private MappedByteBuffer buffer;
+
+		// The number of tasks appended to this segment, and the number which
+		// haven't completed.
+		private int appends;
+		private int live;
+
+		public Segment(File file, long index, int size) throws IOException
+		{
+			this.file = file;
+			this.index = index;
+
+			RandomAccessFile raf = new RandomAccessFile(file, "rw");
+			try {
+				raf.setLength(size);
+				buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+			}
+			finally {
+				// The mapping remains valid once the channel is closed.
+				raf.close();
+			}
+		}
+
+		/**
+		 * Reads every record in this segment, adding appended tasks and
+		 * removing completed tasks. The segment is positioned after the last
+		 * valid record, anything after it is overwritten by new records and is
+		 * never mistaken for a record since its checksum won't match.
+		 */
+		public void scan(TreeMap<Long, byte[]> payloads)
+		{
+			CRC32 crc = new CRC32();
+
+			for (;;)
+			{
+				int start = buffer.position();
+				if (buffer.remaining() < HEADER + FOOTER) {
+					break;
+				}
+
+				int length = buffer.getInt();
+				byte type = buffer.get();
+				long id = buffer.getLong();
+
+				// The end of the segment, or a partially written record.
+				if ((type != APPEND && type != COMPLETE) || length < 0 || length > buffer.remaining() - FOOTER) {
+					buffer.position(start);
+					break;
+				}
+
+				byte[] payload = new byte[length];
+				buffer.get(payload);
+
+				crc.reset();
+				crc.update(type);
+				crc.update(ByteBuffer.allocate(8).putLong(0, id).array());
+				crc.update(payload);
+
+				if (buffer.getInt() != (int)crc.getValue()) {
+					buffer.position(start);
+					break;
+				}
+
+				if (type == APPEND) {
+					appends++;
+					live++;
+					payloads.put(id, payload);
+					entries.put(id, new Entry(this, start + HEADER, length));
+				}
+				else {
+					payloads.remove(id);
+					Entry entry = entries.remove(id);
+					if (entry != null) {
+						entry.segment.live--;
+					}
+				}
+				nextId = Math.max(nextId, id + 1);
+			}
+		}
+
+		public boolean fits(int size)
+		{
+			// Leave room for the zero type which marks the end.
+			return (buffer.remaining() > size);
+		}
+
+		public Entry write(byte type, long id, byte[] payload)
+		{
+			int start = buffer.position();
+
+			CRC32 crc = new CRC32();
+			crc.update(type);
+			crc.update(ByteBuffer.allocate(8).putLong(0, id).array());
+			crc.update(payload);
+
+			buffer.putInt(payload.length);
+			buffer.put(type);
+			buffer.putLong(id);
+			buffer.put(payload);
+			buffer.putInt((int)crc.getValue());
+
+			if (type == APPEND) {
+				appends++;
+				live++;
+			}
+
+			return new Entry(this, start + HEADER, payload.length);
+		}
+
+		public void force()
+		{
+			if (buffer != null) {
+				buffer.force();
+			}
+		}
+
+		public void close()
+		{
+			force();
+			buffer = null;
+		}
+
+		public void delete()
+		{
+			buffer = null;
+			file.delete();
+		}
+	}
+
+}
@@ -0,0 +1,41 @@
+/* 
+ * NOTICE OF LICENSE
+ * 
+ * This source file is subject to the Open Software License (OSL 3.0) that is 
+ * bundled with this package in the file LICENSE.txt. It is also available 
+ * through the world-wide-web at http://opensource.org/licenses/osl-3.0.php
+ * If you did not receive a copy of the license and are unable to obtain it 
+ * through the world-wide-web, please send an email to pdiffenderfer@gmail.com 
+ * so we can send you a copy immediately. If you use any of this software please
+ * notify me via my website or email, your feedback is much appreciated. 
+ * 
+ * @copyright   Copyright (c) 2011 Magnos Software (http://www.magnos.org)
+ * @license     http://opensource.org/licenses/osl-3.0.php
+ * 				Open Software License (OSL 3.0)
+ */
+
+package org.magnos.task;
+
+/**
+ * Determines the key of a task. The key of a task is used by handlers which
+ * treat tasks differently based on some attribute of the task, for example
+ * the account or the tenant the task is being executed for. Two tasks have
+ * the same key if their keys are equal.
+ * 
+ * @author Philip Diffenderfer
+ *
+ */
+public interface TaskKeyer 
+{
+	
+	/**
+	 * Returns the key of the given task.
+	 * 
+	 * @param task
+	 * 		The task to determine the key of.
+	 * @return
+	 * 		The key of the given task, this should never be null.
+	 */
+	public Object getKey(Task<?> task);
+	
+}
@@ -0,0 +1,415 @@
+/* 
+ * NOTICE OF LICENSE
+ * 
+ * This source file is subject to the Open Software License (OSL 3.0) that is 
+ * bundled with this package in the file LICENSE.txt. It is also available 
+ * through the world-wide-web at http://opensource.org/licenses/osl-3.0.php
+ * If you did not receive a copy of the license and are unable to obtain it 
+ * through the world-wide-web, please send an email to pdiffenderfer@gmail.com 
+ * so we can send you a copy immediately. If you use any of this software please
+ * notify me via my website or email, your feedback is much appreciated. 
+ * 
+ * @copyright   Copyright (c) 2011 Magnos Software (http://www.magnos.org)
+ * @license     http://opensource.org/licenses/osl-3.0.php
+ * 				Open Software License (OSL 3.0)
+ */
+
+package org.magnos.task;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A publisher of the results of a sequence of tasks. Tasks are only taken 
+ * from the sequence and started when the subscriber has requested results 
+ * for them, and at most concurrency tasks are started and not yet emitted at
+ * once, so a slow subscriber slows down the tasks instead of buffering their 
+ * results.
+ * 
+ * Results are emitted in the order the tasks finish, or in the order of the
+ * sequence when the publisher is ordered. If a task fails (error, cancel, or
+ * timeout) the subscriber receives onError, the remaining waiting tasks are 
+ * canceled, and no more tasks are taken from the sequence.
+ * 
+ * The sequence can only be consumed once, a publisher accepts a single 
+ * subscriber.
+ * 
+ * <pre>
+ * TaskPublisher&lt;Page&gt; pages = new TaskPublisher&lt;Page&gt;(fetchTasks, pool, 16, true);
+ * pages.subscribe(indexer);
+ * </pre>
+ * 
+ * @author Philip Diffenderfer
+ *
+ * @param <R>
+ * 		The result type of the tasks.
+ */
+public class TaskPublisher<R> implements Flow.Publisher<R> 
+{
+
+	/**
+	 * The subscription of the single subscriber, emits the results.
+	 */
+	private class Emitter extends TaskListenerAdapter<R> implements Flow.Subscription, TaskInlineListener<R> 
+	{
+		
+		// The subscriber receiving the results.
+		private final Flow.Subscriber<? super R> subscriber;
+		
+		// Tasks started in sequence order when ordered, otherwise tasks which 
+		// have finished in the order they finished.
+		private final ArrayDeque<Task<R>> tasks = new ArrayDeque<Task<R>>();
+		
+		// Tasks started which have not finished, in either mode.
+		private final ArrayDeque<Task<R>> running = new ArrayDeque<Task<R>>();
+		
+		// The number of results requested and not yet emitted.
+		private long requested;
+		
+		// An invalid request which terminates the subscription.
+		private Throwable invalid;
+		
+		// Whether the sequence has no more tasks.
+		private boolean exhausted;
+		
+		// Whether the subscriber has canceled or been terminated.
+		private volatile boolean canceled;
+		
+		// The number of times drain has been asked to run, only the thread 
+		// which raises it from zero drains.
+		private final AtomicInteger work = new AtomicInteger();
+		
+		
+		/**
+		 * Instantiates a new Emitter.
+		 */
+		private Emitter(Flow.Subscriber<? super R> subscriber) 
+		{
+			this.subscriber = subscriber;
+		}
+		
+		/**
+		 * {@inheritDoc}
+		 */
+		public void request(long n) 
+		{
+			synchronized (this) {
+				if (n <= 0) {
+					invalid = new IllegalArgumentException("request must be positive, was " + n);
+				}
+				else {
+					requested = (requested + n < 0 ? Long.MAX_VALUE : requested + n);
+				}
+			}
+			drain();
+		}
+		
+		/**
+		 * {@inheritDoc}
+		 */
+		public void cancel() 
+		{
+			canceled = true;
+			drain();
+		}
+		
+		/**
+		 * {@inheritDoc}
+		 */
+		public void onTaskFinish(Task<R> source) 
+		{
+			synchronized (this) {
+				running.remove(source);
+				if (!ordered) {
+					tasks.add(source);
+				}
+			}
+			drain();
+		}
+		
+		/**
+		 * Starts tasks and emits results until nothing can be done, only one
+		 * thread drains at a time.
+		 */
+		private void drain() 
+		{
+			if (work.getAndIncrement() != 0) {
+				return;
+			}
+			
+			int missed = 1;
+			
+			for (;;)
+			{
+				for (;;)
+				{
+					Task<R> next = null;
+					Throwable failure = null;
+					boolean complete = false;
+					boolean start = false;
+					
+					synchronized (this) {
+						Task<R> head = tasks.peek();
+						boolean ready = (head != null && head.isFinished());
+						
+						if (canceled) {
+							break;
+						}
+						else if (invalid != null) {
+							failure = invalid;
+						}
+						else if (ready && !head.isSuccess()) {
+							failure = failureOf(head);
+						}
+						else if (ready && requested > 0) {
+							next = tasks.poll();
+							requested--;
+						}
+						else if (exhausted && tasks.isEmpty() && running.isEmpty()) {
+							complete = true;
+						}
+						else if (!exhausted && outstanding() < Math.min(requested, concurrency)) {
+							start = true;
+						}
+						else {
+							break;
+						}
+					}
+					
+					if (failure != null) {
+						terminate();
+						subscriber.onError(failure);
+						break;
+					}
+					if (complete) {
+						canceled = true;
+						subscriber.onComplete();
+						break;
+					}
+					if (next != null) {
+						subscriber.onNext(next.getResult());
+					}
+					if (start) {
+						startNext();
+					}
+				}
+				
+				if (canceled) {
+					terminate();
+				}
+				
+				missed = work.addAndGet(-missed);
+				if (missed == 0) {
+					break;
+				}
+			}
+		}
+		
+		/**
+		 * Takes the next task from the sequence and starts it.
+		 */
+		private void startNext() 
+		{
+			Task<R> task;
+			
+			try {
+				if (!source.hasNext()) {
+					synchronized (this) {
+						exhausted = true;
+					}
+					return;
+				}
+				task = source.next();
+			}
+			catch (RuntimeException e) {
+				synchronized (this) {
+					exhausted = true;
+					invalid = e;
+				}
+				return;
+			}
+			
+			if (handler != null) {
+				task.setHandler(handler);
+			}
+			
+			synchronized (this) {
+				running.add(task);
+				if (ordered) {
+					tasks.add(task);
+				}
+			}
+			
+			if (!task.async(this)) {
+				// Already started elsewhere, it won't notify us. A finished task
+				// can be emitted, but one still running elsewhere can't be 
+				// followed so the subscription fails.
+				if (task.isFinished()) {
+					onTaskFinish(task);
+				}
+				else {
+					synchronized (this) {
+						running.remove(task);
+						tasks.remove(task);
+						exhausted = true;
+						invalid = new IllegalStateException("A task of the publisher was already started elsewhere");
+					}
+				}
+			}
+		}
+		
+		/**
+		 * Returns the number of tasks started whose results are not emitted.
+		 */
+		private int outstanding() 
+		{
+			return (ordered ? tasks.size() : tasks.size() + running.size());
+		}
+		
+		/**
+		 * Stops taking tasks and cancels the tasks which haven't run.
+		 */
+		private void terminate() 
+		{
+			canceled = true;
+			
+			// Started tasks are tracked apart from the emitted ones, unordered
+			// tasks only join the emit queue once they finish.
+			Task<?>[] pending;
+			synchronized (this) {
+				exhausted = true;
+				pending = running.toArray(new Task<?>[running.size()]);
+				running.clear();
+				tasks.clear();
+			}
+			for (Task<?> task : pending) {
+				task.cancel();
+			}
+		}
+	}
+	
+	
+	// The sequence of tasks.
+	private final Iterator<? extends Task<R>> source;
+	
+	// The handler given to each task, or null to keep their handlers.
+	private final TaskEventHandler handler;
+	
+	// The maximum number of tasks started and not yet emitted.
+	private final int concurrency;
+	
+	// Whether results are emitted in sequence order.
+	private final boolean ordered;
+	
+	// Whether a subscriber has subscribed.
+	private final AtomicBoolean subscribed = new AtomicBoolean();
+	
+	
+	/**
+	 * Instantiates a new TaskPublisher.
+	 * 
+	 * @param tasks
+	 * 		The sequence of tasks, consumed as results are requested.
+	 * @param handler
+	 * 		The handler given to each task, or null to keep the handler each 
+	 * 		task was created with.
+	 * @param concurrency
+	 * 		The maximum number of tasks started whose results haven't been 
+	 * 		emitted.
+	 * @param ordered
+	 * 		True to emit results in the order of the sequence, false to emit 
+	 * 		them as the tasks finish.
+	 */
+	public TaskPublisher(Iterable<? extends Task<R>> tasks, TaskEventHandler handler, int concurrency, boolean ordered) 
+	{
+		this(tasks.iterator(), handler, concurrency, ordered);
+	}
+	
+	/**
+	 * Instantiates a new TaskPublisher.
+	 * 
+	 * @param tasks
+	 * 		The sequence of tasks, consumed as results are requested. The 
+	 * 		iterator may create tasks lazily.
+	 * @param handler
+	 * 		The handler given to each task, or null to keep the handler each 
+	 * 		task was created with.
+	 * @param concurrency
+	 * 		The maximum number of tasks started whose results haven't been 
+	 * 		emitted.
+	 * @param ordered
+	 * 		True to emit results in the order of the sequence, false to emit 
+	 * 		them as the tasks finish.
+	 */
+	public TaskPublisher(Iterator<? extends Task<R>> tasks, TaskEventHandler handler, int concurrency, boolean ordered) 
+	{
+		if (concurrency < 1) {
+			throw new IllegalArgumentException("concurrency must be at least 1");
+		}
+		this.source = tasks;
+		this.handler = handler;
+		this.concurrency = concurrency;
+		this.ordered = ordered;
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	public void subscribe(Flow.Subscriber<? super R> subscriber) 
+	{
+		if (!subscribed.compareAndSet(false, true)) {
+			subscriber.onSubscribe(new Flow.Subscription() {
+				public void request(long n) {
+				}
+				public void cancel() {
+				}
+			});
+			subscriber.onError(new IllegalStateException("TaskPublisher only accepts a single subscriber"));
+			return;
+		}
+		
+		subscriber.onSubscribe(new Emitter(subscriber));
+	}
+	
+	/**
+	 * Returns the maximum number of tasks started whose results haven't been 
+	 * emitted.
+	 * 
+	 * @return
+	 * 		The concurrency of this publisher.
+	 */
+	public int getConcurrency() 
+	{
+		return concurrency;
+	}
+	
+	/**
+	 * Returns whether results are emitted in the order of the sequence.
+	 * 
+	 * @return
+	 * 		True if ordered, false if results are emitted as tasks finish.
+	 */
+	public boolean isOrdered() 
+	{
+		return ordered;
+	}
+	
+	/**
+	 * Returns the error to emit for a task which didn't succeed.
+	 */
+	private static Throwable failureOf(Task<?> task) 
+	{
+		if (task.isError() && task.getError() != null) {
+			return task.getError();
+		}
+		if (task.isTimedOut()) {
+			return new CancellationException("A task of the publisher timed out");
+		}
+		return new CancellationException("A task of the publisher was canceled");
+	}
+	
+}
@@ -0,0 +1,430 @@
+/* 
+ * NOTICE OF LICENSE
+ * 
+ * This source file is subject to the Open Software License (OSL 3.0) that is 
+ * bundled with this package in the file LICENSE.txt. It is also available 
+ * through the world-wide-web at http://opensource.org/licenses/osl-3.0.php
+ * If you did not receive a copy of the license and are unable to obtain it 
+ * through the world-wide-web, please send an email to pdiffenderfer@gmail.com 
+ * so we can send you a copy immediately. If you use any of this software please
+ * notify me via my website or email, your feedback is much appreciated. 
+ * 
+ * @copyright   Copyright (c) 2011 Magnos Software (http://www.magnos.org)
+ * @license     http://opensource.org/licenses/osl-3.0.php
+ * 				Open Software License (OSL 3.0)
+ */
+
+package org.magnos.task;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A handler which limits the rate tasks are given to another handler using a
+ * token bucket. Tokens are added to the bucket at a fixed rate up to the
+ * burst size, and a task is only given to the handler once it can take a
+ * token. Tasks without a token wait in the bucket (not in a worker) and are
+ * released by a timer exactly when their token becomes available. A released
+ * task starts waiting again when it's given to the handler, so the time spent
+ * in the bucket isn't taken for time spent in the handler's queue (where it
+ * would make a TaskShedder shed or a TaskServicePool grow). A released task
+ * the handler doesn't accept is canceled.
+ *
+ * If a TaskKeyer is given each key has its own bucket, buckets of keys which
+ * have no waiting tasks and a full bucket are removed.
+ *
+ * <pre>
+ * // At most 50 tasks a second with bursts of up to 10 tasks.
+ * TaskRateLimiter limiter = new TaskRateLimiter(service, 50.0, 10);
+ * task.setHandler(limiter);
+ * task.async();
+ * </pre>
+ *
+ * @author Philip Diffenderfer
+ *
+ */
+public class TaskRateLimiter implements TaskEventHandler
+{
+
+	// What a bucket did with an offered task.
+	private static final int REMOVED = 0;
+	private static final int WAITING = 1;
+	private static final int TOKEN = 2;
+
+	// The handler which executes the tasks once they have a token.
+	private final TaskEventHandler handler;
+
+	// Determines the bucket of each task, or null if there's a single bucket.
+	private final TaskKeyer keyer;
+
+	// The timer which releases waiting tasks.
+	private final TaskTimer timer;
+
+	// The bucket for all tasks when there is no keyer.
+	private final Bucket bucket;
+
+	// The bucket of each key when there is a keyer.
+	private final ConcurrentHashMap<Object, Bucket> buckets;
+
+	// The number of tokens added to each bucket a second.
+	private volatile double rate;
+
+	// The maximum number of tokens in each bucket.
+	private volatile int burst;
+
+
+	/**
+	 * Instantiates a new TaskRateLimiter with a single bucket.
+	 *
+	 * @param handler
+	 * 		The handler which executes the tasks.
+	 * @param rate
+	 * 		The number of tasks per second.
+	 * @param burst
+	 * 		The maximum number of tasks which can be executed at once.
+	 */
+	public TaskRateLimiter(TaskEventHandler handler, double rate, int burst)
+	{
+		this(handler, rate, burst, null, TaskTimer.getDefault());
+	}
+
+	/**
+	 * Instantiates a new TaskRateLimiter with a bucket for each key.
+	 *
+	 * @param handler
+	 * 		The handler which executes the tasks.
+	 * @param rate
+	 * 		The number of tasks per second for each key.
+	 * @param burst
+	 * 		The maximum number of tasks which can be executed at once for each key.
+	 * @param keyer
+	 * 		Determines the key of each task, or null for a single bucket.
+	 */
+	public TaskRateLimiter(TaskEventHandler handler, double rate, int burst, TaskKeyer keyer)
+	{
+		this(handler, rate, burst, keyer, TaskTimer.getDefault());
+	}
+
+	/**
+	 * Instantiates a new TaskRateLimiter.
+	 *
+	 * @param handler
+	 * 		The handler which executes the tasks.
+	 * @param rate
+	 * 		The number of tasks per second for each bucket.
+	 * @param burst
+	 * 		The maximum number of tasks which can be executed at once for each bucket.
+	 * @param keyer
+	 * 		Determines the key of each task, or null for a single bucket.
+	 * @param timer
+	 * 		The timer which releases waiting tasks.
+	 */
+	public TaskRateLimiter(TaskEventHandler handler, double rate, int burst, TaskKeyer keyer, TaskTimer timer)
+	{
+		this.handler = handler;
+		this.rate = rate;
+		this.burst = burst;
+		this.keyer = keyer;
+		this.timer = timer;
+		this.bucket = (keyer == null ? new Bucket(null) : null);
+		this.buckets = new ConcurrentHashMap<Object, Bucket>();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public boolean addEvent(Task<?> event)
+	{
+		int offered;
+
+		if (keyer == null) {
+			offered = bucket.offer(event);
+		}
+		else {
+			Object key = keyer.getKey(event);
+
+			for (;;)
+			{
+				Bucket keyBucket = buckets.get(key);
+				if (keyBucket == null) {
+					Bucket created = new Bucket(key);
+					keyBucket = buckets.putIfAbsent(key, created);
+					if (keyBucket == null) {
+						keyBucket = created;
+					}
+				}
+				offered = keyBucket.offer(event);
+				if (offered != REMOVED) {
+					break;
+				}
+				// The bucket was removed, make sure it's gone and retry.
+				buckets.remove(key, keyBucket);
+			}
+		}
+
+		// A task with a token is given to the handler right away.
+		return (offered == WAITING || handler.addEvent(event));
+	}
+
+	/**
+	 * Gives a task which waited for a token to the handler, the task starts
+	 * waiting again from now. A task the handler doesn't accept is canceled.
+	 *
+	 * @param task
+	 * 		The task released from a bucket.
+	 */
+	private void release(Task<?> task)
+	{
+		if (!task.submit(handler)) {
+			task.cancel(new TaskRejectedException("The handler did not accept the released task"));
+		}
+	}
+
+	/**
+	 * Returns the number of tasks waiting for a token in all buckets.
+	 *
+	 * @return
+	 * 		The number of waiting tasks.
+	 */
+	public int getWaitingCount()
+	{
+		if (keyer == null) {
+			return bucket.size();
+		}
+		int count = 0;
+		for (Bucket keyBucket : buckets.values()) {
+			count += keyBucket.size();
+		}
+		return count;
+	}
+
+	/**
+	 * Returns the number of buckets which currently exist for keys.
+	 *
+	 * @return
+	 * 		The number of key buckets.
+	 */
+	public int getBucketCount()
+	{
+		return (keyer == null ? 1 : buckets.size());
+	}
+
+	/**
+	 * Returns the number of tasks per second for each bucket.
+	 *
+	 * @return
+	 * 		The rate in tasks per second.
+	 */
+	public double getRate()
+	{
+		return rate;
+	}
+
+	/**
+	 * Sets the number of tasks per second for each bucket.
+	 *
+	 * @param rate
+	 * 		The rate in tasks per second.
+	 */
+	public void setRate(double rate)
+	{
+		this.rate = rate;
+	}
+
+	/**
+	 * Returns the maximum number of tasks which can be executed at once for
+	 * each bucket.
+	 *
+	 * @return
+	 * 		The burst size.
+	 */
+	public int getBurst()
+	{
+		return burst;
+	}
+
+	/**
+	 * Sets the maximum number of tasks which can be executed at once for each
+	 * bucket.
+	 *
+	 * @param burst
+	 * 		The burst size.
+	 */
+	public void setBurst(int burst)
+	{
+		this.burst = burst;
+	}
+
+	/**
+	 * Returns the handler which executes the tasks.
+	 *
+	 * @return
+	 * 		The reference to the handler.
+	 */
+	public TaskEventHandler getHandler()
+	{
+		return handler;
+	}
+
+	/**
+	 * A token bucket and the tasks waiting for its tokens. The bucket is
+	 * runnable since it's given to the timer to release waiting tasks.
+	 *
+	 * @author Philip Diffenderfer
+	 *
+	 */
+	private class Bucket implements Runnable
+	{
+
+		// The key of the bucket, or null if its the only bucket.
+		private final Object key;
+
+		// The tasks waiting for a token.
+		private final ArrayDeque<Task<?>> waiting = new ArrayDeque<Task<?>>();
+
+		// The number of tokens in the bucket.
+		private double tokens = burst;
+
+		// The last time in nanoseconds the tokens were refilled.
+		private long refillTime = System.nanoTime();
+
+		// Whether the timer will run this bucket.
+		private boolean scheduled = false;
+
+		// Whether the bucket has been removed.
+		private boolean removed = false;
+
+		/**
+		 * Instantiates a new Bucket.
+		 *
+		 * @param key
+		 * 		The key of the bucket, or null if its the only bucket.
+		 */
+		public Bucket(Object key)
+		{
+			this.key = key;
+		}
+
+		/**
+		 * Takes a token for the given task if one is available, otherwise the
+		 * task waits for a token.
+		 *
+		 * @param task
+		 * 		The task to handle.
+		 * @return
+		 * 		TOKEN if the task took a token and should be given to the 
+		 * 		handler, WAITING if it waits for a token, or REMOVED if the 
+		 * 		bucket has been removed.
+		 */
+		public synchronized int offer(Task<?> task)
+		{
+			if (removed) {
+				return REMOVED;
+			}
+
+			refill();
+
+			// Tasks already waiting have priority.
+			if (!waiting.isEmpty() || tokens < 1.0) {
+				waiting.add(task);
+				schedule();
+				return WAITING;
+			}
+
+			tokens -= 1.0;
+
+			// Check back later in case this bucket can be removed.
+			if (key != null) {
+				schedule();
+			}
+
+			return TOKEN;
+		}
+
+		/**
+		 * Releases the waiting tasks which can take a token, this is invoked
+		 * by the timer.
+		 */
+		public void run()
+		{
+			List<Task<?>> released = new ArrayList<Task<?>>();
+
+			synchronized (this)
+			{
+				scheduled = false;
+
+				refill();
+
+				while (!waiting.isEmpty() && tokens >= 1.0) {
+					Task<?> task = waiting.poll();
+					// Canceled tasks don't need a token.
+					if (!task.isCanceled()) {
+						tokens -= 1.0;
+						released.add(task);
+					}
+				}
+
+				if (!waiting.isEmpty()) {
+					schedule();
+				}
+				// A full bucket with no waiting tasks is the same as no bucket.
+				else if (key != null) {
+					if (tokens >= burst) {
+						removed = true;
+						buckets.remove(key, this);
+					}
+					else {
+						schedule();
+					}
+				}
+			}
+
+			for (Task<?> task : released) {
+				release(task);
+			}
+		}
+
+		/**
+		 * Adds the tokens generated since the last refill. This should be
+		 * invoked while holding the lock on this bucket.
+		 */
+		private void refill()
+		{
+			long time = System.nanoTime();
+			tokens = Math.min(burst, tokens + (time - refillTime) * rate * 0.000000001);
+			refillTime = time;
+		}
+
+		/**
+		 * Schedules this bucket to run when the next token is available, or
+		 * if there are no waiting tasks when the bucket will be full. This
+		 * should be invoked while holding the lock on this bucket.
+		 */
+		private void schedule()
+		{
+			if (!scheduled)
+			{
+				double needed = (waiting.isEmpty() ? burst : 1.0) - tokens;
+				long delay = (long)Math.ceil(Math.max(0.0, needed) / rate * 1000000000.0);
+
+				timer.schedule(this, delay, TimeUnit.NANOSECONDS);
+				scheduled = true;
+			}
+		}
+
+		/**
+		 * Returns the number of tasks waiting in this bucket.
+		 *
+		 * @return
+		 * 		The number of waiting tasks.
+		 */
+		public synchronized int size()
+		{
+			return waiting.size();
+		}
+	}
+
+}
@@ -0,0 +1,323 @@
+/* 
+ * NOTICE OF LICENSE
+ * 
+ * This source file is subject to the Open Software License (OSL 3.0) that is 
+ * bundled with this package in the file LICENSE.txt. It is also available 
+ * through the world-wide-web at http://opensource.org/licenses/osl-3.0.php
+ * If you did not receive a copy of the license and are unable to obtain it 
+ * through the world-wide-web, please send an email to pdiffenderfer@gmail.com 
+ * so we can send you a copy immediately. If you use any of this software please
+ * notify me via my website or email, your feedback is much appreciated. 
+ * 
+ * @copyright   Copyright (c) 2011 Magnos Software (http://www.magnos.org)
+ * @license     http://opensource.org/licenses/osl-3.0.php
+ * 				Open Software License (OSL 3.0)
+ */
+
+package org.magnos.task;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * Java Flight Recorder events for the life cycle of a task. The events are
+ * only created, filled in, and committed when they are enabled in a 
+ * recording, when recording is off each event is a single check of the 
+ * enabled flag of its event type and nothing is allocated.
+ *
+ * <pre>
+ * java -XX:StartFlightRecording=filename=tasks.jfr ...
+ * jfr print --categories Taskaroo tasks.jfr
+ * </pre>
+ *
+ * @author Philip Diffenderfer
+ *
+ */
+final class TaskRecorder
+{
+
+	/**
+	 * A task was given to its handler.
+	 */
+	@Name("org.magnos.task.Enqueue")
+	@Label("Task Enqueue")
+	@Category("Taskaroo")
+	@StackTrace(false)
+	static class EnqueueEvent extends Event
+	{
+		@Label("Task Class")
+		Class<?> taskClass;
+
+		@Label("Handler")
+		String handler;
+	}
+
+	/**
+	 * A task was taken from the queue of a TaskService.
+	 */
+	@Name("org.magnos.task.Dequeue")
+	@Label("Task Dequeue")
+	@Category("Taskaroo")
+	@StackTrace(false)
+	static class DequeueEvent extends Event
+	{
+		@Label("Task Class")
+		Class<?> taskClass;
+
+		@Label("Handler")
+		String handler;
+
+		@Label("Queue Wait")
+		@Timespan(Timespan.NANOSECONDS)
+		long queueWait;
+	}
+
+	/**
+	 * A task executed, the duration of the event is the time it ran.
+	 */
+	@Name("org.magnos.task.Execute")
+	@Label("Task Execute")
+	@Category("Taskaroo")
+	@StackTrace(false)
+	static class ExecuteEvent extends Event
+	{
+		@Label("Task Class")
+		Class<?> taskClass;
+
+		@Label("Handler")
+		String handler;
+
+		@Label("Queue Wait")
+		@Timespan(Timespan.NANOSECONDS)
+		long queueWait;
+
+		@Label("Outcome")
+		@Description("Success, Error, TimedOut, or Retry")
+		String outcome;
+
+		@Label("Error Class")
+		Class<?> errorClass;
+	}
+
+	/**
+	 * A synchronous invocation of a task timed out.
+	 */
+	@Name("org.magnos.task.Timeout")
+	@Label("Task Timeout")
+	@Category("Taskaroo")
+	static class TimeoutEvent extends Event
+	{
+		@Label("Task Class")
+		Class<?> taskClass;
+
+		@Label("Handler")
+		String handler;
+
+		@Label("Waited")
+		@Timespan(Timespan.NANOSECONDS)
+		long waited;
+	}
+
+	/**
+	 * A task was canceled before it ran.
+	 */
+	@Name("org.magnos.task.Cancel")
+	@Label("Task Cancel")
+	@Category("Taskaroo")
+	static class CancelEvent extends Event
+	{
+		@Label("Task Class")
+		Class<?> taskClass;
+
+		@Label("Handler")
+		String handler;
+
+		@Label("Queue Wait")
+		@Timespan(Timespan.NANOSECONDS)
+		long queueWait;
+	}
+
+	/**
+	 * A collection of tasks executed, the duration of the event is the time
+	 * from the start of the collection to the end of its last task.
+	 */
+	@Name("org.magnos.task.Collection")
+	@Label("Task Collection")
+	@Category("Taskaroo")
+	@StackTrace(false)
+	static class CollectionEvent extends Event
+	{
+		@Label("Collection Class")
+		Class<?> collectionClass;
+
+		@Label("Tasks")
+		int tasks;
+
+		@Label("Outcome")
+		String outcome;
+	}
+	
+	// The types of the events, which know whether the event is enabled in any
+	// recording without an event being created.
+	private static final EventType ENQUEUE = EventType.getEventType(EnqueueEvent.class);
+	private static final EventType DEQUEUE = EventType.getEventType(DequeueEvent.class);
+	private static final EventType EXECUTE = EventType.getEventType(ExecuteEvent.class);
+	private static final EventType TIMEOUT = EventType.getEventType(TimeoutEvent.class);
+	private static final EventType CANCEL = EventType.getEventType(CancelEvent.class);
+	private static final EventType COLLECTION = EventType.getEventType(CollectionEvent.class);
+
+
+	/**
+	 * Records the given task being given to the given handler.
+	 */
+	static void enqueue(Task<?> task, TaskEventHandler handler)
+	{
+		if (ENQUEUE.isEnabled()) {
+			EnqueueEvent event = new EnqueueEvent();
+			event.taskClass = task.getClass();
+			event.handler = describe(handler);
+			event.commit();
+		}
+	}
+
+	/**
+	 * Records the given task being taken from the queue of the given service.
+	 */
+	static void dequeue(Task<?> task, TaskService service)
+	{
+		if (DEQUEUE.isEnabled()) {
+			DequeueEvent event = new DequeueEvent();
+			event.taskClass = task.getClass();
+			event.handler = describe(service);
+			event.queueWait = System.nanoTime() - task.getWaitStart();
+			event.commit();
+		}
+	}
+
+	/**
+	 * Starts recording the execution of a task, the returned event should be
+	 * given to finish once the task has executed. Null is returned when the
+	 * event is not enabled.
+	 */
+	static ExecuteEvent start(Task<?> task)
+	{
+		if (!EXECUTE.isEnabled()) {
+			return null;
+		}
+		ExecuteEvent event = new ExecuteEvent();
+		event.queueWait = System.nanoTime() - task.getWaitStart();
+		event.begin();
+		return event;
+	}
+
+	/**
+	 * Records the end of the execution of a task.
+	 */
+	static void finish(ExecuteEvent event, Task<?> task)
+	{
+		if (event != null) {
+			event.end();
+			if (event.shouldCommit()) {
+				event.taskClass = task.getClass();
+				event.handler = describe(task.getHandler());
+				event.outcome = outcome(task);
+				event.errorClass = (task.getError() == null ? null : task.getError().getClass());
+				event.commit();
+			}
+		}
+	}
+
+	/**
+	 * Records a synchronous invocation of the given task timing out.
+	 */
+	static void timeout(Task<?> task)
+	{
+		if (TIMEOUT.isEnabled()) {
+			TimeoutEvent event = new TimeoutEvent();
+			event.taskClass = task.getClass();
+			event.handler = describe(task.getHandler());
+			event.waited = System.nanoTime() - task.getWaitStart();
+			event.commit();
+		}
+	}
+
+	/**
+	 * Records the given task being canceled.
+	 */
+	static void cancel(Task<?> task)
+	{
+		if (CANCEL.isEnabled()) {
+			CancelEvent event = new CancelEvent();
+			event.taskClass = task.getClass();
+			event.handler = describe(task.getHandler());
+			event.queueWait = System.nanoTime() - task.getWaitStart();
+			event.commit();
+		}
+	}
+
+	/**
+	 * Starts recording the execution of a collection, the returned event
+	 * should be given to finish once the collection has executed. Null is 
+	 * returned when the event is not enabled.
+	 */
+	static CollectionEvent start(TaskComposite<?, ?> collection)
+	{
+		if (!COLLECTION.isEnabled()) {
+			return null;
+		}
+		CollectionEvent event = new CollectionEvent();
+		event.tasks = collection.list.size();
+		event.begin();
+		return event;
+	}
+
+	/**
+	 * Records the end of the execution of a collection.
+	 */
+	static void finish(CollectionEvent event, TaskComposite<?, ?> collection, Throwable error)
+	{
+		if (event != null) {
+			event.end();
+			if (event.shouldCommit()) {
+				event.collectionClass = collection.getClass();
+				event.outcome = (error == null ? "Success" : "Error");
+				event.commit();
+			}
+		}
+	}
+
+	/**
+	 * Returns the outcome of a finished task.
+	 */
+	private static String outcome(Task<?> task)
+	{
+		if (task.isWaiting()) {
+			return "Retry";
+		}
+		if (task.isTimedOut()) {
+			return "TimedOut";
+		}
+		if (task.isError()) {
+			return "Error";
+		}
+		return "Success";
+	}
+
+	/**
+	 * Describes the given handler by its class and identity.
+	 */
+	private static String describe(TaskEventHandler handler)
+	{
+		if (handler == null) {
+			return null;
+		}
+		return handler.getClass().getName() + "@" + Integer.toHexString(System.identityHashCode(handler));
+	}
+
+}
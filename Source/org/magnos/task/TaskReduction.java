@@ -0,0 +1,240 @@
+/* 
+ * NOTICE OF LICENSE
+ * 
+ * This source file is subject to the Open Software License (OSL 3.0) that is 
+ * bundled with this package in the file LICENSE.txt. It is also available 
+ * through the world-wide-web at http://opensource.org/licenses/osl-3.0.php
+ * If you did not receive a copy of the license and are unable to obtain it 
+ * through the world-wide-web, please send an email to pdiffenderfer@gmail.com 
+ * so we can send you a copy immediately. If you use any of this software please
+ * notify me via my website or email, your feedback is much appreciated. 
+ * 
+ * @copyright   Copyright (c) 2011 Magnos Software (http://www.magnos.org)
+ * @license     http://opensource.org/licenses/osl-3.0.php
+ * 				Open Software License (OSL 3.0)
+ */
+
+package org.magnos.task;
+
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * A collection of tasks which when executed combines the results of its 
+ * tasks into a single result instead of returning a list of them. Each 
+ * result is folded into a partial result as soon as its task succeeds, there
+ * are a fixed number of partial results (one per stripe, and the stripe of a
+ * result depends on the thread which folds it) so threads rarely contend and
+ * the results held do not grow with the number of tasks, though the tasks 
+ * themselves are held until the reduction finishes. Once every task 
+ * has finished the partial results are combined into the result. Results 
+ * are therefore combined in no particular order, and the combiner must be 
+ * commutative as well as associative (like a sum, a count, or a maximum) for
+ * the result to be the same every time.
+ * 
+ * If a task fails with an error the reduction fails with the same error, if
+ * a task is canceled or times out its result is simply not included.
+ * 
+ * <pre>
+ * TaskReduction&lt;Long&gt; sum = new TaskReduction&lt;Long&gt;(0L, new TaskCombiner&lt;Long&gt;() {
+ * 	public Long combine(Long a, Long b) {
+ * 		return a + b;
+ * 	}
+ * });
+ * for (...) {
+ * 	sum.add(task);
+ * }
+ * Long total = sum.sync();
+ * </pre>
+ * 
+ * @author Philip Diffenderfer
+ *
+ * @param <R>
+ * 		The result type.
+ */
+public class TaskReduction<R> extends TaskComposite<Task<? extends R>, R> 
+{
+
+	/**
+	 * A partial result and the lock which guards it.
+	 */
+	private static class Stripe<R> 
+	{
+		private R value;
+	}
+	
+	/**
+	 * Folds the results of the tasks into the stripes as they finish.
+	 */
+	private class Folder implements TaskListener<R> 
+	{
+		
+		// Counts down as each task finishes.
+		private final CountDownLatch remaining;
+		
+		// The first error of a task.
+		private volatile Throwable error;
+		
+		/**
+		 * Instantiates a new Folder.
+		 */
+		public Folder(int tasks) 
+		{
+			remaining = new CountDownLatch(tasks);
+		}
+		
+		/**
+		 * {@inheritDoc}
+		 */
+		public void onTaskSuccess(Task<R> source, R result) 
+		{
+			fold(result);
+		}
+		
+		/**
+		 * {@inheritDoc}
+		 */
+		public void onTaskError(Task<R> source, Throwable error) 
+		{
+			if (this.error == null) {
+				this.error = error;
+			}
+		}
+		
+		/**
+		 * {@inheritDoc}
+		 */
+		public void onTaskFinish(Task<R> source) 
+		{
+			remaining.countDown();
+		}
+		
+		/**
+		 * {@inheritDoc}
+		 */
+		public void onTaskCancel(Task<R> source) 
+		{
+		}
+		
+		/**
+		 * {@inheritDoc}
+		 */
+		public void onTaskTimeout(Task<R> source) 
+		{
+		}
+	}
+	
+	
+	// The result which doesn't change a result it's combined with.
+	private final R identity;
+	
+	// Combines two results.
+	private final TaskCombiner<R> combiner;
+	
+	// The partial results.
+	private final Stripe<R>[] stripes;
+	
+	
+	/**
+	 * Instantiates a new TaskReduction.
+	 * 
+	 * @param identity
+	 * 		The result which doesn't change a result it's combined with, this 
+	 * 		is the result when there are no tasks.
+	 * @param combiner
+	 * 		Combines two results, this must be associative and commutative.
+	 */
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	public TaskReduction(R identity, TaskCombiner<R> combiner) 
+	{
+		this.identity = identity;
+		this.combiner = combiner;
+		
+		int count = 1;
+		while (count < Runtime.getRuntime().availableProcessors() * 2) {
+			count <<= 1;
+		}
+		
+		this.stripes = new Stripe[count];
+		for (int i = 0; i < count; i++) {
+			stripes[i] = new Stripe<R>();
+		}
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	@SuppressWarnings("unchecked")
+	protected R onExecute() 
+	{
+		try 
+		{
+			for (Stripe<R> stripe : stripes) {
+				stripe.value = identity;
+			}
+			
+			Folder folder = new Folder(list.size());
+			
+			for (Task<? extends R> task : list) {
+				Task<R> reduced = (Task<R>)task;
+				
+				// A task which has already been started is folded once done.
+				if (!reduced.async(folder)) {
+					reduced.join();
+					if (reduced.isSuccess()) {
+						folder.onTaskSuccess(reduced, reduced.getResult());
+					}
+					else if (reduced.isError()) {
+						folder.onTaskError(reduced, reduced.getError());
+					}
+					folder.onTaskFinish(reduced);
+				}
+			}
+			
+			// Joining lets a worker execute the tasks queued behind it, the 
+			// latch waits for the results to be folded.
+			for (Task<? extends R> task : list) {
+				task.join();
+			}
+			folder.remaining.await();
+			
+			if (folder.error instanceof RuntimeException) {
+				throw (RuntimeException)folder.error;
+			}
+			if (folder.error instanceof Error) {
+				throw (Error)folder.error;
+			}
+			if (folder.error != null) {
+				throw new RuntimeException(folder.error);
+			}
+			
+			R result = identity;
+			for (Stripe<R> stripe : stripes) {
+				result = combiner.combine(result, stripe.value);
+				stripe.value = null;
+			}
+			
+			if (cleanList) {
+				list.clear();
+			}
+			
+			return result;
+		}
+		catch (InterruptedException e) {
+			throw new RuntimeException(e);
+		}
+	}
+	
+	/**
+	 * Folds the given result into the stripe of the current thread.
+	 */
+	private void fold(R result) 
+	{
+		Stripe<R> stripe = stripes[(int)Thread.currentThread().getId() & (stripes.length - 1)];
+		
+		synchronized (stripe) {
+			stripe.value = combiner.combine(stripe.value, result);
+		}
+	}
+	
+}
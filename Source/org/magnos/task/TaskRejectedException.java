@@ -0,0 +1,55 @@
+/* 
+ * NOTICE OF LICENSE
+ * 
+ * This source file is subject to the Open Software License (OSL 3.0) that is 
+ * bundled with this package in the file LICENSE.txt. It is also available 
+ * through the world-wide-web at http://opensource.org/licenses/osl-3.0.php
+ * If you did not receive a copy of the license and are unable to obtain it 
+ * through the world-wide-web, please send an email to pdiffenderfer@gmail.com 
+ * so we can send you a copy immediately. If you use any of this software please
+ * notify me via my website or email, your feedback is much appreciated. 
+ * 
+ * @copyright   Copyright (c) 2011 Magnos Software (http://www.magnos.org)
+ * @license     http://opensource.org/licenses/osl-3.0.php
+ * 				Open Software License (OSL 3.0)
+ */
+
+package org.magnos.task;
+
+/**
+ * The cause given to a task canceled because a handler would not accept it,
+ * for example when the queue of a bulkhead partition is full.
+ * 
+ * @author Philip Diffenderfer
+ *
+ */
+public class TaskRejectedException extends RuntimeException 
+{
+
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * Instantiates a new TaskRejectedException.
+	 * 
+	 * @param message
+	 * 		Why the task was rejected.
+	 */
+	public TaskRejectedException(String message) 
+	{
+		super(message);
+	}
+
+	/**
+	 * Instantiates a new TaskRejectedException.
+	 * 
+	 * @param message
+	 * 		Why the task was rejected.
+	 * @param cause
+	 * 		The error which kept the handler from accepting the task.
+	 */
+	public TaskRejectedException(String message, Throwable cause) 
+	{
+		super(message, cause);
+	}
+	
+}
@@ -0,0 +1,109 @@
+/* 
+ * NOTICE OF LICENSE
+ * 
+ * This source file is subject to the Open Software License (OSL 3.0) that is 
+ * bundled with this package in the file LICENSE.txt. It is also available 
+ * through the world-wide-web at http://opensource.org/licenses/osl-3.0.php
+ * If you did not receive a copy of the license and are unable to obtain it 
+ * through the world-wide-web, please send an email to pdiffenderfer@gmail.com 
+ * so we can send you a copy immediately. If you use any of this software please
+ * notify me via my website or email, your feedback is much appreciated. 
+ * 
+ * @copyright   Copyright (c) 2011 Magnos Software (http://www.magnos.org)
+ * @license     http://opensource.org/licenses/osl-3.0.php
+ * 				Open Software License (OSL 3.0)
+ */
+
+package org.magnos.task;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * A task which can be sent to a TaskRemoteServer. The task writes its own 
+ * fields and its own result, nothing is serialized by class so a server only
+ * creates the task classes registered with it. The class of the task must 
+ * have a public constructor which takes no arguments, the server creates the
+ * task with it and then reads the fields the client wrote.
+ * 
+ * <pre>
+ * public class SquareTask extends Task&lt;Long&gt; implements TaskRemotable&lt;Long&gt; {
+ * 	private long value;
+ * 	public SquareTask() {
+ * 	}
+ * 	protected Long execute() {
+ * 		return value * value;
+ * 	}
+ * 	public void writeTask(DataOutput out) throws IOException {
+ * 		out.writeLong(value);
+ * 	}
+ * 	public void readTask(DataInput in) throws IOException {
+ * 		value = in.readLong();
+ * 	}
+ * 	public void writeResult(Long result, DataOutput out) throws IOException {
+ * 		out.writeLong(result);
+ * 	}
+ * 	public Long readResult(DataInput in) throws IOException {
+ * 		return in.readLong();
+ * 	}
+ * }
+ * </pre>
+ * 
+ * @author Philip Diffenderfer
+ *
+ * @param <R>
+ * 		The result type.
+ */
+public interface TaskRemotable<R> 
+{
+	
+	/**
+	 * Writes the fields of this task which the server needs to execute it.
+	 * This is invoked on the client.
+	 * 
+	 * @param out
+	 * 		The output to write to.
+	 * @throws IOException
+	 * 		An error occurred writing the task.
+	 */
+	public void writeTask(DataOutput out) throws IOException;
+	
+	/**
+	 * Reads the fields written by writeTask into this newly created task. This
+	 * is invoked on the server.
+	 * 
+	 * @param in
+	 * 		The input to read from.
+	 * @throws IOException
+	 * 		An error occurred reading the task.
+	 */
+	public void readTask(DataInput in) throws IOException;
+	
+	/**
+	 * Writes the result of this task once it has executed successfully. This
+	 * is invoked on the server.
+	 * 
+	 * @param result
+	 * 		The result of the task, which may be null.
+	 * @param out
+	 * 		The output to write to.
+	 * @throws IOException
+	 * 		An error occurred writing the result.
+	 */
+	public void writeResult(R result, DataOutput out) throws IOException;
+	
+	/**
+	 * Reads the result written by writeResult. This is invoked on the client,
+	 * on the same task which was given to the TaskRemoteHandler.
+	 * 
+	 * @param in
+	 * 		The input to read from.
+	 * @return
+	 * 		The result of the task.
+	 * @throws IOException
+	 * 		An error occurred reading the result.
+	 */
+	public R readResult(DataInput in) throws IOException;
+	
+}
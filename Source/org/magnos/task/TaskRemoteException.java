@@ -0,0 +1,71 @@
+/* 
+ * NOTICE OF LICENSE
+ * 
+ * This source file is subject to the Open Software License (OSL 3.0) that is 
+ * bundled with this package in the file LICENSE.txt. It is also available 
+ * through the world-wide-web at http://opensource.org/licenses/osl-3.0.php
+ * If you did not receive a copy of the license and are unable to obtain it 
+ * through the world-wide-web, please send an email to pdiffenderfer@gmail.com 
+ * so we can send you a copy immediately. If you use any of this software please
+ * notify me via my website or email, your feedback is much appreciated. 
+ * 
+ * @copyright   Copyright (c) 2011 Magnos Software (http://www.magnos.org)
+ * @license     http://opensource.org/licenses/osl-3.0.php
+ * 				Open Software License (OSL 3.0)
+ */
+
+package org.magnos.task;
+
+/**
+ * The error of a task which failed on a TaskRemoteServer. Errors are not 
+ * serialized, so the class and message of the error thrown on the server are
+ * sent back and given to this exception.
+ * 
+ * @author Philip Diffenderfer
+ *
+ */
+public class TaskRemoteException extends RuntimeException 
+{
+
+	private static final long serialVersionUID = 1L;
+	
+	// The name of the class of the error thrown on the server.
+	private final String remoteClass;
+
+	/**
+	 * Instantiates a new TaskRemoteException.
+	 * 
+	 * @param remoteClass
+	 * 		The name of the class of the error thrown on the server.
+	 * @param message
+	 * 		The message of the error thrown on the server, or null.
+	 */
+	public TaskRemoteException(String remoteClass, String message) 
+	{
+		super(message);
+		this.remoteClass = remoteClass;
+	}
+	
+	/**
+	 * Returns the name of the class of the error thrown on the server.
+	 * 
+	 * @return
+	 * 		The fully qualified class name.
+	 */
+	public String getRemoteClass() 
+	{
+		return remoteClass;
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public String toString() 
+	{
+		String message = getMessage();
+		
+		return remoteClass + (message == null ? "" : ": " + message);
+	}
+	
+}
@@ -0,0 +1,407 @@
+/* 
+ * NOTICE OF LICENSE
+ * 
+ * This source file is subject to the Open Software License (OSL 3.0) that is 
+ * bundled with this package in the file LICENSE.txt. It is also available 
+ * through the world-wide-web at http://opensource.org/licenses/osl-3.0.php
+ * If you did not receive a copy of the license and are unable to obtain it 
+ * through the world-wide-web, please send an email to pdiffenderfer@gmail.com 
+ * so we can send you a copy immediately. If you use any of this software please
+ * notify me via my website or email, your feedback is much appreciated. 
+ * 
+ * @copyright   Copyright (c) 2011 Magnos Software (http://www.magnos.org)
+ * @license     http://opensource.org/licenses/osl-3.0.php
+ * 				Open Software License (OSL 3.0)
+ */
+
+package org.magnos.task;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.magnos.task.TaskRemoteProtocol.Frame;
+
+/**
+ * A handler which executes tasks in another JVM running a TaskRemoteServer.
+ * Each task given to this handler is written and sent to the server, the
+ * task stays in the Waiting state locally until the server responds with the
+ * result, the error, or that the task timed out or was canceled, at which 
+ * point the local task finishes and its listener is notified. Therefore sync,
+ * async, join, and cancel behave as they would with a local handler. Tasks 
+ * must implement TaskRemotable, they write their own fields and results, and
+ * their classes must be registered with the server. An error thrown on the 
+ * server finishes the task with a TaskRemoteException.
+ * 
+ * The handler keeps a small pool of connections to the server which are 
+ * opened when first needed and reopened after a failure. Requests are spread
+ * across the connections and pipelined, many tasks can be outstanding on a
+ * single connection. When a connection fails every task waiting on it 
+ * finishes with the IOException as its error.
+ * 
+ * <pre>
+ * TaskRemoteHandler remote = new TaskRemoteHandler("worker1", 7070);
+ * remote.setSecret(secret);
+ * 
+ * task.setHandler(remote);
+ * task.sync();
+ * 
+ * remote.close();
+ * </pre>
+ * 
+ * @author Philip Diffenderfer
+ *
+ */
+public class TaskRemoteHandler implements TaskCancelHandler 
+{
+
+	/**
+	 * The default number of connections kept to the server.
+	 */
+	public static final int DEFAULT_CONNECTIONS = 2;
+	
+	/**
+	 * A task sent to the server and the connection it was sent over.
+	 */
+	private static class Request 
+	{
+		private final Task<?> task;
+		private final long id;
+		private final Connection connection;
+		
+		public Request(Task<?> task, long id, Connection connection) 
+		{
+			this.task = task;
+			this.id = id;
+			this.connection = connection;
+		}
+	}
+	
+	/**
+	 * A connection to the server and the thread reading its responses.
+	 */
+	private class Connection implements Runnable 
+	{
+		
+		// The socket connected to the server.
+		private final Socket socket;
+		
+		// The streams of the socket.
+		private final DataOutputStream out;
+		private final DataInputStream in;
+		
+		// The requests sent over this connection waiting for a response.
+		private final ConcurrentHashMap<Long, Request> requests = new ConcurrentHashMap<Long, Request>();
+		
+		// Whether this connection has failed or been closed.
+		private volatile boolean closed;
+		
+		/**
+		 * Instantiates a new Connection and starts reading responses.
+		 */
+		public Connection() throws IOException 
+		{
+			socket = new Socket();
+			try {
+				socket.setTcpNoDelay(true);
+				socket.connect(address, connectTimeout);
+				out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+				in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+				
+				send(TaskRemoteProtocol.HELLO, 0, secret);
+			}
+			catch (IOException e) {
+				socket.close();
+				throw e;
+			}
+			
+			Thread reader = new Thread(this, "TaskRemoteHandler-" + address);
+			reader.setDaemon(true);
+			reader.start();
+		}
+		
+		/**
+		 * Sends a frame to the server.
+		 */
+		public void send(byte type, long id, byte[] payload) throws IOException 
+		{
+			synchronized (out) {
+				TaskRemoteProtocol.write(out, type, id, payload);
+			}
+		}
+		
+		/**
+		 * Reads responses until the connection fails or is closed.
+		 */
+		public void run() 
+		{
+			try {
+				while (!closed) {
+					Frame frame = TaskRemoteProtocol.read(in);
+					Request request = requests.remove(frame.id);
+					if (request != null) {
+						pending.remove(request.task);
+						respond(request.task, frame);
+					}
+				}
+			}
+			catch (IOException e) {
+				close(e);
+			}
+		}
+		
+		/**
+		 * Closes this connection, every task waiting on it finishes with the 
+		 * given error.
+		 */
+		public void close(IOException error) 
+		{
+			closed = true;
+			
+			try {
+				socket.close();
+			}
+			catch (IOException e) {
+				// ignore
+			}
+			
+			for (Long id : requests.keySet()) {
+				Request request = requests.remove(id);
+				if (request != null) {
+					pending.remove(request.task);
+					request.task.complete(null, error);
+				}
+			}
+		}
+	}
+	
+	
+	// The address of the server.
+	private final InetSocketAddress address;
+	
+	// The connections to the server, a null or closed connection is reopened
+	// when it's next used.
+	private final AtomicReferenceArray<Connection> connections;
+	
+	// The index of the next connection to use.
+	private final AtomicInteger next = new AtomicInteger();
+	
+	// The id of the last request sent.
+	private final AtomicLong ids = new AtomicLong();
+	
+	// The requests waiting for a response by task.
+	private final ConcurrentHashMap<Task<?>, Request> pending = new ConcurrentHashMap<Task<?>, Request>();
+	
+	// The maximum time in milliseconds to wait to connect.
+	private volatile int connectTimeout = 5000;
+	
+	// The secret sent to the server when connecting.
+	private volatile byte[] secret = {};
+	
+	
+	/**
+	 * Instantiates a new TaskRemoteHandler.
+	 * 
+	 * @param host
+	 * 		The host of the server.
+	 * @param port
+	 * 		The port of the server.
+	 */
+	public TaskRemoteHandler(String host, int port) 
+	{
+		this(new InetSocketAddress(host, port), DEFAULT_CONNECTIONS);
+	}
+	
+	/**
+	 * Instantiates a new TaskRemoteHandler.
+	 * 
+	 * @param address
+	 * 		The address of the server.
+	 * @param connections
+	 * 		The number of connections to keep to the server.
+	 */
+	public TaskRemoteHandler(InetSocketAddress address, int connections) 
+	{
+		this.address = address;
+		this.connections = new AtomicReferenceArray<Connection>(connections);
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	public boolean addEvent(Task<?> event) 
+	{
+		if (!(event instanceof TaskRemotable)) {
+			event.complete(null, new IllegalArgumentException(event.getClass().getName() + " does not implement TaskRemotable"));
+			return false;
+		}
+		
+		byte[] payload;
+		try {
+			payload = TaskRemoteProtocol.task(event);
+		}
+		catch (IOException e) {
+			event.complete(null, e);
+			return false;
+		}
+		
+		Connection connection;
+		try {
+			connection = getConnection();
+		}
+		catch (IOException e) {
+			event.complete(null, e);
+			return false;
+		}
+		
+		Request request = new Request(event, ids.incrementAndGet(), connection);
+		pending.put(event, request);
+		connection.requests.put(request.id, request);
+		
+		try {
+			connection.send(TaskRemoteProtocol.SUBMIT, request.id, payload);
+		}
+		catch (IOException e) {
+			// Fails this request and every other on the connection.
+			connection.close(e);
+		}
+		
+		return true;
+	}
+	
+	/**
+	 * Tells the server to cancel the given task if it hasn't started yet.
+	 */
+	public void cancelEvent(Task<?> task) 
+	{
+		Request request = pending.remove(task);
+		
+		if (request != null && request.connection.requests.remove(request.id) != null) {
+			try {
+				request.connection.send(TaskRemoteProtocol.CANCEL, request.id, null);
+			}
+			catch (IOException e) {
+				request.connection.close(e);
+			}
+		}
+	}
+	
+	/**
+	 * Closes every connection to the server, all tasks waiting for a response
+	 * finish with an error.
+	 */
+	public void close() 
+	{
+		for (int i = 0; i < connections.length(); i++) {
+			Connection connection = connections.getAndSet(i, null);
+			if (connection != null) {
+				connection.close(new IOException("The handler was closed"));
+			}
+		}
+	}
+	
+	/**
+	 * Finishes the given local task with the response of the server.
+	 */
+	private void respond(Task<?> task, Frame frame) 
+	{
+		try {
+			switch (frame.type) 
+			{
+			case TaskRemoteProtocol.RESULT:
+				task.complete(((TaskRemotable<?>)task).readResult(frame.input()), null);
+				break;
+			case TaskRemoteProtocol.ERROR:
+				task.complete(null, TaskRemoteProtocol.readError(frame));
+				break;
+			case TaskRemoteProtocol.TIMEOUT:
+				task.expire();
+				break;
+			case TaskRemoteProtocol.CANCELED:
+				task.cancel(new CancellationException("The task was canceled by the server"));
+				break;
+			}
+		}
+		catch (Exception e) {
+			// The result or error could not be read.
+			task.complete(null, e);
+		}
+	}
+	
+	/**
+	 * Returns the next connection to send a request over, opening it if 
+	 * necessary.
+	 */
+	private Connection getConnection() throws IOException 
+	{
+		int index = (next.getAndIncrement() & Integer.MAX_VALUE) % connections.length();
+		Connection connection = connections.get(index);
+		
+		if (connection == null || connection.closed) {
+			synchronized (connections) {
+				connection = connections.get(index);
+				if (connection == null || connection.closed) {
+					connection = new Connection();
+					connections.set(index, connection);
+				}
+			}
+		}
+		
+		return connection;
+	}
+	
+	/**
+	 * Sets the maximum time to wait to connect to the server.
+	 * 
+	 * @param connectTimeout
+	 * 		The timeout in milliseconds.
+	 */
+	public void setConnectTimeout(int connectTimeout) 
+	{
+		this.connectTimeout = connectTimeout;
+	}
+	
+	/**
+	 * Sets the secret sent to the server when a connection is opened, it must
+	 * match the secret of the server.
+	 * 
+	 * @param secret
+	 * 		The secret, or null if the server doesn't need one.
+	 */
+	public void setSecret(byte[] secret) 
+	{
+		this.secret = (secret == null ? new byte[0] : secret.clone());
+	}
+	
+	/**
+	 * Returns the number of tasks waiting for a response from the server.
+	 * 
+	 * @return
+	 * 		The number of outstanding requests.
+	 */
+	public int getPendingCount() 
+	{
+		return pending.size();
+	}
+	
+	/**
+	 * Returns the address of the server.
+	 * 
+	 * @return
+	 * 		The address tasks are sent to.
+	 */
+	public InetSocketAddress getAddress() 
+	{
+		return address;
+	}
+	
+}
@@ -0,0 +1,192 @@
+/* 
+ * NOTICE OF LICENSE
+ * 
+ * This source file is subject to the Open Software License (OSL 3.0) that is 
+ * bundled with this package in the file LICENSE.txt. It is also available 
+ * through the world-wide-web at http://opensource.org/licenses/osl-3.0.php
+ * If you did not receive a copy of the license and are unable to obtain it 
+ * through the world-wide-web, please send an email to pdiffenderfer@gmail.com 
+ * so we can send you a copy immediately. If you use any of this software please
+ * notify me via my website or email, your feedback is much appreciated. 
+ * 
+ * @copyright   Copyright (c) 2011 Magnos Software (http://www.magnos.org)
+ * @license     http://opensource.org/licenses/osl-3.0.php
+ * 				Open Software License (OSL 3.0)
+ */
+
+package org.magnos.task;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * The frames exchanged between a TaskRemoteHandler and a TaskRemoteServer.
+ * Every frame is the length of the rest of the frame, a type byte, the id of
+ * the request, and a payload:
+ * 
+ * <pre>
+ * [int length][byte type][long id][payload]
+ * 
+ * HELLO     client to server, [secret], the first frame of a connection
+ * SUBMIT    client to server, [long timeout][utf task class][task]
+ * CANCEL    client to server, no payload
+ * RESULT    server to client, [result]
+ * ERROR     server to client, [utf error class][boolean has message][utf message]
+ * TIMEOUT   server to client, no payload
+ * CANCELED  server to client, no payload
+ * </pre>
+ * 
+ * The task and its result are written and read by the task itself, see 
+ * TaskRemotable. Nothing is deserialized by class, the server only creates
+ * the task classes registered with it.
+ * 
+ * Requests are pipelined, a client sends any number of requests over a 
+ * connection without waiting and the server responds as each task finishes.
+ * 
+ * @author Philip Diffenderfer
+ *
+ */
+final class TaskRemoteProtocol 
+{
+
+	public static final byte SUBMIT = 1;
+	public static final byte CANCEL = 2;
+	public static final byte RESULT = 3;
+	public static final byte ERROR = 4;
+	public static final byte TIMEOUT = 5;
+	public static final byte CANCELED = 6;
+	public static final byte HELLO = 7;
+	
+	// The size of the type and id of a frame.
+	public static final int HEADER = 9;
+	
+	// The largest frame accepted, anything larger is a corrupt stream.
+	public static final int MAX_FRAME = 16 * 1024 * 1024;
+	
+	// The most characters of an error message sent, so it fits in a utf.
+	public static final int MAX_MESSAGE = 16 * 1024;
+	
+	/**
+	 * A frame read from a stream.
+	 */
+	public static class Frame 
+	{
+		public byte type;
+		public long id;
+		public byte[] payload;
+		
+		/**
+		 * Returns a stream over the payload of this frame.
+		 */
+		public DataInputStream input() 
+		{
+			return new DataInputStream(new ByteArrayInputStream(payload));
+		}
+	}
+	
+	/**
+	 * Writes a frame to the given stream and flushes it.
+	 */
+	public static void write(DataOutputStream out, byte type, long id, byte[] payload) throws IOException 
+	{
+		int length = (payload == null ? 0 : payload.length);
+		
+		out.writeInt(HEADER + length);
+		out.writeByte(type);
+		out.writeLong(id);
+		if (length > 0) {
+			out.write(payload);
+		}
+		out.flush();
+	}
+	
+	/**
+	 * Reads the next frame from the given stream, this blocks until an entire
+	 * frame is read.
+	 */
+	public static Frame read(DataInputStream in) throws IOException 
+	{
+		int length = in.readInt();
+		if (length < HEADER || length > MAX_FRAME) {
+			throw new IOException("Invalid frame length " + length);
+		}
+		
+		Frame frame = new Frame();
+		frame.type = in.readByte();
+		frame.id = in.readLong();
+		frame.payload = new byte[length - HEADER];
+		in.readFully(frame.payload);
+		
+		return frame;
+	}
+	
+	/**
+	 * Encodes the payload of a SUBMIT frame.
+	 */
+	public static byte[] task(Task<?> task) throws IOException 
+	{
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+		DataOutputStream out = new DataOutputStream(bytes);
+		
+		out.writeLong(task.getTimeout());
+		out.writeUTF(task.getClass().getName());
+		((TaskRemotable<?>)task).writeTask(out);
+		out.close();
+		
+		return bytes.toByteArray();
+	}
+	
+	/**
+	 * Encodes the payload of a RESULT frame.
+	 */
+	public static <R> byte[] result(TaskRemotable<R> task, R result) throws IOException 
+	{
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(16);
+		DataOutputStream out = new DataOutputStream(bytes);
+		
+		task.writeResult(result, out);
+		out.close();
+		
+		return bytes.toByteArray();
+	}
+	
+	/**
+	 * Encodes the payload of an ERROR frame.
+	 */
+	public static byte[] error(Throwable error) 
+	{
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+		DataOutputStream out = new DataOutputStream(bytes);
+		String message = error.getMessage();
+		
+		try {
+			out.writeUTF(error.getClass().getName());
+			out.writeBoolean(message != null);
+			if (message != null) {
+				out.writeUTF(message.length() > MAX_MESSAGE ? message.substring(0, MAX_MESSAGE) : message);
+			}
+			out.close();
+		}
+		catch (IOException never) {
+			// Writing to memory doesn't fail.
+		}
+		
+		return bytes.toByteArray();
+	}
+	
+	/**
+	 * Decodes the payload of an ERROR frame.
+	 */
+	public static TaskRemoteException readError(Frame frame) throws IOException 
+	{
+		DataInputStream in = frame.input();
+		String remoteClass = in.readUTF();
+		String message = (in.readBoolean() ? in.readUTF() : null);
+		
+		return new TaskRemoteException(remoteClass, message);
+	}
+	
+}
@@ -0,0 +1,386 @@
+/* 
+ * NOTICE OF LICENSE
+ * 
+ * This source file is subject to the Open Software License (OSL 3.0) that is 
+ * bundled with this package in the file LICENSE.txt. It is also available 
+ * through the world-wide-web at http://opensource.org/licenses/osl-3.0.php
+ * If you did not receive a copy of the license and are unable to obtain it 
+ * through the world-wide-web, please send an email to pdiffenderfer@gmail.com 
+ * so we can send you a copy immediately. If you use any of this software please
+ * notify me via my website or email, your feedback is much appreciated. 
+ * 
+ * @copyright   Copyright (c) 2011 Magnos Software (http://www.magnos.org)
+ * @license     http://opensource.org/licenses/osl-3.0.php
+ * 				Open Software License (OSL 3.0)
+ */
+
+package org.magnos.task;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Constructor;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.security.MessageDigest;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.magnos.task.TaskRemoteProtocol.Frame;
+
+/**
+ * A server which executes tasks sent by TaskRemoteHandlers in other JVMs. 
+ * Each task received is given to the server's handler and once it finishes
+ * its result, error, timeout, or cancellation is sent back to the client. 
+ * 
+ * Tasks are not deserialized by class, a task implements TaskRemotable and
+ * writes its own fields, and the server only creates the task classes which
+ * were registered with it. A task of any other class is answered with an 
+ * error. By default the server only accepts clients on the loopback address,
+ * and if a secret is set a client must send the same secret when it 
+ * connects.
+ * 
+ * The timeout of a task is sent along with it, a handler which expires tasks
+ * (like a TaskService with a TaskDeadlineQueue) will time out tasks which
+ * waited too long on the server.
+ * 
+ * <pre>
+ * TaskService service = new TaskService(new TaskDeadlineQueue());
+ * service.getEventQueue().setBlocking(true);
+ * service.start();
+ * 
+ * TaskRemoteServer server = new TaskRemoteServer(7070, service);
+ * server.register(SquareTask.class);
+ * server.start();
+ * </pre>
+ * 
+ * @author Philip Diffenderfer
+ *
+ */
+public class TaskRemoteServer implements Runnable 
+{
+
+	/**
+	 * A connection from a client and the thread reading its requests.
+	 */
+	private class Session implements Runnable 
+	{
+		
+		// The socket connected to the client.
+		private final Socket socket;
+		
+		// The streams of the socket.
+		private final DataOutputStream out;
+		private final DataInputStream in;
+		
+		// The tasks received which have not finished.
+		private final ConcurrentHashMap<Long, Task<?>> tasks = new ConcurrentHashMap<Long, Task<?>>();
+		
+		/**
+		 * Instantiates a new Session.
+		 */
+		public Session(Socket socket) throws IOException 
+		{
+			this.socket = socket;
+			this.socket.setTcpNoDelay(true);
+			this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+			this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+		}
+		
+		/**
+		 * Reads requests until the client disconnects.
+		 */
+		public void run() 
+		{
+			try {
+				// A client which doesn't know the secret is disconnected.
+				Frame hello = TaskRemoteProtocol.read(in);
+				if (hello.type != TaskRemoteProtocol.HELLO || !MessageDigest.isEqual(secret, hello.payload)) {
+					close();
+					return;
+				}
+				
+				for (;;) {
+					Frame frame = TaskRemoteProtocol.read(in);
+					
+					if (frame.type == TaskRemoteProtocol.SUBMIT) {
+						submit(frame);
+					}
+					else if (frame.type == TaskRemoteProtocol.CANCEL) {
+						Task<?> task = tasks.get(frame.id);
+						if (task != null) {
+							task.cancel();
+						}
+					}
+				}
+			}
+			catch (IOException e) {
+				close();
+			}
+		}
+		
+		/**
+		 * Creates a task of a registered class, reads it, and gives it to the 
+		 * handler.
+		 */
+		private void submit(Frame frame) 
+		{
+			Task<?> task;
+			try {
+				DataInputStream input = frame.input();
+				long timeout = input.readLong();
+				String name = input.readUTF();
+				
+				Constructor<?> constructor = types.get(name);
+				if (constructor == null) {
+					throw new TaskRejectedException("The task class " + name + " is not registered");
+				}
+				
+				task = (Task<?>)constructor.newInstance();
+				((TaskRemotable<?>)task).readTask(input);
+				task.setTimeout(timeout);
+			}
+			catch (Exception e) {
+				send(TaskRemoteProtocol.ERROR, frame.id, TaskRemoteProtocol.error(e));
+				return;
+			}
+			
+			execute(task, frame.id);
+		}
+		
+		/**
+		 * Executes the given task, responding to the client once it finishes.
+		 * A task the handler rejects is canceled by it and answered as such.
+		 */
+		private <R> void execute(Task<R> task, final long id) 
+		{
+			tasks.put(id, task);
+			task.setHandler(handler);
+			boolean started = task.async(new TaskListenerAdapter<R>() {
+				@SuppressWarnings("unchecked")
+				public void onTaskSuccess(Task<R> source, R result) {
+					byte[] payload;
+					try {
+						payload = TaskRemoteProtocol.result((TaskRemotable<R>)source, result);
+					}
+					catch (Exception e) {
+						send(TaskRemoteProtocol.ERROR, id, TaskRemoteProtocol.error(e));
+						return;
+					}
+					send(TaskRemoteProtocol.RESULT, id, payload);
+				}
+				public void onTaskError(Task<R> source, Throwable error) {
+					send(TaskRemoteProtocol.ERROR, id, TaskRemoteProtocol.error(error));
+				}
+				public void onTaskTimeout(Task<R> source) {
+					send(TaskRemoteProtocol.TIMEOUT, id, null);
+				}
+				public void onTaskCancel(Task<R> source) {
+					send(TaskRemoteProtocol.CANCELED, id, null);
+				}
+				public void onTaskFinish(Task<R> source) {
+					tasks.remove(id);
+				}
+			});
+			
+			if (!started) {
+				tasks.remove(id);
+				send(TaskRemoteProtocol.ERROR, id, TaskRemoteProtocol.error(new IllegalStateException("The task was already started")));
+			}
+		}
+		
+		/**
+		 * Sends a response to the client, closing the session on failure.
+		 */
+		private void send(byte type, long id, byte[] payload) 
+		{
+			try {
+				synchronized (out) {
+					TaskRemoteProtocol.write(out, type, id, payload);
+				}
+			}
+			catch (IOException e) {
+				close();
+			}
+		}
+		
+		/**
+		 * Closes this session and cancels the tasks which haven't started.
+		 */
+		public void close() 
+		{
+			if (sessions.remove(this)) {
+				try {
+					socket.close();
+				}
+				catch (IOException e) {
+					// ignore
+				}
+				for (Task<?> task : tasks.values()) {
+					task.cancel();
+				}
+			}
+		}
+	}
+	
+	
+	// The socket accepting clients.
+	private final ServerSocket server;
+	
+	// The handler which executes received tasks.
+	private final TaskEventHandler handler;
+	
+	// The sessions of the connected clients.
+	private final Set<Session> sessions = ConcurrentHashMap.newKeySet();
+	
+	// The constructors of the registered task classes by class name.
+	private final ConcurrentHashMap<String, Constructor<?>> types = new ConcurrentHashMap<String, Constructor<?>>();
+	
+	// The secret clients must send when they connect.
+	private volatile byte[] secret = {};
+	
+	
+	/**
+	 * Instantiates a new TaskRemoteServer which only accepts clients on the
+	 * loopback address.
+	 * 
+	 * @param port
+	 * 		The port to listen on, or 0 to choose any free port.
+	 * @param handler
+	 * 		The handler which executes received tasks.
+	 * @throws IOException
+	 * 		The port could not be bound.
+	 */
+	public TaskRemoteServer(int port, TaskEventHandler handler) throws IOException 
+	{
+		this(InetAddress.getLoopbackAddress(), port, handler);
+	}
+	
+	/**
+	 * Instantiates a new TaskRemoteServer.
+	 * 
+	 * @param address
+	 * 		The local address to accept clients on, or null to accept clients 
+	 * 		on every address. Every client which can reach the address can
+	 * 		submit tasks of the registered classes.
+	 * @param port
+	 * 		The port to listen on, or 0 to choose any free port.
+	 * @param handler
+	 * 		The handler which executes received tasks.
+	 * @throws IOException
+	 * 		The port could not be bound.
+	 */
+	public TaskRemoteServer(InetAddress address, int port, TaskEventHandler handler) throws IOException 
+	{
+		this.server = new ServerSocket(port, 0, address);
+		this.handler = handler;
+	}
+	
+	/**
+	 * Registers a class of task which clients may submit. The class must 
+	 * implement TaskRemotable and have a public constructor which takes no 
+	 * arguments.
+	 * 
+	 * @param type
+	 * 		The class of task.
+	 * @throws IllegalArgumentException
+	 * 		The class doesn't implement TaskRemotable or doesn't have a public
+	 * 		constructor without arguments.
+	 */
+	public void register(Class<? extends Task<?>> type) 
+	{
+		if (!TaskRemotable.class.isAssignableFrom(type)) {
+			throw new IllegalArgumentException(type.getName() + " does not implement TaskRemotable");
+		}
+		
+		try {
+			types.put(type.getName(), type.getConstructor());
+		}
+		catch (NoSuchMethodException e) {
+			throw new IllegalArgumentException(type.getName() + " has no public constructor without arguments", e);
+		}
+	}
+	
+	/**
+	 * Sets the secret clients must send when they connect, a client which 
+	 * sends anything else is disconnected. This should be set before the 
+	 * server is started.
+	 * 
+	 * @param secret
+	 * 		The secret, or null if clients don't need one.
+	 */
+	public void setSecret(byte[] secret) 
+	{
+		this.secret = (secret == null ? new byte[0] : secret.clone());
+	}
+	
+	/**
+	 * Starts accepting clients in a new thread.
+	 */
+	public void start() 
+	{
+		new Thread(this, "TaskRemoteServer-" + getPort()).start();
+	}
+	
+	/**
+	 * Accepts clients until this server is stopped.
+	 */
+	public void run() 
+	{
+		try {
+			for (;;) {
+				Session session = new Session(server.accept());
+				sessions.add(session);
+				
+				Thread reader = new Thread(session, "TaskRemoteServer-session");
+				reader.setDaemon(true);
+				reader.start();
+			}
+		}
+		catch (IOException e) {
+			// The server socket was closed.
+		}
+	}
+	
+	/**
+	 * Stops accepting clients and disconnects every client.
+	 */
+	public void stop() 
+	{
+		try {
+			server.close();
+		}
+		catch (IOException e) {
+			// ignore
+		}
+		for (Session session : sessions) {
+			session.close();
+		}
+	}
+	
+	/**
+	 * Returns the port this server is listening on.
+	 * 
+	 * @return
+	 * 		The local port of the server.
+	 */
+	public int getPort() 
+	{
+		return server.getLocalPort();
+	}
+	
+	/**
+	 * Returns the address this server accepts clients on.
+	 * 
+	 * @return
+	 * 		The local address of the server.
+	 */
+	public InetAddress getAddress() 
+	{
+		return server.getInetAddress();
+	}
+	
+}
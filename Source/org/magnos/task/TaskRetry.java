@@ -0,0 +1,287 @@
+/* 
+ * NOTICE OF LICENSE
+ * 
+ * This source file is subject to the Open Software License (OSL 3.0) that is 
+ * bundled with this package in the file LICENSE.txt. It is also available 
+ * through the world-wide-web at http://opensource.org/licenses/osl-3.0.php
+ * If you did not receive a copy of the license and are unable to obtain it 
+ * through the world-wide-web, please send an email to pdiffenderfer@gmail.com 
+ * so we can send you a copy immediately. If you use any of this software please
+ * notify me via my website or email, your feedback is much appreciated. 
+ * 
+ * @copyright   Copyright (c) 2011 Magnos Software (http://www.magnos.org)
+ * @license     http://opensource.org/licenses/osl-3.0.php
+ * 				Open Software License (OSL 3.0)
+ */
+
+package org.magnos.task;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A policy which executes a task again when it fails with a retryable error.
+ * Between attempts the task waits for an exponentially growing delay with
+ * random jitter, and during that delay it is held by a TaskTimer instead of a
+ * worker. The listener of the task is only notified once, with the outcome
+ * of the last attempt. The same policy can be shared by many tasks, and it 
+ * counts the attempts, retries, recoveries, and failures of all of them.
+ * 
+ * Only tasks with a handler are retried. The timer gives a retried task back 
+ * to its handler, and a task without a handler would execute in the timer's 
+ * thread and hold up every other user of the timer.
+ *
+ * <pre>
+ * TaskRetry retry = new TaskRetry(5, 100, 10000, TimeUnit.MILLISECONDS);
+ * retry.setRetryable(IOException.class);
+ * 
+ * task.setRetry(retry);
+ * task.async(listener);
+ * </pre>
+ * 
+ * @author Philip Diffenderfer
+ *
+ */
+public class TaskRetry 
+{
+
+	// The maximum number of times a task is executed, including the first.
+	private final int maxAttempts;
+	
+	// The delay in nanoseconds before the first retry.
+	private final long initialDelay;
+	
+	// The maximum delay in nanoseconds before any retry.
+	private final long maxDelay;
+	
+	// The amount the delay is multiplied by after each retry.
+	private volatile double multiplier = 2.0;
+	
+	// The fraction of each delay which is random, between 0 and 1.
+	private volatile double jitter = 0.5;
+	
+	// The types of errors which are retried, all errors if empty.
+	private volatile Class<?>[] retryable = {};
+	
+	// The timer which holds tasks during their delay.
+	private volatile TaskTimer timer = TaskTimer.getDefault();
+	
+	// The number of executions of tasks using this policy.
+	private final AtomicLong attempts = new AtomicLong();
+	
+	// The number of times a failed task was scheduled to execute again.
+	private final AtomicLong retries = new AtomicLong();
+	
+	// The number of tasks which succeeded after at least one retry.
+	private final AtomicLong recoveries = new AtomicLong();
+	
+	// The number of tasks which finished with an error.
+	private final AtomicLong failures = new AtomicLong();
+	
+	
+	/**
+	 * Instantiates a new TaskRetry.
+	 * 
+	 * @param maxAttempts
+	 * 		The maximum number of times a task is executed, including the first.
+	 * @param initialDelay
+	 * 		The delay before the first retry.
+	 * @param maxDelay
+	 * 		The maximum delay before any retry.
+	 * @param unit
+	 * 		The unit of the delays.
+	 */
+	public TaskRetry(int maxAttempts, long initialDelay, long maxDelay, TimeUnit unit) 
+	{
+		this.maxAttempts = maxAttempts;
+		this.initialDelay = unit.toNanos(initialDelay);
+		this.maxDelay = unit.toNanos(maxDelay);
+	}
+	
+	/**
+	 * Returns whether a task which failed with the given error on the given
+	 * attempt should be executed again.
+	 * 
+	 * @param error
+	 * 		The error thrown by the task.
+	 * @param attempt
+	 * 		The attempt which failed, starting at 1.
+	 * @return
+	 * 		True if the task should be retried, otherwise false.
+	 */
+	public boolean isRetryable(Throwable error, int attempt) 
+	{
+		if (attempt >= maxAttempts) {
+			return false;
+		}
+		
+		Class<?>[] types = retryable;
+		if (types.length == 0) {
+			return true;
+		}
+		for (Class<?> type : types) {
+			if (type.isInstance(error)) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	/**
+	 * Returns the delay before executing a task again after the given attempt
+	 * failed. This is the initial delay multiplied by the multiplier for each
+	 * previous retry, limited to the maximum delay, with the jitter fraction of
+	 * it chosen randomly.
+	 * 
+	 * @param attempt
+	 * 		The attempt which failed, starting at 1.
+	 * @return
+	 * 		The delay in nanoseconds.
+	 */
+	public long getDelay(int attempt) 
+	{
+		double delay = initialDelay * Math.pow(multiplier, attempt - 1);
+		if (delay > maxDelay) {
+			delay = maxDelay;
+		}
+		
+		double random = ThreadLocalRandom.current().nextDouble();
+		
+		return (long)(delay * (1.0 - jitter * random));
+	}
+	
+	/**
+	 * Schedules the given failed task to be given to its handler again.
+	 */
+	void retry(Task<?> task, int attempt) 
+	{
+		retries.incrementAndGet();
+		timer.submit(task, task.getHandler(), getDelay(attempt), TimeUnit.NANOSECONDS);
+	}
+	
+	/**
+	 * Counts an execution of a task.
+	 */
+	void onAttempt() 
+	{
+		attempts.incrementAndGet();
+	}
+	
+	/**
+	 * Counts the final outcome of a task.
+	 */
+	void onOutcome(boolean success, int attempt) 
+	{
+		if (!success) {
+			failures.incrementAndGet();
+		}
+		else if (attempt > 1) {
+			recoveries.incrementAndGet();
+		}
+	}
+	
+	/**
+	 * Sets the amount the delay is multiplied by after each retry.
+	 * 
+	 * @param multiplier
+	 * 		The multiplier, 1 for a constant delay. By default this is 2.
+	 */
+	public void setMultiplier(double multiplier) 
+	{
+		this.multiplier = multiplier;
+	}
+	
+	/**
+	 * Sets the fraction of each delay which is random. Jitter spreads out the
+	 * retries of tasks which failed at the same time.
+	 * 
+	 * @param jitter
+	 * 		The fraction between 0 (no jitter) and 1 (a delay anywhere between
+	 * 		0 and the computed delay). By default this is 0.5.
+	 */
+	public void setJitter(double jitter) 
+	{
+		this.jitter = jitter;
+	}
+	
+	/**
+	 * Sets the types of errors which are retried, any other error finishes the
+	 * task immediately.
+	 * 
+	 * @param retryable
+	 * 		The types of errors retried, or none if all errors are retried.
+	 */
+	public void setRetryable(Class<?> ... retryable) 
+	{
+		this.retryable = retryable.clone();
+	}
+	
+	/**
+	 * Sets the timer which holds tasks during their delay.
+	 * 
+	 * @param timer
+	 * 		The timer to use. By default this is the shared TaskTimer.
+	 */
+	public void setTimer(TaskTimer timer) 
+	{
+		this.timer = timer;
+	}
+	
+	/**
+	 * Returns the maximum number of times a task is executed.
+	 * 
+	 * @return
+	 * 		The maximum number of attempts, including the first.
+	 */
+	public int getMaxAttempts() 
+	{
+		return maxAttempts;
+	}
+	
+	/**
+	 * Returns the number of executions of tasks using this policy.
+	 * 
+	 * @return
+	 * 		The number of attempts.
+	 */
+	public long getAttempts() 
+	{
+		return attempts.get();
+	}
+	
+	/**
+	 * Returns the number of times a failed task was scheduled to execute again.
+	 * 
+	 * @return
+	 * 		The number of retries.
+	 */
+	public long getRetries() 
+	{
+		return retries.get();
+	}
+	
+	/**
+	 * Returns the number of tasks which succeeded after at least one retry.
+	 * 
+	 * @return
+	 * 		The number of recoveries.
+	 */
+	public long getRecoveries() 
+	{
+		return recoveries.get();
+	}
+	
+	/**
+	 * Returns the number of tasks which finished with an error, either because
+	 * the error was not retryable or because they ran out of attempts.
+	 * 
+	 * @return
+	 * 		The number of failures.
+	 */
+	public long getFailures() 
+	{
+		return failures.get();
+	}
+	
+}
@@ -0,0 +1,469 @@
+/* 
+ * NOTICE OF LICENSE
+ * 
+ * This source file is subject to the Open Software License (OSL 3.0) that is 
+ * bundled with this package in the file LICENSE.txt. It is also available 
+ * through the world-wide-web at http://opensource.org/licenses/osl-3.0.php
+ * If you did not receive a copy of the license and are unable to obtain it 
+ * through the world-wide-web, please send an email to pdiffenderfer@gmail.com 
+ * so we can send you a copy immediately. If you use any of this software please
+ * notify me via my website or email, your feedback is much appreciated. 
+ * 
+ * @copyright   Copyright (c) 2011 Magnos Software (http://www.magnos.org)
+ * @license     http://opensource.org/licenses/osl-3.0.php
+ * 				Open Software License (OSL 3.0)
+ */
+
+package org.magnos.task;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+import org.magnos.util.BlockableQueue;
+
+/**
+ * A bounded event queue for a TaskService backed by a preallocated ring of
+ * slots. Each slot has a sequence number which tells producers and consumers
+ * whether the slot is ready to be written or read, so offering and polling
+ * never allocate and never lock. Any number of threads may offer and poll.
+ *
+ * When the queue is in blocking mode and empty, a poll waits for a task using
+ * the queue's wait strategy. The strategies trade CPU for latency, from a busy
+ * spin (lowest latency, a core per waiting service) to blocking on a lock
+ * (highest latency, no CPU while waiting).
+ *
+ * When the queue is full offer returns false, so TaskService.addEvent returns
+ * false and the task is not handled.
+ *
+ * <pre>
+ * TaskService service = new TaskService(new TaskRingQueue(1024, WaitStrategy.SpinThenPark));
+ * service.start();
+ * </pre>
+ *
+ * @author Philip Diffenderfer
+ *
+ */
+public class TaskRingQueue extends BlockableQueue<Task<?>>
+{
+
+	/**
+	 * How a poll waits for a task when the queue is empty.
+	 *
+	 * @author Philip Diffenderfer
+	 *
+	 */
+	public enum WaitStrategy
+	{
+		/**
+		 * Continuously checks for a task, lowest latency but occupies a core.
+		 */
+		BusySpin,
+
+		/**
+		 * Yields the thread between checks for a task.
+		 */
+		Yield,
+
+		/**
+		 * Spins, then yields, then parks the thread for short periods between
+		 * checks for a task.
+		 */
+		SpinThenPark,
+
+		/**
+		 * Waits on a lock until a task is offered, no CPU is used while waiting.
+		 */
+		Blocking
+	}
+
+	/**
+	 * The number of times a spin then park poll spins before yielding, and
+	 * the number of times it yields before parking.
+	 */
+	public static final int SPIN_TRIES = 100;
+
+	/**
+	 * The default time in nanoseconds a spin then park poll parks between checks.
+	 */
+	public static final long DEFAULT_PARK_NANOS = 50000L;
+
+
+	// The slots holding the tasks.
+	private final AtomicReferenceArray<Task<?>> slots;
+
+	// The sequence of each slot. A slot can be written when its sequence equals
+	// the offer position, and read when it equals the poll position plus one.
+	private final AtomicLongArray sequences;
+
+	// The ring size minus one, used to map a position to a slot.
+	private final int mask;
+
+	// The position of the next offer and the next poll.
+	private final AtomicLong offerPosition = new AtomicLong();
+	private final AtomicLong pollPosition = new AtomicLong();
+
+	// How polls wait for tasks.
+	private final WaitStrategy strategy;
+
+	// The number of wakeups, waiting polls return when this changes.
+	private final AtomicInteger wakeups = new AtomicInteger();
+
+	// The lock blocking polls wait on, and the number waiting.
+	private final Object lock = new Object();
+	private volatile int waiting = 0;
+
+	// The time in nanoseconds a spin then park poll parks between checks.
+	private volatile long parkNanos = DEFAULT_PARK_NANOS;
+
+
+	/**
+	 * Instantiates a new TaskRingQueue which blocks when empty.
+	 *
+	 * @param capacity
+	 * 		The minimum number of tasks the queue can hold, this is rounded up
+	 * 		to the next power of two.
+	 */
+	public TaskRingQueue(int capacity)
+	{
+		this(capacity, WaitStrategy.Blocking);
+	}
+
+	/**
+	 * Instantiates a new TaskRingQueue.
+	 *
+	 * @param capacity
+	 * 		The minimum number of tasks the queue can hold, this is rounded up
+	 * 		to the next power of two.
+	 * @param strategy
+	 * 		How a poll waits for a task when the queue is empty.
+	 */
+	public TaskRingQueue(int capacity, WaitStrategy strategy)
+	{
+		super(null);
+
+		int size = 1;
+		while (size < capacity) {
+			size <<= 1;
+		}
+
+		this.slots = new AtomicReferenceArray<Task<?>>(size);
+		this.sequences = new AtomicLongArray(size);
+		this.mask = size - 1;
+		this.strategy = strategy;
+
+		for (int i = 0; i < size; i++) {
+			sequences.set(i, i);
+		}
+
+		setBlocking(true);
+	}
+
+	/**
+	 * Inserts the given task into this queue if there is room.
+	 *
+	 * @param e
+	 * 		The task to add to the end of the queue.
+	 * @return
+	 * 		True if the task was added, false if the queue is full.
+	 */
+	@Override
+	public boolean offer(Task<?> e)
+	{
+		long position = offerPosition.get();
+
+		for (;;)
+		{
+			int index = (int)position & mask;
+			long difference = sequences.get(index) - position;
+
+			if (difference == 0) {
+				if (offerPosition.compareAndSet(position, position + 1)) {
+					break;
+				}
+				position = offerPosition.get();
+			}
+			// The slot hasn't been read since the last time around, full.
+			else if (difference < 0) {
+				return false;
+			}
+			else {
+				position = offerPosition.get();
+			}
+		}
+
+		int index = (int)position & mask;
+		slots.set(index, e);
+		sequences.set(index, position + 1);
+
+		if (waiting > 0) {
+			synchronized (lock) {
+				lock.notify();
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * Retrieves and removes the head of this queue. If this queue is in
+	 * blocking mode and the queue is empty the current thread waits using the
+	 * wait strategy until a task is offered, the timeout elapses, or this queue
+	 * is awoken. If the queue is not in blocking mode and this queue is empty
+	 * this will return null.
+	 *
+	 * @return
+	 * 		The previous task in the front of the queue.
+	 */
+	@Override
+	public Task<?> poll()
+	{
+		Task<?> task = take();
+
+		if (task == null && isBlocking()) {
+			task = await();
+		}
+
+		return task;
+	}
+
+	/**
+	 * Returns, but does not remove, the head of this queue. This never blocks.
+	 *
+	 * @return
+	 * 		The task at the front of the queue, or null if the queue is empty.
+	 */
+	@Override
+	public Task<?> peek()
+	{
+		long position = pollPosition.get();
+		int index = (int)position & mask;
+
+		return (sequences.get(index) == position + 1 ? slots.get(index) : null);
+	}
+
+	/**
+	 * Returns the number of tasks currently in the queue.
+	 */
+	@Override
+	public int size()
+	{
+		long size = offerPosition.get() - pollPosition.get();
+
+		return (int)Math.max(0, Math.min(size, mask + 1));
+	}
+
+	/**
+	 * Returns the maximum number of tasks this queue can hold.
+	 *
+	 * @return
+	 * 		The capacity of the ring.
+	 */
+	public int getCapacity()
+	{
+		return mask + 1;
+	}
+
+	/**
+	 * Returns an iterator over a snapshot of the tasks in the queue. Tasks 
+	 * can only be removed from the head of the ring, so the iterator does not
+	 * support remove and neither do remove(Object), removeAll, and retainAll.
+	 */
+	@Override
+	public Iterator<Task<?>> iterator()
+	{
+		List<Task<?>> snapshot = new ArrayList<Task<?>>();
+
+		long end = offerPosition.get();
+		for (long position = pollPosition.get(); position < end; position++) {
+			int index = (int)position & mask;
+			if (sequences.get(index) == position + 1) {
+				snapshot.add(slots.get(index));
+			}
+		}
+
+		return Collections.unmodifiableList(snapshot).iterator();
+	}
+
+	/**
+	 * Removes all tasks from the queue without waiting.
+	 */
+	@Override
+	public void clear()
+	{
+		while (take() != null) {
+			//
+		}
+	}
+
+	/**
+	 * Stops all polls currently waiting for a task, they return null.
+	 */
+	@Override
+	public void wakeup()
+	{
+		wakeups.incrementAndGet();
+
+		synchronized (lock) {
+			lock.notifyAll();
+		}
+	}
+
+	/**
+	 * Returns how polls wait for tasks.
+	 *
+	 * @return
+	 * 		The wait strategy of this queue.
+	 */
+	public WaitStrategy getWaitStrategy()
+	{
+		return strategy;
+	}
+
+	/**
+	 * Sets the time a spin then park poll parks between checks.
+	 *
+	 * @param parkNanos
+	 * 		The time in nanoseconds.
+	 */
+	public void setParkNanos(long parkNanos)
+	{
+		this.parkNanos = parkNanos;
+	}
+
+	/**
+	 * Returns the time a spin then park poll parks between checks.
+	 *
+	 * @return
+	 * 		The time in nanoseconds.
+	 */
+	public long getParkNanos()
+	{
+		return parkNanos;
+	}
+
+	/**
+	 * Removes the task at the head of the queue without waiting.
+	 */
+	private Task<?> take()
+	{
+		long position = pollPosition.get();
+
+		for (;;)
+		{
+			int index = (int)position & mask;
+			long difference = sequences.get(index) - (position + 1);
+
+			if (difference == 0) {
+				if (pollPosition.compareAndSet(position, position + 1)) {
+					break;
+				}
+				position = pollPosition.get();
+			}
+			// The slot hasn't been written yet, empty.
+			else if (difference < 0) {
+				return null;
+			}
+			else {
+				position = pollPosition.get();
+			}
+		}
+
+		int index = (int)position & mask;
+		Task<?> task = slots.get(index);
+		slots.set(index, null);
+		sequences.set(index, position + mask + 1);
+
+		return task;
+	}
+
+	/**
+	 * Waits for a task using the wait strategy. This returns null if the
+	 * timeout elapses, this queue is awoken, or the thread is interrupted.
+	 */
+	private Task<?> await()
+	{
+		final int wakeup = wakeups.get();
+		final long timeout = getTimeout();
+		final long deadline = (timeout == Long.MAX_VALUE ? Long.MAX_VALUE : System.nanoTime() + timeout * 1000000L);
+
+		if (strategy == WaitStrategy.Blocking) {
+			return block(wakeup, deadline);
+		}
+
+		Task<?> task = null;
+		int tries = 0;
+
+		while ((task = take()) == null)
+		{
+			if (wakeups.get() != wakeup || Thread.currentThread().isInterrupted()) {
+				break;
+			}
+			if (deadline != Long.MAX_VALUE && System.nanoTime() >= deadline) {
+				break;
+			}
+
+			switch (strategy)
+			{
+			case BusySpin:
+				Thread.onSpinWait();
+				break;
+			case Yield:
+				Thread.yield();
+				break;
+			default:
+				if (tries < SPIN_TRIES) {
+					Thread.onSpinWait();
+				}
+				else if (tries < SPIN_TRIES * 2) {
+					Thread.yield();
+				}
+				else {
+					LockSupport.parkNanos(this, parkNanos);
+				}
+				tries++;
+				break;
+			}
+		}
+
+		return task;
+	}
+
+	/**
+	 * Waits on the lock for a task.
+	 */
+	private Task<?> block(int wakeup, long deadline)
+	{
+		Task<?> task = null;
+
+		synchronized (lock)
+		{
+			waiting++;
+			try {
+				while ((task = take()) == null && wakeups.get() == wakeup)
+				{
+					long remaining = (deadline == Long.MAX_VALUE ? 0 : (deadline - System.nanoTime()) / 1000000L);
+					if (deadline != Long.MAX_VALUE && remaining <= 0) {
+						break;
+					}
+					lock.wait(remaining);
+				}
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			finally {
+				waiting--;
+			}
+		}
+
+		return task;
+	}
+
+}
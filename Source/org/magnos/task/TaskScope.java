@@ -0,0 +1,227 @@
+/* 
+ * NOTICE OF LICENSE
+ * 
+ * This source file is subject to the Open Software License (OSL 3.0) that is 
+ * bundled with this package in the file LICENSE.txt. It is also available 
+ * through the world-wide-web at http://opensource.org/licenses/osl-3.0.php
+ * If you did not receive a copy of the license and are unable to obtain it 
+ * through the world-wide-web, please send an email to pdiffenderfer@gmail.com 
+ * so we can send you a copy immediately. If you use any of this software please
+ * notify me via my website or email, your feedback is much appreciated. 
+ * 
+ * @copyright   Copyright (c) 2011 Magnos Software (http://www.magnos.org)
+ * @license     http://opensource.org/licenses/osl-3.0.php
+ * 				Open Software License (OSL 3.0)
+ */
+
+package org.magnos.task;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+
+/**
+ * A collection of tasks which fails as a whole as soon as one of its tasks
+ * fails. When a task of the scope throws an error, is canceled, or times out
+ * the scope requests cancellation: every task still waiting is canceled and 
+ * tasks already running see isCancelRequested() return true so they can stop
+ * early. The scope only returns once every task it started has finished, and
+ * then it fails with the first error. A scope which succeeds returns the 
+ * results of all of its tasks in the order they were added, a scope which
+ * fails returns no results.
+ * 
+ * Scopes can be nested by adding a scope to a scope. Cancellation is passed 
+ * down, a task's isCancelRequested() is true when any scope it's in has been
+ * canceled, and errors are passed up since a failed scope is a failed task of 
+ * its parent.
+ * 
+ * <pre>
+ * TaskScope scope = new TaskScope();
+ * scope.add(fetchUser);
+ * scope.add(fetchOrders);
+ * List&lt;?&gt; results = scope.sync(); // null with getError() if either failed
+ * 
+ * // in a long running task of the scope
+ * while (!isCancelRequested()) {
+ * 	...
+ * }
+ * </pre>
+ * 
+ * @author Philip Diffenderfer
+ *
+ */
+public class TaskScope extends TaskCollection 
+{
+
+	/**
+	 * Watches the tasks of the scope for failures.
+	 */
+	private class Watcher implements TaskInlineListener<Object> 
+	{
+		
+		/**
+		 * {@inheritDoc}
+		 */
+		public void onTaskError(Task<Object> source, Throwable error) 
+		{
+			fail(error);
+		}
+		
+		/**
+		 * {@inheritDoc}
+		 */
+		public void onTaskCancel(Task<Object> source) 
+		{
+			fail(new CancellationException("A task of the scope was canceled"));
+		}
+		
+		/**
+		 * {@inheritDoc}
+		 */
+		public void onTaskTimeout(Task<Object> source) 
+		{
+			fail(new CancellationException("A task of the scope timed out"));
+		}
+		
+		/**
+		 * {@inheritDoc}
+		 */
+		public void onTaskSuccess(Task<Object> source, Object result) 
+		{
+		}
+		
+		/**
+		 * {@inheritDoc}
+		 */
+		public void onTaskFinish(Task<Object> source) 
+		{
+		}
+	}
+	
+	
+	// The listener of every task of the scope.
+	private final Watcher watcher = new Watcher();
+	
+	// The first failure of the current execution, or null.
+	private volatile Throwable failure;
+	
+	// Whether cancellation of the current execution has been requested.
+	private volatile boolean cancelRequested;
+	
+	// The tasks of the current execution, guarded by the watcher. Failures 
+	// cancel these instead of iterating the list while it may change.
+	private Task<?>[] executing = new Task<?>[0];
+	
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	@SuppressWarnings("unchecked")
+	protected List<?> onExecute() 
+	{
+		Task<?>[] tasks = list.toArray(new Task<?>[list.size()]);
+		
+		synchronized (watcher) {
+			failure = null;
+			cancelRequested = false;
+			executing = tasks;
+		}
+		
+		for (Task<?> task : tasks) {
+			task.setScope(this);
+		}
+		
+		// Start the tasks until one fails.
+		int started = 0;
+		for (Task<?> task : tasks) {
+			if (cancelRequested) {
+				break;
+			}
+			((Task<Object>)task).async(watcher);
+			started++;
+		}
+		
+		// Wait for every started task to really stop.
+		for (int i = 0; i < started; i++) {
+			tasks[i].join();
+		}
+		
+		for (Task<?> task : tasks) {
+			task.setScope(null);
+		}
+		synchronized (watcher) {
+			executing = new Task<?>[0];
+		}
+		if (cleanList) {
+			list.clear();
+		}
+		
+		Throwable error = failure;
+		if (error instanceof RuntimeException) {
+			throw (RuntimeException)error;
+		}
+		if (error instanceof Error) {
+			throw (Error)error;
+		}
+		if (error != null) {
+			throw new RuntimeException(error);
+		}
+		
+		// The scope didn't fail, so every task was started and succeeded.
+		List<Object> results = new ArrayList<Object>(tasks.length);
+		for (Task<?> task : tasks) {
+			results.add(task.getResult());
+		}
+		
+		return results;
+	}
+	
+	/**
+	 * Requests cancellation of this scope while it's executing. Tasks of the 
+	 * scope which are waiting are canceled, tasks which are running should 
+	 * check isCancelRequested(), and the scope fails with a 
+	 * CancellationException once every task has stopped.
+	 */
+	public void requestCancel() 
+	{
+		fail(new CancellationException("The scope was canceled"));
+	}
+	
+	/**
+	 * Records the first failure and cancels the remaining tasks.
+	 */
+	private void fail(Throwable cause) 
+	{
+		Task<?>[] tasks;
+		synchronized (watcher) {
+			if (failure != null) {
+				return;
+			}
+			failure = cause;
+			cancelRequested = true;
+			tasks = executing;
+		}
+		
+		for (Task<?> task : tasks) {
+			if (task instanceof TaskScope) {
+				((TaskScope)task).requestCancel();
+			}
+			task.cancel(new CancellationException("A sibling task failed"));
+		}
+	}
+	
+	/**
+	 * Returns whether cancellation of this scope (or a scope it is in) has 
+	 * been requested.
+	 * 
+	 * @return
+	 * 		True if the scope is stopping, otherwise false.
+	 */
+	@Override
+	public boolean isCancelRequested() 
+	{
+		return cancelRequested || super.isCancelRequested();
+	}
+	
+}
@@ -0,0 +1,292 @@
+/* 
+ * NOTICE OF LICENSE
+ * 
+ * This source file is subject to the Open Software License (OSL 3.0) that is 
+ * bundled with this package in the file LICENSE.txt. It is also available 
+ * through the world-wide-web at http://opensource.org/licenses/osl-3.0.php
+ * If you did not receive a copy of the license and are unable to obtain it 
+ * through the world-wide-web, please send an email to pdiffenderfer@gmail.com 
+ * so we can send you a copy immediately. If you use any of this software please
+ * notify me via my website or email, your feedback is much appreciated. 
+ * 
+ * @copyright   Copyright (c) 2011 Magnos Software (http://www.magnos.org)
+ * @license     http://opensource.org/licenses/osl-3.0.php
+ * 				Open Software License (OSL 3.0)
+ */
+
+package org.magnos.task;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A handler which executes tasks with the same key in the order they were
+ * added, and tasks with different keys in parallel. Each key has a light
+ * queue of tasks which is given to the shared handler as a single unit, the
+ * unit runs the tasks of its key one at a time so no two tasks of the same key
+ * ever run at the same time. Once a key has no more tasks its queue is
+ * removed, therefore only keys with pending tasks take up memory.
+ *
+ * <pre>
+ * TaskServicePool pool = new TaskServicePool();
+ * pool.start();
+ *
+ * TaskSerialHandler serial = new TaskSerialHandler(pool, new TaskKeyer() {
+ * 	public Object getKey(Task&lt;?&gt; task) {
+ * 		return ((AccountTask)task).getAccount();
+ * 	}
+ * });
+ *
+ * task.setHandler(serial);
+ * task.async();
+ * </pre>
+ *
+ * @author Philip Diffenderfer
+ *
+ */
+public class TaskSerialHandler implements TaskEventHandler
+{
+
+	/**
+	 * The default number of tasks a key runs before it gives up the worker.
+	 */
+	public static final int DEFAULT_THROUGHPUT = 16;
+
+	// The handler which executes the queues of each key.
+	private final TaskEventHandler handler;
+
+	// Determines the key of each task.
+	private final TaskKeyer keyer;
+
+	// The queues of each key with pending tasks.
+	private final ConcurrentHashMap<Object, KeyQueue> queues;
+
+	// The maximum number of tasks a key runs before it's given to the handler
+	// again, letting other keys have a turn.
+	private volatile int throughput = DEFAULT_THROUGHPUT;
+
+
+	/**
+	 * Instantiates a new TaskSerialHandler.
+	 *
+	 * @param handler
+	 * 		The handler which executes the tasks of every key.
+	 * @param keyer
+	 * 		Determines the key of each task.
+	 */
+	public TaskSerialHandler(TaskEventHandler handler, TaskKeyer keyer)
+	{
+		this.handler = handler;
+		this.keyer = keyer;
+		this.queues = new ConcurrentHashMap<Object, KeyQueue>();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public boolean addEvent(Task<?> event)
+	{
+		Object key = keyer.getKey(event);
+
+		for (;;)
+		{
+			KeyQueue queue = queues.get(key);
+			if (queue == null) {
+				KeyQueue created = new KeyQueue(key);
+				queue = queues.putIfAbsent(key, created);
+				if (queue == null) {
+					queue = created;
+				}
+			}
+			if (queue.offer(event)) {
+				return true;
+			}
+			// The queue was emptied and retired, make sure it's gone and retry.
+			queues.remove(key, queue);
+		}
+	}
+
+	/**
+	 * Returns the number of keys which currently have pending tasks.
+	 *
+	 * @return
+	 * 		The number of keys with pending tasks.
+	 */
+	public int getKeyCount()
+	{
+		return queues.size();
+	}
+
+	/**
+	 * Returns the maximum number of tasks a key runs before it's given to the
+	 * handler again letting other keys have a turn.
+	 *
+	 * @return
+	 * 		The maximum number of tasks ran at once.
+	 */
+	public int getThroughput()
+	{
+		return throughput;
+	}
+
+	/**
+	 * Sets the maximum number of tasks a key runs before it's given to the
+	 * handler again letting other keys have a turn. A higher throughput
+	 * performs better but is less fair to other keys.
+	 *
+	 * @param throughput
+	 * 		The maximum number of tasks ran at once.
+	 */
+	public void setThroughput(int throughput)
+	{
+		this.throughput = throughput;
+	}
+
+	/**
+	 * Returns the handler which executes the tasks of every key.
+	 *
+	 * @return
+	 * 		The reference to the shared handler.
+	 */
+	public TaskEventHandler getHandler()
+	{
+		return handler;
+	}
+
+	/**
+	 * Returns the object which determines the key of each task.
+	 *
+	 * @return
+	 * 		The reference to the TaskKeyer.
+	 */
+	public TaskKeyer getKeyer()
+	{
+		return keyer;
+	}
+
+	/**
+	 * The pending tasks of a single key. The queue is given to the handler
+	 * when its first task is offered and it stays with the handler until it
+	 * runs out of tasks, once empty it is retired and can't be offered to.
+	 *
+	 * @author Philip Diffenderfer
+	 *
+	 */
+	private class KeyQueue extends TaskUnit
+	{
+
+		// The key of every task in this queue.
+		private final Object key;
+
+		// The tasks waiting to run.
+		private final ConcurrentLinkedQueue<Task<?>> tasks = new ConcurrentLinkedQueue<Task<?>>();
+
+		// The number of tasks offered which have not run, or -1 once retired.
+		private final AtomicInteger pending = new AtomicInteger();
+
+		/**
+		 * Instantiates a new KeyQueue.
+		 *
+		 * @param key
+		 * 		The key of every task in this queue.
+		 */
+		public KeyQueue(Object key)
+		{
+			this.key = key;
+		}
+
+		/**
+		 * Adds the given task to this queue, giving this queue to the handler if
+		 * it was empty.
+		 *
+		 * @param task
+		 * 		The task to add.
+		 * @return
+		 * 		True if the task was added, false if the queue has been retired.
+		 */
+		public boolean offer(Task<?> task)
+		{
+			for (;;)
+			{
+				int count = pending.get();
+				if (count < 0) {
+					return false;
+				}
+				if (pending.compareAndSet(count, count + 1)) {
+					tasks.offer(task);
+					if (count == 0) {
+						submit(handler);
+					}
+					return true;
+				}
+			}
+		}
+
+		/**
+		 * {@inheritDoc}
+		 */
+		public void run()
+		{
+			int limit = throughput;
+			int count = 0;
+
+			for (;;)
+			{
+				Task<?> task = tasks.poll();
+
+				// Counted but not yet added by offer, it will be soon.
+				if (task == null) {
+					Thread.yield();
+					continue;
+				}
+
+				// The task is counted even if it throws, otherwise this key
+				// would never run again. A thrown task gives this queue back to
+				// the handler so the exception can propagate to the worker.
+				boolean ran = false;
+				boolean more;
+				try {
+					task.run();
+					ran = true;
+				}
+				finally {
+					more = next(!ran || ++count >= limit);
+				}
+				if (!more) {
+					return;
+				}
+			}
+		}
+
+		/**
+		 * Counts a task of this queue as run. If this queue is empty it is
+		 * retired, otherwise if this queue must yield it is given back to the
+		 * handler so other keys get a turn.
+		 *
+		 * @param yield
+		 * 		Whether the current thread should stop running this queue.
+		 * @return
+		 * 		True if the current thread should run the next task.
+		 */
+		private boolean next(boolean yield)
+		{
+			// No more tasks, try to retire. If a task was offered in the
+			// meantime it has already given this queue back to the handler.
+			if (pending.decrementAndGet() == 0) {
+				if (pending.compareAndSet(0, -1)) {
+					queues.remove(key, this);
+				}
+				return false;
+			}
+
+			if (yield) {
+				submit(handler);
+				return false;
+			}
+
+			return true;
+		}
+	}
+
+}
@@ -16,10 +16,16 @@
 
 package org.magnos.task;
 
+import java.io.IOException;
+import java.io.Serializable;
 import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
 
 import org.magnos.resource.Resource;
 import org.magnos.service.AbstractService;
+import org.magnos.service.ServiceInterrupt;
 import org.magnos.util.BlockableQueue;
 
 
@@ -33,6 +39,38 @@ import org.magnos.util.BlockableQueue;
 public class TaskService extends AbstractService<Task<?>> implements TaskEventHandler, Resource
 {
 	
+	/**
+	 * The weight of the latest cost of a class of task in its average cost.
+	 */
+	public static final double COST_WEIGHT = 0.25;
+	
+	// The service whose thread is the current thread, if any.
+	private static final ThreadLocal<TaskService> current = new ThreadLocal<TaskService>();
+	
+	// The journal serializable tasks are written to, if any.
+	private volatile TaskJournal journal;
+	
+	// The service which notifies the listeners of executed tasks, if any.
+	private volatile TaskCallbackService callbacks;
+	
+	// The shedder which cancels tasks when the queue has a backlog, if any.
+	private volatile TaskShedder shedder;
+	
+	// The listener to errors this service runs into, if any.
+	private volatile TaskErrorListener errorListener;
+	
+	// The task being executed and when it started in nanoseconds, read by a
+	// TaskWatchdog to find stalled tasks.
+	private volatile Task<?> activeTask;
+	private volatile long activeSince;
+	
+	// The average cost in nanoseconds of each class of task run by process.
+	private final ConcurrentMap<Class<?>, Long> costs = new ConcurrentHashMap<Class<?>, Long>();
+	
+	// The task polled by process which didn't fit in its budget, it's run 
+	// first by the next call to process (or when this service starts).
+	private volatile Task<?> deferred;
+	
 	/**
 	 * Instantiates a new TaskService.
 	 */
@@ -75,14 +113,236 @@ public class TaskService extends AbstractService<Task<?>> implements TaskEventHa
 		super(sourceQueue);
 	}
 
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public boolean addEvent(Task<?> event)
+	{
+		TaskShedder s = shedder;
+		
+		// Shed the task if the queue has a standing backlog. Units of other
+		// handlers are never shed, they are not tasks of their own.
+		if (s != null && !(event instanceof TaskUnit) && s.isShed(event, getEventQueue().isEmpty())) {
+			event.cancel(new TaskRejectedException("The task was shed, the queue has a backlog"));
+			return false;
+		}
+		
+		TaskJournal j = journal;
+		
+		// Write serializable tasks to the journal before accepting them, unless
+		// the task was recovered from the journal.
+		if (j != null && event instanceof Serializable && !j.contains(event)) {
+			try {
+				j.append(event);
+			}
+			catch (IOException e) {
+				event.cancel(new TaskRejectedException("Unable to journal task", e));
+				return false;
+			}
+		}
+		
+		return super.addEvent(event);
+	}
+	
 	/**
 	 * {@inheritDoc}
 	 */
 	protected void onEvent(Task<?> event) 
 	{
-		event.run();
+		// The entry of a task which was helped (executed by a worker waiting 
+		// on it) or canceled is left in the queue, it has nothing left to run.
+		if (isStale(event)) {
+			complete(event);
+			return;
+		}
+		
+		TaskRecorder.dequeue(event, this);
+		
+		long now = System.nanoTime();
+		
+		TaskShedder s = shedder;
+		if (s != null) {
+			s.onDequeue(now - event.getWaitStart());
+		}
+		
+		// A task may be executed inside another when it's helped, so restore
+		// the outer task afterwards.
+		Task<?> outerTask = activeTask;
+		long outerSince = activeSince;
+		
+		activeSince = now;
+		activeTask = event;
+		try {
+			event.run();
+		}
+		catch (RuntimeException e) {
+			// A listener notified in this thread threw, the service goes on.
+			onError(event, e);
+		}
+		finally {
+			activeTask = outerTask;
+			activeSince = outerSince;
+		}
+		
+		complete(event);
+	}
+	
+	/**
+	 * Returns whether the given task taken from the queue has already been 
+	 * executed or canceled.
+	 */
+	private static boolean isStale(Task<?> event)
+	{
+		return event.isRunning() || event.isFinished();
+	}
+	
+	/**
+	 * Removes the given task from the journal once it has finished, it no 
+	 * longer needs to be recovered. If it can't be removed it will be executed
+	 * again once the journal is recovered.
+	 * 
+	 * @param event
+	 * 		The task taken from the queue.
+	 */
+	private void complete(Task<?> event)
+	{
+		TaskJournal j = journal;
+		
+		if (j != null && event.isFinished() && j.contains(event)) {
+			try {
+				j.complete(event);
+			}
+			catch (IOException e) {
+				onError(event, new RuntimeException("Unable to complete journaled task", e));
+			}
+		}
+	}
+	
+	/**
+	 * Reports an error this service ran into while working for the given 
+	 * task to the error listener, or to TaskErrorListener.UNCAUGHT if there is
+	 * no error listener. The error is never thrown, it would stop the service.
+	 * 
+	 * @param task
+	 * 		The task the service was working for.
+	 * @param error
+	 * 		The error thrown.
+	 */
+	private void onError(Task<?> task, RuntimeException error)
+	{
+		TaskErrorListener l = errorListener;
+		
+		if (l == null) {
+			l = TaskErrorListener.UNCAUGHT;
+		}
+		
+		l.onError(this, task, error);
 	}
 
+	/**
+	 * Runs queued tasks in the calling thread until the queue is empty or the
+	 * budget is spent, for a service which is driven by a loop (such as a game
+	 * loop running tasks for a few milliseconds each frame) instead of being
+	 * started. The average cost of each class of task is tracked and a task
+	 * isn't run if its average cost would overrun the budget, except that the
+	 * first task of each call always runs so every task eventually runs. A 
+	 * task which doesn't fit is held and run first by the next call, so it 
+	 * keeps its place ahead of the tasks queued after it.
+	 * 
+	 * <pre>
+	 * TaskService service = new TaskService(false);
+	 * while (running) {
+	 * 	update();
+	 * 	service.process(2, TimeUnit.MILLISECONDS);
+	 * 	render();
+	 * }
+	 * </pre>
+	 * 
+	 * @param budget
+	 * 		The longest time to spend running tasks.
+	 * @param unit
+	 * 		The unit of time.
+	 * @return
+	 * 		The number of tasks left to run, including the held task.
+	 * @throws IllegalStateException
+	 * 		The service has been started, its own thread runs the tasks.
+	 */
+	public int process(long budget, TimeUnit unit)
+	{
+		if (isRunning()) {
+			throw new IllegalStateException("A started service runs its own tasks");
+		}
+		
+		final BlockableQueue<Task<?>> queue = getEventQueue();
+		final long start = System.nanoTime();
+		final long deadline = start + unit.toNanos(budget);
+		
+		// Tasks waiting on tasks of this service may help while processing.
+		TaskService previous = current.get();
+		current.set(this);
+		try 
+		{
+			boolean first = true;
+			
+			for (;;) 
+			{
+				Task<?> event = deferred;
+				deferred = null;
+				
+				if (event == null && (event = queue.poll()) == null) {
+					break;
+				}
+				
+				long now = System.nanoTime();
+				Long cost = costs.get(event.getClass());
+				
+				if (!first && (now >= deadline || (cost != null && now + cost > deadline))) {
+					deferred = event;
+					break;
+				}
+				
+				boolean stale = isStale(event);
+				onEvent(event);
+				if (stale) {
+					continue;
+				}
+				first = false;
+				
+				long elapsed = System.nanoTime() - now;
+				Long average = costs.get(event.getClass());
+				costs.put(event.getClass(), average == null ? elapsed : (long)(average + (elapsed - average) * COST_WEIGHT));
+			}
+		}
+		finally 
+		{
+			if (previous == null) {
+				current.remove();
+			}
+			else {
+				current.set(previous);
+			}
+		}
+		
+		return queue.size() + (deferred == null ? 0 : 1);
+	}
+	
+	/**
+	 * Returns the average cost of a class of task run by process.
+	 * 
+	 * @param type
+	 * 		The class of task.
+	 * @return
+	 * 		The average cost in nanoseconds, or -1 if no task of the class has 
+	 * 		been processed.
+	 */
+	public long getCost(Class<?> type)
+	{
+		Long cost = costs.get(type);
+		
+		return (cost == null ? -1 : cost);
+	}
+	
 	/**
 	 * {@inheritDoc}
 	 */
@@ -111,7 +371,24 @@ public class TaskService extends AbstractService<Task<?>> implements TaskEventHa
 	 */
 	protected void onStart() 
 	{
+		current.set(this);
+		
+		// Run the task process held back before anything queued after it.
+		Task<?> held = deferred;
+		if (held != null) {
+			deferred = null;
+			onEvent(held);
+		}
+		
+		TaskJournal j = journal;
 		
+		// Handle the tasks which never completed the last time.
+		if (j != null) {
+			for (Task<?> task : j.recover()) {
+				task.setHandler(this);
+				task.async();
+			}
+		}
 	}
 
 	/**
@@ -119,7 +396,7 @@ public class TaskService extends AbstractService<Task<?>> implements TaskEventHa
 	 */
 	protected void onStop() 
 	{
-		
+		current.remove();
 	}
 
 	/**
@@ -140,13 +417,179 @@ public class TaskService extends AbstractService<Task<?>> implements TaskEventHa
 		return getEventQueue().isEmpty();
 	}
 
+	/**
+	 * Returns whether tasks given to the given handler may be executed by this
+	 * service, which is the case when the handler is this service, it shares
+	 * its event queue with this service, or it's a partition of a bulkhead 
+	 * whose handler is executed by this service.
+	 * 
+	 * @param handler
+	 * 		The handler of a task.
+	 * @return
+	 * 		True if this service executes tasks given to the handler.
+	 */
+	public boolean isWorkerOf(TaskEventHandler handler)
+	{
+		if (handler == this) {
+			return true;
+		}
+		if (handler instanceof TaskService) {
+			return ((TaskService)handler).getEventQueue() == getEventQueue();
+		}
+		if (handler instanceof TaskServicePool) {
+			return ((TaskServicePool)handler).getEventQueue() == getEventQueue();
+		}
+		if (handler instanceof TaskBulkhead.Partition) {
+			return isWorkerOf(((TaskBulkhead.Partition)handler).getHandler());
+		}
+		return false;
+	}
+	
+	/**
+	 * Sets the service which notifies the listeners of the tasks this service
+	 * executes. Without a callback service listeners are notified in this 
+	 * service's thread, and a slow listener delays the next queued task.
+	 * 
+	 * @param callbacks
+	 * 		The started callback service, or null if listeners should be 
+	 * 		notified in this service's thread.
+	 */
+	public void setCallbacks(TaskCallbackService callbacks)
+	{
+		this.callbacks = callbacks;
+	}
+	
+	/**
+	 * Returns the service which notifies the listeners of the tasks this 
+	 * service executes.
+	 * 
+	 * @return
+	 * 		The callback service, or null if there is none.
+	 */
+	public TaskCallbackService getCallbacks()
+	{
+		return callbacks;
+	}
+	
+	/**
+	 * Sets the shedder which cancels low priority tasks added to this service
+	 * while the tasks in its queue wait longer than the shedder's target.
+	 * 
+	 * @param shedder
+	 * 		The shedder, or null if tasks should never be shed.
+	 */
+	public void setShedder(TaskShedder shedder)
+	{
+		this.shedder = shedder;
+	}
+	
+	/**
+	 * Sets the listener to errors this service runs into while working for a 
+	 * task, such as a journaled task which could not be removed from the 
+	 * journal after it finished or a listener notified in this service's 
+	 * thread which threw. Without a listener the error is given to 
+	 * the uncaught exception handler of the service's thread, which keeps 
+	 * running.
+	 * 
+	 * @param errorListener
+	 * 		The listener, or null if errors should be given to the uncaught 
+	 * 		exception handler.
+	 */
+	public void setErrorListener(TaskErrorListener errorListener)
+	{
+		this.errorListener = errorListener;
+	}
+	
+	/**
+	 * Returns the listener to errors this service runs into.
+	 * 
+	 * @return
+	 * 		The listener, or null if errors are given to the uncaught exception
+	 * 		handler.
+	 */
+	public TaskErrorListener getErrorListener()
+	{
+		return errorListener;
+	}
+	
+	/**
+	 * Returns the shedder which cancels low priority tasks under load.
+	 * 
+	 * @return
+	 * 		The shedder, or null if there is none.
+	 */
+	public TaskShedder getShedder()
+	{
+		return shedder;
+	}
+	
+	/**
+	 * Returns the task this service is executing.
+	 * 
+	 * @return
+	 * 		The task being executed, or null if the service is waiting for one.
+	 */
+	public Task<?> getActiveTask()
+	{
+		return activeTask;
+	}
+	
+	/**
+	 * Returns when this service started executing its active task.
+	 * 
+	 * @return
+	 * 		The value of System.nanoTime() when the active task started.
+	 */
+	public long getActiveSince()
+	{
+		return activeSince;
+	}
+	
+	/**
+	 * Returns the TaskService executing in the current thread.
+	 * 
+	 * @return
+	 * 		The service whose thread is the current thread, or null if the 
+	 * 		current thread is not the thread of a TaskService.
+	 */
+	public static TaskService getCurrent()
+	{
+		return current.get();
+	}
+	
+	/**
+	 * Sets the journal serializable tasks are written to when they are added 
+	 * to this service. Once the service is started the tasks recovered from 
+	 * the journal are added to this service. A journal should be set before 
+	 * the service is started.
+	 * 
+	 * @param journal
+	 * 		The opened journal, or null if tasks should not be journaled.
+	 */
+	public void setJournal(TaskJournal journal)
+	{
+		this.journal = journal;
+	}
+	
+	/**
+	 * Returns the journal serializable tasks are written to.
+	 * 
+	 * @return
+	 * 		The reference to the journal, or null if none exists.
+	 */
+	public TaskJournal getJournal()
+	{
+		return journal;
+	}
+
 	/**
 	 * {@inheritDoc}
 	 */
 	public void free() 
 	{
-		// Stop (non-blocking) to free service from use.
-		stop(false);
+		// Stop (non-blocking) to free service from use. Events already taken
+		// from the queue are still handled since the queue may be shared.
+		stop(ServiceInterrupt.Execute, false, Long.MAX_VALUE);
 	}
 
 }
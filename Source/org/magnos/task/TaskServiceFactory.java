@@ -17,9 +17,12 @@
 package org.magnos.task;
 
 import org.magnos.resource.ResourceFactory;
+import org.magnos.util.BlockableQueue;
 
 /**
- * A factory that creates TaskServers.
+ * A factory that creates TaskServers. If the factory is given an event queue
+ * every service allocated will poll from that same queue, this is how a pool
+ * of services can share the same set of tasks.
  * 
  * @author Philip Diffenderfer
  *
@@ -27,14 +30,134 @@ import org.magnos.resource.ResourceFactory;
 public class TaskServiceFactory implements ResourceFactory<TaskService> 
 {
 
+	// The queue shared between all allocated services, or null if each
+	// service should have its own queue.
+	private final BlockableQueue<Task<?>> eventQueue;
+	
+	// The callback service given to each allocated service, if any.
+	private volatile TaskCallbackService callbacks;
+	
+	// The watchdog each allocated service is watched by, if any.
+	private volatile TaskWatchdog watchdog;
+	
+	// The error listener given to each allocated service, if any.
+	private volatile TaskErrorListener errorListener;
+	
+	/**
+	 * Instantiates a new TaskServiceFactory where each allocated service has
+	 * its own event queue.
+	 */
+	public TaskServiceFactory()
+	{
+		this(null);
+	}
+	
+	/**
+	 * Instantiates a new TaskServiceFactory where each allocated service polls
+	 * from the given event queue.
+	 * 
+	 * @param eventQueue
+	 * 		The queue of events shared between allocated services, or null if
+	 * 		each service should have its own queue.
+	 */
+	public TaskServiceFactory(BlockableQueue<Task<?>> eventQueue)
+	{
+		this.eventQueue = eventQueue;
+	}
+
 	/**
 	 * {@inheritDoc}
 	 */
 	public TaskService allocate() 
 	{
-		TaskService service = new TaskService();
+		TaskService service = (eventQueue == null ? new TaskService() : new TaskService(eventQueue));
+		service.setCallbacks(callbacks);
+		service.setErrorListener(errorListener);
+		TaskWatchdog w = watchdog;
+		if (w != null) {
+			w.watch(service);
+		}
 		service.start(false);
 		return service;
 	}
+	
+	/**
+	 * Returns the queue shared between all allocated services.
+	 * 
+	 * @return
+	 * 		The reference to the shared queue, or null if none exists.
+	 */
+	public BlockableQueue<Task<?>> getEventQueue()
+	{
+		return eventQueue;
+	}
+	
+	/**
+	 * Sets the callback service given to each service allocated from now on.
+	 * 
+	 * @param callbacks
+	 * 		The callback service, or null if allocated services should notify
+	 * 		listeners in their own thread.
+	 */
+	public void setCallbacks(TaskCallbackService callbacks)
+	{
+		this.callbacks = callbacks;
+	}
+	
+	/**
+	 * Returns the callback service given to each allocated service.
+	 * 
+	 * @return
+	 * 		The callback service, or null if there is none.
+	 */
+	public TaskCallbackService getCallbacks()
+	{
+		return callbacks;
+	}
+	
+	/**
+	 * Sets the watchdog which watches each service allocated from now on.
+	 * 
+	 * @param watchdog
+	 * 		The watchdog, or null if allocated services should not be watched.
+	 */
+	public void setWatchdog(TaskWatchdog watchdog)
+	{
+		this.watchdog = watchdog;
+	}
+	
+	/**
+	 * Returns the watchdog which watches each allocated service.
+	 * 
+	 * @return
+	 * 		The watchdog, or null if there is none.
+	 */
+	public TaskWatchdog getWatchdog()
+	{
+		return watchdog;
+	}
+	
+	/**
+	 * Sets the error listener given to each service allocated from now on.
+	 * 
+	 * @param errorListener
+	 * 		The listener, or null if allocated services should give errors to
+	 * 		the uncaught exception handler of their thread.
+	 */
+	public void setErrorListener(TaskErrorListener errorListener)
+	{
+		this.errorListener = errorListener;
+	}
+	
+	/**
+	 * Returns the error listener given to each allocated service.
+	 * 
+	 * @return
+	 * 		The listener, or null if there is none.
+	 */
+	public TaskErrorListener getErrorListener()
+	{
+		return errorListener;
+	}
 
 }
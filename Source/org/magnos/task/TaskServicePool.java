@@ -0,0 +1,412 @@
+/* 
+ * NOTICE OF LICENSE
+ * 
+ * This source file is subject to the Open Software License (OSL 3.0) that is 
+ * bundled with this package in the file LICENSE.txt. It is also available 
+ * through the world-wide-web at http://opensource.org/licenses/osl-3.0.php
+ * If you did not receive a copy of the license and are unable to obtain it 
+ * through the world-wide-web, please send an email to pdiffenderfer@gmail.com 
+ * so we can send you a copy immediately. If you use any of this software please
+ * notify me via my website or email, your feedback is much appreciated. 
+ * 
+ * @copyright   Copyright (c) 2011 Magnos Software (http://www.magnos.org)
+ * @license     http://opensource.org/licenses/osl-3.0.php
+ * 				Open Software License (OSL 3.0)
+ */
+
+package org.magnos.task;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.magnos.resource.ResourceListener;
+import org.magnos.resource.ResourcePool;
+import org.magnos.service.Service;
+import org.magnos.service.ServiceInterrupt;
+import org.magnos.service.ServiceListener;
+import org.magnos.util.BlockableQueue;
+
+
+/**
+ * An elastic pool of TaskServices which all poll tasks from the same queue.
+ * The pool measures how long tasks wait in the queue before a service takes
+ * them. When the average wait exceeds the target wait another service is
+ * allocated (up to the maximum capacity), and when the average wait drops
+ * below the low-water mark and the pool has not been resized for the cool-down
+ * period an idle service is freed (down to the minimum capacity).
+ *
+ * <pre>
+ * TaskServicePool pool = new TaskServicePool();
+ * pool.setMinCapacity(2);
+ * pool.setMaxCapacity(16);
+ * pool.setTargetWait(5, TimeUnit.MILLISECONDS);
+ * pool.start();
+ *
+ * task.setHandler(pool);
+ * task.async();
+ * </pre>
+ *
+ * @author Philip Diffenderfer
+ *
+ */
+public class TaskServicePool extends ResourcePool<TaskService> implements TaskEventHandler
+{
+
+	/**
+	 * The weight given to each new wait sample in the average wait.
+	 */
+	public static final double SAMPLE_WEIGHT = 0.1;
+
+	// The queue shared by all services in this pool.
+	private final BlockableQueue<Task<?>> eventQueue;
+
+	// The listener added to each service allocated to measure waiting times.
+	private final Monitor monitor = new Monitor();
+
+	// The bits of the average time in nanoseconds a task waits in the queue,
+	// updated by every service so it's compared and set.
+	private final AtomicLong averageWait = new AtomicLong(Double.doubleToLongBits(0.0));
+
+	// The average wait in nanoseconds which causes services to be allocated.
+	private volatile long targetWait = 10000000L;
+
+	// The fraction of the target wait the average wait must drop below before
+	// services are deallocated.
+	private volatile double lowWater = 0.5;
+
+	// The minimum amount of time in milliseconds between allocations.
+	private volatile long growInterval = 1000;
+
+	// The last time in milliseconds the pool was grown or shrunk.
+	private volatile long lastResizeTime = 0;
+
+
+	/**
+	 * Instantiates a new TaskServicePool.
+	 */
+	public TaskServicePool()
+	{
+		this(new BlockableQueue<Task<?>>());
+	}
+
+	/**
+	 * Instantiates a new TaskServicePool.
+	 *
+	 * @param eventQueue
+	 * 		The queue of tasks shared by all services in the pool. This queue
+	 * 		will be placed in blocking mode.
+	 */
+	public TaskServicePool(BlockableQueue<Task<?>> eventQueue)
+	{
+		super(new TaskServiceFactory(eventQueue));
+		this.eventQueue = eventQueue;
+		this.eventQueue.setBlocking(true);
+		this.eventQueue.setTimeout(growInterval);
+		this.listeners.add(monitor);
+	}
+
+	/**
+	 * Starts this pool by allocating the minimum number of services.
+	 */
+	public void start()
+	{
+		populate();
+	}
+
+	/**
+	 * Stops this pool by freeing all services. Tasks still in the queue will
+	 * remain there until the pool is started again.
+	 */
+	public void stop()
+	{
+		empty();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public boolean addEvent(Task<?> event)
+	{
+		return eventQueue.offer(event);
+	}
+
+	/**
+	 * Records the amount of time a task waited in the queue, and grows or
+	 * shrinks the pool if necessary.
+	 *
+	 * @param wait
+	 * 		The time in nanoseconds a task waited in the queue.
+	 */
+	protected void onWait(long wait)
+	{
+		long bits, next;
+		do {
+			bits = averageWait.get();
+			double average = Double.longBitsToDouble(bits);
+			next = Double.doubleToLongBits(average + (wait - average) * SAMPLE_WEIGHT);
+		} while (!averageWait.compareAndSet(bits, next));
+
+		resize();
+	}
+
+	/**
+	 * Grows the pool if the average wait is above the target wait, or shrinks
+	 * the pool if the average wait is below the low-water mark and the
+	 * cool-down period has passed since the pool was last resized.
+	 */
+	protected void resize()
+	{
+		long time = System.currentTimeMillis();
+		long last = lastResizeTime;
+		long elapsed = time - last;
+		double average = Double.longBitsToDouble(averageWait.get());
+
+		// Quick checks before acquiring the lock.
+		boolean grow = (average > targetWait && elapsed > growInterval);
+		boolean shrink = (average < targetWait * lowWater && elapsed > allocateThreshold);
+
+		if (grow || shrink)
+		{
+			synchronized (lock())
+			{
+				// Another thread may have resized the pool.
+				if (lastResizeTime != last) {
+					return;
+				}
+				if (grow && resources.size() < maxCapacity) {
+					allocate(allocateSize);
+					lastResizeTime = time;
+				}
+				else if (shrink && resources.size() > minCapacity) {
+					deallocate(deallocateSize);
+					lastResizeTime = time;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Frees up to the given number of services, down to the minimum capacity.
+	 * Only services which aren't executing a task are freed, every service 
+	 * shares the queue so whether the queue is empty says nothing about 
+	 * whether a service is busy.
+	 *
+	 * @param desired
+	 * 		The number of services to free.
+	 * @return
+	 * 		The number of services freed.
+	 */
+	@Override
+	public int deallocate(int desired)
+	{
+		synchronized (lock())
+		{
+			int count = Math.min(resources.size() - minCapacity, desired);
+			int freed = 0;
+
+			for (int i = resources.size() - 1; i >= 0 && freed < count; i--) {
+				TaskService service = resources.get(i);
+				if (service.getActiveTask() == null) {
+					service.free();
+					resources.remove(i);
+					listeners.proxy().onResourceDeallocate(this, service);
+					freed++;
+				}
+			}
+
+			return freed;
+		}
+	}
+
+	/**
+	 * Returns the queue shared by all services in this pool.
+	 *
+	 * @return
+	 * 		The reference to the shared event queue.
+	 */
+	public BlockableQueue<Task<?>> getEventQueue()
+	{
+		return eventQueue;
+	}
+
+	/**
+	 * Sets the service which notifies the listeners of the tasks executed by
+	 * this pool. This applies to services allocated from now on, so it should
+	 * be set before the pool is started.
+	 *
+	 * @param callbacks
+	 * 		The started callback service, or null if listeners should be
+	 * 		notified in the threads of the services.
+	 */
+	public void setCallbacks(TaskCallbackService callbacks)
+	{
+		((TaskServiceFactory)factory).setCallbacks(callbacks);
+	}
+
+	/**
+	 * Sets the watchdog which watches the services of this pool for stalled
+	 * tasks. This applies to services allocated from now on, so it should be
+	 * set before the pool is started.
+	 *
+	 * @param watchdog
+	 * 		The watchdog, or null if the services should not be watched.
+	 */
+	public void setWatchdog(TaskWatchdog watchdog)
+	{
+		((TaskServiceFactory)factory).setWatchdog(watchdog);
+	}
+
+	/**
+	 * Sets the listener to errors the services of this pool run into, such as
+	 * a listener notified in a service's thread which threw. This applies to
+	 * services allocated from now on, so it should be set before the pool is
+	 * started.
+	 *
+	 * @param errorListener
+	 * 		The listener, or null if the services should give errors to the 
+	 * 		uncaught exception handler of their thread.
+	 */
+	public void setErrorListener(TaskErrorListener errorListener)
+	{
+		((TaskServiceFactory)factory).setErrorListener(errorListener);
+	}
+
+	/**
+	 * Returns the average amount of time a task waits in the queue.
+	 *
+	 * @return
+	 * 		The average wait in nanoseconds.
+	 */
+	public long getAverageWait()
+	{
+		return (long)Double.longBitsToDouble(averageWait.get());
+	}
+
+	/**
+	 * Returns the average wait which causes services to be allocated.
+	 *
+	 * @return
+	 * 		The target wait in nanoseconds.
+	 */
+	public long getTargetWait()
+	{
+		return targetWait;
+	}
+
+	/**
+	 * Sets the average wait which causes services to be allocated.
+	 *
+	 * @param targetWait
+	 * 		The target wait in nanoseconds.
+	 */
+	public void setTargetWait(long targetWait)
+	{
+		this.targetWait = targetWait;
+	}
+
+	/**
+	 * Sets the average wait which causes services to be allocated.
+	 *
+	 * @param time
+	 * 		The amount of time.
+	 * @param unit
+	 * 		The unit of time.
+	 */
+	public void setTargetWait(long time, TimeUnit unit)
+	{
+		this.targetWait = unit.toNanos(time);
+	}
+
+	/**
+	 * Returns the fraction of the target wait the average wait must drop below
+	 * before services are deallocated.
+	 *
+	 * @return
+	 * 		The low-water mark between 0 and 1.
+	 */
+	public double getLowWater()
+	{
+		return lowWater;
+	}
+
+	/**
+	 * Sets the fraction of the target wait the average wait must drop below
+	 * before services are deallocated. The space between the low-water mark
+	 * and the target wait avoids the pool constantly growing and shrinking.
+	 *
+	 * @param lowWater
+	 * 		The low-water mark between 0 and 1.
+	 */
+	public void setLowWater(double lowWater)
+	{
+		this.lowWater = lowWater;
+	}
+
+	/**
+	 * Returns the minimum amount of time between allocations.
+	 *
+	 * @return
+	 * 		The minimum amount of time in milliseconds.
+	 */
+	public long getGrowInterval()
+	{
+		return growInterval;
+	}
+
+	/**
+	 * Sets the minimum amount of time between allocations. This is also the
+	 * maximum amount of time an idle service waits for a task before it checks
+	 * whether the pool should shrink. The cool-down period before services are
+	 * deallocated is the allocate threshold.
+	 *
+	 * @param growInterval
+	 * 		The minimum amount of time in milliseconds.
+	 */
+	public void setGrowInterval(long growInterval)
+	{
+		this.growInterval = growInterval;
+		this.eventQueue.setTimeout(growInterval);
+	}
+
+	/**
+	 * Listens to each service allocated to the pool. Every task taken from the
+	 * queue is a wait sample, and every time a service finds the queue empty
+	 * the wait is zero.
+	 *
+	 * @author Philip Diffenderfer
+	 *
+	 */
+	private class Monitor implements ResourceListener<TaskService>, ServiceListener<Task<?>>
+	{
+		public void onResourceAllocate(ResourcePool<TaskService> pool, TaskService resource)
+		{
+			// First listener so the wait is measured before the task runs.
+			resource.getListeners().add(0, this);
+		}
+		public void onResourceDeallocate(ResourcePool<TaskService> pool, TaskService resource)
+		{
+			resource.getListeners().remove(this);
+		}
+		public void onServiceEvent(Service<Task<?>> service, Task<?> event)
+		{
+			onWait(System.nanoTime() - event.getWaitStart());
+		}
+		public void onServiceExecute(Service<Task<?>> service)
+		{
+			onWait(0);
+		}
+		public void onServiceStart(Service<Task<?>> service)
+		{
+		}
+		public void onServicePause(Service<Task<?>> service, ServiceInterrupt interrupt)
+		{
+		}
+		public void onServiceResume(Service<Task<?>> service, ServiceInterrupt interrupt)
+		{
+		}
+		public void onServiceStop(Service<Task<?>> service, ServiceInterrupt interrupt)
+		{
+		}
+	}
+
+}
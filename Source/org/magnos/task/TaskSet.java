@@ -18,25 +18,214 @@ package org.magnos.task;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * A collection of tasks that do not have a particular execution order.
  * 
+ * A set can be chunked, in which case its tasks are not given to their
+ * handlers one at a time. Instead a few runners are given to the chunking
+ * handler, and each time a runner is executed it claims a batch of tasks and
+ * runs them one after another. The size of a batch is adjusted to the 
+ * measured cost of the tasks so a batch takes about the target batch time. 
+ * Each task still goes through its own states and keeps its own result, but
+ * a set of many tiny tasks costs little more than a loop over them. The 
+ * thread executing the set runs batches as well.
+ * 
+ * <pre>
+ * TaskSet set = new TaskSet();
+ * set.setChunking(pool, 4, 100, TimeUnit.MICROSECONDS);
+ * </pre>
+ * 
  * @author Philip Diffenderfer
  *
  */
 public class TaskSet extends TaskCollection 
 {
-
+	
+	/**
+	 * The number of tasks in the first batch of a runner, before the cost of
+	 * the tasks is known.
+	 */
+	public static final int INITIAL_BATCH = 16;
+	
+	/**
+	 * The weight given to each measured cost in the average cost of a task.
+	 */
+	public static final double COST_WEIGHT = 0.25;
+	
+	/**
+	 * The state of a single chunked execution of this set.
+	 */
+	private class Chunking 
+	{
+		
+		// The tasks being executed.
+		private final Task<?>[] tasks;
+		
+		// The index of the next task to claim.
+		private final AtomicInteger next = new AtomicInteger();
+		
+		// The number of tasks which have run.
+		private final AtomicInteger done = new AtomicInteger();
+		
+		// The average cost of a task in nanoseconds, 0 until measured.
+		private volatile double cost;
+		
+		/**
+		 * Instantiates a new Chunking.
+		 */
+		public Chunking(Task<?>[] tasks) 
+		{
+			this.tasks = tasks;
+		}
+		
+		/**
+		 * Claims and runs a batch of tasks.
+		 * 
+		 * @return
+		 * 		True if a batch was run, false if there were no tasks left.
+		 */
+		public boolean runBatch() 
+		{
+			int remaining = tasks.length - next.get();
+			if (remaining <= 0) {
+				return false;
+			}
+			
+			// Size the batch to the target time, but leave enough for the 
+			// other runners to balance the end of the set.
+			int size = INITIAL_BATCH;
+			if (cost > 0) {
+				size = (int)Math.min(Integer.MAX_VALUE, Math.max(1, chunkTime / cost));
+			}
+			size = Math.max(1, Math.min(size, remaining / (chunkRunners * 2)));
+			
+			int start = next.getAndAdd(size);
+			int end = Math.min(start + size, tasks.length);
+			if (start >= end) {
+				return false;
+			}
+			
+			// A task whose listener throws does not stop the rest of the batch,
+			// the first error is thrown once the batch has been counted.
+			RuntimeException thrown = null;
+			
+			long time = System.nanoTime();
+			try {
+				for (int i = start; i < end; i++) {
+					try {
+						tasks[i].run();
+					}
+					catch (RuntimeException e) {
+						if (thrown == null) {
+							thrown = e;
+						}
+					}
+				}
+				time = System.nanoTime() - time;
+				
+				double measured = (double)time / (end - start);
+				cost = (cost == 0 ? measured : cost + (measured - cost) * COST_WEIGHT);
+			}
+			finally {
+				if (done.addAndGet(end - start) == tasks.length) {
+					synchronized (this) {
+						notifyAll();
+					}
+				}
+			}
+			
+			if (thrown != null) {
+				throw thrown;
+			}
+			
+			return true;
+		}
+		
+		/**
+		 * Waits for every task to have run. A task which completes later (like
+		 * a TaskAsync) may still be running, the set joins each task after.
+		 */
+		public synchronized void await() 
+		{
+			boolean interrupted = false;
+			while (done.get() < tasks.length) {
+				try {
+					wait();
+				}
+				catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+			if (interrupted) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+	
+	/**
+	 * A runner which runs one batch each time it is executed.
+	 */
+	private class ChunkRunner extends TaskUnit 
+	{
+		
+		// The execution the runner belongs to.
+		private final Chunking chunking;
+		
+		/**
+		 * Instantiates a new ChunkRunner.
+		 */
+		public ChunkRunner(Chunking chunking) 
+		{
+			this.chunking = chunking;
+		}
+		
+		/**
+		 * {@inheritDoc}
+		 */
+		public void run() 
+		{
+			// Give up the worker after each batch.
+			boolean more = true;
+			try {
+				more = chunking.runBatch();
+			}
+			finally {
+				if (more) {
+					submit(chunkHandler);
+				}
+			}
+		}
+	}
+	
+	
+	// The handler the runners of a chunked execution are given to, or null if
+	// this set is not chunked.
+	private volatile TaskEventHandler chunkHandler;
+	
+	// The number of runners given to the chunking handler.
+	private volatile int chunkRunners;
+	
+	// The target time of a batch in nanoseconds.
+	private volatile long chunkTime;
+	
+	
 	/**
 	 * {@inheritDoc}
 	 */
 	@Override
 	public List<?> onExecute() 
 	{
-		// Call all tasks asynchronously
-		for (Task<?> task : list) {
-			task.async(); 
+		if (chunkHandler != null) {
+			executeChunked();
+		}
+		else {
+			// Call all tasks asynchronously
+			for (Task<?> task : list) {
+				task.async(); 
+			}
 		}
 		
 		List<Object> results = new ArrayList<Object>();
@@ -51,5 +240,90 @@ public class TaskSet extends TaskCollection
 		}
 		return results;
 	}
+	
+	/**
+	 * Runs the tasks of this set in batches, tasks which have already been
+	 * started elsewhere are left alone.
+	 */
+	private void executeChunked() 
+	{
+		List<Task<?>> prepared = new ArrayList<Task<?>>(list.size());
+		for (Task<?> task : list) {
+			if (task.prepare()) {
+				prepared.add(task);
+			}
+		}
+		
+		Chunking chunking = new Chunking(prepared.toArray(new Task<?>[prepared.size()]));
+		
+		// The runners are only needed when there is more than a batch of work.
+		int runners = Math.min(chunkRunners, prepared.size() / INITIAL_BATCH);
+		for (int i = 0; i < runners; i++) {
+			new ChunkRunner(chunking).submit(chunkHandler);
+		}
+		
+		// Run batches here as well, then wait for batches running elsewhere.
+		// A batch that throws still ran, so the rest of the tasks are run 
+		// before the first error is thrown.
+		RuntimeException thrown = null;
+		boolean more = true;
+		while (more) {
+			try {
+				more = chunking.runBatch();
+			}
+			catch (RuntimeException e) {
+				if (thrown == null) {
+					thrown = e;
+				}
+			}
+		}
+		chunking.await();
+		
+		if (thrown != null) {
+			throw thrown;
+		}
+	}
+	
+	/**
+	 * Sets this set to chunked mode, where its tasks are run in batches by
+	 * runners given to the given handler instead of being given to their own 
+	 * handlers.
+	 * 
+	 * @param handler
+	 * 		The handler the runners are given to.
+	 * @param runners
+	 * 		The number of runners, typically the number of workers of the 
+	 * 		handler.
+	 * @param batchTime
+	 * 		The target time a runner spends on a batch before it gives up its
+	 * 		worker.
+	 * @param unit
+	 * 		The unit of the batch time.
+	 */
+	public void setChunking(TaskEventHandler handler, int runners, long batchTime, TimeUnit unit) 
+	{
+		this.chunkRunners = Math.max(1, runners);
+		this.chunkTime = unit.toNanos(batchTime);
+		this.chunkHandler = handler;
+	}
+	
+	/**
+	 * Sets this set back to giving each task to its own handler.
+	 */
+	public void clearChunking() 
+	{
+		this.chunkHandler = null;
+	}
+	
+	/**
+	 * Returns whether this set runs its tasks in batches.
+	 * 
+	 * @return
+	 * 		True if this set is chunked, otherwise false.
+	 */
+	public boolean isChunked() 
+	{
+		return (chunkHandler != null);
+	}
 
 }
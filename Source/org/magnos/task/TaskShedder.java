@@ -0,0 +1,213 @@
+/* 
+ * NOTICE OF LICENSE
+ * 
+ * This source file is subject to the Open Software License (OSL 3.0) that is 
+ * bundled with this package in the file LICENSE.txt. It is also available 
+ * through the world-wide-web at http://opensource.org/licenses/osl-3.0.php
+ * If you did not receive a copy of the license and are unable to obtain it 
+ * through the world-wide-web, please send an email to pdiffenderfer@gmail.com 
+ * so we can send you a copy immediately. If you use any of this software please
+ * notify me via my website or email, your feedback is much appreciated. 
+ * 
+ * @copyright   Copyright (c) 2011 Magnos Software (http://www.magnos.org)
+ * @license     http://opensource.org/licenses/osl-3.0.php
+ * 				Open Software License (OSL 3.0)
+ */
+
+package org.magnos.task;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Sheds low priority tasks from a TaskService when its queue has a standing
+ * backlog, in the style of CoDel (controlled delay). The service reports how
+ * long each task waited in its queue (its sojourn time). Once the sojourn 
+ * time has stayed above the target for a whole interval the shedder starts
+ * shedding: new tasks with a priority at or below the threshold are canceled
+ * with a TaskRejectedException as the cause instead of being queued. The 
+ * time between shed tasks shrinks with the square root of the number shed, 
+ * so shedding grows until the sojourn time drops below the target again.
+ * 
+ * A queue length limit only bounds latency when every task costs the same,
+ * measuring the time tasks actually wait bounds it directly.
+ * 
+ * <pre>
+ * TaskService service = new TaskService(true);
+ * service.setShedder(new TaskShedder(5, 100, TimeUnit.MILLISECONDS));
+ * service.start();
+ * 
+ * important.setPriority(1); // never shed
+ * </pre>
+ * 
+ * @author Philip Diffenderfer
+ *
+ */
+public class TaskShedder 
+{
+
+	// The acceptable sojourn time in nanoseconds.
+	private final long target;
+	
+	// The time in nanoseconds the sojourn must stay above the target.
+	private final long interval;
+	
+	// The highest priority of tasks which may be shed.
+	private volatile int threshold = 0;
+	
+	// The time the sojourn has been above the target until it starts
+	// shedding, or 0 if the last sojourn was below the target.
+	private long firstAbove;
+	
+	// Whether this is shedding tasks.
+	private volatile boolean shedding;
+	
+	// The number of tasks shed since shedding started.
+	private int count;
+	
+	// The time the next task may be shed.
+	private long shedNext;
+	
+	// The total number of tasks shed.
+	private final AtomicLong shed = new AtomicLong();
+	
+	
+	/**
+	 * Instantiates a new TaskShedder.
+	 * 
+	 * @param target
+	 * 		The acceptable time a task waits in the queue.
+	 * @param interval
+	 * 		The time the wait must stay above the target before shedding 
+	 * 		starts, this should be around the time it takes a burst of tasks
+	 * 		to be worked off.
+	 * @param unit
+	 * 		The unit of the target and interval.
+	 */
+	public TaskShedder(long target, long interval, TimeUnit unit) 
+	{
+		this.target = unit.toNanos(target);
+		this.interval = unit.toNanos(interval);
+	}
+	
+	/**
+	 * Records how long a task waited in the queue before it was taken by the
+	 * service, which starts or stops shedding.
+	 * 
+	 * @param sojourn
+	 * 		The time in nanoseconds the task waited.
+	 */
+	public synchronized void onDequeue(long sojourn) 
+	{
+		long now = System.nanoTime();
+		
+		if (sojourn < target) {
+			firstAbove = 0;
+			shedding = false;
+		}
+		else if (firstAbove == 0) {
+			firstAbove = now + interval;
+		}
+		else if (!shedding && now - firstAbove >= 0) {
+			shedding = true;
+			// If shedding recently stopped, continue near the previous rate.
+			count = (count > 2 && now - shedNext < interval * 16 ? count - 2 : 1);
+			shedNext = now + controlLaw();
+		}
+	}
+	
+	/**
+	 * Returns whether the given task should be shed instead of queued. This 
+	 * will stop shedding if the queue is empty.
+	 * 
+	 * @param task
+	 * 		The task being added.
+	 * @param queueEmpty
+	 * 		Whether the queue of the service is empty.
+	 * @return
+	 * 		True if the task should be shed, otherwise false.
+	 */
+	public boolean isShed(Task<?> task, boolean queueEmpty) 
+	{
+		if (!shedding || task.getPriority() > threshold) {
+			return false;
+		}
+		
+		synchronized (this) 
+		{
+			if (queueEmpty) {
+				firstAbove = 0;
+				shedding = false;
+				return false;
+			}
+			
+			long now = System.nanoTime();
+			if (!shedding || now - shedNext < 0) {
+				return false;
+			}
+			
+			count++;
+			shedNext += controlLaw();
+		}
+		
+		shed.incrementAndGet();
+		
+		return true;
+	}
+	
+	/**
+	 * Returns the time until the next task is shed, the interval divided by
+	 * the square root of the number of tasks shed.
+	 */
+	private long controlLaw() 
+	{
+		return (long)(interval / Math.sqrt(count));
+	}
+	
+	/**
+	 * Sets the highest priority of tasks which may be shed, tasks with a 
+	 * greater priority are never shed.
+	 * 
+	 * @param threshold
+	 * 		The priority threshold. By default this is 0, so tasks need a 
+	 * 		positive priority to never be shed.
+	 */
+	public void setThreshold(int threshold) 
+	{
+		this.threshold = threshold;
+	}
+	
+	/**
+	 * Returns the highest priority of tasks which may be shed.
+	 * 
+	 * @return
+	 * 		The priority threshold.
+	 */
+	public int getThreshold() 
+	{
+		return threshold;
+	}
+	
+	/**
+	 * Returns whether this is currently shedding tasks.
+	 * 
+	 * @return
+	 * 		True if the sojourn time has been above the target for an interval.
+	 */
+	public boolean isShedding() 
+	{
+		return shedding;
+	}
+	
+	/**
+	 * Returns the total number of tasks shed.
+	 * 
+	 * @return
+	 * 		The number of tasks canceled instead of queued.
+	 */
+	public long getShed() 
+	{
+		return shed.get();
+	}
+	
+}
@@ -0,0 +1,45 @@
+/* 
+ * NOTICE OF LICENSE
+ * 
+ * This source file is subject to the Open Software License (OSL 3.0) that is 
+ * bundled with this package in the file LICENSE.txt. It is also available 
+ * through the world-wide-web at http://opensource.org/licenses/osl-3.0.php
+ * If you did not receive a copy of the license and are unable to obtain it 
+ * through the world-wide-web, please send an email to pdiffenderfer@gmail.com 
+ * so we can send you a copy immediately. If you use any of this software please
+ * notify me via my website or email, your feedback is much appreciated. 
+ * 
+ * @copyright   Copyright (c) 2011 Magnos Software (http://www.magnos.org)
+ * @license     http://opensource.org/licenses/osl-3.0.php
+ * 				Open Software License (OSL 3.0)
+ */
+
+package org.magnos.task;
+
+/**
+ * A listener to the stalls a TaskWatchdog finds.
+ * 
+ * @author Philip Diffenderfer
+ *
+ */
+public interface TaskStallListener 
+{
+	
+	/**
+	 * Invoked by the watchdog when a task has run longer than its threshold
+	 * and the stack of the service executing it has been sampled. This is 
+	 * invoked once per stall in the thread of the watchdog's timer.
+	 * 
+	 * @param service
+	 * 		The service executing the task.
+	 * @param task
+	 * 		The task which stalled, it may have finished since.
+	 * @param runningTime
+	 * 		How long the task had been running in nanoseconds when the last 
+	 * 		sample was taken.
+	 * @param samples
+	 * 		The stack traces of the service's thread, oldest first.
+	 */
+	public void onTaskStall(TaskService service, Task<?> task, long runningTime, StackTraceElement[][] samples);
+	
+}
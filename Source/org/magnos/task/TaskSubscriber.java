@@ -0,0 +1,329 @@
+/* 
+ * NOTICE OF LICENSE
+ * 
+ * This source file is subject to the Open Software License (OSL 3.0) that is 
+ * bundled with this package in the file LICENSE.txt. It is also available 
+ * through the world-wide-web at http://opensource.org/licenses/osl-3.0.php
+ * If you did not receive a copy of the license and are unable to obtain it 
+ * through the world-wide-web, please send an email to pdiffenderfer@gmail.com 
+ * so we can send you a copy immediately. If you use any of this software please
+ * notify me via my website or email, your feedback is much appreciated. 
+ * 
+ * @copyright   Copyright (c) 2011 Magnos Software (http://www.magnos.org)
+ * @license     http://opensource.org/licenses/osl-3.0.php
+ * 				Open Software License (OSL 3.0)
+ */
+
+package org.magnos.task;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A subscriber which turns each item it receives into a task and gives it to
+ * a handler. Only as many items as the subscriber's concurrency are requested
+ * at first, and one more item is requested each time a task finishes, so the
+ * publisher produces items exactly as fast as the handler executes them and 
+ * at most concurrency tasks exist at once.
+ * 
+ * <pre>
+ * TaskSubscriber&lt;File, Long&gt; hasher = new TaskSubscriber&lt;File, Long&gt;(service, 8) {
+ * 	protected Task&lt;Long&gt; createTask(File file) {
+ * 		return new HashTask(file);
+ * 	}
+ * };
+ * publisher.subscribe(hasher);
+ * hasher.await();
+ * </pre>
+ * 
+ * @author Philip Diffenderfer
+ *
+ * @param <T>
+ * 		The type of item received.
+ * @param <R>
+ * 		The result type of the tasks created.
+ */
+public abstract class TaskSubscriber<T, R> implements Flow.Subscriber<T> 
+{
+
+	/**
+	 * Requests the next item each time a task finishes.
+	 */
+	private class Completion extends TaskListenerAdapter<R> implements TaskInlineListener<R> 
+	{
+		
+		/**
+		 * {@inheritDoc}
+		 */
+		public void onTaskFinish(Task<R> source) 
+		{
+			try {
+				onTaskDone(source);
+			}
+			finally {
+				completed.incrementAndGet();
+				
+				Flow.Subscription s = subscription;
+				if (s != null && !finished) {
+					s.request(1);
+				}
+				
+				if (active.decrementAndGet() == 0) {
+					checkDone();
+				}
+			}
+		}
+	}
+	
+	
+	// The handler of the tasks created.
+	private final TaskEventHandler handler;
+	
+	// The maximum number of tasks executing at once.
+	private final int concurrency;
+	
+	// The listener of every task created.
+	private final Completion completion = new Completion();
+	
+	// The subscription to the publisher, null until subscribed.
+	private volatile Flow.Subscription subscription;
+	
+	// Whether the publisher has finished, successfully or not.
+	private volatile boolean finished;
+	
+	// The error the publisher finished with, if any.
+	private volatile Throwable error;
+	
+	// The number of tasks created which have not finished.
+	private final AtomicInteger active = new AtomicInteger();
+	
+	// The number of tasks which have finished.
+	private final AtomicLong completed = new AtomicLong();
+	
+	// Released when the publisher has finished and every task has finished.
+	private final CountDownLatch done = new CountDownLatch(1);
+	
+	
+	/**
+	 * Instantiates a new TaskSubscriber.
+	 * 
+	 * @param handler
+	 * 		The handler of the tasks created, or null to keep the handler each
+	 * 		task was created with.
+	 * @param concurrency
+	 * 		The maximum number of tasks executing at once.
+	 */
+	public TaskSubscriber(TaskEventHandler handler, int concurrency) 
+	{
+		if (concurrency < 1) {
+			throw new IllegalArgumentException("concurrency must be at least 1");
+		}
+		this.handler = handler;
+		this.concurrency = concurrency;
+	}
+	
+	/**
+	 * Creates the task which processes the given item.
+	 * 
+	 * @param item
+	 * 		The item received.
+	 * @return
+	 * 		The task to execute.
+	 */
+	protected abstract Task<R> createTask(T item);
+	
+	/**
+	 * Invoked when a task has finished, in the thread that finished it. The
+	 * state of the task tells whether it was successful.
+	 * 
+	 * @param task
+	 * 		The task that finished.
+	 */
+	protected void onTaskDone(Task<R> task) 
+	{
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	public void onSubscribe(Flow.Subscription s) 
+	{
+		if (subscription != null) {
+			s.cancel();
+			return;
+		}
+		subscription = s;
+		s.request(concurrency);
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	public void onNext(T item) 
+	{
+		Task<R> task = createTask(item);
+		if (handler != null) {
+			task.setHandler(handler);
+		}
+		
+		active.incrementAndGet();
+		
+		if (!task.async(completion)) {
+			// Already started elsewhere, it won't notify us. A finished task is
+			// done, but one still running elsewhere can't be followed so the
+			// subscription is canceled with an error.
+			if (task.isFinished()) {
+				completion.onTaskFinish(task);
+			}
+			else {
+				active.decrementAndGet();
+				error = new IllegalStateException("The task of an item was already started elsewhere");
+				cancel();
+			}
+		}
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	public void onError(Throwable throwable) 
+	{
+		error = throwable;
+		finished = true;
+		checkDone();
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	public void onComplete() 
+	{
+		finished = true;
+		checkDone();
+	}
+	
+	/**
+	 * Cancels the subscription, no more items are requested. Tasks already 
+	 * created are not canceled and await still waits for them.
+	 */
+	public void cancel() 
+	{
+		Flow.Subscription s = subscription;
+		finished = true;
+		if (s != null) {
+			s.cancel();
+		}
+		checkDone();
+	}
+	
+	/**
+	 * Waits until the publisher has finished (or the subscription has been 
+	 * canceled) and every task created has finished.
+	 * 
+	 * @return
+	 * 		True if everything finished, false if the thread was interrupted.
+	 */
+	public boolean await() 
+	{
+		try {
+			done.await();
+			return true;
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+	}
+	
+	/**
+	 * Waits until the publisher has finished (or the subscription has been 
+	 * canceled) and every task created has finished, or until the timeout 
+	 * elapses.
+	 * 
+	 * @param timeout
+	 * 		The maximum time to wait in milliseconds.
+	 * @return
+	 * 		True if everything finished, false if the timeout elapsed or the 
+	 * 		thread was interrupted.
+	 */
+	public boolean await(long timeout) 
+	{
+		try {
+			return done.await(timeout, TimeUnit.MILLISECONDS);
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+	}
+	
+	/**
+	 * Returns whether the publisher has finished and every task has finished.
+	 * 
+	 * @return
+	 * 		True if this subscriber is done, otherwise false.
+	 */
+	public boolean isDone() 
+	{
+		return (done.getCount() == 0);
+	}
+	
+	/**
+	 * Returns the error the publisher finished with.
+	 * 
+	 * @return
+	 * 		The error, or null if the publisher completed normally or hasn't 
+	 * 		finished.
+	 */
+	public Throwable getError() 
+	{
+		return error;
+	}
+	
+	/**
+	 * Returns the number of tasks created which have not finished.
+	 * 
+	 * @return
+	 * 		The number of tasks waiting or running.
+	 */
+	public int getActive() 
+	{
+		return active.get();
+	}
+	
+	/**
+	 * Returns the number of tasks which have finished.
+	 * 
+	 * @return
+	 * 		The number of tasks finished.
+	 */
+	public long getCompleted() 
+	{
+		return completed.get();
+	}
+	
+	/**
+	 * Returns the maximum number of tasks executing at once.
+	 * 
+	 * @return
+	 * 		The concurrency of this subscriber.
+	 */
+	public int getConcurrency() 
+	{
+		return concurrency;
+	}
+	
+	/**
+	 * Releases waiting threads if the publisher and every task has finished.
+	 */
+	private void checkDone() 
+	{
+		if (finished && active.get() == 0) {
+			done.countDown();
+		}
+	}
+	
+}
@@ -0,0 +1,144 @@
+/* 
+ * NOTICE OF LICENSE
+ * 
+ * This source file is subject to the Open Software License (OSL 3.0) that is 
+ * bundled with this package in the file LICENSE.txt. It is also available 
+ * through the world-wide-web at http://opensource.org/licenses/osl-3.0.php
+ * If you did not receive a copy of the license and are unable to obtain it 
+ * through the world-wide-web, please send an email to pdiffenderfer@gmail.com 
+ * so we can send you a copy immediately. If you use any of this software please
+ * notify me via my website or email, your feedback is much appreciated. 
+ * 
+ * @copyright   Copyright (c) 2011 Magnos Software (http://www.magnos.org)
+ * @license     http://opensource.org/licenses/osl-3.0.php
+ * 				Open Software License (OSL 3.0)
+ */
+
+package org.magnos.task;
+
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A timer which gives tasks to their handlers after a delay. A single daemon
+ * thread waits for the delays to expire and then hands the task over, the
+ * task itself is executed by its handler so a delayed task never holds onto
+ * a worker while it waits.
+ *
+ * @author Philip Diffenderfer
+ *
+ */
+public class TaskTimer
+{
+
+	// The timer shared by everything that doesn't specify their own.
+	private static TaskTimer instance;
+
+	// The executor which waits for delays to expire.
+	private final ScheduledThreadPoolExecutor executor;
+
+
+	/**
+	 * Instantiates a new TaskTimer.
+	 */
+	public TaskTimer()
+	{
+		executor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "TaskTimer");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		executor.setRemoveOnCancelPolicy(true);
+	}
+
+	/**
+	 * Returns the timer shared by everything that doesn't specify their own.
+	 *
+	 * @return
+	 * 		The reference to the shared TaskTimer.
+	 */
+	public static synchronized TaskTimer getDefault()
+	{
+		if (instance == null) {
+			instance = new TaskTimer();
+		}
+		return instance;
+	}
+
+	/**
+	 * Invokes the given runnable after the given delay. The runnable is invoked
+	 * by the timer thread, it should return quickly.
+	 *
+	 * @param runnable
+	 * 		The runnable to invoke.
+	 * @param delay
+	 * 		The amount of time to wait before invoking.
+	 * @param unit
+	 * 		The unit of time.
+	 * @return
+	 * 		The future which can be used to cancel the invocation.
+	 */
+	public ScheduledFuture<?> schedule(Runnable runnable, long delay, TimeUnit unit)
+	{
+		return executor.schedule(runnable, delay, unit);
+	}
+
+	/**
+	 * Invokes the given runnable repeatedly with the given period between each
+	 * invocation. The runnable is invoked by the timer thread, it should return
+	 * quickly.
+	 *
+	 * @param runnable
+	 * 		The runnable to invoke.
+	 * @param period
+	 * 		The amount of time between invocations.
+	 * @param unit
+	 * 		The unit of time.
+	 * @return
+	 * 		The future which can be used to cancel the invocations.
+	 */
+	public ScheduledFuture<?> repeat(Runnable runnable, long period, TimeUnit unit)
+	{
+		return executor.scheduleAtFixedRate(runnable, period, period, unit);
+	}
+
+	/**
+	 * Gives the given task to the handler after the given delay. The task
+	 * should already be in the Waiting state. If the handler doesn't accept 
+	 * the task it's canceled, nothing else would ever execute it.
+	 *
+	 * @param task
+	 * 		The task to give to the handler.
+	 * @param handler
+	 * 		The handler to execute the task.
+	 * @param delay
+	 * 		The amount of time to wait before giving the task to the handler.
+	 * @param unit
+	 * 		The unit of time.
+	 * @return
+	 * 		The future which can be used to cancel the handoff.
+	 */
+	public ScheduledFuture<?> submit(final Task<?> task, final TaskEventHandler handler, long delay, TimeUnit unit)
+	{
+		return executor.schedule(new Runnable() {
+			public void run() {
+				if (!task.submit(handler)) {
+					task.cancel(new TaskRejectedException("The handler did not accept the delayed task"));
+				}
+			}
+		}, delay, unit);
+	}
+
+	/**
+	 * Stops this timer, any pending invocations are discarded.
+	 */
+	public void stop()
+	{
+		executor.shutdownNow();
+	}
+
+}
@@ -0,0 +1,46 @@
+/* 
+ * NOTICE OF LICENSE
+ * 
+ * This source file is subject to the Open Software License (OSL 3.0) that is 
+ * bundled with this package in the file LICENSE.txt. It is also available 
+ * through the world-wide-web at http://opensource.org/licenses/osl-3.0.php
+ * If you did not receive a copy of the license and are unable to obtain it 
+ * through the world-wide-web, please send an email to pdiffenderfer@gmail.com 
+ * so we can send you a copy immediately. If you use any of this software please
+ * notify me via my website or email, your feedback is much appreciated. 
+ * 
+ * @copyright   Copyright (c) 2011 Magnos Software (http://www.magnos.org)
+ * @license     http://opensource.org/licenses/osl-3.0.php
+ * 				Open Software License (OSL 3.0)
+ */
+
+package org.magnos.task;
+
+/**
+ * A unit of work given to a handler on behalf of other tasks. A unit does not
+ * use the state machine of a task, the handler simply invokes run whenever the
+ * unit is given to it, which means the same unit can be given to a handler
+ * again once it has run.
+ * 
+ * @author Philip Diffenderfer
+ *
+ */
+abstract class TaskUnit extends Task<Object> 
+{
+
+	/**
+	 * Performs the work of this unit. This is called by the handler.
+	 */
+	@Override
+	public abstract void run();
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	protected final Object execute() 
+	{
+		return null;
+	}
+	
+}
@@ -0,0 +1,386 @@
+/* 
+ * NOTICE OF LICENSE
+ * 
+ * This source file is subject to the Open Software License (OSL 3.0) that is 
+ * bundled with this package in the file LICENSE.txt. It is also available 
+ * through the world-wide-web at http://opensource.org/licenses/osl-3.0.php
+ * If you did not receive a copy of the license and are unable to obtain it 
+ * through the world-wide-web, please send an email to pdiffenderfer@gmail.com 
+ * so we can send you a copy immediately. If you use any of this software please
+ * notify me via my website or email, your feedback is much appreciated. 
+ * 
+ * @copyright   Copyright (c) 2011 Magnos Software (http://www.magnos.org)
+ * @license     http://opensource.org/licenses/osl-3.0.php
+ * 				Open Software License (OSL 3.0)
+ */
+
+package org.magnos.task;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.magnos.service.Service;
+
+/**
+ * Watches services for tasks which run far longer than they should. Each 
+ * service records the task it's executing and when it started, which is a
+ * single timestamp per task, and the watchdog periodically compares that
+ * to its threshold on the thread of a TaskTimer. Once a task passes the 
+ * threshold the stack trace of the service's thread is sampled at each scan
+ * until enough samples have been taken, then the stall is reported to the
+ * listener the watchdog was created with.
+ * 
+ * <pre>
+ * TaskWatchdog watchdog = new TaskWatchdog(5, 1, TimeUnit.SECONDS, stallLog);
+ * watchdog.setSamples(3);
+ * watchdog.watch(service);
+ * pool.setWatchdog(watchdog);
+ * watchdog.start();
+ * </pre>
+ * 
+ * @author Philip Diffenderfer
+ *
+ */
+public class TaskWatchdog 
+{
+	
+	/**
+	 * A service being watched and its current stall.
+	 */
+	private static class Watched 
+	{
+		// The watched service.
+		private final TaskService service;
+		// Whether the service has been seen running.
+		private boolean started;
+		// The stalled task of the service, or null.
+		private Task<?> task;
+		// The time the stalled task started in nanoseconds.
+		private long since;
+		// The stack samples taken of the stalled task.
+		private List<StackTraceElement[]> samples;
+		// Whether the stall has been reported.
+		private boolean reported;
+		
+		private Watched(TaskService service) {
+			this.service = service;
+		}
+	}
+	
+	
+	// The services being watched.
+	private final List<Watched> watched = new CopyOnWriteArrayList<Watched>();
+	
+	// How long a task may run in nanoseconds before it's a stall.
+	private final long threshold;
+	
+	// The time between scans in nanoseconds.
+	private final long period;
+	
+	// The number of stack samples taken before a stall is reported.
+	private volatile int samples = 1;
+	
+	// The listener to stalls.
+	private volatile TaskStallListener listener;
+	
+	// The listener to errors thrown while scanning, or null to throw them.
+	private volatile TaskErrorListener errorListener;
+	
+	// The timer which scans the services.
+	private volatile TaskTimer timer = TaskTimer.getDefault();
+	
+	// The repeating scan, null if the watchdog is stopped.
+	private ScheduledFuture<?> future;
+	
+	// The number of stalls reported.
+	private final AtomicLong stalls = new AtomicLong();
+	
+	
+	/**
+	 * Instantiates a new TaskWatchdog which scans four times per threshold.
+	 * 
+	 * @param threshold
+	 * 		How long a task may run before it's a stall.
+	 * @param unit
+	 * 		The unit of time.
+	 * @param listener
+	 * 		The listener stalls are reported to.
+	 */
+	public TaskWatchdog(long threshold, TimeUnit unit, TaskStallListener listener) 
+	{
+		this(unit.toNanos(threshold), Math.max(1, unit.toNanos(threshold) / 4), TimeUnit.NANOSECONDS, listener);
+	}
+	
+	/**
+	 * Instantiates a new TaskWatchdog.
+	 * 
+	 * @param threshold
+	 * 		How long a task may run before it's a stall.
+	 * @param period
+	 * 		The time between scans, which is also the time between stack 
+	 * 		samples of a stall.
+	 * @param unit
+	 * 		The unit of time.
+	 * @param listener
+	 * 		The listener stalls are reported to.
+	 */
+	public TaskWatchdog(long threshold, long period, TimeUnit unit, TaskStallListener listener) 
+	{
+		this.threshold = unit.toNanos(threshold);
+		this.period = unit.toNanos(period);
+		this.setListener(listener);
+	}
+	
+	/**
+	 * Starts scanning the watched services.
+	 */
+	public synchronized void start() 
+	{
+		if (future == null) {
+			future = timer.repeat(new Runnable() {
+				public void run() {
+					try {
+						scan();
+					}
+					catch (RuntimeException e) {
+						// An error would stop the timer from repeating the scan.
+						TaskErrorListener l = errorListener;
+						if (l == null) {
+							throw e;
+						}
+						l.onError(TaskWatchdog.this, null, e);
+					}
+				}
+			}, period, TimeUnit.NANOSECONDS);
+		}
+	}
+	
+	/**
+	 * Stops scanning the watched services.
+	 */
+	public synchronized void stop() 
+	{
+		if (future != null) {
+			future.cancel(false);
+			future = null;
+		}
+	}
+	
+	/**
+	 * Starts watching the given service. A service which stops after it has 
+	 * been watched running is no longer watched.
+	 * 
+	 * @param service
+	 * 		The service to watch.
+	 */
+	public void watch(TaskService service) 
+	{
+		watched.add(new Watched(service));
+	}
+	
+	/**
+	 * Stops watching the given service.
+	 * 
+	 * @param service
+	 * 		The service to stop watching.
+	 */
+	public void unwatch(TaskService service) 
+	{
+		for (Watched w : watched) {
+			if (w.service == service) {
+				watched.remove(w);
+			}
+		}
+	}
+	
+	/**
+	 * Checks each watched service for a stalled task, sampling its stack and
+	 * reporting it once enough samples are taken. This is invoked by the 
+	 * timer once started.
+	 */
+	public synchronized void scan() 
+	{
+		for (Watched w : watched) 
+		{
+			TaskService service = w.service;
+			
+			if (service.hasState(Service.Stopped)) {
+				if (w.started) {
+					watched.remove(w);
+				}
+				continue;
+			}
+			w.started = true;
+			
+			Task<?> task = service.getActiveTask();
+			long since = service.getActiveSince();
+			long now = System.nanoTime();
+			
+			// The stalled task finished before enough samples were taken.
+			if (w.task != null && (w.task != task || w.since != since)) {
+				if (!w.reported && !w.samples.isEmpty()) {
+					report(w, now - w.since);
+				}
+				w.task = null;
+				w.samples = null;
+			}
+			
+			if (task == null || now - since < threshold) {
+				continue;
+			}
+			
+			if (w.task == null) {
+				w.task = task;
+				w.since = since;
+				w.samples = new ArrayList<StackTraceElement[]>();
+				w.reported = false;
+			}
+			
+			Thread thread = service.getThread();
+			if (w.reported || thread == null || w.samples.size() >= samples) {
+				continue;
+			}
+			
+			StackTraceElement[] stack = thread.getStackTrace();
+			
+			// Only keep the sample if it's still of the stalled task.
+			if (service.getActiveTask() == task && service.getActiveSince() == since) {
+				w.samples.add(stack);
+				
+				if (w.samples.size() >= samples) {
+					report(w, System.nanoTime() - since);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Reports the stall of the given service to the listener.
+	 */
+	private void report(Watched w, long runningTime) 
+	{
+		w.reported = true;
+		stalls.incrementAndGet();
+		
+		StackTraceElement[][] traces = w.samples.toArray(new StackTraceElement[w.samples.size()][]);
+		
+		listener.onTaskStall(w.service, w.task, runningTime, traces);
+	}
+	
+	/**
+	 * Sets the number of stack samples taken of a stalled task before it's 
+	 * reported, the samples are taken one scan period apart.
+	 * 
+	 * @param samples
+	 * 		The number of samples, at least one.
+	 */
+	public void setSamples(int samples) 
+	{
+		this.samples = Math.max(1, samples);
+	}
+	
+	/**
+	 * Returns the number of stack samples taken of a stalled task before it's
+	 * reported.
+	 * 
+	 * @return
+	 * 		The number of samples.
+	 */
+	public int getSamples() 
+	{
+		return samples;
+	}
+	
+	/**
+	 * Sets the listener stalls are reported to.
+	 * 
+	 * @param listener
+	 * 		The listener, which is required.
+	 * @throws IllegalArgumentException
+	 * 		The listener is null.
+	 */
+	public void setListener(TaskStallListener listener) 
+	{
+		if (listener == null) {
+			throw new IllegalArgumentException("A watchdog requires a stall listener");
+		}
+		this.listener = listener;
+	}
+	
+	/**
+	 * Returns the listener stalls are reported to.
+	 * 
+	 * @return
+	 * 		The listener.
+	 */
+	public TaskStallListener getListener() 
+	{
+		return listener;
+	}
+	
+	/**
+	 * Sets the listener to errors thrown while scanning, like an error thrown
+	 * by the stall listener. With a listener the watchdog keeps scanning, 
+	 * without one the error is thrown on the timer's thread and the scans 
+	 * stop.
+	 * 
+	 * @param errorListener
+	 * 		The listener, or null if errors should be thrown.
+	 */
+	public void setErrorListener(TaskErrorListener errorListener) 
+	{
+		this.errorListener = errorListener;
+	}
+	
+	/**
+	 * Returns the listener to errors thrown while scanning.
+	 * 
+	 * @return
+	 * 		The listener, or null if errors are thrown.
+	 */
+	public TaskErrorListener getErrorListener() 
+	{
+		return errorListener;
+	}
+	
+	/**
+	 * Sets the timer which scans the services, this takes effect the next time 
+	 * the watchdog is started.
+	 * 
+	 * @param timer
+	 * 		The timer to scan with.
+	 */
+	public void setTimer(TaskTimer timer) 
+	{
+		this.timer = timer;
+	}
+	
+	/**
+	 * Returns how long a task may run before it's a stall.
+	 * 
+	 * @param unit
+	 * 		The unit of time to return.
+	 * @return
+	 * 		The threshold in the given unit.
+	 */
+	public long getThreshold(TimeUnit unit) 
+	{
+		return unit.convert(threshold, TimeUnit.NANOSECONDS);
+	}
+	
+	/**
+	 * Returns the number of stalls reported.
+	 * 
+	 * @return
+	 * 		The number of stalls.
+	 */
+	public long getStalls() 
+	{
+		return stalls.get();
+	}
+	
+}
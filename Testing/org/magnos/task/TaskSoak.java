@@ -0,0 +1,623 @@
+/* 
+ * NOTICE OF LICENSE
+ * 
+ * This source file is subject to the Open Software License (OSL 3.0) that is 
+ * bundled with this package in the file LICENSE.txt. It is also available 
+ * through the world-wide-web at http://opensource.org/licenses/osl-3.0.php
+ * If you did not receive a copy of the license and are unable to obtain it 
+ * through the world-wide-web, please send an email to pdiffenderfer@gmail.com 
+ * so we can send you a copy immediately. If you use any of this software please
+ * notify me via my website or email, your feedback is much appreciated. 
+ * 
+ * @copyright   Copyright (c) 2011 Magnos Software (http://www.magnos.org)
+ * @license     http://opensource.org/licenses/osl-3.0.php
+ * 				Open Software License (OSL 3.0)
+ */
+
+package org.magnos.task;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A load generator which runs tasks against a TaskServicePool for a long
+ * time and reports latency percentiles, throughput, garbage collection, and
+ * thread counts over time as CSV.
+ * 
+ * Tasks arrive on an open loop: each task has an intended start time from 
+ * the arrival rate, and it's submitted at that time no matter how far behind
+ * the pool is. Latency is measured from the intended start rather than the
+ * actual submission, so when the generator or the pool stalls the tasks that
+ * should have started during the stall are charged for it (correcting for
+ * coordinated omission). An arrival dropped because too many tasks are 
+ * unfinished is charged the same way: once the backlog clears (or the run 
+ * ends) it's recorded with the time from its intended start, so dropping 
+ * can't hide the latency of an overloaded pool.
+ * 
+ * Arguments are key=value pairs, all optional:
+ * 
+ * <pre>
+ * rate=2000          tasks per second
+ * arrival=poisson    poisson or constant inter-arrival times
+ * duration=60        seconds to run (after warmup)
+ * warmup=5           seconds to run before recording
+ * interval=1         seconds between CSV rows
+ * workers=4          services in the pool
+ * work=spin          spin (uses CPU) or sleep
+ * dist=exponential   fixed, uniform, exponential, or lognormal task durations
+ * mean=200           mean task duration in microseconds
+ * mix=single:70,set:10,list:10,group:10
+ * children=4         tasks per set, list, or group
+ * maxInFlight=100000 arrivals beyond this many unfinished tasks are dropped 
+ *                    and charged until the backlog clears
+ * out=soak.csv       file to write, standard out by default
+ * 
+ * java -cp ... org.magnos.task.TaskSoak rate=5000 duration=3600 out=soak.csv
+ * </pre>
+ * 
+ * @author Philip Diffenderfer
+ *
+ */
+public class TaskSoak 
+{
+
+	/**
+	 * A log-linear histogram of latencies in nanoseconds with about 1.5% 
+	 * precision which can be recorded to concurrently.
+	 */
+	public static class Histogram 
+	{
+		private static final int SUB_BUCKETS = 64;
+		private static final int BUCKETS = 58 * SUB_BUCKETS;
+		
+		private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+		private final AtomicLong total = new AtomicLong();
+		private final AtomicLong max = new AtomicLong();
+		
+		public void record(long value) {
+			value = Math.max(0, value);
+			counts.incrementAndGet(index(value));
+			total.incrementAndGet();
+			long m;
+			while (value > (m = max.get()) && !max.compareAndSet(m, value)) {
+				// retry
+			}
+		}
+		
+		public void add(Histogram other) {
+			for (int i = 0; i < BUCKETS; i++) {
+				long c = other.counts.get(i);
+				if (c != 0) {
+					counts.addAndGet(i, c);
+				}
+			}
+			total.addAndGet(other.total.get());
+			long m;
+			while (other.max.get() > (m = max.get()) && !max.compareAndSet(m, other.max.get())) {
+				// retry
+			}
+		}
+		
+		public long getCount() {
+			return total.get();
+		}
+		
+		public long getMax() {
+			return max.get();
+		}
+		
+		public long getPercentile(double percentile) {
+			long count = total.get();
+			if (count == 0) {
+				return 0;
+			}
+			long rank = Math.max(1, (long)Math.ceil(percentile * count));
+			long seen = 0;
+			for (int i = 0; i < BUCKETS; i++) {
+				seen += counts.get(i);
+				if (seen >= rank) {
+					return Math.min(value(i), max.get());
+				}
+			}
+			return max.get();
+		}
+		
+		private static int index(long value) {
+			if (value < SUB_BUCKETS * 2) {
+				return (int)value;
+			}
+			int shift = 63 - Long.numberOfLeadingZeros(value) - 6;
+			return (shift + 1) * SUB_BUCKETS + (int)(value >>> shift) - SUB_BUCKETS;
+		}
+		
+		private static long value(int index) {
+			if (index < SUB_BUCKETS * 2) {
+				return index;
+			}
+			int shift = index / SUB_BUCKETS - 1;
+			long sub = index % SUB_BUCKETS + SUB_BUCKETS;
+			return (sub << shift) + (1L << shift) - 1;
+		}
+	}
+	
+	/**
+	 * The histogram of an interval and the completions recording into it, so
+	 * once it's swapped out it's only merged after those records land.
+	 */
+	private static class Interval 
+	{
+		private final Histogram histogram = new Histogram();
+		private final AtomicInteger writers = new AtomicInteger();
+	}
+	
+	/**
+	 * A task which works for a given number of nanoseconds.
+	 */
+	public static class WorkTask extends Task<Long> 
+	{
+		private final long nanos;
+		private final boolean spin;
+		
+		public WorkTask(long nanos, boolean spin) {
+			this.nanos = nanos;
+			this.spin = spin;
+		}
+		
+		protected Long execute() {
+			if (!spin) {
+				LockSupport.parkNanos(nanos);
+				return nanos;
+			}
+			long end = System.nanoTime() + nanos;
+			while (System.nanoTime() < end) {
+				Thread.onSpinWait();
+			}
+			return nanos;
+		}
+	}
+	
+	/**
+	 * Records the latency of a task from its intended start once it finishes.
+	 */
+	private class Completion extends TaskListenerAdapter<Object> implements TaskInlineListener<Object> 
+	{
+		private final long intended;
+		private final boolean measured;
+		
+		private Completion(long intended, boolean measured) {
+			this.intended = intended;
+			this.measured = measured;
+		}
+		
+		public void onTaskFinish(Task<Object> source) {
+			inFlight.decrementAndGet();
+			if (!measured) {
+				return;
+			}
+			if (!source.isSuccess()) {
+				errors.incrementAndGet();
+			}
+			record(System.nanoTime() - intended);
+			completed.incrementAndGet();
+		}
+	}
+	
+	
+	// The configuration.
+	private final Map<String, String> config;
+	private final double rate;
+	private final boolean poisson;
+	private final long duration;
+	private final long warmup;
+	private final long reportInterval;
+	private final int workers;
+	private final boolean spin;
+	private final String dist;
+	private final long mean;
+	private final int children;
+	private final long maxInFlight;
+	private final String[] mixNames;
+	private final int[] mixWeights;
+	private final int mixTotal;
+	
+	// The latencies of the current interval and of the whole run.
+	private volatile Interval interval = new Interval();
+	private final Histogram overall = new Histogram();
+	
+	// Counters.
+	private final AtomicLong inFlight = new AtomicLong();
+	private final AtomicLong completed = new AtomicLong();
+	private final AtomicLong errors = new AtomicLong();
+	private final AtomicLong offered = new AtomicLong();
+	private final AtomicLong dropped = new AtomicLong();
+	
+	// The intended starts of the measured arrivals dropped since the backlog
+	// last cleared, only used by the generator's thread.
+	private long[] drops = new long[64];
+	private int dropCount;
+	
+	// The pool under load.
+	private TaskServicePool pool;
+	
+	
+	/**
+	 * Instantiates a new TaskSoak.
+	 * 
+	 * @param config
+	 * 		The configuration, see the class documentation for the keys.
+	 */
+	public TaskSoak(Map<String, String> config) 
+	{
+		this.config = config;
+		this.rate = Double.parseDouble(get("rate", "2000"));
+		this.poisson = get("arrival", "poisson").equals("poisson");
+		this.duration = TimeUnit.MILLISECONDS.toNanos((long)(Double.parseDouble(get("duration", "60")) * 1000));
+		this.warmup = TimeUnit.MILLISECONDS.toNanos((long)(Double.parseDouble(get("warmup", "5")) * 1000));
+		this.reportInterval = TimeUnit.MILLISECONDS.toNanos((long)(Double.parseDouble(get("interval", "1")) * 1000));
+		this.workers = Integer.parseInt(get("workers", "4"));
+		this.spin = get("work", "spin").equals("spin");
+		this.dist = get("dist", "exponential");
+		this.mean = TimeUnit.MICROSECONDS.toNanos(Long.parseLong(get("mean", "200")));
+		this.children = Integer.parseInt(get("children", "4"));
+		this.maxInFlight = Long.parseLong(get("maxInFlight", "100000"));
+		
+		String[] mix = get("mix", "single:70,set:10,list:10,group:10").split(",");
+		this.mixNames = new String[mix.length];
+		this.mixWeights = new int[mix.length];
+		int sum = 0;
+		for (int i = 0; i < mix.length; i++) {
+			String[] pair = mix[i].split(":");
+			mixNames[i] = pair[0].trim();
+			mixWeights[i] = Integer.parseInt(pair[1].trim());
+			sum += mixWeights[i];
+		}
+		this.mixTotal = sum;
+	}
+	
+	/**
+	 * Runs the soak, writing a CSV row each interval and a final row for the
+	 * whole run.
+	 * 
+	 * @param out
+	 * 		Where the CSV is written.
+	 * @return
+	 * 		The latencies of the whole run.
+	 */
+	public Histogram run(PrintStream out) 
+	{
+		pool = new TaskServicePool();
+		pool.setMinCapacity(workers);
+		pool.setMaxCapacity(workers);
+		pool.start();
+		
+		MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		
+		out.println("elapsed_s,offered,completed,dropped,errors,throughput_per_s,p50_us,p90_us,p99_us,p999_us,max_us,in_flight,queued,gc_count,gc_ms,threads,heap_mb");
+		
+		Random random = new Random();
+		long start = System.nanoTime();
+		long measureStart = start + warmup;
+		long end = measureStart + duration;
+		long nextReport = measureStart + reportInterval;
+		long intended = start;
+		long lastCompleted = 0;
+		long lastReport = measureStart;
+		long[] lastGc = gc();
+		long[] startGc = lastGc;
+		boolean measuring = false;
+		
+		while (intended < end)
+		{
+			long now = System.nanoTime();
+			
+			if (!measuring && now >= measureStart) {
+				measuring = true;
+				swap();
+				lastGc = gc();
+				startGc = lastGc;
+			}
+			
+			if (measuring && now >= nextReport) {
+				Histogram h = swap();
+				overall.add(h);
+				
+				long done = completed.get();
+				long[] gc = gc();
+				double seconds = (now - lastReport) / 1e9;
+				
+				row(out, now - measureStart, h, done - lastCompleted, seconds, gc[0] - lastGc[0], gc[1] - lastGc[1], threads.getThreadCount(), memory.getHeapMemoryUsage().getUsed());
+				
+				lastCompleted = done;
+				lastGc = gc;
+				lastReport = now;
+				nextReport += reportInterval;
+			}
+			
+			// Wait for the next intended start, never skip one when behind.
+			if (intended > now) {
+				LockSupport.parkNanos(Math.min(intended - now, nextReport - now));
+				continue;
+			}
+			
+			submit(intended, intended >= measureStart, random);
+			
+			double gap = (poisson ? -Math.log(1.0 - random.nextDouble()) : 1.0) / rate;
+			intended += (long)(gap * 1e9);
+		}
+		
+		// Let the last tasks finish so they are included.
+		long drain = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+		while (inFlight.get() > 0 && System.nanoTime() < drain) {
+			LockSupport.parkNanos(1000000L);
+		}
+		
+		// Arrivals still dropped waited at least until now.
+		chargeDrops();
+		overall.add(swap());
+		
+		// The completions include the drain, so the throughput does too.
+		long elapsed = System.nanoTime() - measureStart;
+		long[] gc = gc();
+		row(out, elapsed, overall, completed.get(), elapsed / 1e9, gc[0] - startGc[0], gc[1] - startGc[1], threads.getThreadCount(), memory.getHeapMemoryUsage().getUsed());
+		out.flush();
+		
+		pool.stop();
+		
+		return overall;
+	}
+	
+	/**
+	 * Records a latency into the current interval. A record which raced with a
+	 * swap is retried on the new interval.
+	 */
+	private void record(long latency) 
+	{
+		for (;;) {
+			Interval current = interval;
+			current.writers.incrementAndGet();
+			try {
+				if (current == interval) {
+					current.histogram.record(latency);
+					return;
+				}
+			}
+			finally {
+				current.writers.decrementAndGet();
+			}
+		}
+	}
+	
+	/**
+	 * Starts a new interval and returns the histogram of the last one once 
+	 * every record into it has finished.
+	 */
+	private Histogram swap() 
+	{
+		Interval last = interval;
+		interval = new Interval();
+		
+		while (last.writers.get() > 0) {
+			Thread.onSpinWait();
+		}
+		
+		return last.histogram;
+	}
+	
+	/**
+	 * Submits the next task of the mix.
+	 */
+	private void submit(long intended, boolean measured, Random random) 
+	{
+		if (measured) {
+			offered.incrementAndGet();
+		}
+		if (inFlight.get() >= maxInFlight) {
+			if (measured) {
+				dropped.incrementAndGet();
+				if (dropCount == drops.length) {
+					drops = Arrays.copyOf(drops, dropCount * 2);
+				}
+				drops[dropCount++] = intended;
+			}
+			return;
+		}
+		
+		// The backlog cleared, the dropped arrivals waited until now.
+		chargeDrops();
+		
+		Task<?> task = create(pick(random), random);
+		task.setHandler(pool);
+		inFlight.incrementAndGet();
+		
+		@SuppressWarnings("unchecked")
+		Task<Object> submitted = (Task<Object>)task;
+		submitted.async(new Completion(intended, measured));
+	}
+	
+	/**
+	 * Records the latency of each dropped arrival as the time from its 
+	 * intended start until now.
+	 */
+	private void chargeDrops() 
+	{
+		if (dropCount == 0) {
+			return;
+		}
+		long now = System.nanoTime();
+		for (int i = 0; i < dropCount; i++) {
+			record(now - drops[i]);
+		}
+		dropCount = 0;
+	}
+	
+	/**
+	 * Returns the name of a kind of task from the mix.
+	 */
+	private String pick(Random random) 
+	{
+		int roll = random.nextInt(mixTotal);
+		for (int i = 0; i < mixNames.length; i++) {
+			roll -= mixWeights[i];
+			if (roll < 0) {
+				return mixNames[i];
+			}
+		}
+		return mixNames[mixNames.length - 1];
+	}
+	
+	/**
+	 * Creates a task of the given kind.
+	 */
+	private Task<?> create(String kind, Random random) 
+	{
+		if (kind.equals("single")) {
+			return work(random);
+		}
+		
+		TaskCollection collection;
+		if (kind.equals("set")) {
+			collection = new TaskSet();
+		}
+		else if (kind.equals("list")) {
+			collection = new TaskList();
+		}
+		else if (kind.equals("group")) {
+			collection = new TaskGroup();
+		}
+		else {
+			throw new IllegalArgumentException("Unknown task kind " + kind);
+		}
+		
+		for (int i = 0; i < children; i++) {
+			Task<?> child = work(random);
+			child.setHandler(pool);
+			collection.add(child);
+		}
+		return collection;
+	}
+	
+	/**
+	 * Creates a task with a duration from the distribution.
+	 */
+	private WorkTask work(Random random) 
+	{
+		long nanos;
+		
+		if (dist.equals("fixed")) {
+			nanos = mean;
+		}
+		else if (dist.equals("uniform")) {
+			nanos = (long)(random.nextDouble() * 2 * mean);
+		}
+		else if (dist.equals("lognormal")) {
+			// A sigma of 1 gives a long tail, the mu keeps the mean.
+			nanos = (long)(mean * Math.exp(random.nextGaussian() - 0.5));
+		}
+		else {
+			nanos = (long)(-Math.log(1.0 - random.nextDouble()) * mean);
+		}
+		
+		return new WorkTask(nanos, spin);
+	}
+	
+	/**
+	 * Writes a row of the CSV.
+	 */
+	private void row(PrintStream out, long elapsed, Histogram h, long done, double seconds, long gcCount, long gcMillis, int threadCount, long heap) 
+	{
+		out.format("%.3f,%d,%d,%d,%d,%.1f,%.1f,%.1f,%.1f,%.1f,%.1f,%d,%d,%d,%d,%d,%.1f%n", 
+			elapsed / 1e9, offered.get(), completed.get(), dropped.get(), errors.get(),
+			done / seconds,
+			h.getPercentile(0.5) / 1e3, h.getPercentile(0.9) / 1e3, h.getPercentile(0.99) / 1e3, h.getPercentile(0.999) / 1e3, h.getMax() / 1e3,
+			inFlight.get(), pool.getEventQueue().size(), gcCount, gcMillis, threadCount, heap / (1024.0 * 1024.0));
+	}
+	
+	/**
+	 * Returns the total number of collections and milliseconds collecting.
+	 */
+	private static long[] gc() 
+	{
+		long[] totals = new long[2];
+		for (GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans()) {
+			totals[0] += Math.max(0, bean.getCollectionCount());
+			totals[1] += Math.max(0, bean.getCollectionTime());
+		}
+		return totals;
+	}
+	
+	/**
+	 * Returns a configuration value.
+	 */
+	private String get(String key, String defaultValue) 
+	{
+		String value = config.get(key);
+		return (value == null ? defaultValue : value);
+	}
+	
+	/**
+	 * Returns the number of measured tasks submitted.
+	 */
+	public long getOffered() 
+	{
+		return offered.get();
+	}
+	
+	/**
+	 * Returns the number of measured tasks finished.
+	 */
+	public long getCompleted() 
+	{
+		return completed.get();
+	}
+	
+	/**
+	 * Returns the number of measured arrivals dropped.
+	 */
+	public long getDropped() 
+	{
+		return dropped.get();
+	}
+	
+	/**
+	 * Runs a soak with the key=value arguments.
+	 */
+	public static void main(String[] args) throws IOException 
+	{
+		Map<String, String> config = new HashMap<String, String>();
+		for (String arg : args) {
+			int split = arg.indexOf('=');
+			if (split > 0) {
+				config.put(arg.substring(0, split), arg.substring(split + 1));
+			}
+		}
+		
+		String file = config.get("out");
+		PrintStream out = (file == null ? System.out : new PrintStream(new FileOutputStream(file)));
+		try {
+			new TaskSoak(config).run(out);
+		}
+		finally {
+			if (out != System.out) {
+				out.close();
+			}
+		}
+		
+		System.exit(0);
+	}
+	
+}
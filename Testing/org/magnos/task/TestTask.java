@@ -251,6 +251,36 @@ public class TestTask extends BaseTest
 		assertEquals( pt.getResult(), new BigInteger("16") );
 	}
 	
+	@Test
+	public void testNestedSync()
+	{
+		// The children are queued behind their parent on the single service thread.
+		Task<BigInteger> parent = new Task<BigInteger>() {
+			protected BigInteger execute() {
+				PowerTask child = new PowerTask(2, 4);
+				child.setHandler(executor);
+
+				PowerTask first = new PowerTask(2, 2);
+				PowerTask second = new PowerTask(2, 3);
+				first.setHandler(executor);
+				second.setHandler(executor);
+
+				TaskSet set = new TaskSet();
+				set.setHandler(executor);
+				set.add(first);
+				set.add(second);
+				set.sync();
+
+				return child.sync().add(first.getResult()).add(second.getResult());
+			}
+		};
+		parent.setHandler(executor);
+		parent.setTimeout(5000);
+
+		assertEquals( new BigInteger("28"), parent.sync() );
+		assertTrue( parent.isSuccess() );
+	}
+	
 /*	
 	private class PrimeTask extends Task<Boolean> 
 	{
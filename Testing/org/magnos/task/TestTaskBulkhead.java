@@ -0,0 +1,231 @@
+/* 
+ * NOTICE OF LICENSE
+ * 
+ * This source file is subject to the Open Software License (OSL 3.0) that is 
+ * bundled with this package in the file LICENSE.txt. It is also available 
+ * through the world-wide-web at http://opensource.org/licenses/osl-3.0.php
+ * If you did not receive a copy of the license and are unable to obtain it 
+ * through the world-wide-web, please send an email to pdiffenderfer@gmail.com 
+ * so we can send you a copy immediately. If you use any of this software please
+ * notify me via my website or email, your feedback is much appreciated. 
+ * 
+ * @copyright   Copyright (c) 2011 Magnos Software (http://www.magnos.org)
+ * @license     http://opensource.org/licenses/osl-3.0.php
+ * 				Open Software License (OSL 3.0)
+ */
+
+package org.magnos.task;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.magnos.task.TestTask.PowerTask;
+import org.magnos.test.BaseTest;
+
+
+public class TestTaskBulkhead extends BaseTest
+{
+
+	public static class CountedTask extends Task<Boolean> {
+		public static final AtomicInteger running = new AtomicInteger();
+		public static final AtomicInteger maxRunning = new AtomicInteger();
+		protected Boolean execute() {
+			int current = running.incrementAndGet();
+			int max;
+			while ((max = maxRunning.get()) < current && !maxRunning.compareAndSet(max, current));
+			sleep(20);
+			running.decrementAndGet();
+			return true;
+		}
+	}
+
+	private TaskServicePool pool;
+
+	@Before
+	public void testBefore() {
+		pool = new TaskServicePool();
+		pool.setMinCapacity(4);
+		pool.setMaxCapacity(4);
+		pool.start();
+	}
+
+	@After
+	public void testAfter() {
+		pool.stop();
+	}
+
+	@Test
+	public void testIsolation()
+	{
+		TaskBulkhead bulkhead = new TaskBulkhead(pool);
+		TaskBulkhead.Partition slow = bulkhead.addPartition("slow", 2, 100);
+		TaskBulkhead.Partition fast = bulkhead.addPartition("fast", 2, 100);
+
+		CountedTask[] slowTasks = new CountedTask[20];
+		for (int i = 0; i < slowTasks.length; i++) {
+			slowTasks[i] = new CountedTask();
+			slowTasks[i].setHandler(slow);
+			slowTasks[i].async();
+		}
+
+		assertTrue( slow.getActive() <= 2 );
+
+		// The fast partition gets workers while the slow one is saturated.
+		PowerTask fastTask = new PowerTask(2, 10);
+		fastTask.setHandler(fast);
+		fastTask.setTimeout(100);
+		assertNotNull( fastTask.sync() );
+		assertTrue( slow.getQueued() > 0 );
+
+		for (CountedTask task : slowTasks) {
+			assertTrue( task.join(5000) );
+			assertTrue( task.isSuccess() );
+		}
+
+		assertEquals( 2, CountedTask.maxRunning.get() );
+		sleep(50);
+		assertEquals( 0, slow.getActive() );
+		assertEquals( 0, slow.getQueued() );
+	}
+
+	@Test
+	public void testRejected() throws InterruptedException
+	{
+		TaskBulkhead bulkhead = new TaskBulkhead(pool);
+		TaskBulkhead.Partition partition = bulkhead.addPartition("small", 1, 2);
+
+		final AtomicInteger canceled = new AtomicInteger();
+		TaskListener<Boolean> listener = new TaskListenerAdapter<Boolean>() {
+			public void onTaskCancel(Task<Boolean> source) {
+				assertTrue( source.getError() instanceof TaskRejectedException );
+				canceled.incrementAndGet();
+			}
+		};
+
+		// Occupy the only slot until the queue has been filled.
+		final CountDownLatch latch = new CountDownLatch(1);
+		Task<Boolean> blocker = new Task<Boolean>() {
+			protected Boolean execute() {
+				try {
+					latch.await();
+				}
+				catch (InterruptedException e) {
+				}
+				return true;
+			}
+		};
+		blocker.setHandler(partition);
+		blocker.async();
+
+		while (partition.getQueued() > 0) {
+			sleep(1);
+		}
+
+		CountedTask[] tasks = new CountedTask[10];
+		for (int i = 0; i < tasks.length; i++) {
+			tasks[i] = new CountedTask();
+			tasks[i].setHandler(partition);
+			tasks[i].async(listener);
+		}
+
+		assertEquals( 8, canceled.get() );
+		assertEquals( 8, partition.getRejected() );
+		assertEquals( 2, partition.getQueued() );
+
+		latch.countDown();
+
+		for (int i = 0; i < tasks.length; i++) {
+			assertTrue( tasks[i].join(5000) );
+			assertEquals( i < 2, tasks[i].isSuccess() );
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testDuplicate()
+	{
+		TaskBulkhead bulkhead = new TaskBulkhead(pool);
+		bulkhead.addPartition("same", 1, 1);
+		bulkhead.addPartition("same", 1, 1);
+	}
+
+	@Test
+	public void testNestedSync()
+	{
+		TaskBulkhead bulkhead = new TaskBulkhead(pool);
+		final TaskBulkhead.Partition single = bulkhead.addPartition("single", 1, 10);
+
+		// The outer task holds the only slot while it waits for the inner one.
+		Task<Boolean> outer = new Task<Boolean>() {
+			protected Boolean execute() {
+				CountedTask inner = new CountedTask();
+				inner.setHandler(single);
+				return inner.sync();
+			}
+		};
+		outer.setHandler(single);
+		outer.setTimeout(2000);
+
+		assertEquals( Boolean.TRUE, outer.sync() );
+		assertTrue( outer.isSuccess() );
+	}
+
+	@Test
+	public void testCanceledLeavesQueue()
+	{
+		TaskBulkhead bulkhead = new TaskBulkhead(pool);
+		TaskBulkhead.Partition partition = bulkhead.addPartition("small", 1, 2);
+
+		// Occupy the only slot.
+		final CountDownLatch latch = new CountDownLatch(1);
+		Task<Boolean> blocker = new Task<Boolean>() {
+			protected Boolean execute() {
+				try {
+					latch.await();
+				}
+				catch (InterruptedException e) {
+				}
+				return true;
+			}
+		};
+		blocker.setHandler(partition);
+		blocker.async();
+
+		while (partition.getQueued() > 0) {
+			sleep(1);
+		}
+
+		CountedTask[] canceled = new CountedTask[2];
+		for (int i = 0; i < canceled.length; i++) {
+			canceled[i] = new CountedTask();
+			canceled[i].setHandler(partition);
+			canceled[i].async();
+			assertTrue( canceled[i].cancel() );
+		}
+
+		// The canceled tasks don't fill the queue.
+		assertEquals( 0, partition.getQueued() );
+
+		CountedTask[] tasks = new CountedTask[2];
+		for (int i = 0; i < tasks.length; i++) {
+			tasks[i] = new CountedTask();
+			tasks[i].setHandler(partition);
+			tasks[i].async();
+		}
+
+		assertEquals( 0, partition.getRejected() );
+		assertEquals( 2, partition.getQueued() );
+
+		latch.countDown();
+
+		for (CountedTask task : tasks) {
+			assertTrue( task.join(5000) );
+			assertTrue( task.isSuccess() );
+		}
+	}
+
+}
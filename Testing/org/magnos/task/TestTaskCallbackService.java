@@ -0,0 +1,206 @@
+/* 
+ * NOTICE OF LICENSE
+ * 
+ * This source file is subject to the Open Software License (OSL 3.0) that is 
+ * bundled with this package in the file LICENSE.txt. It is also available 
+ * through the world-wide-web at http://opensource.org/licenses/osl-3.0.php
+ * If you did not receive a copy of the license and are unable to obtain it 
+ * through the world-wide-web, please send an email to pdiffenderfer@gmail.com 
+ * so we can send you a copy immediately. If you use any of this software please
+ * notify me via my website or email, your feedback is much appreciated. 
+ * 
+ * @copyright   Copyright (c) 2011 Magnos Software (http://www.magnos.org)
+ * @license     http://opensource.org/licenses/osl-3.0.php
+ * 				Open Software License (OSL 3.0)
+ */
+
+package org.magnos.task;
+
+import static org.junit.Assert.*;
+
+import java.math.BigInteger;
+import java.util.List;
+import java.util.Vector;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import org.magnos.task.TestTask.PowerTask;
+import org.magnos.test.BaseTest;
+
+
+public class TestTaskCallbackService extends BaseTest
+{
+
+	public static class InlineCounter extends TaskListenerAdapter<BigInteger> implements TaskInlineListener<BigInteger> {
+		public final AtomicInteger count = new AtomicInteger();
+		public volatile Thread thread;
+		public void onTaskFinish(Task<BigInteger> source) {
+			thread = Thread.currentThread();
+			count.incrementAndGet();
+		}
+	}
+
+	@Test
+	public void testSlowListener()
+	{
+		TaskCallbackService callbacks = new TaskCallbackService();
+		callbacks.start();
+
+		TaskService executor = new TaskService();
+		executor.setCallbacks(callbacks);
+		executor.start();
+
+		final AtomicInteger successes = new AtomicInteger();
+		final AtomicInteger finishes = new AtomicInteger();
+
+		TaskListener<BigInteger> slow = new TaskListenerAdapter<BigInteger>() {
+			public void onTaskSuccess(Task<BigInteger> source, BigInteger result) {
+				sleep(50);
+				successes.incrementAndGet();
+			}
+			public void onTaskFinish(Task<BigInteger> source) {
+				finishes.incrementAndGet();
+			}
+		};
+
+		PowerTask[] tasks = new PowerTask[10];
+		for (int i = 0; i < tasks.length; i++) {
+			tasks[i] = new PowerTask(2, 10);
+			tasks[i].setHandler(executor);
+			tasks[i].async(slow);
+		}
+
+		// The service isn't held up by the listener.
+		assertTrue( tasks[tasks.length - 1].join(250) );
+		assertTrue( finishes.get() < tasks.length );
+
+		sleep(1000);
+
+		assertEquals( tasks.length, successes.get() );
+		assertEquals( tasks.length, finishes.get() );
+
+		executor.stop();
+		callbacks.stop();
+	}
+
+	@Test
+	public void testInlineListener()
+	{
+		TaskCallbackService callbacks = new TaskCallbackService();
+		callbacks.start();
+
+		TaskService executor = new TaskService();
+		executor.setCallbacks(callbacks);
+		executor.start();
+
+		InlineCounter counter = new InlineCounter();
+
+		PowerTask task = new PowerTask(2, 10);
+		task.setHandler(executor);
+		task.async(counter);
+
+		assertTrue( task.join(1000) );
+		sleep(100);
+
+		assertEquals( 1, counter.count.get() );
+		assertSame( executor.getThread(), counter.thread );
+
+		executor.stop();
+		callbacks.stop();
+	}
+
+	@Test
+	public void testFailingListener()
+	{
+		final List<Task<?>> failed = new Vector<Task<?>>();
+
+		TaskCallbackService callbacks = new TaskCallbackService();
+		callbacks.setErrorListener(new TaskErrorListener() {
+			public void onError(Object source, Task<?> task, Throwable error) {
+				failed.add(task);
+			}
+		});
+		callbacks.start();
+
+		TaskService executor = new TaskService();
+		executor.setCallbacks(callbacks);
+		executor.start();
+
+		final AtomicInteger finishes = new AtomicInteger();
+
+		TaskListener<BigInteger> failing = new TaskListenerAdapter<BigInteger>() {
+			public void onTaskFinish(Task<BigInteger> source) {
+				if (finishes.incrementAndGet() == 1) {
+					throw new RuntimeException("listener failed");
+				}
+			}
+		};
+
+		PowerTask first = new PowerTask(2, 10);
+		first.setHandler(executor);
+		first.async(failing);
+
+		PowerTask second = new PowerTask(2, 10);
+		second.setHandler(executor);
+		second.async(failing);
+
+		assertTrue( second.join(1000) );
+		sleep(100);
+
+		// The failure was reported and later tasks were still notified.
+		assertEquals( 2, finishes.get() );
+		assertEquals( 1, failed.size() );
+		assertSame( first, failed.get(0) );
+
+		executor.stop();
+		callbacks.stop();
+	}
+
+	@Test
+	public void testFailingListenerUncaught()
+	{
+		final List<Throwable> uncaught = new Vector<Throwable>();
+
+		TaskCallbackService callbacks = new TaskCallbackService();
+		callbacks.start();
+		callbacks.getThread().setUncaughtExceptionHandler(new Thread.UncaughtExceptionHandler() {
+			public void uncaughtException(Thread t, Throwable e) {
+				uncaught.add(e);
+			}
+		});
+
+		TaskService executor = new TaskService();
+		executor.setCallbacks(callbacks);
+		executor.start();
+
+		final AtomicInteger finishes = new AtomicInteger();
+
+		TaskListener<BigInteger> failing = new TaskListenerAdapter<BigInteger>() {
+			public void onTaskFinish(Task<BigInteger> source) {
+				if (finishes.incrementAndGet() == 1) {
+					throw new RuntimeException("listener failed");
+				}
+			}
+		};
+
+		PowerTask first = new PowerTask(2, 10);
+		first.setHandler(executor);
+		first.async(failing);
+
+		PowerTask second = new PowerTask(2, 10);
+		second.setHandler(executor);
+		second.async(failing);
+
+		assertTrue( second.join(1000) );
+		sleep(100);
+
+		// Without an error listener the callback thread survives the failure.
+		assertEquals( 2, finishes.get() );
+		assertEquals( 1, uncaught.size() );
+		assertTrue( callbacks.getThread().isAlive() );
+
+		executor.stop();
+		callbacks.stop();
+	}
+
+}
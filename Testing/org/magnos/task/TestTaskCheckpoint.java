@@ -0,0 +1,229 @@
+/* 
+ * NOTICE OF LICENSE
+ * 
+ * This source file is subject to the Open Software License (OSL 3.0) that is 
+ * bundled with this package in the file LICENSE.txt. It is also available 
+ * through the world-wide-web at http://opensource.org/licenses/osl-3.0.php
+ * If you did not receive a copy of the license and are unable to obtain it 
+ * through the world-wide-web, please send an email to pdiffenderfer@gmail.com 
+ * so we can send you a copy immediately. If you use any of this software please
+ * notify me via my website or email, your feedback is much appreciated. 
+ * 
+ * @copyright   Copyright (c) 2011 Magnos Software (http://www.magnos.org)
+ * @license     http://opensource.org/licenses/osl-3.0.php
+ * 				Open Software License (OSL 3.0)
+ */
+
+package org.magnos.task;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.magnos.test.BaseTest;
+
+
+public class TestTaskCheckpoint extends BaseTest
+{
+
+	/**
+	 * Sums 0 to 99, failing once when it reaches the given number.
+	 */
+	public static class SumTask extends TaskCheckpoint<Long, long[]> {
+		public int failAt;
+		public final List<Long> resumedFrom = new ArrayList<Long>();
+		public SumTask(TaskCheckpointStore store, int failAt) {
+			super(store, "sum/task");
+			this.failAt = failAt;
+			setInterval(0);
+		}
+		protected Long resume(long[] checkpoint) {
+			long i = (checkpoint == null ? 0 : checkpoint[0]);
+			long sum = (checkpoint == null ? 0 : checkpoint[1]);
+			resumedFrom.add(i);
+			for (; i < 100; i++) {
+				if (i == failAt) {
+					failAt = -1;
+					throw new IllegalStateException("crash");
+				}
+				sum += i;
+				checkpoint(new long[] {i + 1, sum});
+			}
+			return sum;
+		}
+	}
+	
+	private File directory;
+	
+	private TaskCheckpointStore store;
+	
+	@Before
+	public void testBefore() throws IOException {
+		directory = Files.createTempDirectory("checkpoints").toFile();
+		store = new TaskCheckpointStore(directory);
+		store.start();
+	}
+	
+	@After
+	public void testAfter() {
+		store.stop();
+		for (File file : directory.listFiles()) {
+			file.delete();
+		}
+		directory.delete();
+	}
+	
+	@Test
+	public void testResume() throws IOException
+	{
+		SumTask task = new SumTask(store, 50);
+		
+		assertNull( task.sync() );
+		assertTrue( task.isError() );
+		
+		store.flush();
+		assertEquals( 1, store.keys().size() );
+		assertEquals( "sum/task", store.keys().get(0) );
+		
+		assertTrue( task.reset() );
+		assertEquals( 4950L, task.sync().longValue() );
+		
+		assertEquals( 0L, task.resumedFrom.get(0).longValue() );
+		assertEquals( 50L, task.resumedFrom.get(1).longValue() );
+		
+		// A finished task has no checkpoint.
+		store.flush();
+		assertTrue( store.keys().isEmpty() );
+		assertNull( store.load("sum/task") );
+	}
+	
+	@Test
+	public void testRestart() throws IOException
+	{
+		SumTask task = new SumTask(store, 30);
+		assertNull( task.sync() );
+		store.flush();
+		store.stop();
+		
+		// A new process with a new store on the same directory.
+		TaskCheckpointStore restarted = new TaskCheckpointStore(directory);
+		restarted.start();
+		try {
+			SumTask again = new SumTask(restarted, -1);
+			assertEquals( 4950L, again.sync().longValue() );
+			assertEquals( 30L, again.resumedFrom.get(0).longValue() );
+		}
+		finally {
+			restarted.stop();
+		}
+	}
+	
+	@Test
+	public void testCoalesce() throws IOException
+	{
+		for (int i = 0; i < 1000; i++) {
+			store.save("counter", i);
+		}
+		
+		assertEquals( 999, store.load("counter") );
+		store.flush();
+		
+		assertEquals( 1000, store.getSaves() );
+		assertTrue( store.getWrites() < 1000 );
+		assertEquals( 999, store.load("counter") );
+		
+		// Only the checkpoint file remains, no temporary files.
+		assertEquals( 1, directory.list().length );
+	}
+	
+	@Test
+	public void testInterval() throws IOException
+	{
+		final List<Boolean> saved = new ArrayList<Boolean>();
+		
+		TaskCheckpoint<Integer, Integer> task = new TaskCheckpoint<Integer, Integer>(store, "interval") {
+			protected Integer resume(Integer checkpoint) {
+				for (int i = 0; i < 5; i++) {
+					saved.add(checkpoint(i));
+					sleep(30);
+				}
+				return 5;
+			}
+		};
+		task.setInterval(50);
+		
+		assertEquals( 5, task.sync().intValue() );
+		assertEquals( 5, saved.size() );
+		assertFalse( saved.get(0) );
+		assertFalse( saved.get(1) );
+		assertTrue( saved.get(2) );
+	}
+	
+	private void awaitFailures(long failures) {
+		long end = System.currentTimeMillis() + 5000;
+		while (store.getFailures() < failures && System.currentTimeMillis() < end) {
+			sleep(5);
+		}
+		assertEquals( failures, store.getFailures() );
+	}
+	
+	@Test
+	public void testWriteFailure() throws IOException
+	{
+		// A directory where the temporary file goes makes every write fail.
+		File blocker = new File(directory, "blocked.ckpt.tmp");
+		File inside = new File(blocker, "inside");
+		assertTrue( blocker.mkdir() );
+		assertTrue( inside.createNewFile() );
+		
+		store.save("blocked", 1);
+		awaitFailures(1);
+		
+		// Other keys are not failed by it.
+		store.save("other", 1);
+		assertEquals( 1, store.load("other") );
+		
+		// The checkpoint is still waiting, and the failure is thrown by the
+		// next save of its key.
+		assertEquals( 1, store.load("blocked") );
+		try {
+			store.save("blocked", 2);
+			fail();
+		}
+		catch (IOException e) {
+		}
+		awaitFailures(2);
+		assertEquals( 2, store.load("blocked") );
+		
+		assertTrue( inside.delete() );
+		assertTrue( blocker.delete() );
+		store.flush();
+		store.save("blocked", 3);
+		store.flush();
+		
+		TaskCheckpointStore reopened = new TaskCheckpointStore(directory);
+		assertEquals( 3, reopened.load("blocked") );
+	}
+	
+	@Test
+	public void testCorrupt() throws IOException
+	{
+		store.save("corrupt", "value");
+		store.flush();
+		
+		File file = directory.listFiles()[0];
+		byte[] bytes = Files.readAllBytes(file.toPath());
+		bytes[bytes.length - 1] ^= 1;
+		Files.write(file.toPath(), bytes);
+		
+		assertNull( store.load("corrupt") );
+	}
+	
+}
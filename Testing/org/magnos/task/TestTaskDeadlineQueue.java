@@ -0,0 +1,192 @@
+/* 
+ * NOTICE OF LICENSE
+ * 
+ * This source file is subject to the Open Software License (OSL 3.0) that is 
+ * bundled with this package in the file LICENSE.txt. It is also available 
+ * through the world-wide-web at http://opensource.org/licenses/osl-3.0.php
+ * If you did not receive a copy of the license and are unable to obtain it 
+ * through the world-wide-web, please send an email to pdiffenderfer@gmail.com 
+ * so we can send you a copy immediately. If you use any of this software please
+ * notify me via my website or email, your feedback is much appreciated. 
+ * 
+ * @copyright   Copyright (c) 2011 Magnos Software (http://www.magnos.org)
+ * @license     http://opensource.org/licenses/osl-3.0.php
+ * 				Open Software License (OSL 3.0)
+ */
+
+package org.magnos.task;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Vector;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import org.magnos.test.BaseTest;
+
+
+public class TestTaskDeadlineQueue extends BaseTest
+{
+
+	public static class NamedTask extends Task<String> {
+		public String name;
+		public List<String> executed;
+		public NamedTask(String name, long timeout, List<String> executed) {
+			this.name = name;
+			this.executed = executed;
+			setTimeout(timeout);
+		}
+		protected String execute() {
+			executed.add(name);
+			return name;
+		}
+	}
+
+	@Test
+	public void testEarliestFirst()
+	{
+		TaskDeadlineQueue queue = new TaskDeadlineQueue();
+		TaskService service = new TaskService(queue);
+		service.getEventQueue().setBlocking(true);
+
+		List<String> executed = new Vector<String>();
+
+		NamedTask[] tasks = {
+			new NamedTask("none", Long.MAX_VALUE, executed),
+			new NamedTask("late", 5000, executed),
+			new NamedTask("soon", 1000, executed),
+			new NamedTask("later", 5000, executed),
+			new NamedTask("sooner", 500, executed)
+		};
+
+		for (NamedTask task : tasks) {
+			task.setHandler(service);
+			task.async();
+		}
+
+		service.start();
+
+		for (NamedTask task : tasks) {
+			assertTrue( task.join(2000) );
+			assertTrue( task.isSuccess() );
+		}
+
+		service.stop();
+
+		assertEquals( "[sooner, soon, late, later, none]", executed.toString() );
+	}
+
+	@Test
+	public void testExpired()
+	{
+		TaskDeadlineQueue queue = new TaskDeadlineQueue();
+		TaskService service = new TaskService(queue);
+		service.getEventQueue().setBlocking(true);
+
+		List<String> executed = new Vector<String>();
+		final AtomicInteger timeouts = new AtomicInteger();
+		TaskListener<String> listener = new TaskListenerAdapter<String>() {
+			public void onTaskTimeout(Task<String> source) {
+				timeouts.incrementAndGet();
+			}
+		};
+
+		NamedTask expiring = new NamedTask("expiring", 20, executed);
+		NamedTask lasting = new NamedTask("lasting", 5000, executed);
+		expiring.setHandler(service);
+		lasting.setHandler(service);
+		expiring.async(listener);
+		lasting.async(listener);
+
+		// The deadline passes before the service starts.
+		sleep(50);
+		service.start();
+
+		assertTrue( expiring.join(2000) );
+		assertTrue( lasting.join(2000) );
+
+		service.stop();
+
+		assertTrue( expiring.isTimedOut() );
+		assertTrue( lasting.isSuccess() );
+		assertEquals( 1, timeouts.get() );
+		assertEquals( 1, queue.getExpired() );
+		assertEquals( "[lasting]", executed.toString() );
+	}
+
+	public static class ExpiringTask extends Task<Integer> implements Serializable {
+		private static final long serialVersionUID = 1L;
+		public ExpiringTask(long timeout) {
+			setTimeout(timeout);
+		}
+		protected Integer execute() {
+			return 1;
+		}
+	}
+
+	@Test
+	public void testExpiredJournaled() throws IOException
+	{
+		File directory = File.createTempFile("journal", "");
+		directory.delete();
+
+		TaskJournal journal = new TaskJournal(directory);
+		journal.open();
+
+		TaskService service = new TaskService(new TaskDeadlineQueue());
+		service.setJournal(journal);
+
+		ExpiringTask task = new ExpiringTask(20);
+		task.setHandler(service);
+		task.async();
+
+		assertEquals( 1, journal.size() );
+
+		sleep(50);
+		service.process(1, TimeUnit.SECONDS);
+
+		assertTrue( task.isTimedOut() );
+		assertEquals( 0, journal.size() );
+
+		journal.close();
+
+		for (File file : directory.listFiles()) {
+			file.delete();
+		}
+		directory.delete();
+	}
+
+	@Test
+	public void testRemove()
+	{
+		TaskDeadlineQueue queue = new TaskDeadlineQueue();
+		List<String> executed = new Vector<String>();
+
+		NamedTask first = new NamedTask("first", 1000, executed);
+		NamedTask second = new NamedTask("second", 2000, executed);
+		queue.offer(first);
+		queue.offer(second);
+
+		assertTrue( queue.remove(first) );
+		assertFalse( queue.remove(first) );
+		assertEquals( 1, queue.size() );
+		assertSame( second, queue.peek() );
+
+		Iterator<Task<?>> iterator = queue.iterator();
+		assertSame( second, iterator.next() );
+		try {
+			iterator.remove();
+			fail();
+		}
+		catch (UnsupportedOperationException e) {
+		}
+		assertEquals( 1, queue.size() );
+	}
+
+}
@@ -0,0 +1,152 @@
+/* 
+ * NOTICE OF LICENSE
+ * 
+ * This source file is subject to the Open Software License (OSL 3.0) that is 
+ * bundled with this package in the file LICENSE.txt. It is also available 
+ * through the world-wide-web at http://opensource.org/licenses/osl-3.0.php
+ * If you did not receive a copy of the license and are unable to obtain it 
+ * through the world-wide-web, please send an email to pdiffenderfer@gmail.com 
+ * so we can send you a copy immediately. If you use any of this software please
+ * notify me via my website or email, your feedback is much appreciated. 
+ * 
+ * @copyright   Copyright (c) 2011 Magnos Software (http://www.magnos.org)
+ * @license     http://opensource.org/licenses/osl-3.0.php
+ * 				Open Software License (OSL 3.0)
+ */
+
+package org.magnos.task;
+
+import static org.junit.Assert.*;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Vector;
+
+import org.junit.Test;
+import org.magnos.test.BaseTest;
+
+
+public class TestTaskFairQueue extends BaseTest
+{
+
+	public static class TenantTask extends Task<String> {
+		public String tenant;
+		public List<String> executed;
+		public TenantTask(String tenant, List<String> executed) {
+			this.tenant = tenant;
+			this.executed = executed;
+		}
+		protected String execute() {
+			executed.add(tenant);
+			return tenant;
+		}
+	}
+
+	public static final TaskKeyer TENANT = new TaskKeyer() {
+		public Object getKey(Task<?> task) {
+			return ((TenantTask)task).tenant;
+		}
+	};
+
+	@Test
+	public void testRoundRobin()
+	{
+		TaskFairQueue queue = new TaskFairQueue(TENANT);
+
+		for (int i = 0; i < 100; i++) {
+			queue.offer(new TenantTask("heavy", null));
+		}
+		for (int i = 0; i < 3; i++) {
+			queue.offer(new TenantTask("light", null));
+		}
+
+		assertEquals( 103, queue.size() );
+		assertEquals( 2, queue.getTenantCount() );
+
+		// The light tenant doesn't wait behind the heavy burst.
+		String[] expected = {"heavy", "light", "heavy", "light", "heavy", "light", "heavy", "heavy"};
+		for (String tenant : expected) {
+			assertEquals( tenant, ((TenantTask)queue.poll()).tenant );
+		}
+
+		assertEquals( 1, queue.getTenantCount() );
+		assertEquals( 0, queue.size("light") );
+		assertEquals( 95, queue.size("heavy") );
+	}
+
+	@Test
+	public void testRemove()
+	{
+		TaskFairQueue queue = new TaskFairQueue(TENANT);
+
+		TenantTask a1 = new TenantTask("a", null);
+		TenantTask a2 = new TenantTask("a", null);
+		TenantTask b1 = new TenantTask("b", null);
+		queue.offer(a1);
+		queue.offer(a2);
+		queue.offer(b1);
+
+		assertTrue( queue.remove(b1) );
+		assertFalse( queue.remove(b1) );
+		assertEquals( 2, queue.size() );
+		assertEquals( 1, queue.getTenantCount() );
+
+		Iterator<Task<?>> iterator = queue.iterator();
+		assertSame( a1, iterator.next() );
+		iterator.remove();
+
+		assertEquals( 1, queue.size() );
+		assertSame( a2, queue.poll() );
+		assertNull( queue.poll() );
+		assertEquals( 0, queue.getTenantCount() );
+	}
+
+	@Test
+	public void testWeights()
+	{
+		TaskFairQueue queue = new TaskFairQueue(TENANT);
+		queue.setWeight("a", 3);
+
+		for (int i = 0; i < 10; i++) {
+			queue.offer(new TenantTask("a", null));
+			queue.offer(new TenantTask("b", null));
+		}
+
+		StringBuilder order = new StringBuilder();
+		for (int i = 0; i < 12; i++) {
+			order.append(((TenantTask)queue.poll()).tenant);
+		}
+
+		assertEquals( "aaabaaabaaab", order.toString() );
+	}
+
+	@Test
+	public void testService()
+	{
+		TaskService service = new TaskService(new TaskFairQueue(TENANT));
+		service.getEventQueue().setBlocking(true);
+
+		List<String> executed = new Vector<String>();
+
+		// Queue everything before the service starts.
+		TenantTask[] tasks = new TenantTask[60];
+		for (int i = 0; i < tasks.length; i++) {
+			tasks[i] = new TenantTask(i < 50 ? "heavy" : "light", executed);
+			tasks[i].setHandler(service);
+			tasks[i].async();
+		}
+
+		service.start();
+
+		for (TenantTask task : tasks) {
+			assertTrue( task.join(5000) );
+		}
+
+		service.stop();
+
+		// The light tenant alternates with the heavy one from the start.
+		assertEquals( 10, Collections.frequency(executed.subList(0, 20), "light") );
+	}
+
+}
@@ -0,0 +1,148 @@
+/* 
+ * NOTICE OF LICENSE
+ * 
+ * This source file is subject to the Open Software License (OSL 3.0) that is 
+ * bundled with this package in the file LICENSE.txt. It is also available 
+ * through the world-wide-web at http://opensource.org/licenses/osl-3.0.php
+ * If you did not receive a copy of the license and are unable to obtain it 
+ * through the world-wide-web, please send an email to pdiffenderfer@gmail.com 
+ * so we can send you a copy immediately. If you use any of this software please
+ * notify me via my website or email, your feedback is much appreciated. 
+ * 
+ * @copyright   Copyright (c) 2011 Magnos Software (http://www.magnos.org)
+ * @license     http://opensource.org/licenses/osl-3.0.php
+ * 				Open Software License (OSL 3.0)
+ */
+
+package org.magnos.task;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.magnos.test.BaseTest;
+
+
+public class TestTaskFileSearch extends BaseTest
+{
+
+	private TaskServicePool pool;
+	
+	private File file;
+	
+	private byte[] data;
+	
+	@Before
+	public void testBefore() throws IOException {
+		pool = new TaskServicePool();
+		pool.setMinCapacity(4);
+		pool.setMaxCapacity(4);
+		pool.start();
+		
+		// Letters without z, newlines every 80 bytes.
+		Random random = new Random(3);
+		data = new byte[1000000];
+		for (int i = 0; i < data.length; i++) {
+			data[i] = (byte)(i % 80 == 79 ? '\n' : 'a' + random.nextInt(25));
+		}
+		
+		// Matches crossing the boundaries of 4096 byte ranges.
+		int[] planted = {4094, 8190, 409599, 999996};
+		for (int position : planted) {
+			for (int k = 0; k < 4; k++) {
+				data[position + k] = 'z';
+			}
+		}
+		
+		file = File.createTempFile("tasksearch", ".txt");
+		Files.write(file.toPath(), data);
+	}
+	
+	@After
+	public void testAfter() {
+		pool.stop();
+		file.delete();
+	}
+	
+	@Test
+	public void testFirst()
+	{
+		TaskFileSearch search = new TaskFileSearch(file.toPath(), "zzzz", false);
+		search.setRangeHandler(pool);
+		search.setRangeSize(4096);
+		
+		assertEquals( 4094L, search.sync().longValue() );
+		
+		TaskFileSearch missing = new TaskFileSearch(file.toPath(), "zzzzz", false);
+		missing.setRangeHandler(pool);
+		missing.setRangeSize(4096);
+		
+		assertEquals( -1L, missing.sync().longValue() );
+	}
+	
+	@Test
+	public void testCount()
+	{
+		TaskFileSearch search = new TaskFileSearch(file.toPath(), "zz", true);
+		search.setRangeHandler(pool);
+		search.setRangeSize(4096);
+		
+		// Three overlapping occurrences in each run of four.
+		assertEquals( 12L, search.sync().longValue() );
+		
+		TaskFileSearch whole = new TaskFileSearch(file.toPath(), "zzzz", true);
+		whole.setRangeHandler(pool);
+		
+		assertEquals( 4L, whole.sync().longValue() );
+	}
+	
+	@Test
+	public void testScan()
+	{
+		TaskFileScan<Long> lines = new TaskFileScan<Long>(file.toPath(), 0, 0L, new TaskCombiner<Long>() {
+			public Long combine(Long a, Long b) {
+				return a + b;
+			}
+		}) {
+			protected Long scan(ByteBuffer range, long offset, int owned) {
+				long count = 0;
+				for (int i = 0; i < owned; i++) {
+					if (range.get(i) == '\n') {
+						count++;
+					}
+				}
+				return count;
+			}
+		};
+		lines.setRangeSize(10000);
+		
+		long expected = 0;
+		for (byte b : data) {
+			if (b == '\n') {
+				expected++;
+			}
+		}
+		
+		// Without a range handler the ranges are scanned in this thread.
+		assertEquals( expected, lines.sync().longValue() );
+	}
+	
+	@Test
+	public void testEmpty() throws IOException
+	{
+		Files.write(file.toPath(), new byte[0]);
+		
+		TaskFileSearch search = new TaskFileSearch(file.toPath(), "a", true);
+		search.setRangeHandler(pool);
+		
+		assertEquals( 0L, search.sync().longValue() );
+	}
+	
+}
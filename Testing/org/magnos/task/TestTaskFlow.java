@@ -0,0 +1,350 @@
+/* 
+ * NOTICE OF LICENSE
+ * 
+ * This source file is subject to the Open Software License (OSL 3.0) that is 
+ * bundled with this package in the file LICENSE.txt. It is also available 
+ * through the world-wide-web at http://opensource.org/licenses/osl-3.0.php
+ * If you did not receive a copy of the license and are unable to obtain it 
+ * through the world-wide-web, please send an email to pdiffenderfer@gmail.com 
+ * so we can send you a copy immediately. If you use any of this software please
+ * notify me via my website or email, your feedback is much appreciated. 
+ * 
+ * @copyright   Copyright (c) 2011 Magnos Software (http://www.magnos.org)
+ * @license     http://opensource.org/licenses/osl-3.0.php
+ * 				Open Software License (OSL 3.0)
+ */
+
+package org.magnos.task;
+
+import static org.junit.Assert.*;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Flow;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.magnos.task.TestTask.PowerTask;
+import org.magnos.task.TestTaskScope.FailTask;
+import org.magnos.test.BaseTest;
+
+
+public class TestTaskFlow extends BaseTest
+{
+
+	public static class SleepTask extends Task<Integer> {
+		public static final AtomicInteger running = new AtomicInteger();
+		public static final AtomicInteger maxRunning = new AtomicInteger();
+		public int value;
+		public SleepTask(int value) {
+			this.value = value;
+		}
+		protected Integer execute() {
+			int now = running.incrementAndGet();
+			synchronized (maxRunning) {
+				maxRunning.set(Math.max(maxRunning.get(), now));
+			}
+			sleep((value * 7) % 5);
+			running.decrementAndGet();
+			return value;
+		}
+	}
+	
+	public static class Collector<T> implements Flow.Subscriber<T> {
+		public final List<T> items = Collections.synchronizedList(new ArrayList<T>());
+		public final CountDownLatch done = new CountDownLatch(1);
+		public volatile Throwable error;
+		public volatile Flow.Subscription subscription;
+		public void onSubscribe(Flow.Subscription s) {
+			subscription = s;
+			s.request(Long.MAX_VALUE);
+		}
+		public void onNext(T item) {
+			items.add(item);
+		}
+		public void onError(Throwable throwable) {
+			error = throwable;
+			done.countDown();
+		}
+		public void onComplete() {
+			done.countDown();
+		}
+	}
+	
+	private TaskServicePool pool;
+	
+	@Before
+	public void testBefore() {
+		pool = new TaskServicePool();
+		pool.setMinCapacity(4);
+		pool.setMaxCapacity(4);
+		pool.start();
+		SleepTask.running.set(0);
+		SleepTask.maxRunning.set(0);
+	}
+	
+	@After
+	public void testAfter() {
+		pool.stop();
+	}
+	
+	private List<SleepTask> tasks(int count) {
+		List<SleepTask> tasks = new ArrayList<SleepTask>();
+		for (int i = 0; i < count; i++) {
+			tasks.add(new SleepTask(i));
+		}
+		return tasks;
+	}
+	
+	@Test
+	public void testPublisherOrdered() throws InterruptedException
+	{
+		TaskPublisher<Integer> publisher = new TaskPublisher<Integer>(tasks(100), pool, 3, true);
+		Collector<Integer> collector = new Collector<Integer>();
+		publisher.subscribe(collector);
+		
+		assertTrue( collector.done.await(10, TimeUnit.SECONDS) );
+		assertNull( collector.error );
+		assertEquals( 100, collector.items.size() );
+		for (int i = 0; i < 100; i++) {
+			assertEquals( i, collector.items.get(i).intValue() );
+		}
+		assertTrue( SleepTask.maxRunning.get() <= 3 );
+	}
+	
+	@Test
+	public void testPublisherUnordered() throws InterruptedException
+	{
+		TaskPublisher<Integer> publisher = new TaskPublisher<Integer>(tasks(100), pool, 4, false);
+		Collector<Integer> collector = new Collector<Integer>();
+		publisher.subscribe(collector);
+		
+		assertTrue( collector.done.await(10, TimeUnit.SECONDS) );
+		assertNull( collector.error );
+		assertEquals( 100, collector.items.size() );
+		
+		List<Integer> sorted = new ArrayList<Integer>(collector.items);
+		Collections.sort(sorted);
+		for (int i = 0; i < 100; i++) {
+			assertEquals( i, sorted.get(i).intValue() );
+		}
+	}
+	
+	@Test
+	public void testPublisherDemand()
+	{
+		final List<SleepTask> tasks = tasks(10);
+		TaskPublisher<Integer> publisher = new TaskPublisher<Integer>(tasks, pool, 8, true);
+		final Collector<Integer> collector = new Collector<Integer>() {
+			public void onSubscribe(Flow.Subscription s) {
+				subscription = s;
+				s.request(2);
+			}
+		};
+		publisher.subscribe(collector);
+		
+		sleep(100);
+		
+		// Only the requested results are produced.
+		assertEquals( 2, collector.items.size() );
+		assertTrue( tasks.get(1).isFinished() );
+		assertFalse( tasks.get(2).isFinished() );
+		
+		collector.subscription.request(3);
+		sleep(100);
+		
+		assertEquals( 5, collector.items.size() );
+		
+		collector.subscription.cancel();
+	}
+	
+	@Test
+	public void testPublisherError() throws InterruptedException
+	{
+		List<Task<Boolean>> tasks = new ArrayList<Task<Boolean>>();
+		tasks.add(new FailTask(10));
+		
+		TaskPublisher<Boolean> publisher = new TaskPublisher<Boolean>(tasks, pool, 2, true);
+		Collector<Boolean> collector = new Collector<Boolean>();
+		publisher.subscribe(collector);
+		
+		assertTrue( collector.done.await(10, TimeUnit.SECONDS) );
+		assertEquals( IllegalStateException.class, collector.error.getClass() );
+		
+		Collector<Boolean> second = new Collector<Boolean>();
+		publisher.subscribe(second);
+		assertEquals( IllegalStateException.class, second.error.getClass() );
+	}
+	
+	@Test
+	public void testPublisherUnorderedError() throws InterruptedException
+	{
+		// A single worker so the second task is still waiting when the first fails.
+		TaskService service = new TaskService();
+		service.start();
+		
+		FailTask failing = new FailTask(10);
+		FailTask waiting = new FailTask(10);
+		List<Task<Boolean>> tasks = new ArrayList<Task<Boolean>>();
+		tasks.add(failing);
+		tasks.add(waiting);
+		
+		TaskPublisher<Boolean> publisher = new TaskPublisher<Boolean>(tasks, service, 2, false);
+		Collector<Boolean> collector = new Collector<Boolean>();
+		publisher.subscribe(collector);
+		
+		assertTrue( collector.done.await(10, TimeUnit.SECONDS) );
+		assertEquals( IllegalStateException.class, collector.error.getClass() );
+		assertTrue( failing.isError() );
+		assertTrue( waiting.isCanceled() );
+		
+		service.stop();
+	}
+	
+	@Test
+	public void testPublisherStartedElsewhere() throws InterruptedException
+	{
+		final CountDownLatch release = new CountDownLatch(1);
+		Task<Integer> blocked = new Task<Integer>() {
+			protected Integer execute() {
+				try {
+					release.await();
+				}
+				catch (InterruptedException e) {
+				}
+				return 1;
+			}
+		};
+		blocked.setHandler(pool);
+		blocked.async();
+		
+		List<Task<Integer>> tasks = new ArrayList<Task<Integer>>();
+		tasks.add(blocked);
+		
+		TaskPublisher<Integer> publisher = new TaskPublisher<Integer>(tasks, null, 2, false);
+		Collector<Integer> collector = new Collector<Integer>();
+		publisher.subscribe(collector);
+		
+		// The task can't be followed, so its result is never emitted.
+		assertTrue( collector.done.await(10, TimeUnit.SECONDS) );
+		assertEquals( IllegalStateException.class, collector.error.getClass() );
+		assertTrue( collector.items.isEmpty() );
+		
+		release.countDown();
+		assertTrue( blocked.join(5000) );
+	}
+	
+	@Test
+	public void testSubscriber()
+	{
+		final AtomicInteger succeeded = new AtomicInteger();
+		
+		TaskSubscriber<Integer, Integer> subscriber = new TaskSubscriber<Integer, Integer>(pool, 2) {
+			protected Task<Integer> createTask(Integer item) {
+				return new SleepTask(item);
+			}
+			protected void onTaskDone(Task<Integer> task) {
+				if (task.isSuccess()) {
+					succeeded.incrementAndGet();
+				}
+			}
+		};
+		
+		SubmissionPublisher<Integer> source = new SubmissionPublisher<Integer>();
+		source.subscribe(subscriber);
+		for (int i = 0; i < 50; i++) {
+			source.submit(i);
+		}
+		source.close();
+		
+		assertTrue( subscriber.await(10000) );
+		assertTrue( subscriber.isDone() );
+		assertEquals( 50, succeeded.get() );
+		assertEquals( 50, subscriber.getCompleted() );
+		assertEquals( 0, subscriber.getActive() );
+		assertTrue( SleepTask.maxRunning.get() <= 2 );
+	}
+	
+	@Test
+	public void testSubscriberStartedElsewhere()
+	{
+		final CountDownLatch release = new CountDownLatch(1);
+		final Task<Integer> blocked = new Task<Integer>() {
+			protected Integer execute() {
+				try {
+					release.await();
+				}
+				catch (InterruptedException e) {
+				}
+				return 1;
+			}
+		};
+		blocked.setHandler(pool);
+		blocked.async();
+		
+		final AtomicInteger done = new AtomicInteger();
+		
+		TaskSubscriber<Integer, Integer> subscriber = new TaskSubscriber<Integer, Integer>(null, 2) {
+			protected Task<Integer> createTask(Integer item) {
+				return blocked;
+			}
+			protected void onTaskDone(Task<Integer> task) {
+				done.incrementAndGet();
+			}
+		};
+		
+		SubmissionPublisher<Integer> source = new SubmissionPublisher<Integer>();
+		source.subscribe(subscriber);
+		source.submit(1);
+		
+		// The running task is not reported as done.
+		assertTrue( subscriber.await(10000) );
+		assertEquals( IllegalStateException.class, subscriber.getError().getClass() );
+		assertEquals( 0, done.get() );
+		assertEquals( 0, subscriber.getActive() );
+		
+		source.close();
+		release.countDown();
+		assertTrue( blocked.join(5000) );
+	}
+	
+	@Test
+	public void testChained()
+	{
+		List<PowerTask> tasks = new ArrayList<PowerTask>();
+		for (int i = 0; i < 20; i++) {
+			tasks.add(new PowerTask(2, i + 1));
+		}
+		
+		final List<BigInteger> results = Collections.synchronizedList(new ArrayList<BigInteger>());
+		
+		TaskSubscriber<BigInteger, BigInteger> doubler = new TaskSubscriber<BigInteger, BigInteger>(pool, 3) {
+			protected Task<BigInteger> createTask(final BigInteger item) {
+				return new Task<BigInteger>() {
+					protected BigInteger execute() {
+						return item.shiftLeft(1);
+					}
+				};
+			}
+			protected void onTaskDone(Task<BigInteger> task) {
+				results.add(task.getResult());
+			}
+		};
+		
+		new TaskPublisher<BigInteger>(tasks, pool, 4, false).subscribe(doubler);
+		
+		assertTrue( doubler.await(10000) );
+		assertNull( doubler.getError() );
+		assertEquals( 20, results.size() );
+		assertTrue( results.contains(BigInteger.valueOf(4)) );
+		assertTrue( results.contains(BigInteger.valueOf(1 << 21)) );
+	}
+	
+}
@@ -0,0 +1,246 @@
+/* 
+ * NOTICE OF LICENSE
+ * 
+ * This source file is subject to the Open Software License (OSL 3.0) that is 
+ * bundled with this package in the file LICENSE.txt. It is also available 
+ * through the world-wide-web at http://opensource.org/licenses/osl-3.0.php
+ * If you did not receive a copy of the license and are unable to obtain it 
+ * through the world-wide-web, please send an email to pdiffenderfer@gmail.com 
+ * so we can send you a copy immediately. If you use any of this software please
+ * notify me via my website or email, your feedback is much appreciated. 
+ * 
+ * @copyright   Copyright (c) 2011 Magnos Software (http://www.magnos.org)
+ * @license     http://opensource.org/licenses/osl-3.0.php
+ * 				Open Software License (OSL 3.0)
+ */
+
+package org.magnos.task;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.magnos.task.TestTask.WaitTask;
+import org.magnos.task.TestTaskScope.FailTask;
+import org.magnos.test.BaseTest;
+
+
+public class TestTaskHedge extends BaseTest
+{
+
+	private TaskService primary;
+	
+	private TaskService secondary;
+	
+	@Before
+	public void testBefore() {
+		primary = new TaskService();
+		primary.start();
+		secondary = new TaskService();
+		secondary.start();
+	}
+	
+	@After
+	public void testAfter() {
+		primary.stop();
+		secondary.stop();
+	}
+	
+	/**
+	 * A hedge whose attempts wait the given times, in the order created.
+	 */
+	private TaskHedge<Boolean> hedge(TaskHedgePolicy policy, final long ... waits) {
+		final AtomicInteger created = new AtomicInteger();
+		return new TaskHedge<Boolean>(policy, primary, secondary) {
+			protected Task<Boolean> createAttempt() {
+				return new WaitTask(waits[created.getAndIncrement()]);
+			}
+		};
+	}
+	
+	@Test
+	public void testHedgeWins()
+	{
+		TaskHedgePolicy policy = new TaskHedgePolicy(50, TimeUnit.MILLISECONDS);
+		TaskHedge<Boolean> hedge = hedge(policy, 1000, 10);
+		hedge.setHandler(primary);
+		
+		long start = System.nanoTime();
+		assertTrue( hedge.sync() );
+		long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+		
+		assertTrue( elapsed < 500 );
+		assertTrue( hedge.isHedged() );
+		assertEquals( 1, policy.getHedges() );
+		assertEquals( 1, policy.getHedgeWins() );
+	}
+	
+	@Test
+	public void testNoHedge()
+	{
+		TaskHedgePolicy policy = new TaskHedgePolicy(100, TimeUnit.MILLISECONDS);
+		TaskHedge<Boolean> hedge = hedge(policy, 5, 5);
+		hedge.setHandler(primary);
+		
+		assertTrue( hedge.sync() );
+		sleep(150);
+		
+		assertFalse( hedge.isHedged() );
+		assertEquals( 0, policy.getHedges() );
+	}
+	
+	@Test
+	public void testBudget()
+	{
+		TaskHedgePolicy policy = new TaskHedgePolicy(10, TimeUnit.MILLISECONDS);
+		policy.setBudget(0.1, 1.0);
+		
+		for (int i = 0; i < 10; i++) {
+			TaskHedge<Boolean> hedge = hedge(policy, 40, 1);
+			hedge.setHandler(primary);
+			assertTrue( hedge.sync() );
+		}
+		
+		assertEquals( 10, policy.getTasks() );
+		assertTrue( policy.getHedges() >= 1 );
+		assertTrue( policy.getHedges() <= 2 );
+		assertEquals( 10, policy.getHedges() + policy.getDenied() );
+	}
+	
+	@Test
+	public void testDecidedWhileCreating()
+	{
+		TaskHedgePolicy policy = new TaskHedgePolicy(20, TimeUnit.MILLISECONDS);
+		final CountDownLatch release = new CountDownLatch(1);
+		final AtomicInteger created = new AtomicInteger();
+		final AtomicReference<Task<Boolean>> self = new AtomicReference<Task<Boolean>>();
+		
+		// The first attempt finishes while the duplicate is being created.
+		TaskHedge<Boolean> hedge = new TaskHedge<Boolean>(policy, primary, secondary) {
+			protected Task<Boolean> createAttempt() {
+				if (created.getAndIncrement() == 0) {
+					return new Task<Boolean>() {
+						protected Boolean execute() {
+							try {
+								release.await();
+							}
+							catch (InterruptedException e) {
+							}
+							return true;
+						}
+					};
+				}
+				release.countDown();
+				self.get().join(5000);
+				return new WaitTask(10);
+			}
+		};
+		self.set(hedge);
+		hedge.setHandler(primary);
+		
+		assertTrue( hedge.sync() );
+		sleep(100);
+		
+		// The duplicate was skipped without spending the budget.
+		assertEquals( 2, created.get() );
+		assertFalse( hedge.isHedged() );
+		assertEquals( 0, policy.getHedges() );
+		assertEquals( 0, policy.getDenied() );
+	}
+	
+	@Test
+	public void testPercentile()
+	{
+		TaskHedgePolicy policy = new TaskHedgePolicy(7, TimeUnit.MILLISECONDS);
+		
+		assertEquals( TimeUnit.MILLISECONDS.toNanos(7), policy.getDelay(WaitTask.class) );
+		
+		for (int i = 1; i <= 100; i++) {
+			policy.record(WaitTask.class, TimeUnit.MILLISECONDS.toNanos(i));
+		}
+		
+		assertEquals( TimeUnit.MILLISECONDS.toNanos(95), policy.getDelay(WaitTask.class) );
+		assertEquals( TimeUnit.MILLISECONDS.toNanos(7), policy.getDelay(FailTask.class) );
+	}
+	
+	@Test
+	public void testLosersRecorded()
+	{
+		TaskHedgePolicy policy = new TaskHedgePolicy(20, TimeUnit.MILLISECONDS);
+		policy.setMinSamples(1);
+		policy.setPercentile(1.0);
+		
+		// The first attempt loses to the duplicate, it took at least 100ms.
+		TaskHedge<Boolean> hedge = hedge(policy, 1000, 80);
+		hedge.setHandler(primary);
+		
+		assertTrue( hedge.sync() );
+		assertEquals( 1, policy.getHedgeWins() );
+		
+		long lost = policy.getDelay(WaitTask.class);
+		assertTrue( lost >= TimeUnit.MILLISECONDS.toNanos(90) );
+		assertTrue( lost < TimeUnit.MILLISECONDS.toNanos(1000) );
+		
+		// A failed first attempt is recorded too.
+		TaskHedgePolicy failures = new TaskHedgePolicy(500, TimeUnit.MILLISECONDS);
+		failures.setMinSamples(1);
+		failures.setPercentile(1.0);
+		
+		TaskHedge<Boolean> failing = new TaskHedge<Boolean>(failures, primary, secondary) {
+			protected Task<Boolean> createAttempt() {
+				return new FailTask(30);
+			}
+		};
+		failing.setHandler(primary);
+		
+		assertNull( failing.sync() );
+		assertFalse( failing.isHedged() );
+		
+		long failed = failures.getDelay(FailTask.class);
+		assertTrue( failed >= TimeUnit.MILLISECONDS.toNanos(30) );
+		assertTrue( failed < TimeUnit.MILLISECONDS.toNanos(500) );
+	}
+	
+	@Test
+	public void testFailure()
+	{
+		TaskHedgePolicy policy = new TaskHedgePolicy(50, TimeUnit.MILLISECONDS);
+		final AtomicInteger created = new AtomicInteger();
+		
+		// The first attempt fails slowly, the duplicate fails quickly.
+		TaskHedge<Boolean> hedge = new TaskHedge<Boolean>(policy, primary, secondary) {
+			protected Task<Boolean> createAttempt() {
+				return new FailTask(created.getAndIncrement() == 0 ? 200 : 10);
+			}
+		};
+		hedge.setHandler(primary);
+		
+		long start = System.nanoTime();
+		assertNull( hedge.sync() );
+		long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+		
+		// The hedge waits for the first attempt once the duplicate fails.
+		assertTrue( elapsed >= 150 );
+		assertTrue( hedge.isError() );
+		assertEquals( IllegalStateException.class, hedge.getError().getClass() );
+		assertTrue( hedge.isHedged() );
+		
+		// An attempt which fails before the delay is not hedged.
+		TaskHedge<Boolean> quick = new TaskHedge<Boolean>(policy, primary, secondary) {
+			protected Task<Boolean> createAttempt() {
+				return new FailTask(0);
+			}
+		};
+		quick.setHandler(primary);
+		
+		assertNull( quick.sync() );
+		assertFalse( quick.isHedged() );
+	}
+	
+}
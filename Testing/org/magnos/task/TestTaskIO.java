@@ -0,0 +1,263 @@
+/* 
+ * NOTICE OF LICENSE
+ * 
+ * This source file is subject to the Open Software License (OSL 3.0) that is 
+ * bundled with this package in the file LICENSE.txt. It is also available 
+ * through the world-wide-web at http://opensource.org/licenses/osl-3.0.php
+ * If you did not receive a copy of the license and are unable to obtain it 
+ * through the world-wide-web, please send an email to pdiffenderfer@gmail.com 
+ * so we can send you a copy immediately. If you use any of this software please
+ * notify me via my website or email, your feedback is much appreciated. 
+ * 
+ * @copyright   Copyright (c) 2011 Magnos Software (http://www.magnos.org)
+ * @license     http://opensource.org/licenses/osl-3.0.php
+ * 				Open Software License (OSL 3.0)
+ */
+
+package org.magnos.task;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousServerSocketChannel;
+import java.nio.channels.AsynchronousSocketChannel;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.magnos.test.BaseTest;
+
+
+public class TestTaskIO extends BaseTest
+{
+
+	private TaskService service;
+	
+	private File file;
+	
+	private byte[] data;
+	
+	@Before
+	public void testBefore() throws IOException {
+		service = new TaskService();
+		service.start();
+		
+		data = new byte[100000];
+		new Random(7).nextBytes(data);
+		
+		file = File.createTempFile("taskio", ".bin");
+	}
+	
+	@After
+	public void testAfter() {
+		service.stop();
+		file.delete();
+	}
+	
+	@Test
+	public void testAsync()
+	{
+		final TaskAsync<String> task = new TaskAsync<String>() {
+			protected void start() {
+				new Thread() {
+					public void run() {
+						BaseTest.sleep(50);
+						succeed("done");
+					}
+				}.start();
+			}
+		};
+		task.setHandler(service);
+		
+		assertTrue( task.async() );
+		sleep(20);
+		
+		// The worker is free while the task waits for its callback.
+		assertTrue( task.isRunning() );
+		assertNull( service.getActiveTask() );
+		
+		assertTrue( task.join(5000) );
+		assertTrue( task.isSuccess() );
+		assertEquals( "done", task.getResult() );
+		assertEquals( 1, task.getAttempts() );
+	}
+	
+	@Test
+	public void testAsyncError()
+	{
+		TaskAsync<String> task = new TaskAsync<String>() {
+			protected void start() throws IOException {
+				throw new IOException("unable");
+			}
+		};
+		task.setHandler(service);
+		
+		assertNull( task.sync() );
+		assertTrue( task.isError() );
+		assertEquals( IOException.class, task.getError().getClass() );
+	}
+	
+	@Test
+	public void testAsyncRetry()
+	{
+		final AtomicInteger starts = new AtomicInteger();
+		TaskAsync<String> task = new TaskAsync<String>() {
+			protected void start() {
+				final boolean first = (starts.incrementAndGet() == 1);
+				new Thread() {
+					public void run() {
+						if (first) {
+							fail(new IOException("unable"));
+						}
+						else {
+							succeed("done");
+						}
+					}
+				}.start();
+			}
+		};
+		TaskRetry retry = new TaskRetry(3, 10, 10, TimeUnit.MILLISECONDS);
+		task.setRetry(retry);
+		task.setHandler(service);
+		
+		// The failure from the operation goes through the retry policy.
+		assertEquals( "done", task.sync() );
+		assertTrue( task.isSuccess() );
+		assertEquals( 2, task.getAttempts() );
+		assertEquals( 1, retry.getRecoveries() );
+	}
+	
+	@Test
+	public void testAsyncFork()
+	{
+		TaskAsync<String> task = new TaskAsync<String>() {
+			protected void start() {
+				new Thread() {
+					public void run() {
+						BaseTest.sleep(20);
+						succeed("done");
+					}
+				}.start();
+			}
+		};
+		task.setHandler(service);
+		
+		// Executing the task directly waits for its operation.
+		assertEquals( "done", task.fork().sync() );
+		assertFalse( task.isFinished() );
+	}
+	
+	@Test
+	public void testFileStartFailure() throws IOException
+	{
+		Files.write(file.toPath(), data);
+		
+		TaskBufferPool pool = new TaskBufferPool(4096, 4);
+		
+		TaskFileRead read = new TaskFileRead(file.toPath(), -1, 10);
+		read.setPool(pool);
+		read.setHandler(service);
+		
+		assertNull( read.sync() );
+		assertTrue( read.isError() );
+		assertEquals( IllegalArgumentException.class, read.getError().getClass() );
+		
+		// The buffer was released when the read failed to start.
+		assertEquals( 1, pool.getAllocated() );
+		assertEquals( 1, pool.getPooled() );
+	}
+	
+	@Test
+	public void testFile() throws IOException
+	{
+		TaskBufferPool pool = new TaskBufferPool(4096, 4);
+		
+		TaskFileWrite write = new TaskFileWrite(file.toPath(), 0, data);
+		write.setPool(pool);
+		write.setHandler(service);
+		assertEquals( data.length, write.sync().intValue() );
+		assertArrayEquals( data, Files.readAllBytes(file.toPath()) );
+		
+		TaskFileRead read = new TaskFileRead(file.toPath());
+		read.setPool(pool);
+		read.setHandler(service);
+		assertArrayEquals( data, read.sync() );
+		
+		TaskFileRead range = new TaskFileRead(file.toPath(), 99000, 5000);
+		range.setPool(pool);
+		range.setHandler(service);
+		assertArrayEquals( Arrays.copyOfRange(data, 99000, 100000), range.sync() );
+		
+		// The buffer was reused by each task.
+		assertEquals( 1, pool.getAllocated() );
+		assertEquals( 1, pool.getPooled() );
+	}
+	
+	@Test
+	public void testManyReads() throws IOException
+	{
+		Files.write(file.toPath(), data);
+		
+		TaskFileRead[] reads = new TaskFileRead[500];
+		for (int i = 0; i < reads.length; i++) {
+			reads[i] = new TaskFileRead(file.toPath(), i * 100, 1000);
+			reads[i].setHandler(service);
+			reads[i].async();
+		}
+		
+		for (int i = 0; i < reads.length; i++) {
+			assertTrue( reads[i].join(10000) );
+			assertArrayEquals( Arrays.copyOfRange(data, i * 100, i * 100 + 1000), reads[i].getResult() );
+		}
+	}
+	
+	@Test
+	public void testSocket() throws Exception
+	{
+		AsynchronousServerSocketChannel server = AsynchronousServerSocketChannel.open();
+		server.bind(new InetSocketAddress("127.0.0.1", 0));
+		
+		AsynchronousSocketChannel client = AsynchronousSocketChannel.open();
+		client.connect(server.getLocalAddress()).get();
+		AsynchronousSocketChannel accepted = server.accept().get();
+		
+		try {
+			ByteBuffer received = ByteBuffer.allocateDirect(data.length);
+			TaskChannelRead read = new TaskChannelRead(accepted, received, true);
+			read.setHandler(service);
+			read.async();
+			
+			TaskChannelWrite write = new TaskChannelWrite(client, ByteBuffer.wrap(data));
+			write.setHandler(service);
+			assertEquals( data.length, write.sync().intValue() );
+			
+			assertTrue( read.join(5000) );
+			assertEquals( data.length, read.getResult().intValue() );
+			
+			byte[] copy = new byte[data.length];
+			received.flip();
+			received.get(copy);
+			assertArrayEquals( data, copy );
+			
+			client.close();
+			
+			TaskChannelRead end = new TaskChannelRead(accepted, ByteBuffer.allocate(16), false);
+			end.setHandler(service);
+			assertEquals( -1, end.sync().intValue() );
+		}
+		finally {
+			client.close();
+			accepted.close();
+			server.close();
+		}
+	}
+	
+}
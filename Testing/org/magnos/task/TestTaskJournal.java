@@ -0,0 +1,306 @@
+/* 
+ * NOTICE OF LICENSE
+ * 
+ * This source file is subject to the Open Software License (OSL 3.0) that is 
+ * bundled with this package in the file LICENSE.txt. It is also available 
+ * through the world-wide-web at http://opensource.org/licenses/osl-3.0.php
+ * If you did not receive a copy of the license and are unable to obtain it 
+ * through the world-wide-web, please send an email to pdiffenderfer@gmail.com 
+ * so we can send you a copy immediately. If you use any of this software please
+ * notify me via my website or email, your feedback is much appreciated. 
+ * 
+ * @copyright   Copyright (c) 2011 Magnos Software (http://www.magnos.org)
+ * @license     http://opensource.org/licenses/osl-3.0.php
+ * 				Open Software License (OSL 3.0)
+ */
+
+package org.magnos.task;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.magnos.test.BaseTest;
+
+
+public class TestTaskJournal extends BaseTest
+{
+
+	public static class SquareTask extends Task<Integer> implements Serializable {
+		private static final long serialVersionUID = 1L;
+		public int value;
+		public SquareTask(int value) {
+			this.value = value;
+		}
+		protected Integer execute() {
+			return value * value;
+		}
+	}
+
+	private File directory;
+
+	@Before
+	public void testBefore() throws IOException {
+		directory = File.createTempFile("journal", "");
+		directory.delete();
+	}
+
+	@After
+	public void testAfter() {
+		File[] files = directory.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				file.delete();
+			}
+		}
+		directory.delete();
+	}
+
+	@Test
+	public void testRecover() throws IOException
+	{
+		TaskJournal journal = new TaskJournal(directory);
+		journal.open();
+
+		// The service is never started, like a crash before they're handled.
+		TaskService service = new TaskService();
+		service.setJournal(journal);
+
+		for (int i = 1; i <= 3; i++) {
+			SquareTask task = new SquareTask(i);
+			task.setHandler(service);
+			task.async();
+		}
+
+		assertEquals( 3, journal.size() );
+		journal.close();
+
+		journal = new TaskJournal(directory);
+		journal.open();
+
+		assertEquals( 3, journal.size() );
+
+		service = new TaskService();
+		service.setJournal(journal);
+		service.start();
+
+		sleep(200);
+		service.stop();
+
+		assertEquals( 0, journal.size() );
+		assertTrue( journal.recover().isEmpty() );
+		journal.close();
+
+		journal = new TaskJournal(directory);
+		journal.open();
+
+		assertEquals( 0, journal.size() );
+		journal.close();
+	}
+
+	@Test
+	public void testRecoverOrder() throws IOException
+	{
+		TaskJournal journal = new TaskJournal(directory);
+		journal.open();
+
+		for (int i = 0; i < 10; i++) {
+			journal.append(new SquareTask(i));
+		}
+		journal.close();
+
+		journal = new TaskJournal(directory);
+		journal.open();
+
+		List<Task<?>> tasks = journal.recover();
+		assertEquals( 10, tasks.size() );
+		for (int i = 0; i < 10; i++) {
+			assertEquals( i, ((SquareTask)tasks.get(i)).value );
+		}
+
+		for (int i = 0; i < 5; i++) {
+			assertTrue( journal.complete(tasks.get(i)) );
+		}
+		journal.close();
+
+		journal = new TaskJournal(directory);
+		journal.open();
+
+		tasks = journal.recover();
+		assertEquals( 5, tasks.size() );
+		assertEquals( 5, ((SquareTask)tasks.get(0)).value );
+		journal.close();
+	}
+
+	@Test
+	public void testCompact() throws IOException
+	{
+		TaskJournal journal = new TaskJournal(directory);
+		journal.setSegmentSize(4096);
+		journal.setSync(false);
+		journal.open();
+
+		SquareTask survivor = new SquareTask(-1);
+		journal.append(survivor);
+
+		for (int i = 0; i < 1000; i++) {
+			SquareTask task = new SquareTask(i);
+			journal.append(task);
+			journal.complete(task);
+		}
+
+		assertEquals( 1, journal.size() );
+		assertTrue( journal.getSegmentCount() <= 2 );
+		journal.close();
+
+		journal = new TaskJournal(directory);
+		journal.open();
+
+		List<Task<?>> tasks = journal.recover();
+		assertEquals( 1, tasks.size() );
+		assertEquals( -1, ((SquareTask)tasks.get(0)).value );
+		journal.close();
+	}
+
+	@Test
+	public void testCompleteError() throws IOException
+	{
+		TaskJournal journal = new TaskJournal(directory) {
+			public synchronized boolean complete(Task<?> task) throws IOException {
+				throw new IOException("disk full");
+			}
+		};
+		journal.open();
+
+		final List<Task<?>> failed = new ArrayList<Task<?>>();
+
+		TaskService service = new TaskService(false);
+		service.setJournal(journal);
+		service.setErrorListener(new TaskErrorListener() {
+			public void onError(Object source, Task<?> task, Throwable error) {
+				assertTrue( error.getCause() instanceof IOException );
+				failed.add(task);
+			}
+		});
+
+		SquareTask task = new SquareTask(3);
+		task.setHandler(service);
+		task.async();
+
+		service.process(1, TimeUnit.SECONDS);
+
+		assertTrue( task.isSuccess() );
+		assertEquals( 1, failed.size() );
+		assertSame( task, failed.get(0) );
+
+		// Without a listener the error goes to the uncaught exception handler
+		// and the service keeps going.
+		service.setErrorListener(null);
+
+		final List<Throwable> uncaught = new ArrayList<Throwable>();
+		Thread thread = Thread.currentThread();
+		Thread.UncaughtExceptionHandler previous = thread.getUncaughtExceptionHandler();
+		thread.setUncaughtExceptionHandler(new Thread.UncaughtExceptionHandler() {
+			public void uncaughtException(Thread t, Throwable e) {
+				uncaught.add(e);
+			}
+		});
+
+		try {
+			SquareTask first = new SquareTask(4);
+			first.setHandler(service);
+			first.async();
+
+			SquareTask second = new SquareTask(5);
+			second.setHandler(service);
+			second.async();
+
+			service.process(1, TimeUnit.SECONDS);
+
+			assertTrue( first.isSuccess() );
+			assertTrue( second.isSuccess() );
+			assertEquals( 2, uncaught.size() );
+			assertTrue( uncaught.get(0).getCause() instanceof IOException );
+		}
+		finally {
+			thread.setUncaughtExceptionHandler(previous);
+		}
+
+		journal.close();
+	}
+
+	@Test
+	public void testAppendError() throws IOException
+	{
+		TaskJournal journal = new TaskJournal(directory) {
+			public void append(Task<?> task) throws IOException {
+				throw new IOException("disk full");
+			}
+		};
+		journal.open();
+
+		TaskService service = new TaskService(false);
+		service.setJournal(journal);
+
+		SquareTask task = new SquareTask(3);
+		task.setHandler(service);
+		task.async();
+
+		// The task is rejected instead of being left waiting.
+		assertTrue( task.isCanceled() );
+		assertTrue( task.getError() instanceof TaskRejectedException );
+		assertTrue( task.getError().getCause() instanceof IOException );
+		assertEquals( 0, service.getEventQueue().size() );
+		assertTrue( task.isFinished() );
+
+		journal.close();
+	}
+
+	@Test
+	public void testHelped() throws IOException
+	{
+		final List<Task<?>> completed = new ArrayList<Task<?>>();
+
+		TaskJournal journal = new TaskJournal(directory) {
+			public synchronized boolean complete(Task<?> task) throws IOException {
+				completed.add(task);
+				return super.complete(task);
+			}
+		};
+		journal.open();
+
+		TaskService service = new TaskService(false);
+		service.setJournal(journal);
+
+		final SquareTask inner = new SquareTask(3);
+		inner.setHandler(service);
+
+		Task<Integer> outer = new Task<Integer>() {
+			protected Integer execute() {
+				// Executed inline, its entry is left in the queue.
+				return inner.sync();
+			}
+		};
+		outer.setHandler(service);
+		outer.async();
+
+		assertEquals( 0, service.process(1, TimeUnit.SECONDS) );
+		assertEquals( 9, outer.getResult().intValue() );
+
+		// The entry left in the queue didn't complete the task again.
+		assertEquals( 1, completed.size() );
+		assertSame( inner, completed.get(0) );
+		assertEquals( 0, journal.size() );
+
+		journal.close();
+	}
+
+}
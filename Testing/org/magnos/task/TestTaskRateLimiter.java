@@ -0,0 +1,160 @@
+/* 
+ * NOTICE OF LICENSE
+ * 
+ * This source file is subject to the Open Software License (OSL 3.0) that is 
+ * bundled with this package in the file LICENSE.txt. It is also available 
+ * through the world-wide-web at http://opensource.org/licenses/osl-3.0.php
+ * If you did not receive a copy of the license and are unable to obtain it 
+ * through the world-wide-web, please send an email to pdiffenderfer@gmail.com 
+ * so we can send you a copy immediately. If you use any of this software please
+ * notify me via my website or email, your feedback is much appreciated. 
+ * 
+ * @copyright   Copyright (c) 2011 Magnos Software (http://www.magnos.org)
+ * @license     http://opensource.org/licenses/osl-3.0.php
+ * 				Open Software License (OSL 3.0)
+ */
+
+package org.magnos.task;
+
+import static org.junit.Assert.*;
+
+import java.util.List;
+import java.util.Vector;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.magnos.task.TestTask.PowerTask;
+import org.magnos.test.BaseTest;
+
+
+public class TestTaskRateLimiter extends BaseTest
+{
+
+	private TaskService executor;
+
+	@Before
+	public void testBefore() {
+		executor = new TaskService();
+		executor.start();
+	}
+
+	@After
+	public void testAfter() {
+		executor.stop();
+	}
+
+	@Test
+	public void testRate()
+	{
+		TaskRateLimiter limiter = new TaskRateLimiter(executor, 100.0, 10);
+
+		PowerTask[] tasks = new PowerTask[60];
+		long start = System.nanoTime();
+		for (int i = 0; i < tasks.length; i++) {
+			tasks[i] = new PowerTask(2, 10);
+			tasks[i].setHandler(limiter);
+			tasks[i].async();
+		}
+
+		// The burst is released immediately, the rest wait for tokens.
+		assertEquals( 50, limiter.getWaitingCount(), 2 );
+
+		for (PowerTask task : tasks) {
+			assertTrue( task.join(5000) );
+			assertTrue( task.isSuccess() );
+		}
+
+		long elapsed = (System.nanoTime() - start) / 1000000L;
+
+		// 50 tasks at 100 a second is at least half a second.
+		assertTrue( elapsed >= 480 );
+		assertEquals( 0, limiter.getWaitingCount() );
+	}
+
+	@Test
+	public void testKeys()
+	{
+		TaskRateLimiter limiter = new TaskRateLimiter(executor, 100.0, 5, new TaskKeyer() {
+			public Object getKey(Task<?> task) {
+				return ((PowerTask)task).base;
+			}
+		});
+
+		PowerTask[] tasks = new PowerTask[20];
+		for (int i = 0; i < tasks.length; i++) {
+			tasks[i] = new PowerTask(i & 1, 3);
+			tasks[i].setHandler(limiter);
+			tasks[i].async();
+		}
+
+		assertEquals( 2, limiter.getBucketCount() );
+		assertEquals( 10, limiter.getWaitingCount(), 2 );
+
+		for (PowerTask task : tasks) {
+			assertTrue( task.join(5000) );
+		}
+
+		// Once the buckets refill they are removed.
+		sleep(200);
+
+		assertEquals( 0, limiter.getBucketCount() );
+	}
+
+	@Test
+	public void testReleasedWaitStart()
+	{
+		final List<Long> waits = new Vector<Long>();
+
+		TaskEventHandler recorder = new TaskEventHandler() {
+			public boolean addEvent(Task<?> task) {
+				waits.add(System.nanoTime() - task.getWaitStart());
+				return executor.addEvent(task);
+			}
+		};
+
+		TaskRateLimiter limiter = new TaskRateLimiter(recorder, 10.0, 1);
+
+		PowerTask first = new PowerTask(2, 10);
+		first.setHandler(limiter);
+		first.async();
+
+		PowerTask second = new PowerTask(2, 10);
+		second.setHandler(limiter);
+		second.async();
+
+		assertTrue( second.join(2000) );
+		assertTrue( second.isSuccess() );
+
+		// The second task waited about 100ms for a token, which is not counted
+		// as waiting in the handler.
+		assertEquals( 2, waits.size() );
+		assertTrue( waits.get(1) < 50000000L );
+	}
+
+	@Test
+	public void testReleasedRejected()
+	{
+		TaskEventHandler rejecting = new TaskEventHandler() {
+			public boolean addEvent(Task<?> task) {
+				return false;
+			}
+		};
+
+		TaskRateLimiter limiter = new TaskRateLimiter(rejecting, 10.0, 1);
+
+		PowerTask first = new PowerTask(2, 10);
+		first.setHandler(limiter);
+		first.async();
+
+		PowerTask second = new PowerTask(2, 10);
+		second.setHandler(limiter);
+		second.async();
+
+		// The released task is not left waiting forever.
+		assertTrue( second.join(2000) );
+		assertTrue( second.isCanceled() );
+		assertTrue( second.getError() instanceof TaskRejectedException );
+	}
+
+}
@@ -0,0 +1,119 @@
+/* 
+ * NOTICE OF LICENSE
+ * 
+ * This source file is subject to the Open Software License (OSL 3.0) that is 
+ * bundled with this package in the file LICENSE.txt. It is also available 
+ * through the world-wide-web at http://opensource.org/licenses/osl-3.0.php
+ * If you did not receive a copy of the license and are unable to obtain it 
+ * through the world-wide-web, please send an email to pdiffenderfer@gmail.com 
+ * so we can send you a copy immediately. If you use any of this software please
+ * notify me via my website or email, your feedback is much appreciated. 
+ * 
+ * @copyright   Copyright (c) 2011 Magnos Software (http://www.magnos.org)
+ * @license     http://opensource.org/licenses/osl-3.0.php
+ * 				Open Software License (OSL 3.0)
+ */
+
+package org.magnos.task;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+import org.junit.Test;
+import org.magnos.task.TestTask.PowerTask;
+import org.magnos.test.BaseTest;
+
+
+public class TestTaskRecorder extends BaseTest
+{
+
+	@Test
+	public void testEvents() throws IOException
+	{
+		Recording recording = new Recording();
+		recording.enable("org.magnos.task.Enqueue");
+		recording.enable("org.magnos.task.Dequeue");
+		recording.enable("org.magnos.task.Execute");
+		recording.enable("org.magnos.task.Cancel");
+		recording.enable("org.magnos.task.Collection");
+		recording.start();
+
+		TaskService service = new TaskService();
+		service.start();
+
+		for (int i = 0; i < 10; i++) {
+			PowerTask task = new PowerTask(2, 10);
+			task.setHandler(service);
+			assertEquals( BigInteger.valueOf(1024), task.sync() );
+		}
+
+		service.stop();
+
+		// Never handled, so it waits until it's canceled.
+		PowerTask canceled = new PowerTask(2, 10);
+		canceled.setHandler(new TaskService());
+		canceled.async();
+		assertTrue( canceled.cancel() );
+
+		TaskSet set = new TaskSet();
+		set.add(new PowerTask(2, 4));
+		set.add(new PowerTask(3, 4));
+		set.sync();
+
+		TaskReduction<BigInteger> sum = new TaskReduction<BigInteger>(BigInteger.ZERO, new TaskCombiner<BigInteger>() {
+			public BigInteger combine(BigInteger a, BigInteger b) {
+				return a.add(b);
+			}
+		});
+		sum.add(new PowerTask(2, 4));
+		sum.add(new PowerTask(3, 4));
+		assertEquals( BigInteger.valueOf(97), sum.sync() );
+
+		recording.stop();
+
+		File file = File.createTempFile("tasks", ".jfr");
+		try {
+			recording.dump(file.toPath());
+			recording.close();
+
+			Map<String, Integer> counts = new HashMap<String, Integer>();
+			Set<String> collections = new HashSet<String>();
+			for (RecordedEvent event : RecordingFile.readAllEvents(file.toPath())) {
+				String name = event.getEventType().getName();
+				Integer count = counts.get(name);
+				counts.put(name, count == null ? 1 : count + 1);
+
+				if (name.equals("org.magnos.task.Execute") && event.getClass("taskClass").getName().equals(PowerTask.class.getName())) {
+					assertEquals( "Success", event.getString("outcome") );
+					assertTrue( event.getLong("queueWait") >= 0 );
+				}
+				if (name.equals("org.magnos.task.Collection")) {
+					collections.add(event.getClass("collectionClass").getName());
+				}
+			}
+
+			assertTrue( counts.get("org.magnos.task.Enqueue") >= 11 );
+			assertEquals( 10, counts.get("org.magnos.task.Dequeue").intValue() );
+			assertTrue( counts.get("org.magnos.task.Execute") >= 12 );
+			assertEquals( 1, counts.get("org.magnos.task.Cancel").intValue() );
+			assertEquals( 2, counts.get("org.magnos.task.Collection").intValue() );
+			assertTrue( collections.contains(TaskSet.class.getName()) );
+			assertTrue( collections.contains(TaskReduction.class.getName()) );
+		}
+		finally {
+			file.delete();
+		}
+	}
+
+}
@@ -0,0 +1,111 @@
+/* 
+ * NOTICE OF LICENSE
+ * 
+ * This source file is subject to the Open Software License (OSL 3.0) that is 
+ * bundled with this package in the file LICENSE.txt. It is also available 
+ * through the world-wide-web at http://opensource.org/licenses/osl-3.0.php
+ * If you did not receive a copy of the license and are unable to obtain it 
+ * through the world-wide-web, please send an email to pdiffenderfer@gmail.com 
+ * so we can send you a copy immediately. If you use any of this software please
+ * notify me via my website or email, your feedback is much appreciated. 
+ * 
+ * @copyright   Copyright (c) 2011 Magnos Software (http://www.magnos.org)
+ * @license     http://opensource.org/licenses/osl-3.0.php
+ * 				Open Software License (OSL 3.0)
+ */
+
+package org.magnos.task;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+import org.magnos.test.BaseTest;
+
+
+public class TestTaskReduction extends BaseTest
+{
+
+	public static class ValueTask extends Task<Long> {
+		public long value;
+		public ValueTask(long value) {
+			this.value = value;
+		}
+		protected Long execute() {
+			if (value < 0) {
+				throw new IllegalArgumentException();
+			}
+			return value;
+		}
+	}
+
+	public static final TaskCombiner<Long> SUM = new TaskCombiner<Long>() {
+		public Long combine(Long a, Long b) {
+			return a + b;
+		}
+	};
+
+	@Test
+	public void testSum()
+	{
+		TaskServicePool pool = new TaskServicePool();
+		pool.setMinCapacity(4);
+		pool.setMaxCapacity(4);
+		pool.start();
+
+		TaskReduction<Long> sum = new TaskReduction<Long>(0L, SUM);
+		for (int i = 1; i <= 10000; i++) {
+			ValueTask task = new ValueTask(i);
+			task.setHandler(pool);
+			sum.add(task);
+		}
+
+		assertEquals( 10000L * 10001L / 2L, sum.sync().longValue() );
+		assertTrue( sum.isSuccess() );
+		assertEquals( 0, sum.size() );
+
+		pool.stop();
+	}
+
+	@Test
+	public void testEmpty()
+	{
+		TaskReduction<Long> sum = new TaskReduction<Long>(0L, SUM);
+
+		assertEquals( 0L, sum.sync().longValue() );
+	}
+
+	@Test
+	public void testError()
+	{
+		TaskReduction<Long> sum = new TaskReduction<Long>(0L, SUM);
+		sum.add(new ValueTask(1));
+		sum.add(new ValueTask(-1));
+		sum.add(new ValueTask(2));
+
+		assertNull( sum.sync() );
+		assertTrue( sum.isError() );
+		assertTrue( sum.getError() instanceof IllegalArgumentException );
+	}
+
+	@Test
+	public void testNested()
+	{
+		TaskService executor = new TaskService();
+		executor.start();
+
+		// The reduction and its tasks share the single service thread.
+		TaskReduction<Long> sum = new TaskReduction<Long>(0L, SUM);
+		sum.setHandler(executor);
+		for (int i = 1; i <= 100; i++) {
+			ValueTask task = new ValueTask(i);
+			task.setHandler(executor);
+			sum.add(task);
+		}
+		sum.setTimeout(5000);
+
+		assertEquals( 5050L, sum.sync().longValue() );
+
+		executor.stop();
+	}
+
+}
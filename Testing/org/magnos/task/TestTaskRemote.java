@@ -0,0 +1,324 @@
+/* 
+ * NOTICE OF LICENSE
+ * 
+ * This source file is subject to the Open Software License (OSL 3.0) that is 
+ * bundled with this package in the file LICENSE.txt. It is also available 
+ * through the world-wide-web at http://opensource.org/licenses/osl-3.0.php
+ * If you did not receive a copy of the license and are unable to obtain it 
+ * through the world-wide-web, please send an email to pdiffenderfer@gmail.com 
+ * so we can send you a copy immediately. If you use any of this software please
+ * notify me via my website or email, your feedback is much appreciated. 
+ * 
+ * @copyright   Copyright (c) 2011 Magnos Software (http://www.magnos.org)
+ * @license     http://opensource.org/licenses/osl-3.0.php
+ * 				Open Software License (OSL 3.0)
+ */
+
+package org.magnos.task;
+
+import static org.junit.Assert.*;
+
+import java.io.BufferedReader;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.management.ManagementFactory;
+import java.util.List;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.magnos.task.TestTask.PowerTask;
+import org.magnos.test.BaseTest;
+
+
+public class TestTaskRemote extends BaseTest
+{
+
+	public static final byte[] SECRET = "taskaroo".getBytes();
+
+	public static class SquareTask extends Task<Long> implements TaskRemotable<Long> {
+		public long value;
+		public SquareTask() {
+		}
+		public SquareTask(long value) {
+			this.value = value;
+		}
+		protected Long execute() {
+			return value * value;
+		}
+		public void writeTask(DataOutput out) throws IOException {
+			out.writeLong(value);
+		}
+		public void readTask(DataInput in) throws IOException {
+			value = in.readLong();
+		}
+		public void writeResult(Long result, DataOutput out) throws IOException {
+			out.writeLong(result);
+		}
+		public Long readResult(DataInput in) throws IOException {
+			return in.readLong();
+		}
+	}
+
+	public static class SleepTask extends Task<String> implements TaskRemotable<String> {
+		public long millis;
+		public SleepTask() {
+		}
+		public SleepTask(long millis) {
+			this.millis = millis;
+		}
+		protected String execute() {
+			sleep(millis);
+			return ManagementFactory.getRuntimeMXBean().getName();
+		}
+		public void writeTask(DataOutput out) throws IOException {
+			out.writeLong(millis);
+		}
+		public void readTask(DataInput in) throws IOException {
+			millis = in.readLong();
+		}
+		public void writeResult(String result, DataOutput out) throws IOException {
+			out.writeUTF(result);
+		}
+		public String readResult(DataInput in) throws IOException {
+			return in.readUTF();
+		}
+	}
+
+	public static class FailTask extends Task<Object> implements TaskRemotable<Object> {
+		protected Object execute() {
+			throw new IllegalStateException("remote failure");
+		}
+		public void writeTask(DataOutput out) {
+		}
+		public void readTask(DataInput in) {
+		}
+		public void writeResult(Object result, DataOutput out) {
+		}
+		public Object readResult(DataInput in) {
+			return null;
+		}
+	}
+
+	// Never registered with the servers.
+	public static class CubeTask extends SquareTask {
+		public CubeTask(long value) {
+			super(value);
+		}
+		protected Long execute() {
+			return value * value * value;
+		}
+	}
+
+	/**
+	 * Runs a server in its own JVM and prints its port once it's accepting.
+	 */
+	public static class Server {
+		public static void main(String[] args) throws IOException {
+			TaskService service = new TaskService(new TaskDeadlineQueue());
+			service.getEventQueue().setBlocking(true);
+			service.start();
+
+			TaskRemoteServer server = new TaskRemoteServer(0, service);
+			server.setSecret(SECRET);
+			server.register(SquareTask.class);
+			server.register(SleepTask.class);
+			server.register(FailTask.class);
+			server.start();
+
+			System.out.println(server.getPort());
+			System.out.flush();
+		}
+	}
+
+	private static Process[] servers = new Process[2];
+	private static int[] ports = new int[2];
+	private static TaskRemoteHandler[] remotes = new TaskRemoteHandler[2];
+
+	@BeforeClass
+	public static void testBeforeClass() throws IOException {
+		String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+		String classpath = System.getProperty("java.class.path");
+
+		for (int i = 0; i < servers.length; i++) {
+			servers[i] = new ProcessBuilder(java, "-cp", classpath, Server.class.getName())
+				.redirectErrorStream(true)
+				.start();
+
+			BufferedReader reader = new BufferedReader(new InputStreamReader(servers[i].getInputStream()));
+			ports[i] = Integer.parseInt(reader.readLine().trim());
+
+			remotes[i] = new TaskRemoteHandler("localhost", ports[i]);
+			remotes[i].setSecret(SECRET);
+		}
+	}
+
+	@AfterClass
+	public static void testAfterClass() {
+		for (int i = 0; i < servers.length; i++) {
+			remotes[i].close();
+			servers[i].destroy();
+		}
+	}
+
+	@Test
+	public void testSync()
+	{
+		SquareTask task = new SquareTask(7);
+		task.setHandler(remotes[0]);
+
+		assertEquals( 49L, task.sync().longValue() );
+		assertTrue( task.isSuccess() );
+		assertEquals( 0, remotes[0].getPendingCount() );
+	}
+
+	@Test
+	public void testError()
+	{
+		FailTask task = new FailTask();
+		task.setHandler(remotes[0]);
+
+		assertNull( task.sync() );
+		assertTrue( task.isError() );
+		assertTrue( task.getError() instanceof TaskRemoteException );
+		assertEquals( IllegalStateException.class.getName(), ((TaskRemoteException)task.getError()).getRemoteClass() );
+		assertEquals( "remote failure", task.getError().getMessage() );
+	}
+
+	@Test
+	public void testNotRemotable()
+	{
+		PowerTask task = new PowerTask(2, 2);
+		task.setHandler(remotes[0]);
+
+		assertNull( task.sync() );
+		assertTrue( task.isError() );
+		assertTrue( task.getError() instanceof IllegalArgumentException );
+	}
+
+	@Test
+	public void testNotRegistered()
+	{
+		CubeTask task = new CubeTask(3);
+		task.setHandler(remotes[0]);
+
+		assertNull( task.sync() );
+		assertTrue( task.isError() );
+		assertEquals( TaskRejectedException.class.getName(), ((TaskRemoteException)task.getError()).getRemoteClass() );
+	}
+
+	@Test
+	public void testWrongSecret()
+	{
+		TaskRemoteHandler intruder = new TaskRemoteHandler("localhost", ports[0]);
+		intruder.setSecret("guess".getBytes());
+
+		SquareTask task = new SquareTask(7);
+		task.setHandler(intruder);
+		task.setTimeout(2000);
+
+		assertNull( task.sync() );
+		assertTrue( task.isError() );
+		assertTrue( task.getError() instanceof IOException );
+
+		intruder.close();
+	}
+
+	@Test
+	public void testFanOut()
+	{
+		TaskSet set = new TaskSet();
+		SquareTask[] tasks = new SquareTask[200];
+		for (int i = 0; i < tasks.length; i++) {
+			tasks[i] = new SquareTask(i);
+			tasks[i].setHandler(remotes[i % remotes.length]);
+			set.add(tasks[i]);
+		}
+
+		List<?> results = set.sync();
+		assertEquals( tasks.length, results.size() );
+
+		long sum = 0;
+		for (Object result : results) {
+			sum += (Long)result;
+		}
+		assertEquals( 199L * 200L * 399L / 6L, sum );
+
+		// Each server is a different JVM.
+		SleepTask first = new SleepTask(0);
+		SleepTask second = new SleepTask(0);
+		first.setHandler(remotes[0]);
+		second.setHandler(remotes[1]);
+		assertFalse( first.sync().equals(second.sync()) );
+	}
+
+	@Test
+	public void testCancel()
+	{
+		SleepTask busy = new SleepTask(300);
+		busy.setHandler(remotes[1]);
+		busy.async();
+
+		SquareTask queued = new SquareTask(3);
+		queued.setHandler(remotes[1]);
+		queued.async();
+
+		assertTrue( queued.cancel() );
+		assertTrue( busy.join(2000) );
+		sleep(100);
+
+		assertTrue( busy.isSuccess() );
+		assertTrue( queued.isCanceled() );
+		assertNull( queued.getResult() );
+		assertEquals( 0, remotes[1].getPendingCount() );
+	}
+
+	@Test
+	public void testRejected() throws IOException
+	{
+		TaskEventHandler rejecting = new TaskEventHandler() {
+			public boolean addEvent(Task<?> task) {
+				return false;
+			}
+		};
+
+		TaskRemoteServer server = new TaskRemoteServer(0, rejecting);
+		server.register(SquareTask.class);
+		server.start();
+
+		TaskRemoteHandler remote = new TaskRemoteHandler("localhost", server.getPort());
+
+		SquareTask task = new SquareTask(3);
+		task.setHandler(remote);
+		task.setTimeout(2000);
+
+		// The client is answered instead of waiting for the timeout.
+		assertNull( task.sync() );
+		assertTrue( task.isCanceled() );
+		assertEquals( 0, remote.getPendingCount() );
+
+		remote.close();
+		server.stop();
+	}
+
+	@Test
+	public void testTimeout()
+	{
+		SleepTask busy = new SleepTask(300);
+		busy.setHandler(remotes[0]);
+		busy.async();
+
+		SquareTask late = new SquareTask(3);
+		late.setHandler(remotes[0]);
+		late.setTimeout(50);
+		late.async();
+
+		assertTrue( late.join(2000) );
+		assertTrue( late.isTimedOut() );
+		assertTrue( busy.join(2000) );
+	}
+
+}
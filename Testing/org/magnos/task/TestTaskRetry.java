@@ -0,0 +1,223 @@
+/* 
+ * NOTICE OF LICENSE
+ * 
+ * This source file is subject to the Open Software License (OSL 3.0) that is 
+ * bundled with this package in the file LICENSE.txt. It is also available 
+ * through the world-wide-web at http://opensource.org/licenses/osl-3.0.php
+ * If you did not receive a copy of the license and are unable to obtain it 
+ * through the world-wide-web, please send an email to pdiffenderfer@gmail.com 
+ * so we can send you a copy immediately. If you use any of this software please
+ * notify me via my website or email, your feedback is much appreciated. 
+ * 
+ * @copyright   Copyright (c) 2011 Magnos Software (http://www.magnos.org)
+ * @license     http://opensource.org/licenses/osl-3.0.php
+ * 				Open Software License (OSL 3.0)
+ */
+
+package org.magnos.task;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.magnos.test.BaseTest;
+
+
+public class TestTaskRetry extends BaseTest
+{
+
+	public static class FlakyTask extends Task<Integer> {
+		public int failures;
+		public RuntimeException error;
+		public FlakyTask(int failures, RuntimeException error) {
+			this.failures = failures;
+			this.error = error;
+		}
+		protected Integer execute() {
+			if (getAttempts() <= failures) {
+				throw error;
+			}
+			return getAttempts();
+		}
+	}
+
+	public static class CountingListener extends TaskListenerAdapter<Integer> {
+		public final AtomicInteger successes = new AtomicInteger();
+		public final AtomicInteger errors = new AtomicInteger();
+		public final AtomicInteger finishes = new AtomicInteger();
+		public void onTaskSuccess(Task<Integer> source, Integer result) {
+			successes.incrementAndGet();
+		}
+		public void onTaskError(Task<Integer> source, Throwable error) {
+			errors.incrementAndGet();
+		}
+		public void onTaskFinish(Task<Integer> source) {
+			finishes.incrementAndGet();
+		}
+	}
+
+	private TaskService executor;
+
+	@Before
+	public void testBefore() {
+		executor = new TaskService();
+		executor.start();
+	}
+
+	@After
+	public void testAfter() {
+		executor.stop();
+	}
+
+	@Test
+	public void testRecover()
+	{
+		TaskRetry retry = new TaskRetry(5, 10, 100, TimeUnit.MILLISECONDS);
+		retry.setRetryable(IllegalStateException.class);
+
+		FlakyTask task = new FlakyTask(2, new IllegalStateException());
+		task.setHandler(executor);
+		task.setRetry(retry);
+
+		CountingListener listener = new CountingListener();
+		assertTrue( task.async(listener) );
+		assertTrue( task.join(2000) );
+		sleep(50);
+
+		assertTrue( task.isSuccess() );
+		assertEquals( 3, task.getResult().intValue() );
+		assertEquals( 3, task.getAttempts() );
+		assertEquals( 1, listener.successes.get() );
+		assertEquals( 0, listener.errors.get() );
+		assertEquals( 1, listener.finishes.get() );
+
+		assertEquals( 3, retry.getAttempts() );
+		assertEquals( 2, retry.getRetries() );
+		assertEquals( 1, retry.getRecoveries() );
+		assertEquals( 0, retry.getFailures() );
+	}
+
+	@Test
+	public void testRetryRejected()
+	{
+		TaskRetry retry = new TaskRetry(3, 1, 10, TimeUnit.MILLISECONDS);
+
+		// Accepts the first attempt and rejects the retry without canceling.
+		final AtomicInteger offers = new AtomicInteger();
+		TaskEventHandler handler = new TaskEventHandler() {
+			public boolean addEvent(Task<?> task) {
+				return (offers.incrementAndGet() == 1 && executor.addEvent(task));
+			}
+		};
+
+		FlakyTask task = new FlakyTask(10, new IllegalStateException());
+		task.setHandler(handler);
+		task.setRetry(retry);
+
+		assertTrue( task.async() );
+		assertTrue( task.join(2000) );
+
+		assertTrue( task.isCanceled() );
+		assertTrue( task.getError() instanceof TaskRejectedException );
+		assertEquals( 1, task.getAttempts() );
+	}
+
+	@Test
+	public void testExhausted()
+	{
+		TaskRetry retry = new TaskRetry(3, 1, 10, TimeUnit.MILLISECONDS);
+
+		FlakyTask task = new FlakyTask(10, new IllegalStateException());
+		task.setHandler(executor);
+		task.setRetry(retry);
+
+		assertNull( task.sync() );
+		assertTrue( task.isError() );
+		assertEquals( 3, task.getAttempts() );
+		assertEquals( 2, retry.getRetries() );
+		assertEquals( 1, retry.getFailures() );
+	}
+
+	@Test
+	public void testNotRetryable()
+	{
+		TaskRetry retry = new TaskRetry(3, 1, 10, TimeUnit.MILLISECONDS);
+		retry.setRetryable(IOException.class);
+
+		FlakyTask task = new FlakyTask(10, new IllegalArgumentException());
+		task.setHandler(executor);
+		task.setRetry(retry);
+
+		CountingListener listener = new CountingListener();
+		task.async(listener);
+		assertTrue( task.join(1000) );
+		sleep(50);
+
+		assertTrue( task.isError() );
+		assertEquals( 1, task.getAttempts() );
+		assertEquals( 1, listener.errors.get() );
+		assertEquals( 1, listener.finishes.get() );
+		assertEquals( 0, retry.getRetries() );
+	}
+
+	@Test
+	public void testNoHandler()
+	{
+		TaskRetry retry = new TaskRetry(3, 1, 10, TimeUnit.MILLISECONDS);
+
+		// Executes in this thread, a retry would execute in the timer's thread.
+		FlakyTask task = new FlakyTask(1, new IllegalStateException());
+		task.setRetry(retry);
+
+		assertNull( task.sync() );
+		assertTrue( task.isError() );
+		assertEquals( 1, task.getAttempts() );
+		assertEquals( 0, retry.getRetries() );
+		assertEquals( 1, retry.getFailures() );
+	}
+
+	@Test
+	public void testCancelDuringDelay()
+	{
+		TaskRetry retry = new TaskRetry(3, 200, 200, TimeUnit.MILLISECONDS);
+		retry.setJitter(0);
+
+		FlakyTask task = new FlakyTask(10, new IllegalStateException());
+		task.setHandler(executor);
+		task.setRetry(retry);
+		task.async();
+
+		sleep(50);
+		assertTrue( task.isWaiting() );
+		assertTrue( task.cancel() );
+
+		sleep(300);
+		assertTrue( task.isCanceled() );
+		assertEquals( 1, task.getAttempts() );
+	}
+
+	@Test
+	public void testDelay()
+	{
+		TaskRetry retry = new TaskRetry(10, 10, 50, TimeUnit.MILLISECONDS);
+		retry.setJitter(0);
+
+		assertEquals( TimeUnit.MILLISECONDS.toNanos(10), retry.getDelay(1) );
+		assertEquals( TimeUnit.MILLISECONDS.toNanos(20), retry.getDelay(2) );
+		assertEquals( TimeUnit.MILLISECONDS.toNanos(40), retry.getDelay(3) );
+		assertEquals( TimeUnit.MILLISECONDS.toNanos(50), retry.getDelay(4) );
+
+		retry.setJitter(0.5);
+		for (int i = 0; i < 100; i++) {
+			long delay = retry.getDelay(2);
+			assertTrue( delay >= TimeUnit.MILLISECONDS.toNanos(10) );
+			assertTrue( delay <= TimeUnit.MILLISECONDS.toNanos(20) );
+		}
+	}
+
+}
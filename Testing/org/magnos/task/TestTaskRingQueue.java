@@ -0,0 +1,161 @@
+/* 
+ * NOTICE OF LICENSE
+ * 
+ * This source file is subject to the Open Software License (OSL 3.0) that is 
+ * bundled with this package in the file LICENSE.txt. It is also available 
+ * through the world-wide-web at http://opensource.org/licenses/osl-3.0.php
+ * If you did not receive a copy of the license and are unable to obtain it 
+ * through the world-wide-web, please send an email to pdiffenderfer@gmail.com 
+ * so we can send you a copy immediately. If you use any of this software please
+ * notify me via my website or email, your feedback is much appreciated. 
+ * 
+ * @copyright   Copyright (c) 2011 Magnos Software (http://www.magnos.org)
+ * @license     http://opensource.org/licenses/osl-3.0.php
+ * 				Open Software License (OSL 3.0)
+ */
+
+package org.magnos.task;
+
+import static org.junit.Assert.*;
+
+import java.math.BigInteger;
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import org.magnos.task.TaskRingQueue.WaitStrategy;
+import org.magnos.task.TestTask.PowerTask;
+import org.magnos.test.BaseTest;
+
+
+public class TestTaskRingQueue extends BaseTest
+{
+
+	@Test
+	public void testBounded()
+	{
+		TaskRingQueue queue = new TaskRingQueue(3);
+		queue.setBlocking(false);
+
+		assertEquals( 4, queue.getCapacity() );
+
+		PowerTask[] tasks = new PowerTask[5];
+		for (int i = 0; i < tasks.length; i++) {
+			tasks[i] = new PowerTask(i, 1);
+		}
+
+		assertTrue( queue.offer(tasks[0]) );
+		assertTrue( queue.offer(tasks[1]) );
+		assertTrue( queue.offer(tasks[2]) );
+		assertTrue( queue.offer(tasks[3]) );
+		assertFalse( queue.offer(tasks[4]) );
+		assertEquals( 4, queue.size() );
+
+		assertSame( tasks[0], queue.peek() );
+		assertSame( tasks[0], queue.poll() );
+		assertTrue( queue.offer(tasks[4]) );
+
+		assertSame( tasks[1], queue.poll() );
+		assertSame( tasks[2], queue.poll() );
+		assertSame( tasks[3], queue.poll() );
+		assertSame( tasks[4], queue.poll() );
+		assertNull( queue.poll() );
+		assertTrue( queue.isEmpty() );
+	}
+
+	@Test
+	public void testRemove()
+	{
+		TaskRingQueue queue = new TaskRingQueue(4);
+		queue.setBlocking(false);
+
+		PowerTask task = new PowerTask(2, 1);
+		queue.offer(task);
+
+		Iterator<Task<?>> iterator = queue.iterator();
+		assertSame( task, iterator.next() );
+		try {
+			iterator.remove();
+			fail();
+		}
+		catch (UnsupportedOperationException e) {
+		}
+		try {
+			queue.remove(task);
+			fail();
+		}
+		catch (UnsupportedOperationException e) {
+		}
+
+		assertSame( task, queue.poll() );
+	}
+
+	@Test
+	public void testStrategies()
+	{
+		for (WaitStrategy strategy : WaitStrategy.values())
+		{
+			TaskService executor = new TaskService(new TaskRingQueue(64, strategy));
+			executor.start();
+
+			final AtomicInteger finished = new AtomicInteger();
+			// The queue is bounded, add tasks in batches that fit.
+			for (int batch = 0; batch < 25; batch++)
+			{
+				PowerTask[] tasks = new PowerTask[40];
+				for (int i = 0; i < tasks.length; i++) {
+					tasks[i] = new PowerTask(2, 8);
+					tasks[i].setHandler(executor);
+					tasks[i].async(new TaskListenerAdapter<BigInteger>() {
+						public void onTaskSuccess(Task<BigInteger> task, BigInteger result) {
+							finished.incrementAndGet();
+						}
+					});
+				}
+				for (PowerTask task : tasks) {
+					assertTrue( task.join(5000) );
+				}
+			}
+
+			executor.stop();
+
+			assertEquals( strategy.name(), 1000, finished.get() );
+		}
+	}
+
+	@Test
+	public void testConcurrent() throws InterruptedException
+	{
+		final TaskRingQueue queue = new TaskRingQueue(128, WaitStrategy.Yield);
+		final int PRODUCERS = 4;
+		final int TASKS = 20000;
+
+		Thread[] producers = new Thread[PRODUCERS];
+		for (int p = 0; p < PRODUCERS; p++) {
+			producers[p] = new Thread() {
+				public void run() {
+					for (int i = 0; i < TASKS; i++) {
+						PowerTask task = new PowerTask(i, 1);
+						while (!queue.offer(task)) {
+							Thread.yield();
+						}
+					}
+				}
+			};
+			producers[p].start();
+		}
+
+		long sum = 0;
+		for (int i = 0; i < PRODUCERS * TASKS; i++) {
+			sum += ((PowerTask)queue.poll()).base;
+		}
+
+		for (Thread producer : producers) {
+			producer.join();
+		}
+
+		assertEquals( (long)PRODUCERS * TASKS * (TASKS - 1) / 2, sum );
+		assertTrue( queue.isEmpty() );
+	}
+
+}
@@ -0,0 +1,172 @@
+/* 
+ * NOTICE OF LICENSE
+ * 
+ * This source file is subject to the Open Software License (OSL 3.0) that is 
+ * bundled with this package in the file LICENSE.txt. It is also available 
+ * through the world-wide-web at http://opensource.org/licenses/osl-3.0.php
+ * If you did not receive a copy of the license and are unable to obtain it 
+ * through the world-wide-web, please send an email to pdiffenderfer@gmail.com 
+ * so we can send you a copy immediately. If you use any of this software please
+ * notify me via my website or email, your feedback is much appreciated. 
+ * 
+ * @copyright   Copyright (c) 2011 Magnos Software (http://www.magnos.org)
+ * @license     http://opensource.org/licenses/osl-3.0.php
+ * 				Open Software License (OSL 3.0)
+ */
+
+package org.magnos.task;
+
+import static org.junit.Assert.*;
+
+import java.math.BigInteger;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.magnos.task.TestTask.PowerTask;
+import org.magnos.test.BaseTest;
+
+
+public class TestTaskScope extends BaseTest
+{
+
+	public static class SpinTask extends Task<Boolean> {
+		public final AtomicBoolean stopped = new AtomicBoolean();
+		protected Boolean execute() {
+			while (!isCancelRequested()) {
+				sleep(5);
+			}
+			stopped.set(true);
+			return false;
+		}
+	}
+	
+	public static class FailTask extends Task<Boolean> {
+		public long wait;
+		public FailTask(long wait) {
+			this.wait = wait;
+		}
+		protected Boolean execute() {
+			sleep(wait);
+			throw new IllegalStateException("failed");
+		}
+	}
+	
+	private TaskServicePool pool;
+	
+	@Before
+	public void testBefore() {
+		pool = new TaskServicePool();
+		pool.setMinCapacity(4);
+		pool.setMaxCapacity(4);
+		pool.start();
+	}
+	
+	@After
+	public void testAfter() {
+		pool.stop();
+	}
+	
+	@Test
+	public void testSuccess()
+	{
+		TaskScope scope = new TaskScope();
+		for (int i = 1; i <= 4; i++) {
+			PowerTask task = new PowerTask(2, i);
+			task.setHandler(pool);
+			scope.add(task);
+		}
+		
+		List<?> results = scope.sync();
+		
+		assertTrue( scope.isSuccess() );
+		assertEquals( BigInteger.valueOf(2), results.get(0) );
+		assertEquals( BigInteger.valueOf(16), results.get(3) );
+	}
+	
+	@Test
+	public void testFailFast()
+	{
+		SpinTask spinner = new SpinTask();
+		spinner.setHandler(pool);
+		
+		FailTask failer = new FailTask(50);
+		failer.setHandler(pool);
+		
+		// Handled by a service that never runs.
+		PowerTask queued = new PowerTask(2, 8);
+		queued.setHandler(new TaskService());
+		
+		TaskScope scope = new TaskScope();
+		scope.add(spinner);
+		scope.add(failer);
+		scope.add(queued);
+		scope.setTimeout(5000);
+		
+		assertNull( scope.sync() );
+		
+		assertTrue( scope.isError() );
+		assertEquals( IllegalStateException.class, scope.getError().getClass() );
+		assertTrue( spinner.stopped.get() );
+		assertTrue( spinner.isFinished() );
+		assertTrue( queued.isCanceled() );
+		assertNull( spinner.getScope() );
+	}
+	
+	@Test
+	public void testNested()
+	{
+		SpinTask inner1 = new SpinTask();
+		inner1.setHandler(pool);
+		SpinTask inner2 = new SpinTask();
+		inner2.setHandler(pool);
+		
+		TaskScope child = new TaskScope();
+		child.setHandler(pool);
+		child.add(inner1);
+		child.add(inner2);
+		
+		FailTask failer = new FailTask(50);
+		failer.setHandler(pool);
+		
+		TaskScope parent = new TaskScope();
+		parent.add(child);
+		parent.add(failer);
+		parent.setTimeout(5000);
+		
+		assertNull( parent.sync() );
+		
+		// The error goes up, the cancellation goes down.
+		assertEquals( IllegalStateException.class, parent.getError().getClass() );
+		assertTrue( child.isError() );
+		assertEquals( CancellationException.class, child.getError().getClass() );
+		assertTrue( inner1.stopped.get() );
+		assertTrue( inner2.stopped.get() );
+	}
+	
+	@Test
+	public void testRequestCancel()
+	{
+		SpinTask spinner = new SpinTask();
+		spinner.setHandler(pool);
+		
+		final TaskScope scope = new TaskScope();
+		scope.add(spinner);
+		scope.setHandler(pool);
+		
+		assertTrue( scope.async() );
+		sleep(50);
+		assertFalse( spinner.isFinished() );
+		
+		scope.requestCancel();
+		
+		assertTrue( scope.join(5000) );
+		assertTrue( scope.isError() );
+		assertEquals( CancellationException.class, scope.getError().getClass() );
+		assertTrue( spinner.stopped.get() );
+	}
+	
+}
@@ -0,0 +1,146 @@
+/* 
+ * NOTICE OF LICENSE
+ * 
+ * This source file is subject to the Open Software License (OSL 3.0) that is 
+ * bundled with this package in the file LICENSE.txt. It is also available 
+ * through the world-wide-web at http://opensource.org/licenses/osl-3.0.php
+ * If you did not receive a copy of the license and are unable to obtain it 
+ * through the world-wide-web, please send an email to pdiffenderfer@gmail.com 
+ * so we can send you a copy immediately. If you use any of this software please
+ * notify me via my website or email, your feedback is much appreciated. 
+ * 
+ * @copyright   Copyright (c) 2011 Magnos Software (http://www.magnos.org)
+ * @license     http://opensource.org/licenses/osl-3.0.php
+ * 				Open Software License (OSL 3.0)
+ */
+
+package org.magnos.task;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.magnos.test.BaseTest;
+
+
+public class TestTaskSerialHandler extends BaseTest
+{
+
+	public static class AppendTask extends Task<Integer> {
+		public final Integer key;
+		public final int value;
+		public final List<Integer> list;
+		public AppendTask(Integer key, int value, List<Integer> list) {
+			this.key = key;
+			this.value = value;
+			this.list = list;
+		}
+		protected Integer execute() {
+			// Not synchronized, tasks with the same key never run together.
+			list.add(value);
+			return value;
+		}
+	}
+
+	public static final TaskKeyer KEYER = new TaskKeyer() {
+		public Object getKey(Task<?> task) {
+			return ((AppendTask)task).key;
+		}
+	};
+
+	private TaskServicePool pool;
+
+	@Before
+	public void testBefore() {
+		pool = new TaskServicePool();
+		pool.setCapacity(4);
+		pool.start();
+	}
+
+	@After
+	public void testAfter() {
+		pool.stop();
+	}
+
+	@Test
+	public void testOrder()
+	{
+		TaskSerialHandler serial = new TaskSerialHandler(pool, KEYER);
+		serial.setThroughput(4);
+
+		final int KEYS = 10;
+		final int TASKS = 500;
+
+		List<List<Integer>> lists = new ArrayList<List<Integer>>();
+		List<AppendTask> tasks = new ArrayList<AppendTask>();
+
+		for (int k = 0; k < KEYS; k++) {
+			lists.add(new ArrayList<Integer>());
+		}
+		for (int i = 0; i < TASKS; i++) {
+			for (int k = 0; k < KEYS; k++) {
+				AppendTask task = new AppendTask(k, i, lists.get(k));
+				task.setHandler(serial);
+				task.async();
+				tasks.add(task);
+			}
+		}
+
+		for (AppendTask task : tasks) {
+			assertTrue( task.join(5000) );
+			assertTrue( task.isSuccess() );
+		}
+
+		for (List<Integer> list : lists) {
+			assertEquals( TASKS, list.size() );
+			for (int i = 0; i < TASKS; i++) {
+				assertEquals( i, list.get(i).intValue() );
+			}
+		}
+
+		sleep(100);
+
+		assertEquals( 0, serial.getKeyCount() );
+	}
+
+	@Test
+	public void testThrowingTask()
+	{
+		// Runs tasks inline, ignoring what they throw.
+		TaskEventHandler inline = new TaskEventHandler() {
+			public boolean addEvent(Task<?> event) {
+				try {
+					event.run();
+				} catch (RuntimeException e) {
+				}
+				return true;
+			}
+		};
+		TaskSerialHandler serial = new TaskSerialHandler(inline, KEYER);
+
+		List<Integer> list = new ArrayList<Integer>();
+
+		AppendTask first = new AppendTask(1, 0, list);
+		first.setHandler(serial);
+		first.async(new TaskListenerAdapter<Integer>() {
+			public void onTaskFinish(Task<Integer> source) {
+				throw new RuntimeException("listener failed");
+			}
+		});
+
+		assertTrue( first.isSuccess() );
+		assertEquals( 0, serial.getKeyCount() );
+
+		AppendTask second = new AppendTask(1, 1, list);
+		second.setHandler(serial);
+		second.async();
+
+		assertTrue( second.isSuccess() );
+		assertEquals( 2, list.size() );
+	}
+
+}
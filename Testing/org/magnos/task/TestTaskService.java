@@ -0,0 +1,205 @@
+/* 
+ * NOTICE OF LICENSE
+ * 
+ * This source file is subject to the Open Software License (OSL 3.0) that is 
+ * bundled with this package in the file LICENSE.txt. It is also available 
+ * through the world-wide-web at http://opensource.org/licenses/osl-3.0.php
+ * If you did not receive a copy of the license and are unable to obtain it 
+ * through the world-wide-web, please send an email to pdiffenderfer@gmail.com 
+ * so we can send you a copy immediately. If you use any of this software please
+ * notify me via my website or email, your feedback is much appreciated. 
+ * 
+ * @copyright   Copyright (c) 2011 Magnos Software (http://www.magnos.org)
+ * @license     http://opensource.org/licenses/osl-3.0.php
+ * 				Open Software License (OSL 3.0)
+ */
+
+package org.magnos.task;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.magnos.task.TestTask.PowerTask;
+import org.magnos.test.BaseTest;
+
+
+public class TestTaskService extends BaseTest
+{
+
+	/**
+	 * A task which spins for at least the given number of nanoseconds.
+	 */
+	public static class CostTask extends Task<Long> {
+		public final long nanos;
+		public CostTask(long nanos) {
+			this.nanos = nanos;
+		}
+		protected Long execute() {
+			long end = System.nanoTime() + nanos;
+			while (System.nanoTime() < end) {
+				Thread.onSpinWait();
+			}
+			return nanos;
+		}
+	}
+
+	@Test
+	public void testProcessAll()
+	{
+		TaskService service = new TaskService(false);
+		
+		PowerTask[] tasks = new PowerTask[10];
+		for (int i = 0; i < tasks.length; i++) {
+			tasks[i] = new PowerTask(2, i + 1);
+			tasks[i].setHandler(service);
+			assertTrue( tasks[i].async() );
+		}
+		
+		assertEquals( 0, service.process(1, TimeUnit.SECONDS) );
+		
+		for (PowerTask task : tasks) {
+			assertTrue( task.isSuccess() );
+		}
+		assertTrue( service.getCost(PowerTask.class) >= 0 );
+		assertEquals( -1, service.getCost(CostTask.class) );
+	}
+	
+	@Test
+	public void testBudget()
+	{
+		TaskService service = new TaskService(false);
+		
+		final long cost = TimeUnit.MILLISECONDS.toNanos(5);
+		final long budget = TimeUnit.MILLISECONDS.toNanos(2);
+		
+		// The cost of a class is learned once one of its tasks is processed.
+		CostTask measured = new CostTask(cost);
+		measured.setHandler(service);
+		measured.async();
+		assertEquals( 0, service.process(1, TimeUnit.SECONDS) );
+		assertTrue( service.getCost(CostTask.class) >= cost );
+		
+		PowerTask cheap = new PowerTask(2, 10);
+		cheap.setHandler(service);
+		cheap.async();
+		CostTask expensive = new CostTask(cost);
+		expensive.setHandler(service);
+		expensive.async();
+		
+		// Its average cost doesn't fit in what's left of the budget, so it's 
+		// left queued.
+		assertEquals( 1, service.process(budget, TimeUnit.NANOSECONDS) );
+		assertTrue( cheap.isSuccess() );
+		assertTrue( expensive.isWaiting() );
+		
+		// The first task of a call always runs.
+		assertEquals( 0, service.process(budget, TimeUnit.NANOSECONDS) );
+		assertTrue( expensive.isSuccess() );
+	}
+	
+	@Test
+	public void testDeferredRunsFirst()
+	{
+		TaskService service = new TaskService(false);
+		
+		final long cost = TimeUnit.MILLISECONDS.toNanos(5);
+		
+		CostTask measured = new CostTask(cost);
+		measured.setHandler(service);
+		measured.async();
+		assertEquals( 0, service.process(1, TimeUnit.SECONDS) );
+		
+		PowerTask cheap = new PowerTask(2, 10);
+		cheap.setHandler(service);
+		cheap.async();
+		CostTask expensive = new CostTask(cost);
+		expensive.setHandler(service);
+		expensive.async();
+		PowerTask later = new PowerTask(2, 10);
+		later.setHandler(service);
+		later.async();
+		
+		// The expensive task is held, it still counts as left to run.
+		assertEquals( 2, service.process(2, TimeUnit.MILLISECONDS) );
+		assertTrue( cheap.isSuccess() );
+		assertTrue( expensive.isWaiting() );
+		assertTrue( later.isWaiting() );
+		
+		// It runs ahead of the task queued after it.
+		assertEquals( 1, service.process(2, TimeUnit.MILLISECONDS) );
+		assertTrue( expensive.isSuccess() );
+		assertTrue( later.isWaiting() );
+		
+		// A held task is run once the service is started.
+		assertEquals( 0, service.process(1, TimeUnit.SECONDS) );
+		CostTask held = new CostTask(cost);
+		held.setHandler(service);
+		held.async();
+		PowerTask queued = new PowerTask(2, 10);
+		queued.setHandler(service);
+		queued.async();
+		assertEquals( 1, service.process(0, TimeUnit.NANOSECONDS) );
+		assertTrue( held.isSuccess() );
+		assertTrue( queued.isWaiting() );
+		
+		service.start();
+		assertTrue( queued.join(1000) );
+		assertTrue( queued.isSuccess() );
+		service.stop();
+	}
+	
+	@Test
+	public void testFirstAlwaysRuns()
+	{
+		TaskService service = new TaskService(false);
+		
+		for (int i = 0; i < 3; i++) {
+			CostTask task = new CostTask(TimeUnit.MILLISECONDS.toNanos(3));
+			task.setHandler(service);
+			task.async();
+		}
+		
+		// Each task costs more than the budget, one runs each call.
+		assertEquals( 2, service.process(1, TimeUnit.MILLISECONDS) );
+		assertEquals( 1, service.process(1, TimeUnit.MILLISECONDS) );
+		assertEquals( 0, service.process(1, TimeUnit.MILLISECONDS) );
+		assertEquals( 0, service.process(1, TimeUnit.MILLISECONDS) );
+	}
+	
+	@Test
+	public void testNested()
+	{
+		final TaskService service = new TaskService(false);
+		
+		// The parent waits on a child queued behind it, which runs inline.
+		Task<Long> parent = new Task<Long>() {
+			protected Long execute() {
+				CostTask child = new CostTask(1000);
+				child.setHandler(service);
+				return child.sync() + 1;
+			}
+		};
+		parent.setHandler(service);
+		parent.setTimeout(1000);
+		parent.async();
+		
+		assertEquals( 0, service.process(1, TimeUnit.SECONDS) );
+		assertEquals( 1001L, parent.getResult().longValue() );
+	}
+	
+	@Test(expected = IllegalStateException.class)
+	public void testStarted()
+	{
+		TaskService service = new TaskService();
+		service.start();
+		try {
+			service.process(1, TimeUnit.MILLISECONDS);
+		}
+		finally {
+			service.stop();
+		}
+	}
+	
+}
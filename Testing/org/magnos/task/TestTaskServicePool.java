@@ -0,0 +1,111 @@
+/* 
+ * NOTICE OF LICENSE
+ * 
+ * This source file is subject to the Open Software License (OSL 3.0) that is 
+ * bundled with this package in the file LICENSE.txt. It is also available 
+ * through the world-wide-web at http://opensource.org/licenses/osl-3.0.php
+ * If you did not receive a copy of the license and are unable to obtain it 
+ * through the world-wide-web, please send an email to pdiffenderfer@gmail.com 
+ * so we can send you a copy immediately. If you use any of this software please
+ * notify me via my website or email, your feedback is much appreciated. 
+ * 
+ * @copyright   Copyright (c) 2011 Magnos Software (http://www.magnos.org)
+ * @license     http://opensource.org/licenses/osl-3.0.php
+ * 				Open Software License (OSL 3.0)
+ */
+
+package org.magnos.task;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.magnos.task.TestTask.WaitTask;
+import org.magnos.test.BaseTest;
+
+
+public class TestTaskServicePool extends BaseTest
+{
+
+	private TaskServicePool pool;
+
+	@Before
+	public void testBefore() {
+		pool = new TaskServicePool();
+		pool.setMinCapacity(1);
+		pool.setMaxCapacity(4);
+		pool.setTargetWait(2, TimeUnit.MILLISECONDS);
+		pool.setGrowInterval(20);
+		pool.setAllocateThreshold(200);
+		pool.start();
+	}
+
+	@After
+	public void testAfter() {
+		pool.stop();
+	}
+
+	@Test
+	public void testGrowAndShrink()
+	{
+		assertEquals( 1, pool.getResourceCount() );
+
+		WaitTask[] tasks = new WaitTask[100];
+		for (int i = 0; i < tasks.length; i++) {
+			tasks[i] = new WaitTask(10);
+			tasks[i].setHandler(pool);
+			tasks[i].async();
+		}
+
+		sleep(300);
+
+		assertTrue( pool.getResourceCount() > 1 );
+		assertTrue( pool.getResourceCount() <= 4 );
+
+		for (WaitTask task : tasks) {
+			assertTrue( task.join(5000) );
+			assertTrue( task.isSuccess() );
+		}
+
+		sleep(1500);
+
+		assertEquals( 1, pool.getResourceCount() );
+	}
+
+	@Test
+	public void testShrinkKeepsBusy()
+	{
+		// Only resize when asked to.
+		pool.setAllocateThreshold(Long.MAX_VALUE);
+		pool.setTargetWait(1, TimeUnit.HOURS);
+		pool.allocate(2);
+		assertEquals( 3, pool.getResourceCount() );
+
+		final TaskService[] busy = new TaskService[1];
+		WaitTask task = new WaitTask(300) {
+			protected Boolean execute() {
+				busy[0] = TaskService.getCurrent();
+				return super.execute();
+			}
+		};
+		task.setHandler(pool);
+		task.async();
+
+		sleep(50);
+		assertNotNull( busy[0] );
+
+		// The queue is empty, but the busy service is not freed.
+		assertEquals( 2, pool.deallocate(2) );
+		assertEquals( 1, pool.getResourceCount() );
+
+		assertTrue( task.join(1000) );
+		assertTrue( task.isSuccess() );
+
+		sleep(50);
+		assertTrue( busy[0].isRunning() );
+	}
+
+}
@@ -19,7 +19,10 @@ package org.magnos.task;
 import static org.junit.Assert.*;
 
 import java.math.BigInteger;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Vector;
+import java.util.concurrent.TimeUnit;
 
 import org.junit.After;
 import org.junit.Before;
@@ -87,4 +90,148 @@ public class TestTaskSet extends BaseTest
 		assertEquals( 0, set.size() );
 	}
 	
+	@Test
+	public void testChunked()
+	{
+		TaskServicePool pool = new TaskServicePool();
+		pool.setMinCapacity(4);
+		pool.setMaxCapacity(4);
+		pool.start();
+		
+		TaskSet set = new TaskSet();
+		set.setClean(false);
+		set.setChunking(pool, 4, 100, TimeUnit.MICROSECONDS);
+		
+		PowerTask[] tasks = new PowerTask[100000];
+		for (int i = 0; i < tasks.length; i++) {
+			tasks[i] = new PowerTask(i % 7, 2);
+			set.add(tasks[i]);
+		}
+		Task<Boolean> failing = new TestTask.ErrorTask();
+		set.add(failing);
+		
+		List<?> results = set.sync();
+		
+		assertTrue( set.isSuccess() );
+		assertEquals( tasks.length + 1, results.size() );
+		for (int i = 0; i < tasks.length; i++) {
+			assertTrue( tasks[i].isSuccess() );
+			assertEquals( BigInteger.valueOf((i % 7) * (i % 7)), tasks[i].getResult() );
+		}
+		assertTrue( failing.isError() );
+		
+		pool.stop();
+	}
+	
+	@Test
+	public void testChunkedNested()
+	{
+		// The set runs on the only worker its runners are given to.
+		TaskSet set = new TaskSet();
+		set.setHandler(executor);
+		set.setChunking(executor, 2, 50, TimeUnit.MICROSECONDS);
+		set.setTimeout(5000);
+		
+		for (int i = 0; i < 1000; i++) {
+			set.add(new PowerTask(3, 3));
+		}
+		
+		assertEquals( 1000, set.sync().size() );
+		assertTrue( set.isSuccess() );
+	}
+	
+	@Test
+	public void testChunkedThrowingListener()
+	{
+		final List<Throwable> reported = new Vector<Throwable>();
+		
+		TaskServicePool pool = new TaskServicePool();
+		pool.setMinCapacity(2);
+		pool.setMaxCapacity(2);
+		pool.setErrorListener(new TaskErrorListener() {
+			public void onError(Object source, Task<?> task, Throwable error) {
+				reported.add(error);
+			}
+		});
+		pool.start();
+		
+		TaskSet set = new TaskSet();
+		set.setClean(false);
+		set.setChunking(pool, 2, 100, TimeUnit.MICROSECONDS);
+		set.setTimeout(5000);
+		
+		// Every task throws from its listener, on the runners and on the set.
+		List<Task<BigInteger>> tasks = new ArrayList<Task<BigInteger>>();
+		for (int i = 0; i < 1000; i++) {
+			Task<BigInteger> task = new PowerTask(3, 3) {
+				public void onTaskFinish(Task<BigInteger> source) {
+					throw new IllegalStateException();
+				}
+			};
+			tasks.add(task);
+			set.add(task);
+		}
+		
+		set.sync();
+		
+		assertTrue( set.isError() );
+		assertTrue( set.getError() instanceof IllegalStateException );
+		for (Task<BigInteger> task : tasks) {
+			assertTrue( task.isSuccess() );
+		}
+		
+		// A task given to the pool directly fails its listener on a worker.
+		Task<BigInteger> throwing = new PowerTask(3, 3) {
+			public void onTaskFinish(Task<BigInteger> source) {
+				throw new IllegalStateException();
+			}
+		};
+		throwing.setHandler(pool);
+		throwing.async();
+		assertTrue( throwing.join(1000) );
+		
+		// The workers survived, every error was reported to the listener.
+		for (int i = 0; i < 10; i++) {
+			PowerTask followUp = new PowerTask(2, 10);
+			followUp.setHandler(pool);
+			followUp.setTimeout(1000);
+			assertEquals( BigInteger.valueOf(1024), followUp.sync() );
+		}
+		sleep(100);
+		
+		assertFalse( reported.isEmpty() );
+		for (Throwable error : reported) {
+			assertTrue( error instanceof IllegalStateException );
+		}
+		
+		pool.stop();
+	}
+	
+	@Test
+	public void testChunkedAsync()
+	{
+		TaskSet set = new TaskSet();
+		set.setClean(false);
+		set.setChunking(executor, 1, 100, TimeUnit.MICROSECONDS);
+		set.setTimeout(5000);
+		
+		TaskAsync<String> task = new TaskAsync<String>() {
+			protected void start() {
+				new Thread() {
+					public void run() {
+						BaseTest.sleep(100);
+						succeed("done");
+					}
+				}.start();
+			}
+		};
+		set.add(task);
+		
+		List<?> results = set.sync();
+		
+		assertTrue( set.isSuccess() );
+		assertTrue( task.isSuccess() );
+		assertEquals( "done", results.get(0) );
+	}
+	
 }
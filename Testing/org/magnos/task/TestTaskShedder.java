@@ -0,0 +1,101 @@
+/* 
+ * NOTICE OF LICENSE
+ * 
+ * This source file is subject to the Open Software License (OSL 3.0) that is 
+ * bundled with this package in the file LICENSE.txt. It is also available 
+ * through the world-wide-web at http://opensource.org/licenses/osl-3.0.php
+ * If you did not receive a copy of the license and are unable to obtain it 
+ * through the world-wide-web, please send an email to pdiffenderfer@gmail.com 
+ * so we can send you a copy immediately. If you use any of this software please
+ * notify me via my website or email, your feedback is much appreciated. 
+ * 
+ * @copyright   Copyright (c) 2011 Magnos Software (http://www.magnos.org)
+ * @license     http://opensource.org/licenses/osl-3.0.php
+ * 				Open Software License (OSL 3.0)
+ */
+
+package org.magnos.task;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import org.magnos.task.TestTask.WaitTask;
+import org.magnos.test.BaseTest;
+
+
+public class TestTaskShedder extends BaseTest
+{
+
+	@Test
+	public void testShedding()
+	{
+		TaskShedder shedder = new TaskShedder(5, 50, TimeUnit.MILLISECONDS);
+
+		TaskService service = new TaskService(true);
+		service.setShedder(shedder);
+		service.start();
+
+		final AtomicInteger rejected = new AtomicInteger();
+		TaskListener<Boolean> listener = new TaskListenerAdapter<Boolean>() {
+			public void onTaskCancel(Task<Boolean> source) {
+				if (source.getError() instanceof TaskRejectedException) {
+					rejected.incrementAndGet();
+				}
+			}
+		};
+
+		// Each task takes 5ms and one arrives every 2ms, a standing queue builds.
+		WaitTask[] tasks = new WaitTask[200];
+		for (int i = 0; i < tasks.length; i++) {
+			tasks[i] = new WaitTask(5);
+			tasks[i].setHandler(service);
+			tasks[i].setPriority(i % 10 == 0 ? 1 : 0);
+			tasks[i].async(listener);
+			sleep(2);
+		}
+
+		for (WaitTask task : tasks) {
+			assertTrue( task.join(5000) );
+		}
+
+		assertTrue( shedder.getShed() > 0 );
+		assertEquals( shedder.getShed(), rejected.get() );
+
+		// Important tasks are never shed.
+		for (int i = 0; i < tasks.length; i += 10) {
+			assertTrue( tasks[i].isSuccess() );
+		}
+
+		// Once the queue drains shedding stops.
+		WaitTask after = new WaitTask(1);
+		after.setHandler(service);
+		assertTrue( after.sync() );
+		assertFalse( shedder.isShedding() );
+
+		service.stop();
+	}
+
+	@Test
+	public void testNoBacklog()
+	{
+		TaskShedder shedder = new TaskShedder(5, 50, TimeUnit.MILLISECONDS);
+
+		TaskService service = new TaskService(true);
+		service.setShedder(shedder);
+		service.start();
+
+		for (int i = 0; i < 50; i++) {
+			WaitTask task = new WaitTask(1);
+			task.setHandler(service);
+			assertTrue( task.sync() );
+		}
+
+		assertEquals( 0, shedder.getShed() );
+
+		service.stop();
+	}
+
+}
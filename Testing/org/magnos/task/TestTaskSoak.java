@@ -0,0 +1,102 @@
+/* 
+ * NOTICE OF LICENSE
+ * 
+ * This source file is subject to the Open Software License (OSL 3.0) that is 
+ * bundled with this package in the file LICENSE.txt. It is also available 
+ * through the world-wide-web at http://opensource.org/licenses/osl-3.0.php
+ * If you did not receive a copy of the license and are unable to obtain it 
+ * through the world-wide-web, please send an email to pdiffenderfer@gmail.com 
+ * so we can send you a copy immediately. If you use any of this software please
+ * notify me via my website or email, your feedback is much appreciated. 
+ * 
+ * @copyright   Copyright (c) 2011 Magnos Software (http://www.magnos.org)
+ * @license     http://opensource.org/licenses/osl-3.0.php
+ * 				Open Software License (OSL 3.0)
+ */
+
+package org.magnos.task;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+import org.magnos.task.TaskSoak.Histogram;
+import org.magnos.test.BaseTest;
+
+
+public class TestTaskSoak extends BaseTest
+{
+
+	@Test
+	public void testHistogram()
+	{
+		Histogram h = new Histogram();
+		for (long i = 1; i <= 100000; i++) {
+			h.record(i * 1000);
+		}
+		
+		assertEquals( 100000, h.getCount() );
+		assertEquals( 100000000L, h.getMax() );
+		assertEquals( 50000000.0, h.getPercentile(0.5), 50000000.0 * 0.02 );
+		assertEquals( 99000000.0, h.getPercentile(0.99), 99000000.0 * 0.02 );
+		assertEquals( 100000000L, h.getPercentile(1.0) );
+	}
+	
+	@Test
+	public void testShortSoak()
+	{
+		Map<String, String> config = new HashMap<String, String>();
+		config.put("rate", "500");
+		config.put("duration", "1.5");
+		config.put("warmup", "0.2");
+		config.put("interval", "0.5");
+		config.put("mean", "100");
+		config.put("workers", "2");
+		
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		TaskSoak soak = new TaskSoak(config);
+		Histogram overall = soak.run(new PrintStream(bytes, true));
+		
+		String[] lines = bytes.toString().trim().split("\n");
+		
+		// The header, a row per interval, and the summary.
+		assertTrue( lines[0].startsWith("elapsed_s,offered,completed") );
+		assertTrue( lines.length >= 4 );
+		assertEquals( lines[0].split(",").length, lines[lines.length - 1].split(",").length );
+		
+		assertTrue( soak.getOffered() > 400 );
+		assertEquals( soak.getOffered(), soak.getCompleted() );
+		assertEquals( soak.getCompleted(), overall.getCount() );
+	}
+	
+	@Test
+	public void testDroppedCharged()
+	{
+		Map<String, String> config = new HashMap<String, String>();
+		config.put("rate", "2000");
+		config.put("duration", "0.5");
+		config.put("warmup", "0");
+		config.put("interval", "0.25");
+		config.put("work", "sleep");
+		config.put("dist", "fixed");
+		config.put("mean", "5000");
+		config.put("mix", "single:1");
+		config.put("workers", "1");
+		config.put("maxInFlight", "2");
+		
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		TaskSoak soak = new TaskSoak(config);
+		Histogram overall = soak.run(new PrintStream(bytes, true));
+		
+		// Dropped arrivals are recorded too, charged the wait for the backlog.
+		assertTrue( soak.getDropped() > 0 );
+		assertEquals( soak.getOffered(), soak.getCompleted() + soak.getDropped() );
+		assertEquals( soak.getOffered(), overall.getCount() );
+		assertTrue( overall.getPercentile(0.5) > 1000000L );
+	}
+	
+}
@@ -0,0 +1,165 @@
+/* 
+ * NOTICE OF LICENSE
+ * 
+ * This source file is subject to the Open Software License (OSL 3.0) that is 
+ * bundled with this package in the file LICENSE.txt. It is also available 
+ * through the world-wide-web at http://opensource.org/licenses/osl-3.0.php
+ * If you did not receive a copy of the license and are unable to obtain it 
+ * through the world-wide-web, please send an email to pdiffenderfer@gmail.com 
+ * so we can send you a copy immediately. If you use any of this software please
+ * notify me via my website or email, your feedback is much appreciated. 
+ * 
+ * @copyright   Copyright (c) 2011 Magnos Software (http://www.magnos.org)
+ * @license     http://opensource.org/licenses/osl-3.0.php
+ * 				Open Software License (OSL 3.0)
+ */
+
+package org.magnos.task;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.magnos.task.TestTask.PowerTask;
+import org.magnos.task.TestTask.WaitTask;
+import org.magnos.test.BaseTest;
+
+
+public class TestTaskWatchdog extends BaseTest
+{
+
+	public static class Recorder implements TaskStallListener {
+		public final List<Task<?>> tasks = Collections.synchronizedList(new ArrayList<Task<?>>());
+		public final List<StackTraceElement[][]> samples = Collections.synchronizedList(new ArrayList<StackTraceElement[][]>());
+		public void onTaskStall(TaskService service, Task<?> task, long runningTime, StackTraceElement[][] traces) {
+			tasks.add(task);
+			samples.add(traces);
+		}
+	}
+	
+	private static boolean contains(StackTraceElement[] trace, Class<?> type) {
+		for (StackTraceElement element : trace) {
+			if (element.getClassName().equals(type.getName())) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	@Test
+	public void testStall()
+	{
+		TaskService service = new TaskService();
+		service.start();
+		
+		Recorder recorder = new Recorder();
+		TaskWatchdog watchdog = new TaskWatchdog(100, 20, TimeUnit.MILLISECONDS, recorder);
+		watchdog.setSamples(3);
+		watchdog.watch(service);
+		watchdog.start();
+		
+		for (int i = 0; i < 20; i++) {
+			PowerTask quick = new PowerTask(2, 10);
+			quick.setHandler(service);
+			quick.sync();
+		}
+		
+		assertEquals( 0, watchdog.getStalls() );
+		
+		WaitTask slow = new WaitTask(400);
+		slow.setHandler(service);
+		slow.sync();
+		
+		watchdog.stop();
+		service.stop();
+		
+		assertEquals( 1, watchdog.getStalls() );
+		assertSame( slow, recorder.tasks.get(0) );
+		
+		StackTraceElement[][] traces = recorder.samples.get(0);
+		assertEquals( 3, traces.length );
+		for (StackTraceElement[] trace : traces) {
+			assertTrue( contains(trace, WaitTask.class) );
+		}
+	}
+	
+	@Test
+	public void testPool()
+	{
+		Recorder recorder = new Recorder();
+		TaskWatchdog watchdog = new TaskWatchdog(50, TimeUnit.MILLISECONDS, recorder);
+		watchdog.start();
+		
+		TaskServicePool pool = new TaskServicePool();
+		pool.setMinCapacity(2);
+		pool.setMaxCapacity(2);
+		pool.setWatchdog(watchdog);
+		pool.start();
+		
+		WaitTask slow1 = new WaitTask(200);
+		slow1.setHandler(pool);
+		WaitTask slow2 = new WaitTask(200);
+		slow2.setHandler(pool);
+		
+		slow1.async();
+		slow2.async();
+		slow1.join();
+		slow2.join();
+		
+		watchdog.stop();
+		pool.stop();
+		
+		assertEquals( 2, watchdog.getStalls() );
+		assertTrue( recorder.tasks.contains(slow1) );
+		assertTrue( recorder.tasks.contains(slow2) );
+		assertEquals( 1, recorder.samples.get(0).length );
+	}
+	
+	@Test
+	public void testFailingListener()
+	{
+		TaskService service = new TaskService();
+		service.start();
+		
+		TaskStallListener failing = new TaskStallListener() {
+			public void onTaskStall(TaskService service, Task<?> task, long runningTime, StackTraceElement[][] traces) {
+				throw new IllegalStateException();
+			}
+		};
+		final List<Throwable> errors = Collections.synchronizedList(new ArrayList<Throwable>());
+		
+		TaskWatchdog watchdog = new TaskWatchdog(50, 10, TimeUnit.MILLISECONDS, failing);
+		watchdog.setErrorListener(new TaskErrorListener() {
+			public void onError(Object source, Task<?> task, Throwable error) {
+				errors.add(error);
+			}
+		});
+		watchdog.watch(service);
+		watchdog.start();
+		
+		// The scans keep going after the listener fails.
+		for (int i = 0; i < 2; i++) {
+			WaitTask slow = new WaitTask(150);
+			slow.setHandler(service);
+			slow.sync();
+		}
+		
+		watchdog.stop();
+		service.stop();
+		
+		assertEquals( 2, watchdog.getStalls() );
+		assertEquals( 2, errors.size() );
+		assertTrue( errors.get(0) instanceof IllegalStateException );
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testNoListener()
+	{
+		new TaskWatchdog(50, TimeUnit.MILLISECONDS, null);
+	}
+	
+}